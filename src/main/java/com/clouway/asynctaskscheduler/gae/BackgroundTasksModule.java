@@ -2,14 +2,19 @@ package com.clouway.asynctaskscheduler.gae;
 
 import com.clouway.asynctaskscheduler.spi.*;
 import com.clouway.asynctaskscheduler.spi.AsyncEventBusBinder.ListenerClazz;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.inject.*;
 import com.google.inject.Module;
+import com.google.inject.multibindings.Multibinder;
 import com.google.inject.servlet.ServletModule;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 
@@ -32,32 +37,321 @@ public class BackgroundTasksModule extends AbstractModule {
     protected void configureServlets() {
       serve(TaskQueueAsyncTaskExecutorServlet.URL).with(TaskQueueAsyncTaskExecutorServlet.class);
       bind(TaskQueueAsyncTaskExecutorServlet.class).in(Singleton.class);
+
+      if (flushEventsAtEndOfRequest()) {
+        filter("/*").through(TaskQueueFlushFilter.class);
+      }
     }
   };
 
   @Override
   protected void configure() {
     install(servletsModule);
+
+    // the listeners are registered in other modules, but the index is built even if there are none of them
+    Multibinder.newSetBinder(binder(), ListenerClazz.class);
+    bind(ListenerIndex.class).asEagerSingleton();
+
     bind(EventTransport.class).to(getEventTransport()).in(Singleton.class);
     bind(HeadersProvider.class).to(getHeadersProvider()).in(Singleton.class);
+    bind(RetryPolicy.class).to(getRetryPolicy()).in(Singleton.class);
+    bind(PayloadStore.class).to(getPayloadStore()).in(Singleton.class);
+    bind(MetricsRecorder.class).to(getMetricsRecorder()).in(Singleton.class);
   }
 
   protected Class<? extends EventTransport> getEventTransport() {
     return GsonEventTransport.class;
   }
 
+  /**
+   * Override to register the transports which read the framed event payloads by the ids which are written in
+   * their header. The configured {@link #getEventTransport()} should be registered, so its payloads could be framed.
+   *
+   * @return the transports by their ids
+   */
+  protected Map<String, Class<? extends EventTransport>> getEventTransportIds() {
+    return ImmutableMap.<String, Class<? extends EventTransport>>of(
+            "gson", GsonEventTransport.class,
+            "binary", BinaryEventTransport.class);
+  }
+
+  /**
+   * Override to change the transport which reads the event payloads without a header, as they were written
+   * before the framing was enabled.
+   *
+   * @return the transport of the payloads without header
+   */
+  protected Class<? extends EventTransport> getUnframedEventTransport() {
+    return getEventTransport();
+  }
+
+  /**
+   * Override to write the id of the transport in a header of the event payloads, so they are read by the same
+   * transport even after {@link #getEventTransport()} is changed. Framed payloads are always read, so framing
+   * should be enabled only after all instances of the application read them.
+   *
+   * @return true if the event payloads should be framed
+   */
+  protected boolean frameEventPayloads() {
+    return false;
+  }
+
   protected Class<? extends HeadersProvider> getHeadersProvider() {
     return DefaultHeadersProvider.class;
   }
 
+  protected Class<? extends RetryPolicy> getRetryPolicy() {
+    return ExponentialBackoffRetryPolicy.class;
+  }
+
+  protected Class<? extends PayloadStore> getPayloadStore() {
+    return DatastorePayloadStore.class;
+  }
+
+  /**
+   * Override to record the metrics of the added and the dispatched tasks, as with the {@link InMemoryMetricsRecorder}
+   * which exposes them over JMX.
+   *
+   * @return the recorder of the metrics
+   */
+  protected Class<? extends MetricsRecorder> getMetricsRecorder() {
+    return NoopMetricsRecorder.class;
+  }
+
+  /**
+   * Override to compress the payloads of the events. Compressed payloads are always decompressed, so the
+   * compression could be enabled or disabled without losing tasks which are already added.
+   *
+   * @return the compression configuration
+   */
+  protected PayloadCompression getPayloadCompression() {
+    return PayloadCompression.disabled();
+  }
+
+  /**
+   * Override to send the serialized events as request body of the tasks instead of as url encoded parameters.
+   * Events are executed in both ways, so it could be changed while tasks are still in the queues.
+   *
+   * @return true if events should be sent as request body
+   */
+  protected boolean sendEventsAsRequestBody() {
+    return false;
+  }
+
+  /**
+   * Override to add the tasks of the given queues as pull tasks, which are leased and executed in batches by the
+   * {@link PullQueueWorker}. The queues must be configured with pull mode in queue.xml.
+   *
+   * @return the names of the pull queues
+   */
+  protected Set<String> getPullQueues() {
+    return Collections.emptySet();
+  }
+
+  /**
+   * Override to send compact ids instead of the class names of the events, tasks, handlers and listeners. The ids
+   * are always accepted, so encoding should be enabled only after all instances of the application know them.
+   *
+   * @return true if the ids should be sent
+   */
+  protected boolean encodeTypeIds() {
+    return false;
+  }
+
+  /**
+   * Override to register classes which are not bound in the injector, as the async tasks which are created
+   * just in time, so they could be sent with their ids.
+   *
+   * @return the additional event, task, handler and listener classes
+   */
+  protected Set<Class<?>> getRegisteredTypes() {
+    return Collections.emptySet();
+  }
+
+  /**
+   * Override to change the maximum number of threads which execute the handler and the listeners of an event
+   * annotated with {@link DispatchInline}.
+   *
+   * @return the maximum number of threads of a single dispatch
+   */
+  protected int getInlineDispatchThreads() {
+    return 10;
+  }
+
+  /**
+   * Override to execute the tasks and the events in the current process by the {@link LocalAsyncTaskScheduler}
+   * instead of adding them in the Task Queue, as for services and tests which don't run on App Engine.
+   *
+   * @return true if tasks should be executed in the current process
+   */
+  protected boolean executeTasksInProcess() {
+    return false;
+  }
+
+  /**
+   * Override to change the number of threads which execute the tasks in the current process when the JVM
+   * does not support virtual threads.
+   *
+   * @return the number of threads
+   */
+  protected int getInProcessThreads() {
+    return 10;
+  }
+
+  /**
+   * Override to limit the number of tasks of a queue which are executed concurrently in the current process.
+   * The queues which are not limited are executed with all of the available threads.
+   *
+   * @return the maximum number of concurrently executed tasks by queue name
+   */
+  protected Map<String, Integer> getQueueConcurrency() {
+    return Collections.emptyMap();
+  }
+
+  /**
+   * Override to buffer the events fired through the {@link AsyncEventBus} during a request and to add all of them
+   * in a single batch per queue when the request completes. Events fired in an active transaction are
+   * still added immediately.
+   *
+   * @return true if events should be flushed at the end of the request
+   */
+  protected boolean flushEventsAtEndOfRequest() {
+    return false;
+  }
+
+  /**
+   * Override to propagate failures of the flush at the end of the request instead of only logging them.
+   *
+   * @return true if failures of the flush should fail the request
+   */
+  protected boolean isFailFastFlush() {
+    return false;
+  }
+
+  @Provides
+  public AsyncEventBus getAsyncEventBus(Provider<AsyncTaskScheduler> asyncTaskScheduler, Provider<PendingTaskAdds> pendingTaskAdds, Provider<RequestTaskBuffer> taskBuffer) {
+    AsyncEventBus eventBus = new TaskQueueEventBus(asyncTaskScheduler, pendingTaskAdds);
+
+    if (flushEventsAtEndOfRequest()) {
+      return new RequestScopedEventBus(eventBus, taskBuffer);
+    }
+    return eventBus;
+  }
+
+  @Provides
+  @Singleton
+  public TaskQueueFlushFilter getTaskQueueFlushFilter(Provider<RequestTaskBuffer> taskBuffer, Provider<PendingTaskAdds> pendingTaskAdds) {
+    return new TaskQueueFlushFilter(taskBuffer, pendingTaskAdds, isFailFastFlush());
+  }
+
+  @Provides
+  @Singleton
+  public QueueRoutingTable getQueueRoutingTable() {
+    return new QueueRoutingTable(getPullQueues());
+  }
+
+  @Provides
+  @Singleton
+  public PayloadCompressor getPayloadCompressor() {
+    return new PayloadCompressor(getPayloadCompression());
+  }
+
   @Provides
-  public AsyncEventBus getAsyncEventBus(Provider<AsyncTaskScheduler> asyncTaskScheduler) {
-    return new TaskQueueEventBus(asyncTaskScheduler);
+  @Singleton
+  public InlineDispatchExecutor getInlineDispatchExecutor() {
+    return new InlineDispatchExecutor(getInlineDispatchThreads());
   }
 
   @Provides
-  public AsyncTaskScheduler getAsyncTaskScheduler(EventTransport eventTransport, Provider<CommonParamBinder> commonParamBinderProvider, TaskApplier taskApplier, HeadersProvider headersProvider) {
-    return new TaskQueueAsyncTaskScheduler(eventTransport, commonParamBinderProvider.get(), taskApplier, headersProvider);
+  @Singleton
+  public LocalTaskExecutor getLocalTaskExecutor() {
+    return new LocalTaskExecutor(LocalTaskExecutor.newExecutorService(getInProcessThreads()), getQueueConcurrency());
+  }
+
+  @Provides
+  @Singleton
+  public EventTransports getEventTransports(Injector injector, EventTransport eventTransport) {
+    Map<Class<? extends EventTransport>, EventTransport> instances = Maps.newHashMap();
+    instances.put(getEventTransport(), eventTransport);
+
+    Map<String, EventTransport> transports = Maps.newHashMap();
+    String transportId = null;
+
+    for (Map.Entry<String, Class<? extends EventTransport>> transport : getEventTransportIds().entrySet()) {
+      transports.put(transport.getKey(), getEventTransport(injector, instances, transport.getValue()));
+
+      if (transport.getValue().equals(getEventTransport())) {
+        transportId = transport.getKey();
+      }
+    }
+
+    if (frameEventPayloads() && transportId == null) {
+      throw new IllegalStateException("Event payloads could not be framed, because " + getEventTransport().getName() + " has no id.");
+    }
+
+    EventTransport unframedTransport = getEventTransport(injector, instances, getUnframedEventTransport());
+    return new EventTransports(eventTransport, frameEventPayloads() ? transportId : null, transports, unframedTransport);
+  }
+
+  private EventTransport getEventTransport(Injector injector, Map<Class<? extends EventTransport>, EventTransport> instances, Class<? extends EventTransport> transportClass) {
+    EventTransport transport = instances.get(transportClass);
+    if (transport == null) {
+      transport = injector.getInstance(transportClass);
+      instances.put(transportClass, transport);
+    }
+    return transport;
+  }
+
+  @Provides
+  @Singleton
+  public TypeRegistry getTypeRegistry(Injector injector, ListenerIndex listenerIndex) {
+    Set<Class<?>> types = Sets.newHashSet(getRegisteredTypes());
+
+    // only the explicit bindings, so the registered classes don't depend on what was created just in time
+    for (Key<?> key : injector.getBindings().keySet()) {
+      Class<?> type = key.getTypeLiteral().getRawType();
+      if (isRegisteredType(type)) {
+        types.add(type);
+      }
+    }
+
+    for (Class<?> eventClass : listenerIndex.getEventClasses()) {
+      types.add(eventClass);
+      types.addAll(listenerIndex.getListenerClasses((Class<? extends AsyncEvent>) eventClass));
+
+      Class<?> handlerClass = getHandlerClass(eventClass);
+      if (handlerClass != null) {
+        types.add(handlerClass);
+      }
+    }
+
+    return new TypeRegistry(types, encodeTypeIds());
+  }
+
+  @Provides
+  public AsyncTaskScheduler getAsyncTaskScheduler(EventTransports eventTransport, Provider<CommonParamBinder> commonParamBinderProvider, TaskApplier taskApplier, HeadersProvider headersProvider, QueueRoutingTable queueRoutingTable, RetryPolicy retryPolicy, PayloadCompressor payloadCompressor, PayloadStore payloadStore, TypeRegistry typeRegistry, MetricsRecorder metricsRecorder, Provider<LocalAsyncTaskScheduler> localTaskScheduler) {
+    if (executeTasksInProcess()) {
+      return localTaskScheduler.get();
+    }
+    return new TaskQueueAsyncTaskScheduler(eventTransport, commonParamBinderProvider.get(), taskApplier, headersProvider, queueRoutingTable, retryPolicy, payloadCompressor, payloadStore, typeRegistry, metricsRecorder, sendEventsAsRequestBody());
+  }
+
+  private boolean isRegisteredType(Class<?> type) {
+    if (type.isInterface()) {
+      return false;
+    }
+    return AsyncEvent.class.isAssignableFrom(type) || AsyncTask.class.isAssignableFrom(type)
+            || AsyncEventHandler.class.isAssignableFrom(type) || AsyncEventListener.class.isAssignableFrom(type);
+  }
+
+  private Class<?> getHandlerClass(Class<?> eventClass) {
+    for (Type type : eventClass.getGenericInterfaces()) {
+      if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType().equals(AsyncEvent.class)) {
+        Type handlerType = ((ParameterizedType) type).getActualTypeArguments()[0];
+        return handlerType instanceof Class ? (Class<?>) handlerType : null;
+      }
+    }
+    return null;
   }
 
   @Override
@@ -71,64 +365,37 @@ public class BackgroundTasksModule extends AbstractModule {
   }
 
   @Provides
+  @Singleton
   public AsyncEventHandlerFactory getAsyncEventHandlerFactory(final Injector injector) {
+    final InstanceProviders instanceProviders = injector.getInstance(InstanceProviders.class);
+
     return new AsyncEventHandlerFactory() {
       @Override
       public AsyncEventHandler create(Class<? extends AsyncEventHandler> evenHandlerClass) {
-        return injector.getInstance(evenHandlerClass);
+        return instanceProviders.getInstance(evenHandlerClass);
       }
     };
   }
 
   @Provides
+  @Singleton
   public AsyncEventListenersFactory getAsyncEventListenersFactory(final Injector injector) {
+    final ListenerIndex listenerIndex = injector.getInstance(ListenerIndex.class);
+    final InstanceProviders instanceProviders = injector.getInstance(InstanceProviders.class);
+
     return new AsyncEventListenersFactory() {
       @Override
       public AsyncEventListener createListener(Class<? extends AsyncEvent> eventClass, String eventListenerClassName) {
-        List<Class<? extends AsyncEventListener>> listeners = getListenerClasses(eventClass);
-        for (Class<? extends AsyncEventListener> listener : listeners){
-          if(eventListenerClassName.equals(listener.getSimpleName())){
-            return injector.getInstance(listener);
-          }
+        Class<? extends AsyncEventListener> listener = listenerIndex.getListenerClass(eventClass, eventListenerClassName);
+        if (listener != null) {
+          return instanceProviders.getInstance(listener);
         }
         return null;
       }
 
       @Override
       public List<Class<? extends AsyncEventListener>> getListenerClasses(Class<? extends AsyncEvent> eventClass) {
-        TypeLiteral<Set<ListenerClazz>> listenersKey = new TypeLiteral<Set<ListenerClazz>>() {};
-        Set<ListenerClazz> listenerClazzs = injector.getInstance(Key.get(listenersKey));
-
-        List<Class<? extends AsyncEventListener>> listenerClasses = Lists.newArrayList();
-
-        for (ListenerClazz listenerClazz : listenerClazzs){
-          Class<? extends AsyncEvent> genericEventClass = getListenerEventClass(listenerClazz);
-
-          if (genericEventClass != null && genericEventClass.equals(eventClass)){
-            if (!listenerClasses.contains(listenerClazz.getValue())){
-              listenerClasses.add(listenerClazz.getValue());
-            }
-          }
-        }
-
-        return  listenerClasses;
-      }
-
-      private Class<? extends AsyncEvent> getListenerEventClass(ListenerClazz listenerClazz) {
-        Type[] paramTypes = listenerClazz.getValue().getGenericInterfaces();
-
-        ParameterizedType listenerType = null;
-        for(Type type : paramTypes){
-          if(type instanceof ParameterizedType &&  ((ParameterizedType) type).getRawType().equals(AsyncEventListener.class)){
-            listenerType = (ParameterizedType) type;
-          }
-        }
-
-        if(listenerType != null){
-          return (Class<? extends AsyncEvent>) listenerType.getActualTypeArguments()[0]; //0 because we have only 1 generic type for listeners
-        }
-
-        return null;
+        return listenerIndex.getListenerClasses(eventClass);
       }
     };
   }
@@ -0,0 +1,716 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.EventTransport;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Primitives;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link EventTransport} which serializes the events in a compact binary format instead of text JSON. The fields of
+ * each class are resolved only once, so serialization does not need any reflection lookups.
+ * <p/>
+ * Each field which is not null is written with a key, which is a hash of the field name, followed by its value.
+ * Numbers, booleans, chars and dates are written as varints, floats as 4 bytes, doubles as 8 bytes, and strings, enums,
+ * collections, maps and nested objects with their length. Fields which are unknown to the class are skipped, so fields
+ * could be added and removed while tasks are still in the queues, as with JSON.
+ * <p/>
+ * The supported field types are primitives and their boxed types, String, Date, enums, lists, sets, maps and nested
+ * objects with default constructors, which have fields of the same types.
+ * <p/>
+ * It could be used by overriding {@link BackgroundTasksModule#getEventTransport()}. The format is not compatible with
+ * JSON, so it should be enabled only when there are no events serialized by another transport in the queues.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class BinaryEventTransport implements EventTransport {
+
+  private static final int VARINT = 0;
+  private static final int FIXED64 = 1;
+  private static final int LENGTH_DELIMITED = 2;
+  private static final int FIXED32 = 5;
+
+  private static final Map<Class<?>, ValueCodec> BASIC_CODECS = basicCodecs();
+
+  private final ConcurrentMap<Type, ValueCodec> codecs = new ConcurrentHashMap<Type, ValueCodec>(BASIC_CODECS);
+
+  @Override
+  public <T> T in(Class<T> eventClass, InputStream inputStream) {
+    try {
+
+      byte[] payload = ByteStreams.toByteArray(inputStream);
+      return eventClass.cast(getCodec(eventClass).read(new BinaryInput(payload, 0, payload.length)));
+
+    } catch (IOException e) {
+      throw new IllegalStateException("Event " + eventClass.getName() + " could not be read.", e);
+    }
+  }
+
+  @Override
+  public <T> void out(Class<? extends T> eventClass, T event, OutputStream outputStream) {
+    BinaryOutput output = new BinaryOutput();
+    getCodec(eventClass).write(output, event);
+
+    try {
+      outputStream.write(output.buffer, 0, output.size);
+    } catch (IOException e) {
+      throw new IllegalStateException("Event " + eventClass.getName() + " could not be written.", e);
+    }
+  }
+
+  private ValueCodec getCodec(Type type) {
+    ValueCodec codec = codecs.get(type);
+    if (codec != null) {
+      return codec;
+    }
+
+    synchronized (this) {
+      Map<Type, ValueCodec> created = Maps.newHashMap();
+      codec = getCodec(type, created);
+
+      // the codecs are published only when all of them are complete
+      codecs.putAll(created);
+      return codec;
+    }
+  }
+
+  /**
+   * Gets the codec of the given type. The codecs of the objects are added to the created codecs before their fields
+   * are resolved, so classes which refer to themselves could be serialized.
+   */
+  private ValueCodec getCodec(Type type, Map<Type, ValueCodec> created) {
+    ValueCodec codec = codecs.get(type);
+    if (codec == null) {
+      codec = created.get(type);
+    }
+    if (codec != null) {
+      return codec;
+    }
+
+    Class<?> rawType = getRawType(type);
+
+    if (rawType.isEnum()) {
+      codec = new EnumCodec(rawType);
+      created.put(type, codec);
+
+    } else if (Collection.class.isAssignableFrom(rawType)) {
+      codec = new CollectionCodec(rawType, getCodec(getTypeArgument(type, 0), created));
+      created.put(type, codec);
+
+    } else if (Map.class.isAssignableFrom(rawType)) {
+      codec = new MapCodec(rawType, getCodec(getTypeArgument(type, 0), created), getCodec(getTypeArgument(type, 1), created));
+      created.put(type, codec);
+
+    } else if (isObject(rawType)) {
+      ObjectCodec objectCodec = new ObjectCodec(rawType);
+      created.put(type, objectCodec);
+      objectCodec.init(created);
+      codec = objectCodec;
+
+    } else {
+      throw new IllegalArgumentException("Type " + type + " could not be serialized.");
+    }
+
+    return codec;
+  }
+
+  private boolean isObject(Class<?> type) {
+    return !type.isInterface() && !type.isArray() && !type.isPrimitive() && !Modifier.isAbstract(type.getModifiers())
+            && !type.getName().startsWith("java.");
+  }
+
+  private Class<?> getRawType(Type type) {
+    if (type instanceof Class) {
+      return (Class<?>) type;
+    }
+    if (type instanceof ParameterizedType) {
+      return (Class<?>) ((ParameterizedType) type).getRawType();
+    }
+    throw new IllegalArgumentException("Type " + type + " could not be serialized.");
+  }
+
+  private Type getTypeArgument(Type type, int index) {
+    if (type instanceof ParameterizedType) {
+      return ((ParameterizedType) type).getActualTypeArguments()[index];
+    }
+    throw new IllegalArgumentException("Type " + type + " must declare the types of its elements.");
+  }
+
+  private static Map<Class<?>, ValueCodec> basicCodecs() {
+    Map<Class<?>, ValueCodec> codecs = Maps.newHashMap();
+
+    codecs.put(Boolean.class, new ValueCodec(VARINT) {
+      @Override
+      void write(BinaryOutput output, Object value) {
+        output.writeVarint((Boolean) value ? 1 : 0);
+      }
+
+      @Override
+      Object read(BinaryInput input) {
+        return input.readVarint() != 0;
+      }
+    });
+
+    codecs.put(Byte.class, new ValueCodec(VARINT) {
+      @Override
+      void write(BinaryOutput output, Object value) {
+        output.writeSignedVarint((Byte) value);
+      }
+
+      @Override
+      Object read(BinaryInput input) {
+        return (byte) input.readSignedVarint();
+      }
+    });
+
+    codecs.put(Short.class, new ValueCodec(VARINT) {
+      @Override
+      void write(BinaryOutput output, Object value) {
+        output.writeSignedVarint((Short) value);
+      }
+
+      @Override
+      Object read(BinaryInput input) {
+        return (short) input.readSignedVarint();
+      }
+    });
+
+    codecs.put(Integer.class, new ValueCodec(VARINT) {
+      @Override
+      void write(BinaryOutput output, Object value) {
+        output.writeSignedVarint((Integer) value);
+      }
+
+      @Override
+      Object read(BinaryInput input) {
+        return (int) input.readSignedVarint();
+      }
+    });
+
+    codecs.put(Long.class, new ValueCodec(VARINT) {
+      @Override
+      void write(BinaryOutput output, Object value) {
+        output.writeSignedVarint((Long) value);
+      }
+
+      @Override
+      Object read(BinaryInput input) {
+        return input.readSignedVarint();
+      }
+    });
+
+    codecs.put(Character.class, new ValueCodec(VARINT) {
+      @Override
+      void write(BinaryOutput output, Object value) {
+        output.writeVarint((Character) value);
+      }
+
+      @Override
+      Object read(BinaryInput input) {
+        return (char) input.readVarint();
+      }
+    });
+
+    codecs.put(Float.class, new ValueCodec(FIXED32) {
+      @Override
+      void write(BinaryOutput output, Object value) {
+        output.writeFixed32(Float.floatToIntBits((Float) value));
+      }
+
+      @Override
+      Object read(BinaryInput input) {
+        return Float.intBitsToFloat(input.readFixed32());
+      }
+    });
+
+    codecs.put(Double.class, new ValueCodec(FIXED64) {
+      @Override
+      void write(BinaryOutput output, Object value) {
+        output.writeFixed64(Double.doubleToRawLongBits((Double) value));
+      }
+
+      @Override
+      Object read(BinaryInput input) {
+        return Double.longBitsToDouble(input.readFixed64());
+      }
+    });
+
+    codecs.put(String.class, new ValueCodec(LENGTH_DELIMITED) {
+      @Override
+      void write(BinaryOutput output, Object value) {
+        output.writeBytes(((String) value).getBytes(Charsets.UTF_8));
+      }
+
+      @Override
+      Object read(BinaryInput input) {
+        return input.readString();
+      }
+    });
+
+    codecs.put(Date.class, new ValueCodec(VARINT) {
+      @Override
+      void write(BinaryOutput output, Object value) {
+        output.writeSignedVarint(((Date) value).getTime());
+      }
+
+      @Override
+      Object read(BinaryInput input) {
+        return new Date(input.readSignedVarint());
+      }
+    });
+
+    for (Class<?> wrapperType : Lists.newArrayList(codecs.keySet())) {
+      if (Primitives.isWrapperType(wrapperType)) {
+        codecs.put(Primitives.unwrap(wrapperType), codecs.get(wrapperType));
+      }
+    }
+    return codecs;
+  }
+
+  private static Object newInstance(Class<?> type) {
+    try {
+
+      Constructor<?> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return constructor.newInstance();
+
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException("Class " + type.getName() + " must have a default constructor.", e);
+    } catch (Exception e) {
+      throw new IllegalStateException("Class " + type.getName() + " could not be instantiated.", e);
+    }
+  }
+
+  /**
+   * Serializes the values of a single type. The values of the length delimited codecs are written without their
+   * length, which is written by the codec of the field, collection or map which contains them.
+   */
+  private abstract static class ValueCodec {
+    final int wireType;
+
+    ValueCodec(int wireType) {
+      this.wireType = wireType;
+    }
+
+    abstract void write(BinaryOutput output, Object value);
+
+    abstract Object read(BinaryInput input);
+
+    void writeFramed(BinaryOutput output, Object value) {
+      if (wireType != LENGTH_DELIMITED) {
+        write(output, value);
+        return;
+      }
+
+      BinaryOutput content = new BinaryOutput();
+      write(content, value);
+      output.writeVarint(content.size);
+      output.write(content.buffer, 0, content.size);
+    }
+
+    Object readFramed(BinaryInput input) {
+      if (wireType != LENGTH_DELIMITED) {
+        return read(input);
+      }
+      return read(input.readSlice());
+    }
+  }
+
+  private static final class EnumCodec extends ValueCodec {
+    private final Class enumType;
+
+    private EnumCodec(Class<?> enumType) {
+      super(LENGTH_DELIMITED);
+      this.enumType = enumType;
+    }
+
+    @Override
+    void write(BinaryOutput output, Object value) {
+      output.writeBytes(((Enum) value).name().getBytes(Charsets.UTF_8));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    Object read(BinaryInput input) {
+      return Enum.valueOf(enumType, input.readString());
+    }
+  }
+
+  /**
+   * Writes the number of elements followed by each of them, which is preceded by a flag whether it's present.
+   */
+  private static final class CollectionCodec extends ValueCodec {
+    private final Class<?> collectionType;
+    private final ValueCodec elementCodec;
+
+    private CollectionCodec(Class<?> collectionType, ValueCodec elementCodec) {
+      super(LENGTH_DELIMITED);
+      this.collectionType = collectionType;
+      this.elementCodec = elementCodec;
+    }
+
+    @Override
+    void write(BinaryOutput output, Object value) {
+      Collection<?> collection = (Collection<?>) value;
+      output.writeVarint(collection.size());
+
+      for (Object element : collection) {
+        writeElement(output, elementCodec, element);
+      }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    Object read(BinaryInput input) {
+      int size = (int) input.readVarint();
+      Collection<Object> collection = newCollection(size);
+
+      for (int i = 0; i < size; i++) {
+        collection.add(readElement(input, elementCodec));
+      }
+      return collection;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<Object> newCollection(int size) {
+      if (collectionType.isAssignableFrom(ArrayList.class)) {
+        return new ArrayList<Object>(size);
+      }
+      if (collectionType.isAssignableFrom(LinkedHashSet.class)) {
+        return new LinkedHashSet<Object>();
+      }
+      if (collectionType.isAssignableFrom(TreeSet.class) && SortedSet.class.isAssignableFrom(collectionType)) {
+        return new TreeSet<Object>();
+      }
+      return (Collection<Object>) newInstance(collectionType);
+    }
+  }
+
+  private static final class MapCodec extends ValueCodec {
+    private final Class<?> mapType;
+    private final ValueCodec keyCodec;
+    private final ValueCodec valueCodec;
+
+    private MapCodec(Class<?> mapType, ValueCodec keyCodec, ValueCodec valueCodec) {
+      super(LENGTH_DELIMITED);
+      this.mapType = mapType;
+      this.keyCodec = keyCodec;
+      this.valueCodec = valueCodec;
+    }
+
+    @Override
+    void write(BinaryOutput output, Object value) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      output.writeVarint(map.size());
+
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeElement(output, keyCodec, entry.getKey());
+        writeElement(output, valueCodec, entry.getValue());
+      }
+    }
+
+    @Override
+    Object read(BinaryInput input) {
+      int size = (int) input.readVarint();
+      Map<Object, Object> map = newMap();
+
+      for (int i = 0; i < size; i++) {
+        Object key = readElement(input, keyCodec);
+        map.put(key, readElement(input, valueCodec));
+      }
+      return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> newMap() {
+      if (mapType.isAssignableFrom(LinkedHashMap.class)) {
+        return new LinkedHashMap<Object, Object>();
+      }
+      if (mapType.isAssignableFrom(TreeMap.class) && SortedMap.class.isAssignableFrom(mapType)) {
+        return new TreeMap<Object, Object>();
+      }
+      return (Map<Object, Object>) newInstance(mapType);
+    }
+  }
+
+  private static void writeElement(BinaryOutput output, ValueCodec codec, Object element) {
+    if (element == null) {
+      output.writeVarint(0);
+    } else {
+      output.writeVarint(1);
+      codec.writeFramed(output, element);
+    }
+  }
+
+  private static Object readElement(BinaryInput input, ValueCodec codec) {
+    if (input.readVarint() == 0) {
+      return null;
+    }
+    return codec.readFramed(input);
+  }
+
+  /**
+   * Writes each field which is not null with its key and value. The key is the id of the field, which is a hash
+   * of its name, and the wire type of its value, so fields which are unknown to the reader could be skipped.
+   */
+  private final class ObjectCodec extends ValueCodec {
+    private final Class<?> type;
+    private FieldCodec[] fields;
+    private Map<Long, FieldCodec> fieldsByKey;
+
+    private ObjectCodec(Class<?> type) {
+      super(LENGTH_DELIMITED);
+      this.type = type;
+    }
+
+    private void init(Map<Type, ValueCodec> created) {
+      List<FieldCodec> fields = Lists.newArrayList();
+      Map<Long, FieldCodec> fieldsByKey = Maps.newHashMap();
+
+      for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+        for (Field field : current.getDeclaredFields()) {
+          if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers()) || field.isSynthetic()) {
+            continue;
+          }
+
+          field.setAccessible(true);
+          FieldCodec fieldCodec = new FieldCodec(field, getCodec(field.getGenericType(), created));
+
+          if (fieldsByKey.put(fieldCodec.key, fieldCodec) != null) {
+            throw new IllegalArgumentException("Class " + type.getName() + " has more than one field with the id of " + field.getName() + ".");
+          }
+          fields.add(fieldCodec);
+        }
+      }
+
+      this.fields = fields.toArray(new FieldCodec[fields.size()]);
+      this.fieldsByKey = fieldsByKey;
+    }
+
+    @Override
+    void write(BinaryOutput output, Object value) {
+      for (FieldCodec field : fields) {
+        Object fieldValue = field.get(value);
+
+        if (fieldValue != null) {
+          output.writeVarint(field.key);
+          field.codec.writeFramed(output, fieldValue);
+        }
+      }
+    }
+
+    @Override
+    Object read(BinaryInput input) {
+      Object object = newInstance(type);
+
+      while (input.hasRemaining()) {
+        long key = input.readVarint();
+        FieldCodec field = fieldsByKey.get(key);
+
+        if (field == null) {
+          input.skip((int) (key & 7));
+          continue;
+        }
+        field.set(object, field.codec.readFramed(input));
+      }
+      return object;
+    }
+  }
+
+  private static final class FieldCodec {
+    private final Field field;
+    private final ValueCodec codec;
+    private final long key;
+
+    private FieldCodec(Field field, ValueCodec codec) {
+      this.field = field;
+      this.codec = codec;
+
+      long id = (Hashing.murmur3_32().hashString(field.getName(), Charsets.UTF_8).asInt() & 0xFFFFFF) + 1;
+      this.key = id << 3 | codec.wireType;
+    }
+
+    private Object get(Object object) {
+      try {
+        return field.get(object);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    private void set(Object object, Object value) {
+      try {
+        field.set(object, value);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private static final class BinaryOutput {
+    private byte[] buffer = new byte[64];
+    private int size;
+
+    private void writeVarint(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[size++] = (byte) value;
+    }
+
+    private void writeSignedVarint(long value) {
+      // zigzag encoding, so small negative numbers are written in few bytes
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeFixed32(int value) {
+      ensureCapacity(4);
+      for (int i = 0; i < 4; i++) {
+        buffer[size++] = (byte) (value >>> (8 * i));
+      }
+    }
+
+    private void writeFixed64(long value) {
+      ensureCapacity(8);
+      for (int i = 0; i < 8; i++) {
+        buffer[size++] = (byte) (value >>> (8 * i));
+      }
+    }
+
+    private void writeBytes(byte[] bytes) {
+      write(bytes, 0, bytes.length);
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(bytes, offset, buffer, size, length);
+      size += length;
+    }
+
+    private void ensureCapacity(int length) {
+      if (size + length > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+      }
+    }
+  }
+
+  private static final class BinaryInput {
+    private final byte[] buffer;
+    private int position;
+    private final int limit;
+
+    private BinaryInput(byte[] buffer, int position, int limit) {
+      this.buffer = buffer;
+      this.position = position;
+      this.limit = limit;
+    }
+
+    private boolean hasRemaining() {
+      return position < limit;
+    }
+
+    private long readVarint() {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalStateException("Malformed varint.");
+    }
+
+    private long readSignedVarint() {
+      long value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readFixed32() {
+      int value = 0;
+      for (int i = 0; i < 4; i++) {
+        value |= (readByte() & 0xFF) << (8 * i);
+      }
+      return value;
+    }
+
+    private long readFixed64() {
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value |= (long) (readByte() & 0xFF) << (8 * i);
+      }
+      return value;
+    }
+
+    private String readString() {
+      String value = new String(buffer, position, limit - position, Charsets.UTF_8);
+      position = limit;
+      return value;
+    }
+
+    private BinaryInput readSlice() {
+      int length = (int) readVarint();
+      if (length < 0 || position + length > limit) {
+        throw new IllegalStateException("Malformed length of " + length + " bytes.");
+      }
+
+      BinaryInput slice = new BinaryInput(buffer, position, position + length);
+      position += length;
+      return slice;
+    }
+
+    private void skip(int wireType) {
+      switch (wireType) {
+        case VARINT:
+          readVarint();
+          break;
+        case FIXED64:
+          readFixed64();
+          break;
+        case LENGTH_DELIMITED:
+          readSlice();
+          break;
+        case FIXED32:
+          readFixed32();
+          break;
+        default:
+          throw new IllegalStateException("Unknown wire type " + wireType + ".");
+      }
+    }
+
+    private byte readByte() {
+      if (position >= limit) {
+        throw new IllegalStateException("Unexpected end of the payload.");
+      }
+      return buffer[position++];
+    }
+  }
+}
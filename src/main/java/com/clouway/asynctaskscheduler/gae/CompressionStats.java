@@ -0,0 +1,86 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the payload compression of a single event class.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public final class CompressionStats {
+
+  private final AtomicLong payloads = new AtomicLong();
+  private final AtomicLong compressedPayloads = new AtomicLong();
+  private final AtomicLong originalBytes = new AtomicLong();
+  private final AtomicLong compressedBytes = new AtomicLong();
+  private final AtomicLong compressionNanos = new AtomicLong();
+  private final AtomicLong decompressions = new AtomicLong();
+  private final AtomicLong decompressionNanos = new AtomicLong();
+
+  void recordCompression(int originalSize, int compressedSize, long nanos, boolean used) {
+    payloads.incrementAndGet();
+    originalBytes.addAndGet(originalSize);
+    compressedBytes.addAndGet(used ? compressedSize : originalSize);
+    compressionNanos.addAndGet(nanos);
+    if (used) {
+      compressedPayloads.incrementAndGet();
+    }
+  }
+
+  void recordDecompression(long nanos) {
+    decompressions.incrementAndGet();
+    decompressionNanos.addAndGet(nanos);
+  }
+
+  /**
+   * @return the number of payloads above the threshold
+   */
+  public long getPayloads() {
+    return payloads.get();
+  }
+
+  /**
+   * @return the number of payloads which were sent compressed, the rest did not become smaller
+   */
+  public long getCompressedPayloads() {
+    return compressedPayloads.get();
+  }
+
+  public long getOriginalBytes() {
+    return originalBytes.get();
+  }
+
+  /**
+   * @return the number of bytes that were sent for the payloads above the threshold
+   */
+  public long getCompressedBytes() {
+    return compressedBytes.get();
+  }
+
+  /**
+   * @return the ratio between the sent and the original bytes
+   */
+  public double getCompressionRatio() {
+    long original = originalBytes.get();
+    return original == 0 ? 1 : (double) compressedBytes.get() / original;
+  }
+
+  public long getCompressionNanos() {
+    return compressionNanos.get();
+  }
+
+  public long getDecompressions() {
+    return decompressions.get();
+  }
+
+  public long getDecompressionNanos() {
+    return decompressionNanos.get();
+  }
+
+  @Override
+  public String toString() {
+    return "CompressionStats{payloads=" + payloads + ", compressedPayloads=" + compressedPayloads
+            + ", ratio=" + getCompressionRatio() + ", compressionNanos=" + compressionNanos
+            + ", decompressions=" + decompressions + ", decompressionNanos=" + decompressionNanos + "}";
+  }
+}
@@ -0,0 +1,283 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.PayloadStore;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.common.collect.Lists;
+import com.google.inject.Singleton;
+
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the payloads in the datastore. Each payload is a separate entity, so payloads are limited to the
+ * maximum size of an entity.
+ * <p/>
+ * The releases of a payload are counted in sharded counters, so many tasks could release the same payload
+ * concurrently. Each task which releases a payload, or retains it for the tasks which it adds, is marked by a separate
+ * entity, so its repeated executions are recognized. The payload and its counters are deleted when it's released by
+ * all tasks, while the marks are kept for the tasks which are executed again.
+ * <p/>
+ * Payloads are stored outside of the current transaction, so a payload of a task which is never added
+ * stays in the datastore, as a payload which release was not counted because of too many concurrent releases.
+ * They and the marks of the tasks should be deleted by {@link #deleteCreatedBefore(Date)}, as from a cron job.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@Singleton
+public class DatastorePayloadStore implements PayloadStore {
+  private static final Logger log = Logger.getLogger(DatastorePayloadStore.class.getName());
+
+  public static final String KIND = "_AsyncEventPayload";
+  public static final String COUNTER_KIND = "_AsyncEventPayloadCounter";
+  public static final String MARKER_KIND = "_AsyncEventPayloadMarker";
+
+  private static final String PAYLOAD = "payload";
+  private static final String CONSUMERS = "consumers";
+  private static final String RELEASES = "releases";
+  private static final String CREATED = "created";
+
+  private static final String RELEASED = "released";
+  private static final String RETAINED = "retained";
+
+  /**
+   * The number of counters of the releases of each payload.
+   */
+  private static final int COUNTER_SHARDS = 20;
+
+  /**
+   * The number of attempts to release a payload when its counter is concurrently modified by other tasks.
+   */
+  private static final int RELEASE_ATTEMPTS = 5;
+
+  /**
+   * The number of entities which are deleted at once by {@link #deleteCreatedBefore(Date)}.
+   */
+  private static final int DELETE_BATCH_SIZE = 500;
+
+  private final Random random = new Random();
+
+  @Override
+  public String store(byte[] payload) {
+    String reference = UUID.randomUUID().toString();
+
+    Entity entity = new Entity(KIND, reference);
+    entity.setUnindexedProperty(PAYLOAD, new Blob(payload));
+    entity.setUnindexedProperty(CONSUMERS, 1L);
+    entity.setProperty(CREATED, new Date());
+
+    getDatastore().put(null, entity);
+    return reference;
+  }
+
+  @Override
+  public byte[] load(String reference) {
+    try {
+
+      Entity entity = getDatastore().get(null, key(reference));
+      return ((Blob) entity.getProperty(PAYLOAD)).getBytes();
+
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void retain(String reference, int consumers, String retainer) {
+    DatastoreService datastore = getDatastore();
+    Transaction transaction = datastore.getCurrentTransaction(null);
+
+    if (transaction != null) {
+      updateConsumers(datastore, transaction, reference, consumers, retainer);
+      return;
+    }
+
+    transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      updateConsumers(datastore, transaction, reference, consumers, retainer);
+      transaction.commit();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  @Override
+  public void release(String reference, String consumer) {
+    DatastoreService datastore = getDatastore();
+
+    if (!exists(datastore, null, key(reference))) {
+      return;
+    }
+
+    for (int attempt = 1; attempt <= RELEASE_ATTEMPTS; attempt++) {
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+
+        if (consumer != null) {
+          Key marker = markerKey(reference, RELEASED, consumer);
+          if (exists(datastore, transaction, marker)) {
+            return;
+          }
+          datastore.put(transaction, newEntity(marker));
+        }
+
+        // each attempt counts the release in another counter, which is probably not modified concurrently
+        Key counterKey = counterKey(reference, random.nextInt(COUNTER_SHARDS));
+        Entity counter = get(datastore, transaction, counterKey);
+        if (counter == null) {
+          counter = newEntity(counterKey);
+          counter.setUnindexedProperty(RELEASES, 0L);
+        }
+        counter.setUnindexedProperty(RELEASES, (Long) counter.getProperty(RELEASES) + 1);
+        datastore.put(transaction, counter);
+
+        transaction.commit();
+
+        deleteIfReleased(datastore, reference);
+        return;
+
+      } catch (ConcurrentModificationException e) {
+        log.fine("Payload " + reference + " was concurrently modified, attempt " + attempt);
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+
+    // the task is already done, so it's not failed because of the payload which stays in the datastore
+    log.warning("Payload " + reference + " could not be released after " + RELEASE_ATTEMPTS + " attempts.");
+  }
+
+  @Override
+  public boolean isReleasedBy(String reference, String consumer) {
+    return exists(getDatastore(), null, markerKey(reference, RELEASED, consumer));
+  }
+
+  /**
+   * Deletes the payloads, their counters and the marks of the tasks which were created before the given date.
+   * The date should be older than the longest time for which the tasks with stored payloads could be retried.
+   *
+   * @param date the date before which the entities were created
+   * @return the number of the deleted entities
+   */
+  public int deleteCreatedBefore(Date date) {
+    DatastoreService datastore = getDatastore();
+    int deleted = 0;
+
+    for (String kind : new String[]{KIND, COUNTER_KIND, MARKER_KIND}) {
+      Query query = new Query(kind)
+              .setFilter(new Query.FilterPredicate(CREATED, Query.FilterOperator.LESS_THAN, date))
+              .setKeysOnly();
+
+      List<Key> keys = Lists.newArrayList();
+      for (Entity entity : datastore.prepare(query).asIterable()) {
+        keys.add(entity.getKey());
+
+        if (keys.size() == DELETE_BATCH_SIZE) {
+          datastore.delete(null, keys);
+          deleted += keys.size();
+          keys.clear();
+        }
+      }
+
+      datastore.delete(null, keys);
+      deleted += keys.size();
+    }
+
+    log.info("Deleted " + deleted + " payload entities created before " + date);
+    return deleted;
+  }
+
+  private void updateConsumers(DatastoreService datastore, Transaction transaction, String reference, int count, String retainer) {
+    Entity entity = get(datastore, transaction, key(reference));
+    if (entity == null) {
+      return;
+    }
+
+    if (retainer != null) {
+      Key marker = markerKey(reference, RETAINED, retainer);
+      if (exists(datastore, transaction, marker)) {
+        return;
+      }
+      datastore.put(transaction, newEntity(marker));
+    }
+
+    entity.setUnindexedProperty(CONSUMERS, (Long) entity.getProperty(CONSUMERS) + count);
+    datastore.put(transaction, entity);
+  }
+
+  /**
+   * Deletes the payload and its counters when all of its consumers released it. The consumers are retained before
+   * the retaining task releases the payload, so they are not counted after all of the releases.
+   */
+  private void deleteIfReleased(DatastoreService datastore, String reference) {
+    Entity entity = get(datastore, null, key(reference));
+    if (entity == null) {
+      return;
+    }
+
+    List<Key> keys = Lists.newArrayList();
+    for (int shard = 0; shard < COUNTER_SHARDS; shard++) {
+      keys.add(counterKey(reference, shard));
+    }
+
+    long releases = 0;
+    for (Entity counter : datastore.get(null, keys).values()) {
+      releases += (Long) counter.getProperty(RELEASES);
+    }
+
+    if (releases >= (Long) entity.getProperty(CONSUMERS)) {
+      keys.add(entity.getKey());
+      datastore.delete(null, keys);
+    }
+  }
+
+  private Entity newEntity(Key key) {
+    Entity entity = new Entity(key);
+    entity.setProperty(CREATED, new Date());
+    return entity;
+  }
+
+  private Entity get(DatastoreService datastore, Transaction transaction, Key key) {
+    try {
+      return datastore.get(transaction, key);
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  private boolean exists(DatastoreService datastore, Transaction transaction, Key key) {
+    return get(datastore, transaction, key) != null;
+  }
+
+  private Key key(String reference) {
+    return KeyFactory.createKey(KIND, reference);
+  }
+
+  private Key counterKey(String reference, int shard) {
+    return KeyFactory.createKey(COUNTER_KIND, reference + "-" + shard);
+  }
+
+  private Key markerKey(String reference, String type, String taskName) {
+    return KeyFactory.createKey(MARKER_KIND, reference + "/" + type + "/" + taskName);
+  }
+
+  private DatastoreService getDatastore() {
+    return DatastoreServiceFactory.getDatastoreService();
+  }
+}
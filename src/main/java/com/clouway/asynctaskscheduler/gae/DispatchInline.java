@@ -0,0 +1,20 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an AsyncEvent which handler and listeners are executed in parallel in the task which dispatches the event,
+ * instead of in a separate task for each of them. Only the handler and the listeners which fail are added as
+ * separate tasks, so they are retried as usual.
+ * <p/>
+ * It's suitable for events with cheap listeners, which don't depend on the request scope and don't modify the event.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE})
+public @interface DispatchInline {
+}
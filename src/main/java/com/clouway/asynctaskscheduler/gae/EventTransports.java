@@ -0,0 +1,125 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.EventTransport;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Map;
+
+/**
+ * Writes the events with the configured {@link EventTransport} and reads them with the transport which wrote them,
+ * so the transport could be changed while tasks are still in the queues.
+ * <p/>
+ * Framed payloads start with a header which contains the id of the transport:
+ * <pre>
+ *   0x00 | version | length of the id | id as ASCII | payload of the transport
+ * </pre>
+ * The payloads of the transports never start with 0x00, so the payloads which were written without a header are
+ * still read by the transport configured for them.
+ * <p/>
+ * Framing is enabled by {@link BackgroundTasksModule#frameEventPayloads()}.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class EventTransports implements EventTransport {
+
+  static final int FRAME_MAGIC = 0;
+  static final int FRAME_VERSION = 1;
+
+  private final EventTransport eventTransport;
+  private final byte[] frameHeader;
+  private final Map<String, EventTransport> transports;
+  private final EventTransport unframedTransport;
+
+  /**
+   * @param eventTransport    the transport which writes the events
+   * @param transportId       the id of the transport which is written in the header or null if the events are
+   *                          written without header
+   * @param transports        the transports which read the framed events by their ids
+   * @param unframedTransport the transport which reads the events without header
+   */
+  public EventTransports(EventTransport eventTransport, String transportId, Map<String, EventTransport> transports, EventTransport unframedTransport) {
+    this.eventTransport = eventTransport;
+    this.frameHeader = transportId != null ? frameHeader(transportId) : null;
+    this.transports = ImmutableMap.copyOf(transports);
+    this.unframedTransport = unframedTransport;
+  }
+
+  @Override
+  public <T> T in(Class<T> eventClass, InputStream inputStream) {
+    PushbackInputStream payload = new PushbackInputStream(inputStream, 1);
+
+    try {
+
+      int first = payload.read();
+      if (first != FRAME_MAGIC) {
+        if (first != -1) {
+          payload.unread(first);
+        }
+        return unframedTransport.in(eventClass, payload);
+      }
+
+      int version = payload.read();
+      if (version != FRAME_VERSION) {
+        throw new IllegalStateException("Unsupported version " + version + " of the payload of event " + eventClass.getName());
+      }
+
+      String transportId = readTransportId(payload);
+      EventTransport transport = transports.get(transportId);
+      if (transport == null) {
+        throw new IllegalStateException("Unknown transport " + transportId + " of the payload of event " + eventClass.getName());
+      }
+      return transport.in(eventClass, payload);
+
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public <T> void out(Class<? extends T> eventClass, T event, OutputStream outputStream) {
+    if (frameHeader != null) {
+      try {
+        outputStream.write(frameHeader);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    eventTransport.out(eventClass, event, outputStream);
+  }
+
+  private String readTransportId(InputStream payload) throws IOException {
+    int length = payload.read();
+    if (length <= 0) {
+      throw new IllegalStateException("The header of the payload is truncated.");
+    }
+
+    byte[] transportId = new byte[length];
+    try {
+      ByteStreams.readFully(payload, transportId);
+    } catch (EOFException e) {
+      throw new IllegalStateException("The header of the payload is truncated.", e);
+    }
+    return new String(transportId, Charsets.US_ASCII);
+  }
+
+  private static byte[] frameHeader(String transportId) {
+    if (transportId.isEmpty() || transportId.length() > 255 || !Charsets.US_ASCII.newEncoder().canEncode(transportId)) {
+      throw new IllegalArgumentException("The id of the transport should be from 1 to 255 ASCII characters: " + transportId);
+    }
+
+    byte[] id = transportId.getBytes(Charsets.US_ASCII);
+    byte[] header = new byte[id.length + 3];
+    header[0] = FRAME_MAGIC;
+    header[1] = FRAME_VERSION;
+    header[2] = (byte) id.length;
+    System.arraycopy(id, 0, header, 3, id.length);
+    return header;
+  }
+}
@@ -0,0 +1,90 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.RetryPolicy;
+import com.google.inject.Inject;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Retries with exponentially growing delay. Half of each delay is random, so retries of concurrent requests
+ * are spread in time instead of hitting the Task Queue together.
+ * <p/>
+ * Adding is given up when the maximum number of attempts is reached or when the next attempt would exceed
+ * the time budget of the request.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+  private static final Logger log = Logger.getLogger(ExponentialBackoffRetryPolicy.class.getName());
+
+  public static final int DEFAULT_MAX_ATTEMPTS = 3;
+  public static final long DEFAULT_INITIAL_DELAY_MILLS = 50;
+  public static final long DEFAULT_MAX_DELAY_MILLS = 1000;
+  public static final long DEFAULT_TIME_BUDGET_MILLS = 2000;
+
+  private final int maxAttempts;
+  private final long initialDelayMills;
+  private final long maxDelayMills;
+  private final long timeBudgetMills;
+
+  private final Random random = new Random();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong giveUps = new AtomicLong();
+
+  @Inject
+  public ExponentialBackoffRetryPolicy() {
+    this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_DELAY_MILLS, DEFAULT_MAX_DELAY_MILLS, DEFAULT_TIME_BUDGET_MILLS);
+  }
+
+  /**
+   * @param maxAttempts       the maximum number of attempts, including the first one
+   * @param initialDelayMills the delay before the first retry, doubled for each next one
+   * @param maxDelayMills     the maximum delay between two attempts
+   * @param timeBudgetMills   the maximum time which could be spent for adding of the tasks
+   */
+  public ExponentialBackoffRetryPolicy(int maxAttempts, long initialDelayMills, long maxDelayMills, long timeBudgetMills) {
+    this.maxAttempts = maxAttempts;
+    this.initialDelayMills = initialDelayMills;
+    this.maxDelayMills = maxDelayMills;
+    this.timeBudgetMills = timeBudgetMills;
+  }
+
+  @Override
+  public long nextRetryDelay(int failedAttempts, long elapsedMillis) {
+    if (failedAttempts >= maxAttempts) {
+      return giveUp("all " + failedAttempts + " attempts failed");
+    }
+
+    long delay = Math.min(maxDelayMills, initialDelayMills << Math.min(failedAttempts - 1, 30));
+    long jitteredDelay = delay / 2 + (long) (random.nextDouble() * (delay - delay / 2));
+
+    if (elapsedMillis + jitteredDelay > timeBudgetMills) {
+      return giveUp("time budget of " + timeBudgetMills + " ms is exhausted after " + failedAttempts + " attempts");
+    }
+
+    retries.incrementAndGet();
+    return jitteredDelay;
+  }
+
+  /**
+   * @return the number of retries since start
+   */
+  public long getRetries() {
+    return retries.get();
+  }
+
+  /**
+   * @return the number of times adding was given up since start
+   */
+  public long getGiveUps() {
+    return giveUps.get();
+  }
+
+  private long giveUp(String reason) {
+    giveUps.incrementAndGet();
+    log.warning("Giving up adding of tasks: " + reason);
+    return -1;
+  }
+}
@@ -0,0 +1,22 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an AsyncEvent, or an object which is a field of an event, for which a Gson type adapter is generated at
+ * compile time by the {@link com.clouway.asynctaskscheduler.processor.EventTypeAdapterProcessor}. The generated
+ * adapter reads and writes the fields directly, so the {@link GsonEventTransport} does not need reflection for it.
+ * <p/>
+ * The class must have a default constructor and fields which are not private. The names of the fields could be
+ * changed by {@link com.google.gson.annotations.SerializedName}. Classes which are not annotated are serialized by
+ * reflection as usual.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target({ElementType.TYPE})
+public @interface GenerateTypeAdapter {
+}
@@ -1,20 +1,65 @@
 package com.clouway.asynctaskscheduler.gae;
 
+import com.clouway.asynctaskscheduler.processor.EventTypeAdapterProcessor;
 import com.clouway.asynctaskscheduler.spi.EventTransport;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import com.google.inject.Inject;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
+ * Serializes the events as UTF-8 encoded JSON, which is streamed directly from and to the payload of the task
+ * without building it as a string.
+ * <p/>
+ * Events annotated with {@link GenerateTypeAdapter} are serialized by the type adapters which are generated for
+ * them at compile time, and the rest of them by the reflection of the Gson.
+ *
  * @author Ivan Lazov <ivan.lazov@clouway.com>
  */
 public class GsonEventTransport implements EventTransport {
+  private static final Logger log = Logger.getLogger(GsonEventTransport.class.getName());
+
+  /**
+   * Marks the events which have no generated type adapter.
+   */
+  private static final TypeAdapter<Object> NO_ADAPTER = new TypeAdapter<Object>() {
+    @Override
+    public void write(JsonWriter out, Object value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object read(JsonReader in) {
+      throw new UnsupportedOperationException();
+    }
+  };
+
+  private static final List<TypeAdapterFactory> GENERATED_FACTORIES = loadGeneratedFactories();
 
   private final Gson gson;
+  private final ConcurrentMap<Class<?>, TypeAdapter<?>> generatedAdapters = new ConcurrentHashMap<Class<?>, TypeAdapter<?>>();
 
   @Inject
   public GsonEventTransport(Gson gson) {
@@ -23,18 +68,85 @@ public class GsonEventTransport implements EventTransport {
 
   @Override
   public <T> T in(Class<T> eventClass, InputStream inputStream) {
-    return gson.fromJson(new InputStreamReader(inputStream), eventClass);
+    // the decoder is buffered, so the stream is read in chunks
+    InputStreamReader reader = new InputStreamReader(inputStream, Charsets.UTF_8);
+
+    TypeAdapter<T> adapter = getGeneratedAdapter(eventClass);
+    if (adapter == null) {
+      return gson.fromJson(reader, eventClass);
+    }
+
+    try {
+      return adapter.read(new JsonReader(reader));
+    } catch (IOException e) {
+      throw new JsonSyntaxException(e);
+    } catch (IllegalStateException e) {
+      throw new JsonSyntaxException(e);
+    }
   }
 
   @Override
+  @SuppressWarnings("unchecked")
   public <T> void out(Class<? extends T> eventClass, T event, OutputStream outputStream) {
+    // the encoder is buffered, so the json is written to the stream in chunks
+    Writer writer = new OutputStreamWriter(outputStream, Charsets.UTF_8);
+
+    TypeAdapter<T> adapter = (TypeAdapter<T>) getGeneratedAdapter(eventClass);
+    if (adapter == null) {
+      gson.toJson(event, eventClass, writer);
+    } else {
+      // as the writers of the default Gson
+      JsonWriter jsonWriter = new JsonWriter(writer);
+      jsonWriter.setHtmlSafe(true);
+      jsonWriter.setSerializeNulls(false);
 
-    String json = gson.toJson(event, eventClass);
+      try {
+        adapter.write(jsonWriter, event);
+      } catch (IOException e) {
+        throw new JsonIOException(e);
+      }
+    }
 
     try {
-      outputStream.write(json.getBytes());
+      writer.flush();
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
+
+  @SuppressWarnings("unchecked")
+  private <T> TypeAdapter<T> getGeneratedAdapter(Class<T> eventClass) {
+    TypeAdapter<?> adapter = generatedAdapters.get(eventClass);
+
+    if (adapter == null) {
+      adapter = NO_ADAPTER;
+      for (TypeAdapterFactory factory : GENERATED_FACTORIES) {
+        TypeAdapter<T> generated = factory.create(gson, TypeToken.get(eventClass));
+        if (generated != null) {
+          adapter = generated;
+          break;
+        }
+      }
+      generatedAdapters.putIfAbsent(eventClass, adapter);
+    }
+
+    return adapter != NO_ADAPTER ? (TypeAdapter<T>) adapter : null;
+  }
+
+  private static List<TypeAdapterFactory> loadGeneratedFactories() {
+    List<TypeAdapterFactory> factories = Lists.newArrayList();
+    try {
+
+      for (TypeAdapterFactory factory : ServiceLoader.load(TypeAdapterFactory.class, GsonEventTransport.class.getClassLoader())) {
+        // other libraries could register factories as well, but only the generated are used for the events
+        if (factory.getClass().getName().endsWith(EventTypeAdapterProcessor.FACTORY_SUFFIX)) {
+          factories.add(factory);
+        }
+      }
+
+    } catch (ServiceConfigurationError e) {
+      log.log(Level.WARNING, "Generated type adapters could not be loaded, so the events are serialized by reflection.", e);
+    }
+    return ImmutableList.copyOf(factories);
+  }
 }
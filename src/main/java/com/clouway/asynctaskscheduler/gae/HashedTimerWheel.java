@@ -0,0 +1,157 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timer wheel which runs delayed tasks with the precision of a single tick. Scheduling of a task costs
+ * a single add to a queue, and only the tasks of the current bucket are visited on each tick, so a lot of delayed
+ * tasks are kept without sorting them.
+ * <p/>
+ * The buckets are owned by the worker thread, which is started with the first scheduled task. Expired tasks
+ * are passed to the given executor, so they don't delay the ticks.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+class HashedTimerWheel {
+  private static final Logger log = Logger.getLogger(HashedTimerWheel.class.getName());
+
+  private final long tickNanos;
+  private final Queue<Timeout>[] buckets;
+  private final int mask;
+  private final Executor executor;
+  private final ThreadFactory threadFactory;
+  private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+  private Thread worker;
+  private volatile boolean stopped;
+  private volatile long startNanos;
+
+  /**
+   * @param tickMillis    the duration of a single tick
+   * @param ticksPerWheel the number of buckets, which is rounded up to a power of two
+   * @param executor      the executor of the expired tasks
+   * @param threadFactory the factory of the worker thread
+   */
+  @SuppressWarnings("unchecked")
+  HashedTimerWheel(long tickMillis, int ticksPerWheel, Executor executor, ThreadFactory threadFactory) {
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+    this.executor = executor;
+    this.threadFactory = threadFactory;
+
+    int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+    this.buckets = new Queue[size];
+    this.mask = size - 1;
+    for (int i = 0; i < size; i++) {
+      buckets[i] = new ArrayDeque<Timeout>();
+    }
+  }
+
+  /**
+   * Schedules the task to be executed after the given delay.
+   *
+   * @param task        the task
+   * @param delayMillis the delay in milliseconds
+   */
+  void schedule(Runnable task, long delayMillis) {
+    if (stopped) {
+      throw new IllegalStateException("The timer wheel is stopped.");
+    }
+    start();
+
+    long deadline = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    newTimeouts.add(new Timeout(task, deadline));
+  }
+
+  /**
+   * Stops the worker thread. The tasks which are not expired yet are not executed.
+   */
+  synchronized void stop() {
+    stopped = true;
+    if (worker != null) {
+      worker.interrupt();
+    }
+  }
+
+  private synchronized void start() {
+    if (worker == null) {
+      startNanos = System.nanoTime();
+      worker = threadFactory.newThread(new Worker());
+      worker.start();
+    }
+  }
+
+  private final class Worker implements Runnable {
+    private long tick;
+
+    @Override
+    public void run() {
+      while (!stopped) {
+        long deadline = tickNanos * (tick + 1);
+        long sleepNanos = deadline - (System.nanoTime() - startNanos);
+
+        if (sleepNanos > 0) {
+          try {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+
+        transferNewTimeouts();
+        expire(buckets[(int) (tick & mask)], deadline);
+        tick++;
+      }
+    }
+
+    private void transferNewTimeouts() {
+      Timeout timeout;
+      while ((timeout = newTimeouts.poll()) != null) {
+        long ticks = timeout.deadline / tickNanos;
+        timeout.rounds = (ticks - tick) / buckets.length;
+
+        // the timeouts which are already expired are executed on the current tick
+        buckets[(int) (Math.max(ticks, tick) & mask)].add(timeout);
+      }
+    }
+
+    private void expire(Queue<Timeout> bucket, long deadline) {
+      for (Iterator<Timeout> iterator = bucket.iterator(); iterator.hasNext(); ) {
+        Timeout timeout = iterator.next();
+
+        if (timeout.rounds <= 0 && timeout.deadline <= deadline) {
+          iterator.remove();
+          execute(timeout.task);
+        } else {
+          timeout.rounds--;
+        }
+      }
+    }
+
+    private void execute(Runnable task) {
+      try {
+        executor.execute(task);
+      } catch (RuntimeException e) {
+        log.log(Level.SEVERE, "Delayed task " + task + " could not be executed.", e);
+      }
+    }
+  }
+
+  private static final class Timeout {
+    private final Runnable task;
+    private final long deadline;
+    private long rounds;
+
+    private Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+  }
+}
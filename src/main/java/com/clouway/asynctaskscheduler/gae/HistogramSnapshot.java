@@ -0,0 +1,58 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The values which were recorded by a histogram of the {@link InMemoryMetricsRecorder}. The percentiles are
+ * accurate up to a factor of two.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public final class HistogramSnapshot {
+
+  private final long count;
+  private final long mean;
+  private final long p50;
+  private final long p90;
+  private final long p99;
+  private final long max;
+
+  @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+  public HistogramSnapshot(long count, long mean, long p50, long p90, long p99, long max) {
+    this.count = count;
+    this.mean = mean;
+    this.p50 = p50;
+    this.p90 = p90;
+    this.p99 = p99;
+    this.max = max;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMean() {
+    return mean;
+  }
+
+  public long getP50() {
+    return p50;
+  }
+
+  public long getP90() {
+    return p90;
+  }
+
+  public long getP99() {
+    return p99;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  @Override
+  public String toString() {
+    return "HistogramSnapshot{count=" + count + ", mean=" + mean + ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99 + ", max=" + max + "}";
+  }
+}
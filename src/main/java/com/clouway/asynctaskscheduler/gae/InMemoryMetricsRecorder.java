@@ -0,0 +1,253 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.MetricsRecorder;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the metrics in memory with striped counters and {@link LogHistogram}s, so recording is lock-free and it
+ * doesn't allocate once a queue or a class was recorded. The metrics are exposed over JMX as
+ * {@value #OBJECT_NAME} when the recorder is created by the injector.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class InMemoryMetricsRecorder implements MetricsRecorder, InMemoryMetricsRecorderMXBean {
+  private static final Logger log = Logger.getLogger(InMemoryMetricsRecorder.class.getName());
+
+  public static final String OBJECT_NAME = "com.clouway.asynctaskscheduler:type=Metrics";
+
+  private final ConcurrentMap<String, LongAdder> enqueuedTasksByQueue = new ConcurrentHashMap<String, LongAdder>();
+  private final ConcurrentMap<String, LongAdder> enqueuedTasksByType = new ConcurrentHashMap<String, LongAdder>();
+  private final ConcurrentMap<String, LogHistogram> payloadBytes = new ConcurrentHashMap<String, LogHistogram>();
+  private final ConcurrentMap<String, LogHistogram> enqueueLatencies = new ConcurrentHashMap<String, LogHistogram>();
+  private final ConcurrentMap<String, LongAdder> transientFailures = new ConcurrentHashMap<String, LongAdder>();
+  private final ConcurrentMap<String, LongAdder> retries = new ConcurrentHashMap<String, LongAdder>();
+  private final ConcurrentMap<String, LogHistogram> dispatchLatencies = new ConcurrentHashMap<String, LogHistogram>();
+  private final ConcurrentMap<String, LongAdder> failedDispatches = new ConcurrentHashMap<String, LongAdder>();
+  private final ConcurrentMap<String, LogHistogram> schedulingLagsByQueue = new ConcurrentHashMap<String, LogHistogram>();
+  private final ConcurrentMap<String, LogHistogram> schedulingLagsByType = new ConcurrentHashMap<String, LogHistogram>();
+  private final ConcurrentMap<String, LongAdder> reexecutions = new ConcurrentHashMap<String, LongAdder>();
+
+  /**
+   * Registers the recorder in the platform MBean server, replacing the recorder of a previous injector.
+   */
+  @Inject
+  void registerMBean() {
+    try {
+
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+
+    } catch (JMException e) {
+      log.log(Level.WARNING, "Metrics could not be exposed over JMX.", e);
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, "Metrics could not be exposed over JMX.", e);
+    } catch (NoClassDefFoundError e) {
+      // JMX is not available in the sandbox of App Engine
+      log.log(Level.WARNING, "Metrics could not be exposed over JMX.", e);
+    }
+  }
+
+  @Override
+  public void recordEnqueue(String queueName, Class<?> type, int payloadBytes) {
+    counter(enqueuedTasksByQueue, queueName).increment();
+    counter(enqueuedTasksByType, type.getName()).increment();
+
+    if (payloadBytes > 0) {
+      histogram(this.payloadBytes, type.getName()).record(payloadBytes);
+    }
+  }
+
+  @Override
+  public void recordEnqueueLatency(String queueName, int tasks, long latencyNanos) {
+    histogram(enqueueLatencies, queueName).record(latencyNanos);
+  }
+
+  @Override
+  public void recordTransientFailure(String queueName) {
+    counter(transientFailures, queueName).increment();
+  }
+
+  @Override
+  public void recordRetry(String queueName) {
+    counter(retries, queueName).increment();
+  }
+
+  @Override
+  public void recordDispatch(Class<?> target, long latencyNanos, boolean succeeded) {
+    histogram(dispatchLatencies, target.getName()).record(latencyNanos);
+
+    if (!succeeded) {
+      counter(failedDispatches, target.getName()).increment();
+    }
+  }
+
+  /**
+   * The lag of a task which was already executed includes the backoff after the failure of its handler, so it's
+   * counted as re-execution and not added to the lags. The lag of a task which the Task Queue could not deliver,
+   * as when there were no instances to execute it, is still caused by the queue, so it's added to the lags.
+   */
+  @Override
+  public void recordSchedulingLag(String queueName, Class<?> type, long lagMillis, int retryCount, int executionCount) {
+    if (executionCount > 0) {
+      counter(reexecutions, queueName).increment();
+      return;
+    }
+
+    histogram(schedulingLagsByQueue, queueName).record(lagMillis);
+    histogram(schedulingLagsByType, type.getName()).record(lagMillis);
+  }
+
+  @Override
+  public Map<String, Long> getEnqueuedTasksByQueue() {
+    return counts(enqueuedTasksByQueue);
+  }
+
+  @Override
+  public Map<String, Long> getEnqueuedTasksByType() {
+    return counts(enqueuedTasksByType);
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> getPayloadBytes() {
+    return snapshots(payloadBytes);
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> getEnqueueLatencies() {
+    return snapshots(enqueueLatencies);
+  }
+
+  @Override
+  public Map<String, Long> getTransientFailures() {
+    return counts(transientFailures);
+  }
+
+  @Override
+  public Map<String, Long> getRetries() {
+    return counts(retries);
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> getDispatchLatencies() {
+    return snapshots(dispatchLatencies);
+  }
+
+  @Override
+  public Map<String, Long> getFailedDispatches() {
+    return counts(failedDispatches);
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> getSchedulingLagsByQueue() {
+    return snapshots(schedulingLagsByQueue);
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> getSchedulingLagsByType() {
+    return snapshots(schedulingLagsByType);
+  }
+
+  @Override
+  public Map<String, Long> getReexecutions() {
+    return counts(reexecutions);
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> pollPayloadBytes() {
+    return poll(payloadBytes);
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> pollEnqueueLatencies() {
+    return poll(enqueueLatencies);
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> pollDispatchLatencies() {
+    return poll(dispatchLatencies);
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> pollSchedulingLagsByQueue() {
+    return poll(schedulingLagsByQueue);
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> pollSchedulingLagsByType() {
+    return poll(schedulingLagsByType);
+  }
+
+  @Override
+  public void reset() {
+    enqueuedTasksByQueue.clear();
+    enqueuedTasksByType.clear();
+    payloadBytes.clear();
+    enqueueLatencies.clear();
+    transientFailures.clear();
+    retries.clear();
+    dispatchLatencies.clear();
+    failedDispatches.clear();
+    schedulingLagsByQueue.clear();
+    schedulingLagsByType.clear();
+    reexecutions.clear();
+  }
+
+  private LongAdder counter(ConcurrentMap<String, LongAdder> counters, String name) {
+    LongAdder counter = counters.get(name);
+    if (counter == null) {
+      counters.putIfAbsent(name, new LongAdder());
+      counter = counters.get(name);
+    }
+    return counter;
+  }
+
+  private LogHistogram histogram(ConcurrentMap<String, LogHistogram> histograms, String name) {
+    LogHistogram histogram = histograms.get(name);
+    if (histogram == null) {
+      histograms.putIfAbsent(name, new LogHistogram());
+      histogram = histograms.get(name);
+    }
+    return histogram;
+  }
+
+  private Map<String, Long> counts(Map<String, LongAdder> counters) {
+    ImmutableMap.Builder<String, Long> counts = ImmutableMap.builder();
+    for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+      counts.put(counter.getKey(), counter.getValue().sum());
+    }
+    return counts.build();
+  }
+
+  private Map<String, HistogramSnapshot> snapshots(Map<String, LogHistogram> histograms) {
+    ImmutableMap.Builder<String, HistogramSnapshot> snapshots = ImmutableMap.builder();
+    for (Map.Entry<String, LogHistogram> histogram : histograms.entrySet()) {
+      snapshots.put(histogram.getKey(), histogram.getValue().snapshot());
+    }
+    return snapshots.build();
+  }
+
+  private Map<String, HistogramSnapshot> poll(Map<String, LogHistogram> histograms) {
+    ImmutableMap.Builder<String, HistogramSnapshot> snapshots = ImmutableMap.builder();
+    for (Map.Entry<String, LogHistogram> histogram : histograms.entrySet()) {
+      snapshots.put(histogram.getKey(), histogram.getValue().poll());
+    }
+    return snapshots.build();
+  }
+}
@@ -0,0 +1,101 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import java.util.Map;
+
+/**
+ * The metrics of the {@link InMemoryMetricsRecorder} which are exposed over JMX. The latencies are in nanoseconds
+ * and the scheduling lags in milliseconds.
+ * <p/>
+ * The histograms of the attributes include all values since the start or the last reset. The poll operations give
+ * the histograms of the values since their previous poll, so a monitoring tool which polls them periodically gets
+ * the histograms of each interval.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public interface InMemoryMetricsRecorderMXBean {
+
+  /**
+   * @return the number of added tasks by queue name
+   */
+  Map<String, Long> getEnqueuedTasksByQueue();
+
+  /**
+   * @return the number of added tasks by event or task class
+   */
+  Map<String, Long> getEnqueuedTasksByType();
+
+  /**
+   * @return the sizes of the event payloads by event class
+   */
+  Map<String, HistogramSnapshot> getPayloadBytes();
+
+  /**
+   * @return the latencies of adding of the batches of tasks by queue name
+   */
+  Map<String, HistogramSnapshot> getEnqueueLatencies();
+
+  /**
+   * @return the number of transient failures by queue name
+   */
+  Map<String, Long> getTransientFailures();
+
+  /**
+   * @return the number of retries by queue name
+   */
+  Map<String, Long> getRetries();
+
+  /**
+   * @return the latencies of the dispatches by task, handler or listener class
+   */
+  Map<String, HistogramSnapshot> getDispatchLatencies();
+
+  /**
+   * @return the number of failed dispatches by task, handler or listener class
+   */
+  Map<String, Long> getFailedDispatches();
+
+  /**
+   * @return the scheduling lags by queue name of the tasks which were not executed by a previous attempt
+   */
+  Map<String, HistogramSnapshot> getSchedulingLagsByQueue();
+
+  /**
+   * @return the scheduling lags by event or task class of the tasks which were not executed by a previous attempt
+   */
+  Map<String, HistogramSnapshot> getSchedulingLagsByType();
+
+  /**
+   * @return the number of tasks which were executed again after a failure by queue name
+   */
+  Map<String, Long> getReexecutions();
+
+  /**
+   * @return the sizes of the event payloads by event class since the previous poll
+   */
+  Map<String, HistogramSnapshot> pollPayloadBytes();
+
+  /**
+   * @return the latencies of adding of the batches of tasks by queue name since the previous poll
+   */
+  Map<String, HistogramSnapshot> pollEnqueueLatencies();
+
+  /**
+   * @return the latencies of the dispatches by task, handler or listener class since the previous poll
+   */
+  Map<String, HistogramSnapshot> pollDispatchLatencies();
+
+  /**
+   * @return the scheduling lags by queue name since the previous poll
+   */
+  Map<String, HistogramSnapshot> pollSchedulingLagsByQueue();
+
+  /**
+   * @return the scheduling lags by event or task class since the previous poll
+   */
+  Map<String, HistogramSnapshot> pollSchedulingLagsByType();
+
+  /**
+   * Clears all of the metrics.
+   */
+  void reset();
+}
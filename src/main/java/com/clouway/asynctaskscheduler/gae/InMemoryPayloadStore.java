@@ -0,0 +1,91 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.PayloadStore;
+import com.google.inject.Singleton;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the payloads in memory of the current instance. It's suitable only for tests and for the development
+ * server, where the tasks are executed by the same instance which adds them.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@Singleton
+public class InMemoryPayloadStore implements PayloadStore {
+
+  private final ConcurrentMap<String, byte[]> payloads = new ConcurrentHashMap<String, byte[]>();
+  private final ConcurrentMap<String, Integer> consumers = new ConcurrentHashMap<String, Integer>();
+  private final ConcurrentMap<String, Set<String>> retained = new ConcurrentHashMap<String, Set<String>>();
+  private final ConcurrentMap<String, Set<String>> released = new ConcurrentHashMap<String, Set<String>>();
+
+  @Override
+  public String store(byte[] payload) {
+    String reference = UUID.randomUUID().toString();
+    payloads.put(reference, payload.clone());
+    consumers.put(reference, 1);
+    return reference;
+  }
+
+  @Override
+  public byte[] load(String reference) {
+    byte[] payload = payloads.get(reference);
+    return payload != null ? payload.clone() : null;
+  }
+
+  @Override
+  public synchronized void retain(String reference, int count, String retainer) {
+    Integer current = consumers.get(reference);
+    if (current == null) {
+      return;
+    }
+
+    if (retainer != null) {
+      retained.putIfAbsent(reference, new HashSet<String>());
+      if (!retained.get(reference).add(retainer)) {
+        return;
+      }
+    }
+    consumers.put(reference, current + count);
+  }
+
+  @Override
+  public synchronized void release(String reference, String consumer) {
+    Integer current = consumers.get(reference);
+    if (current == null) {
+      return;
+    }
+
+    if (consumer != null) {
+      released.putIfAbsent(reference, new HashSet<String>());
+      if (!released.get(reference).add(consumer)) {
+        return;
+      }
+    }
+
+    if (current <= 1) {
+      // the released consumers are kept, so the tasks which are executed again could be recognized
+      consumers.remove(reference);
+      payloads.remove(reference);
+    } else {
+      consumers.put(reference, current - 1);
+    }
+  }
+
+  @Override
+  public synchronized boolean isReleasedBy(String reference, String consumer) {
+    Set<String> consumers = released.get(reference);
+    return consumers != null && consumers.contains(consumer);
+  }
+
+  /**
+   * @return the number of the payloads which are not released yet
+   */
+  public int size() {
+    return payloads.size();
+  }
+}
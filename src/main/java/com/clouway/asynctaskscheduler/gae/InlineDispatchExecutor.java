@@ -0,0 +1,163 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.google.appengine.api.ThreadManager;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes the handler and the listeners of the events which are dispatched inline. They are executed in parallel
+ * by the calling thread and up to the maximum number of threads minus one other threads.
+ * <p/>
+ * In a request of the App Engine runtime the other threads are request threads, which could not outlive the request,
+ * so a pool of them is created for each dispatch. Otherwise all of the dispatches share a single executor, which uses
+ * virtual threads when the JVM supports them, or a bounded pool of threads.
+ * <p/>
+ * The calling thread executes the runnables which are not taken by the other threads, so a dispatch completes even
+ * when all threads of the shared pool are busy, as with dispatches from the handlers which are executed by it.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class InlineDispatchExecutor {
+  private static final Logger log = Logger.getLogger(InlineDispatchExecutor.class.getName());
+
+  private final int maxThreads;
+
+  private ExecutorService sharedExecutor;
+
+  /**
+   * @param maxThreads the maximum number of threads which are used by a single dispatch
+   */
+  public InlineDispatchExecutor(int maxThreads) {
+    this.maxThreads = maxThreads;
+  }
+
+  /**
+   * Executes all of the given runnables and waits for them to complete. The failure of one of them
+   * does not affect the others.
+   *
+   * @param runnables the runnables
+   * @return the runnables which failed
+   */
+  public <T extends Runnable> List<T> executeAll(List<T> runnables) {
+    int threads = Math.min(maxThreads, runnables.size());
+    AtomicIntegerArray failures = new AtomicIntegerArray(runnables.size());
+
+    if (threads <= 1) {
+      new Worker(runnables, new AtomicInteger(), failures).run();
+      return failed(runnables, failures);
+    }
+
+    ThreadFactory requestThreadFactory = getRequestThreadFactory();
+    if (requestThreadFactory == null) {
+      executeAll(getSharedExecutor(), threads, runnables, failures);
+      return failed(runnables, failures);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads - 1, requestThreadFactory);
+    try {
+      executeAll(executor, threads, runnables, failures);
+    } finally {
+      executor.shutdownNow();
+    }
+    return failed(runnables, failures);
+  }
+
+  private void executeAll(ExecutorService executor, int threads, List<? extends Runnable> runnables, AtomicIntegerArray failures) {
+    AtomicInteger next = new AtomicInteger();
+
+    List<Future<?>> futures = Lists.newArrayList();
+    for (int i = 1; i < threads; i++) {
+      futures.add(executor.submit(new Worker(runnables, next, failures)));
+    }
+
+    new Worker(runnables, next, failures).run();
+
+    // the workers which are not started yet have nothing left to execute
+    for (Future<?> future : futures) {
+      if (!future.cancel(false) && !await(future)) {
+        return;
+      }
+    }
+  }
+
+  private <T> List<T> failed(List<T> runnables, AtomicIntegerArray failures) {
+    List<T> failed = Lists.newArrayList();
+    for (int i = 0; i < runnables.size(); i++) {
+      if (failures.get(i) != 0) {
+        failed.add(runnables.get(i));
+      }
+    }
+    return failed;
+  }
+
+  private boolean await(Future<?> future) {
+    try {
+      future.get();
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (ExecutionException e) {
+      return true;
+    } catch (CancellationException e) {
+      return true;
+    }
+  }
+
+  private synchronized ExecutorService getSharedExecutor() {
+    if (sharedExecutor == null) {
+      sharedExecutor = LocalTaskExecutor.newExecutorService(maxThreads, "inline-dispatch");
+    }
+    return sharedExecutor;
+  }
+
+  private ThreadFactory getRequestThreadFactory() {
+    try {
+      return ThreadManager.currentRequestThreadFactory();
+    } catch (RuntimeException e) {
+      // not in a request of the App Engine runtime
+    } catch (LinkageError e) {
+      // the runtime classes of App Engine are not available
+    }
+    return null;
+  }
+
+  /**
+   * Executes the runnables which are not taken by the other workers of the same dispatch.
+   */
+  private static final class Worker implements Runnable {
+    private final List<? extends Runnable> runnables;
+    private final AtomicInteger next;
+    private final AtomicIntegerArray failures;
+
+    private Worker(List<? extends Runnable> runnables, AtomicInteger next, AtomicIntegerArray failures) {
+      this.runnables = runnables;
+      this.next = next;
+      this.failures = failures;
+    }
+
+    @Override
+    public void run() {
+      for (int index = next.getAndIncrement(); index < runnables.size(); index = next.getAndIncrement()) {
+        Runnable runnable = runnables.get(index);
+        try {
+          runnable.run();
+        } catch (RuntimeException e) {
+          log.log(Level.WARNING, "Inline dispatch of " + runnable + " failed.", e);
+          failures.set(index, 1);
+        }
+      }
+    }
+  }
+}
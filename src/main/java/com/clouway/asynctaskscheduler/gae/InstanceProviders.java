@@ -0,0 +1,87 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.google.inject.Binding;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.google.inject.Scopes;
+import com.google.inject.Singleton;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Providers of the tasks, handlers and listeners which are executed by the workers. The provider of each class is
+ * resolved from the injector only once, so executing a task costs a single call of its provider. Instances of
+ * singleton classes are created once and reused.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@Singleton
+public class InstanceProviders {
+
+  private final Injector injector;
+  private final ConcurrentMap<Class<?>, Provider<?>> providers = new ConcurrentHashMap<Class<?>, Provider<?>>();
+
+  @Inject
+  public InstanceProviders(Injector injector) {
+    this.injector = injector;
+  }
+
+  /**
+   * @param type the class
+   * @return the cached provider of the class
+   */
+  @SuppressWarnings("unchecked")
+  public <T> Provider<T> get(Class<T> type) {
+    Provider<T> provider = (Provider<T>) providers.get(type);
+
+    if (provider == null) {
+      provider = createProvider(type);
+      Provider<T> existing = (Provider<T>) providers.putIfAbsent(type, provider);
+      if (existing != null) {
+        provider = existing;
+      }
+    }
+    return provider;
+  }
+
+  /**
+   * @param type the class
+   * @return an instance of the class
+   */
+  public <T> T getInstance(Class<T> type) {
+    return get(type).get();
+  }
+
+  private <T> Provider<T> createProvider(Class<T> type) {
+    Binding<T> binding = injector.getBinding(type);
+
+    if (Scopes.isSingleton(binding)) {
+      return new SingletonProvider<T>(binding.getProvider());
+    }
+    return binding.getProvider();
+  }
+
+  /**
+   * Provider which creates the singleton instance on the first call, so it's not created before it's needed.
+   */
+  private static final class SingletonProvider<T> implements Provider<T> {
+    private final Provider<T> provider;
+    private volatile T instance;
+
+    private SingletonProvider(Provider<T> provider) {
+      this.provider = provider;
+    }
+
+    @Override
+    public T get() {
+      T result = instance;
+      if (result == null) {
+        result = provider.get();
+        instance = result;
+      }
+      return result;
+    }
+  }
+}
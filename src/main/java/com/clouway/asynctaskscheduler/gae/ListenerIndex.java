@@ -0,0 +1,118 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.AsyncEvent;
+import com.clouway.asynctaskscheduler.spi.AsyncEventBusBinder.ListenerClazz;
+import com.clouway.asynctaskscheduler.spi.AsyncEventListener;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the listeners which are registered through the {@link com.clouway.asynctaskscheduler.spi.AsyncEventBusBinder}
+ * by the event which they listen for. The index is built once when the injector is created, so dispatching of events
+ * does not need any reflection.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@Singleton
+public class ListenerIndex {
+
+  private final ImmutableMap<Class<?>, ImmutableList<Class<? extends AsyncEventListener>>> listeners;
+  private final ImmutableMap<Class<?>, ImmutableMap<String, Class<? extends AsyncEventListener>>> listenersByName;
+
+  @Inject
+  public ListenerIndex(Set<ListenerClazz> listenerClazzs) {
+    Map<Class<?>, Map<String, Class<? extends AsyncEventListener>>> eventListeners = new LinkedHashMap<Class<?>, Map<String, Class<? extends AsyncEventListener>>>();
+    Map<Class<?>, Map<String, Class<? extends AsyncEventListener>>> eventListenersByName = new LinkedHashMap<Class<?>, Map<String, Class<? extends AsyncEventListener>>>();
+
+    for (ListenerClazz listenerClazz : listenerClazzs) {
+      Class<? extends AsyncEventListener> listenerClass = listenerClazz.getValue();
+      Class<?> eventClass = getListenerEventClass(listenerClass);
+
+      if (eventClass == null) {
+        continue;
+      }
+
+      // the same listener could be registered more than once
+      put(eventListeners, eventClass, listenerClass.getName(), listenerClass);
+      put(eventListenersByName, eventClass, listenerClass.getSimpleName(), listenerClass);
+    }
+
+    ImmutableMap.Builder<Class<?>, ImmutableList<Class<? extends AsyncEventListener>>> listeners = ImmutableMap.builder();
+    for (Map.Entry<Class<?>, Map<String, Class<? extends AsyncEventListener>>> entry : eventListeners.entrySet()) {
+      listeners.put(entry.getKey(), ImmutableList.copyOf(entry.getValue().values()));
+    }
+    this.listeners = listeners.build();
+
+    ImmutableMap.Builder<Class<?>, ImmutableMap<String, Class<? extends AsyncEventListener>>> listenersByName = ImmutableMap.builder();
+    for (Map.Entry<Class<?>, Map<String, Class<? extends AsyncEventListener>>> entry : eventListenersByName.entrySet()) {
+      listenersByName.put(entry.getKey(), ImmutableMap.copyOf(entry.getValue()));
+    }
+    this.listenersByName = listenersByName.build();
+  }
+
+  /**
+   * @return the events which have listeners
+   */
+  public Set<Class<?>> getEventClasses() {
+    return listeners.keySet();
+  }
+
+  /**
+   * @param eventClass the event class
+   * @return the listeners of the event in the order of their registration
+   */
+  public List<Class<? extends AsyncEventListener>> getListenerClasses(Class<? extends AsyncEvent> eventClass) {
+    ImmutableList<Class<? extends AsyncEventListener>> eventListeners = listeners.get(eventClass);
+    return eventListeners != null ? eventListeners : ImmutableList.<Class<? extends AsyncEventListener>>of();
+  }
+
+  /**
+   * @param eventClass   the event class
+   * @param listenerName the simple name of the listener class
+   * @return the listener of the event with the given name or null if there is no such listener
+   */
+  public Class<? extends AsyncEventListener> getListenerClass(Class<? extends AsyncEvent> eventClass, String listenerName) {
+    ImmutableMap<String, Class<? extends AsyncEventListener>> eventListeners = listenersByName.get(eventClass);
+    return eventListeners != null ? eventListeners.get(listenerName) : null;
+  }
+
+  private void put(Map<Class<?>, Map<String, Class<? extends AsyncEventListener>>> index, Class<?> eventClass, String key, Class<? extends AsyncEventListener> listenerClass) {
+    Map<String, Class<? extends AsyncEventListener>> eventListeners = index.get(eventClass);
+    if (eventListeners == null) {
+      eventListeners = Maps.newLinkedHashMap();
+      index.put(eventClass, eventListeners);
+    }
+
+    // the first registered listener with the given key is used
+    if (!eventListeners.containsKey(key)) {
+      eventListeners.put(key, listenerClass);
+    }
+  }
+
+  private Class<?> getListenerEventClass(Class<? extends AsyncEventListener> listenerClass) {
+    Type[] paramTypes = listenerClass.getGenericInterfaces();
+
+    ParameterizedType listenerType = null;
+    for (Type type : paramTypes) {
+      if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType().equals(AsyncEventListener.class)) {
+        listenerType = (ParameterizedType) type;
+      }
+    }
+
+    if (listenerType != null && listenerType.getActualTypeArguments()[0] instanceof Class) {
+      return (Class<?>) listenerType.getActualTypeArguments()[0]; //0 because we have only 1 generic type for listeners
+    }
+
+    return null;
+  }
+}
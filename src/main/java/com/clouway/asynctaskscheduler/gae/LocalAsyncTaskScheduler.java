@@ -0,0 +1,206 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.AsyncEvent;
+import com.clouway.asynctaskscheduler.spi.AsyncEventListener;
+import com.clouway.asynctaskscheduler.spi.AsyncEventListenersFactory;
+import com.clouway.asynctaskscheduler.spi.AsyncTaskOptions;
+import com.clouway.asynctaskscheduler.spi.AsyncTaskScheduler;
+import com.clouway.asynctaskscheduler.spi.EventTransport;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * {@link AsyncTaskScheduler} which executes the tasks and the events in the current process instead of adding
+ * them in the Task Queue, so it could be used by services and tests which don't run on App Engine. The tasks are
+ * dispatched by the {@link RoutingTaskDispatcher} and the {@link RoutingEventDispatcher} as they are by the task
+ * queue servlet, and the events are serialized, so the handler and each of the listeners get their own copy.
+ * <p/>
+ * The handler and the listeners of an event are executed as separate tasks in the queues which are resolved by the
+ * {@link QueueRoutingTable}. The tasks are executed by the {@link LocalTaskExecutor} regardless of the current
+ * transaction.
+ * <p/>
+ * It's enabled by {@link BackgroundTasksModule#executeTasksInProcess()}.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class LocalAsyncTaskScheduler implements AsyncTaskScheduler {
+
+  private final List<AsyncTaskOptions> taskOptions = Lists.newArrayList();
+
+  private final LocalTaskExecutor taskExecutor;
+  private final QueueRoutingTable queueRoutingTable;
+  private final CommonParamBinder commonParamBinder;
+  private final EventTransport eventTransport;
+  private final AsyncEventListenersFactory listenersFactory;
+  private final Provider<RoutingEventDispatcher> eventDispatcher;
+  private final Provider<RoutingTaskDispatcher> taskDispatcher;
+  private final TaskPayloads taskPayloads;
+
+  @Inject
+  public LocalAsyncTaskScheduler(LocalTaskExecutor taskExecutor,
+                                 QueueRoutingTable queueRoutingTable,
+                                 CommonParamBinder commonParamBinder,
+                                 EventTransports eventTransport,
+                                 AsyncEventListenersFactory listenersFactory,
+                                 Provider<RoutingEventDispatcher> eventDispatcher,
+                                 Provider<RoutingTaskDispatcher> taskDispatcher,
+                                 TaskPayloads taskPayloads) {
+    this.taskExecutor = taskExecutor;
+    this.queueRoutingTable = queueRoutingTable;
+    this.commonParamBinder = commonParamBinder;
+    this.eventTransport = eventTransport;
+    this.listenersFactory = listenersFactory;
+    this.eventDispatcher = eventDispatcher;
+    this.taskDispatcher = taskDispatcher;
+    this.taskPayloads = taskPayloads;
+  }
+
+  @Override
+  public AsyncTaskScheduler add(AsyncTaskOptions asyncTaskOptions) {
+    taskOptions.add(asyncTaskOptions);
+    return this;
+  }
+
+  @Override
+  public AsyncTaskScheduler add(AsyncTaskOptions... asyncTaskOptions) {
+    for (AsyncTaskOptions asyncTaskOption : asyncTaskOptions) {
+      taskOptions.add(asyncTaskOption);
+    }
+    return this;
+  }
+
+  /**
+   * Passes all of the tasks to the {@link LocalTaskExecutor}.
+   */
+  @Override
+  public void now() {
+    Map<String, String> commonParams = new HashMap<String, String>();
+    commonParamBinder.bindCommonParams(commonParams);
+
+    long nowMillis = System.currentTimeMillis();
+
+    for (AsyncTaskOptions taskOption : taskOptions) {
+      for (String paramKey : commonParams.keySet()) {
+        taskOption.param(paramKey, commonParams.get(paramKey));
+      }
+
+      long delayMillis = taskOption.getExecutionDateMills() > 0 ? taskOption.getExecutionDateMills() - nowMillis : taskOption.getDelayMills();
+
+      if (taskOption.isEventTaskOption()) {
+        executeEvent(taskOption, delayMillis);
+      } else {
+        executeTask(taskOption, delayMillis);
+      }
+    }
+    taskOptions.clear();
+  }
+
+  /**
+   * The tasks are passed to the {@link LocalTaskExecutor} immediately, so the returned future is already completed.
+   */
+  @Override
+  public Future<Void> nowAsync() {
+    now();
+    return Futures.immediateFuture(null);
+  }
+
+  private void executeTask(final AsyncTaskOptions taskOption, long delayMillis) {
+    String queueName = queueRoutingTable.getTaskQueueName(taskOption.getAsyncTask());
+
+    if (!isFirstNamedTask(queueName, taskOption)) {
+      return;
+    }
+
+    Map<String, String> taskParams = new HashMap<String, String>(taskOption.getParams());
+    taskPayloads.addPayload(taskParams, taskOption.getTaskPayload());
+
+    final Map<String, String[]> params = new HashMap<String, String[]>();
+    for (Map.Entry<String, String> param : taskParams.entrySet()) {
+      params.put(param.getKey(), new String[]{param.getValue()});
+    }
+
+    taskExecutor.execute(queueName, delayMillis, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          taskDispatcher.get().dispatchAsyncTask(params, taskOption.getAsyncTaskAsString());
+        } catch (ClassNotFoundException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+
+      @Override
+      public String toString() {
+        return taskOption.getAsyncTaskAsString();
+      }
+    });
+  }
+
+  private void executeEvent(AsyncTaskOptions taskOption, long delayMillis) {
+    AsyncEvent event = taskOption.getEvent();
+
+    if (!isFirstNamedTask(queueRoutingTable.getEventQueueName(event, taskOption.getEventListenerClass()), taskOption)) {
+      return;
+    }
+
+    byte[] payload = taskOption.getEventPayload() != null ? taskOption.getEventPayload() : getAsyncEventPayload(event);
+
+    if (taskOption.getEventListenerClass() != null) {
+      executeEventTarget(event, payload, taskOption.getEventListenerClass(), null, delayMillis);
+
+    } else if (taskOption.getEventHandlerClass() != null) {
+      executeEventTarget(event, payload, null, taskOption.getEventHandlerClass().getSimpleName(), delayMillis);
+
+    } else {
+
+      // the handler and the listeners are executed as the tasks which are added by the routing task
+      if (event.getAssociatedHandlerClass() != null) {
+        executeEventTarget(event, payload, null, event.getAssociatedHandlerClass().getSimpleName(), delayMillis);
+      }
+      for (Class<? extends AsyncEventListener> listener : listenersFactory.getListenerClasses(event.getClass())) {
+        executeEventTarget(event, payload, listener, null, delayMillis);
+      }
+    }
+  }
+
+  private void executeEventTarget(AsyncEvent event, final byte[] payload, Class<? extends AsyncEventListener> listener, final String handlerName, long delayMillis) {
+    String queueName = queueRoutingTable.getEventQueueName(event, listener);
+    final String eventClassName = event.getClass().getName();
+    final String listenerName = listener != null ? listener.getSimpleName() : null;
+
+    taskExecutor.execute(queueName, delayMillis, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          eventDispatcher.get().dispatchEvent(eventClassName, new ByteArrayInputStream(payload), listenerName, handlerName);
+        } catch (ClassNotFoundException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+
+      @Override
+      public String toString() {
+        return eventClassName + (listenerName != null ? " " + listenerName : "");
+      }
+    });
+  }
+
+  private boolean isFirstNamedTask(String queueName, AsyncTaskOptions taskOption) {
+    return taskOption.getTaskName() == null || taskExecutor.registerTaskName(queueName, taskOption.getTaskName());
+  }
+
+  private byte[] getAsyncEventPayload(AsyncEvent event) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    eventTransport.out(event.getClass(), event, outputStream);
+    return outputStream.toByteArray();
+  }
+}
@@ -0,0 +1,243 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes the tasks of the {@link LocalAsyncTaskScheduler} in the current process. Delayed tasks are kept in
+ * a {@link HashedTimerWheel} until they are due. Each queue could be limited to a number of concurrently executed
+ * tasks, and the tasks above the limit wait in the queue instead of occupying threads of the executor.
+ * <p/>
+ * Failed tasks are logged and are not retried.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class LocalTaskExecutor {
+  private static final Logger log = Logger.getLogger(LocalTaskExecutor.class.getName());
+
+  private static final long TICK_MILLIS = 10;
+  private static final int TICKS_PER_WHEEL = 512;
+
+  private final ExecutorService executor;
+  private final Map<String, Integer> queueConcurrency;
+  private final HashedTimerWheel timerWheel;
+  private final ConcurrentMap<String, LocalQueue> queues = new ConcurrentHashMap<String, LocalQueue>();
+  private final Set<String> namedTasks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final AtomicInteger pendingTasks = new AtomicInteger();
+  private final Object idleLock = new Object();
+
+  /**
+   * @param executor         the executor of the tasks
+   * @param queueConcurrency the maximum number of concurrently executed tasks of the queues which are limited
+   */
+  public LocalTaskExecutor(ExecutorService executor, Map<String, Integer> queueConcurrency) {
+    this.executor = executor;
+    this.queueConcurrency = ImmutableMap.copyOf(queueConcurrency);
+    this.timerWheel = new HashedTimerWheel(TICK_MILLIS, TICKS_PER_WHEEL, executor, new DaemonThreadFactory("local-task-timer"));
+  }
+
+  /**
+   * Creates an executor which starts a virtual thread for each task when the JVM supports them, or a bounded
+   * pool of threads otherwise.
+   *
+   * @param maxThreads the number of threads of the pool
+   * @return the executor
+   */
+  public static ExecutorService newExecutorService(int maxThreads) {
+    return newExecutorService(maxThreads, "local-task");
+  }
+
+  /**
+   * Creates an executor which starts a virtual thread for each task when the JVM supports them, or a bounded
+   * pool of daemon threads with the given name otherwise.
+   *
+   * @param maxThreads the number of threads of the pool
+   * @param threadName the name of the threads of the pool
+   * @return the executor
+   */
+  static ExecutorService newExecutorService(int maxThreads, String threadName) {
+    try {
+
+      Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+
+    } catch (NoSuchMethodException e) {
+      // virtual threads are not supported by the JVM
+    } catch (Exception e) {
+      log.log(Level.WARNING, "Virtual threads could not be used for the " + threadName + " threads.", e);
+    }
+    return Executors.newFixedThreadPool(Math.max(1, maxThreads), new DaemonThreadFactory(threadName));
+  }
+
+  /**
+   * Executes the task in the given queue after the given delay.
+   *
+   * @param queueName   the queue name or empty for the default queue
+   * @param delayMillis the delay in milliseconds
+   * @param task        the task
+   */
+  public void execute(String queueName, long delayMillis, final Runnable task) {
+    final LocalQueue queue = getQueue(queueName);
+    pendingTasks.incrementAndGet();
+
+    if (delayMillis <= 0) {
+      queue.add(task);
+      return;
+    }
+
+    timerWheel.schedule(new Runnable() {
+      @Override
+      public void run() {
+        queue.add(task);
+      }
+    }, delayMillis);
+  }
+
+  /**
+   * Registers the name of a task, so a task with the same name is executed only once.
+   *
+   * @param queueName the queue name
+   * @param taskName  the task name
+   * @return true if the task was not registered yet
+   */
+  public boolean registerTaskName(String queueName, String taskName) {
+    return namedTasks.add(queueName + ":" + taskName);
+  }
+
+  /**
+   * Waits for all of the executed and delayed tasks to complete, including the tasks which are added by them.
+   *
+   * @param timeout the maximum time to wait
+   * @param unit    the unit of the timeout
+   * @return true if there are no pending tasks
+   * @throws InterruptedException if the current thread is interrupted while waiting
+   */
+  public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    synchronized (idleLock) {
+      while (pendingTasks.get() > 0) {
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMillis <= 0) {
+          return false;
+        }
+        idleLock.wait(remainingMillis);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stops the execution of the tasks. The delayed tasks which are not due yet are not executed.
+   */
+  public void shutdown() {
+    timerWheel.stop();
+    executor.shutdown();
+  }
+
+  private LocalQueue getQueue(String queueName) {
+    LocalQueue queue = queues.get(queueName);
+    if (queue == null) {
+      Integer concurrency = queueConcurrency.get(queueName);
+      queue = new LocalQueue(queueName, concurrency != null ? concurrency : Integer.MAX_VALUE);
+
+      LocalQueue existing = queues.putIfAbsent(queueName, queue);
+      if (existing != null) {
+        queue = existing;
+      }
+    }
+    return queue;
+  }
+
+  private void completed() {
+    if (pendingTasks.decrementAndGet() == 0) {
+      synchronized (idleLock) {
+        idleLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Queue which passes its tasks to the executor only while it's below its concurrency limit.
+   */
+  private final class LocalQueue {
+    private final String name;
+    private final Semaphore permits;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private LocalQueue(String name, int concurrency) {
+      this.name = name;
+      this.permits = new Semaphore(Math.max(1, concurrency));
+    }
+
+    private void add(Runnable task) {
+      tasks.add(task);
+      drain();
+    }
+
+    private void drain() {
+      // the task which is added after a poll, but before the permit is released, is taken by the next loop
+      while (!tasks.isEmpty() && permits.tryAcquire()) {
+        final Runnable task = tasks.poll();
+
+        if (task == null) {
+          permits.release();
+          continue;
+        }
+
+        try {
+          executor.execute(new Runnable() {
+            @Override
+            public void run() {
+              try {
+                task.run();
+              } catch (RuntimeException e) {
+                log.log(Level.SEVERE, "Task " + task + " of queue '" + name + "' failed.", e);
+              } finally {
+                permits.release();
+                completed();
+                drain();
+              }
+            }
+          });
+        } catch (RuntimeException e) {
+          permits.release();
+          completed();
+          log.log(Level.SEVERE, "Task " + task + " of queue '" + name + "' could not be executed.", e);
+        }
+      }
+    }
+  }
+
+  private static final class DaemonThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private DaemonThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Lock-free histogram of non-negative values with a bucket for each power of two, so the percentiles are
+ * accurate up to a factor of two. The counters are striped, so concurrent recording does not contend.
+ * <p/>
+ * Besides the snapshot of all recorded values, {@link #poll()} gives the snapshot of the values which were recorded
+ * since the previous poll. The counters are not reset, so the values which are recorded during a poll are not lost.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+final class LogHistogram {
+
+  private static final int BUCKETS = 64;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+    @Override
+    public long applyAsLong(long left, long right) {
+      return Math.max(left, right);
+    }
+  }, 0);
+  private final LongAccumulator intervalMax = new LongAccumulator(new LongBinaryOperator() {
+    @Override
+    public long applyAsLong(long left, long right) {
+      return Math.max(left, right);
+    }
+  }, 0);
+
+  private final long[] polledCounts = new long[BUCKETS];
+  private long polledSum;
+
+  LogHistogram() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    // 0 is in the first bucket and the values from 2^(i-1) to 2^i - 1 in the i-th
+    buckets[Math.min(BUCKETS - Long.numberOfLeadingZeros(value), BUCKETS - 1)].increment();
+    sum.add(value);
+    max.accumulate(value);
+    intervalMax.accumulate(value);
+  }
+
+  HistogramSnapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets[i].sum();
+    }
+    return snapshot(counts, sum.sum(), max.get());
+  }
+
+  /**
+   * @return the snapshot of the values which were recorded since the previous poll
+   */
+  synchronized HistogramSnapshot poll() {
+    long maxValue = intervalMax.getThenReset();
+
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      long count = buckets[i].sum();
+      counts[i] = count - polledCounts[i];
+      polledCounts[i] = count;
+    }
+
+    long total = sum.sum();
+    long intervalSum = total - polledSum;
+    polledSum = total;
+
+    return snapshot(counts, intervalSum, maxValue);
+  }
+
+  private HistogramSnapshot snapshot(long[] counts, long sum, long maxValue) {
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+
+    return new HistogramSnapshot(total, total == 0 ? 0 : sum / total,
+            percentile(counts, total, 0.5, maxValue), percentile(counts, total, 0.9, maxValue),
+            percentile(counts, total, 0.99, maxValue), maxValue);
+  }
+
+  /**
+   * @return the upper bound of the bucket which contains the percentile, but not more than the maximum
+   */
+  private long percentile(long[] counts, long total, double percentile, long maxValue) {
+    long rank = (long) Math.ceil(total * percentile);
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank && seen > 0) {
+        long upperBound = i == 0 ? 0 : (i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+        return Math.min(upperBound, maxValue);
+      }
+    }
+    return 0;
+  }
+}
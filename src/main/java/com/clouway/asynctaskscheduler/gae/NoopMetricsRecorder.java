@@ -0,0 +1,35 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.MetricsRecorder;
+
+/**
+ * Doesn't record anything.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class NoopMetricsRecorder implements MetricsRecorder {
+
+  @Override
+  public void recordEnqueue(String queueName, Class<?> type, int payloadBytes) {
+  }
+
+  @Override
+  public void recordEnqueueLatency(String queueName, int tasks, long latencyNanos) {
+  }
+
+  @Override
+  public void recordTransientFailure(String queueName) {
+  }
+
+  @Override
+  public void recordRetry(String queueName) {
+  }
+
+  @Override
+  public void recordDispatch(Class<?> target, long latencyNanos, boolean succeeded) {
+  }
+
+  @Override
+  public void recordSchedulingLag(String queueName, Class<?> type, long lagMillis, int retryCount, int executionCount) {
+  }
+}
@@ -0,0 +1,128 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.AsyncEvent;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Configuration of the compression of event payloads. Payloads smaller than the threshold are never compressed.
+ * <p/>
+ * Compression is configured when installing the {@link BackgroundTasksModule}:
+ * <pre>
+ *
+ *    install(new BackgroundTasksModule() {
+ *
+ *      &#64;Override
+ *      protected PayloadCompression getPayloadCompression() {
+ *        return PayloadCompression.deflate(1024).dictionary(ContractSignedEvent.class, CONTRACT_EVENT_DICTIONARY);
+ *      }
+ *    })
+ *
+ * </pre>
+ * Dictionaries must be the same on all instances that add and execute the tasks.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public final class PayloadCompression {
+
+  public enum Codec {
+    DEFLATE("deflate"), GZIP("gzip");
+
+    private final String name;
+
+    Codec(String name) {
+      this.name = name;
+    }
+
+    /**
+     * @return the name of the codec which is sent with the task
+     */
+    public String getName() {
+      return name;
+    }
+
+    public static Codec forName(String name) {
+      for (Codec codec : values()) {
+        if (codec.name.equals(name)) {
+          return codec;
+        }
+      }
+      throw new IllegalArgumentException("Unknown payload codec: " + name);
+    }
+  }
+
+  /**
+   * Compression is disabled, but compressed payloads are still decompressed, so it could be safely turned off.
+   *
+   * @return the configuration
+   */
+  public static PayloadCompression disabled() {
+    return new PayloadCompression(null, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param thresholdBytes the minimum size of payloads which are compressed
+   * @return a configuration which compresses payloads with deflate
+   */
+  public static PayloadCompression deflate(int thresholdBytes) {
+    return new PayloadCompression(Codec.DEFLATE, thresholdBytes);
+  }
+
+  /**
+   * @param thresholdBytes the minimum size of payloads which are compressed
+   * @return a configuration which compresses payloads with gzip
+   */
+  public static PayloadCompression gzip(int thresholdBytes) {
+    return new PayloadCompression(Codec.GZIP, thresholdBytes);
+  }
+
+  private final Codec codec;
+  private final int thresholdBytes;
+  private final Map<String, byte[]> dictionaries = Maps.newHashMap();
+  private int level = Deflater.DEFAULT_COMPRESSION;
+
+  private PayloadCompression(Codec codec, int thresholdBytes) {
+    this.codec = codec;
+    this.thresholdBytes = thresholdBytes;
+  }
+
+  /**
+   * Sets a preset dictionary for the payloads of the given event class. Dictionaries are used only by deflate.
+   *
+   * @param eventClass the event class
+   * @param dictionary the dictionary, which should contain the strings that are most common for the event
+   * @return this configuration
+   */
+  public PayloadCompression dictionary(Class<? extends AsyncEvent> eventClass, byte[] dictionary) {
+    dictionaries.put(eventClass.getName(), dictionary.clone());
+    return this;
+  }
+
+  /**
+   * @param level the compression level from 0 to 9
+   * @return this configuration
+   */
+  public PayloadCompression level(int level) {
+    this.level = level;
+    return this;
+  }
+
+  public Codec getCodec() {
+    return codec;
+  }
+
+  public int getThresholdBytes() {
+    return thresholdBytes;
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  public Map<String, byte[]> getDictionaries() {
+    return Collections.unmodifiableMap(dictionaries);
+  }
+}
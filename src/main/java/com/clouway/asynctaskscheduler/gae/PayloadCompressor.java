@@ -0,0 +1,226 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.gae.PayloadCompression.Codec;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the event payloads which are above the configured threshold and decompresses them before dispatching.
+ * A compressed payload is sent only if it's smaller than the original one.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class PayloadCompressor {
+
+  private static final int BUFFER_SIZE = 4096;
+
+  private final PayloadCompression compression;
+  private final ConcurrentMap<String, CompressionStats> stats = new ConcurrentHashMap<String, CompressionStats>();
+
+  public PayloadCompressor(PayloadCompression compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * @return the codec used for compression or null if the compression is disabled
+   */
+  public Codec getCodec() {
+    return compression.getCodec();
+  }
+
+  /**
+   * Compresses the payload of an event.
+   *
+   * @param eventClassName the name of the event class
+   * @param payload        the payload
+   * @return the compressed payload or null if the payload should be sent as it is
+   */
+  public byte[] compress(String eventClassName, byte[] payload) {
+    Codec codec = compression.getCodec();
+    if (codec == null || payload.length < compression.getThresholdBytes()) {
+      return null;
+    }
+
+    long start = System.nanoTime();
+    byte[] compressed;
+    if (codec == Codec.GZIP) {
+      compressed = gzip(payload);
+    } else {
+      compressed = deflate(payload, compression.getDictionaries().get(eventClassName));
+    }
+    boolean used = compressed.length < payload.length;
+
+    getStats(eventClassName).recordCompression(payload.length, compressed.length, System.nanoTime() - start, used);
+
+    return used ? compressed : null;
+  }
+
+  /**
+   * Decompresses the payload of an event.
+   *
+   * @param eventClassName the name of the event class
+   * @param codecName      the name of the codec which was used for the compression
+   * @param compressed     the compressed payload
+   * @return the original payload
+   */
+  public byte[] decompress(String eventClassName, String codecName, byte[] compressed) {
+    long start = System.nanoTime();
+    byte[] payload;
+    if (Codec.forName(codecName) == Codec.GZIP) {
+      payload = gunzip(compressed);
+    } else {
+      payload = inflate(compressed, compression.getDictionaries().get(eventClassName));
+    }
+
+    getStats(eventClassName).recordDecompression(System.nanoTime() - start);
+
+    return payload;
+  }
+
+  /**
+   * Decodes an event payload which is sent as base64url encoded task parameter and decompresses it if it's
+   * compressed.
+   *
+   * @param eventClassName the name of the event class
+   * @param codecName      the name of the codec or null if the payload is not compressed
+   * @param param          the value of the parameter
+   * @return the payload
+   */
+  public byte[] decodeParam(String eventClassName, String codecName, String param) {
+    byte[] payload = BaseEncoding.base64Url().omitPadding().decode(param);
+
+    if (Strings.isNullOrEmpty(codecName)) {
+      return payload;
+    }
+    return decompress(eventClassName, codecName, payload);
+  }
+
+  /**
+   * Decompresses an event payload which is sent as base64url encoded task parameter.
+   *
+   * @param eventClassName the name of the event class
+   * @param codecName      the name of the codec or null if the payload is not compressed
+   * @param param          the value of the parameter
+   * @return the payload as string
+   */
+  public String decompressParam(String eventClassName, String codecName, String param) {
+    if (Strings.isNullOrEmpty(codecName) || Strings.isNullOrEmpty(param)) {
+      return param;
+    }
+
+    byte[] compressed = BaseEncoding.base64Url().omitPadding().decode(param);
+    return new String(decompress(eventClassName, codecName, compressed), Charsets.UTF_8);
+  }
+
+  /**
+   * @return the compression statistics of each event class
+   */
+  public Map<String, CompressionStats> getStats() {
+    return ImmutableMap.copyOf(stats);
+  }
+
+  private CompressionStats getStats(String eventClassName) {
+    CompressionStats eventStats = stats.get(eventClassName);
+    if (eventStats == null) {
+      stats.putIfAbsent(eventClassName, new CompressionStats());
+      eventStats = stats.get(eventClassName);
+    }
+    return eventStats;
+  }
+
+  private byte[] deflate(byte[] payload, byte[] dictionary) {
+    Deflater deflater = new Deflater(compression.getLevel());
+    try {
+      if (dictionary != null) {
+        deflater.setDictionary(dictionary);
+      }
+      deflater.setInput(payload);
+      deflater.finish();
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2 + 16);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private byte[] inflate(byte[] compressed, byte[] dictionary) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 3);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      while (!inflater.finished()) {
+        int count = inflater.inflate(buffer);
+        if (count == 0) {
+          if (inflater.needsDictionary()) {
+            if (dictionary == null || adler(dictionary) != inflater.getAdler()) {
+              throw new IllegalStateException("The payload was compressed with a dictionary which is not configured.");
+            }
+            inflater.setDictionary(dictionary);
+          } else if (inflater.needsInput()) {
+            throw new IllegalStateException("The compressed payload is truncated.");
+          }
+        }
+        out.write(buffer, 0, count);
+      }
+      return out.toByteArray();
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("The compressed payload is corrupted.", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  private byte[] gzip(byte[] payload) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2 + 32);
+      GZIPOutputStream gzip = new GZIPOutputStream(out);
+      gzip.write(payload);
+      gzip.close();
+      return out.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private byte[] gunzip(byte[] compressed) {
+    try {
+      GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed));
+      try {
+        return ByteStreams.toByteArray(gzip);
+      } finally {
+        gzip.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("The compressed payload is corrupted.", e);
+    }
+  }
+
+  private int adler(byte[] dictionary) {
+    Adler32 adler = new Adler32();
+    adler.update(dictionary, 0, dictionary.length);
+    return (int) adler.getValue();
+  }
+}
@@ -0,0 +1,74 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.google.common.collect.Lists;
+import com.google.inject.servlet.RequestScoped;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps track of the task adds which were started asynchronously during the current request, so all of them
+ * could be joined before the request completes.
+ * <p/>
+ * Futures of the async methods of {@link com.clouway.asynctaskscheduler.spi.AsyncEventBus} are registered
+ * here automatically when they are called in a request scope:
+ * <pre>
+ *   eventBus.fireEventAsync(new ContractSignedEvent(contractId));
+ *   eventBus.fireEventAsync(new CustomerNotifiedEvent(customerId));
+ *   ...
+ *   pendingTaskAdds.awaitAll();
+ * </pre>
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@RequestScoped
+public class PendingTaskAdds {
+
+  private final List<Future<Void>> futures = Lists.newArrayList();
+
+  /**
+   * Registers the future of an asynchronous add.
+   *
+   * @param future the future to be joined
+   */
+  public synchronized void add(Future<Void> future) {
+    futures.add(future);
+  }
+
+  /**
+   * Waits for all of the registered adds to complete. All of them are joined even if some fail and the first
+   * failure is re-thrown afterwards.
+   */
+  public void awaitAll() {
+    List<Future<Void>> pending;
+
+    synchronized (this) {
+      pending = Lists.newArrayList(futures);
+      futures.clear();
+    }
+
+    RuntimeException failure = null;
+
+    for (Future<Void> future : pending) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+        }
+      } catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
@@ -0,0 +1,294 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueConstants;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Leases tasks from a pull queue and executes them one after another in the current request, so the overhead of
+ * a request per task is avoided. Tasks are added in pull queues when they are configured by
+ * {@link BackgroundTasksModule#getPullQueues()}.
+ * <p/>
+ * The executed tasks are deleted together after each lease. A failed task is not deleted, so it's leased again
+ * when its lease expires. The number of leased tasks adapts to the observed execution time of the tasks, so
+ * a lease is enough for all of them.
+ * <p/>
+ * The worker is usually invoked from a cron job or a backend:
+ * <pre>
+ *   int executed = pullQueueWorker.work("listeners-pull-queue", 9 * 60 * 1000);
+ * </pre>
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@Singleton
+public class PullQueueWorker {
+  private static final Logger log = Logger.getLogger(PullQueueWorker.class.getName());
+
+  public static final long DEFAULT_LEASE_MILLS = 60 * 1000;
+  public static final int INITIAL_LEASE_SIZE = 10;
+
+  /**
+   * The part of the lease which is planned for execution of the tasks, the rest is left for the unexpectedly slow tasks.
+   */
+  private static final double LEASE_USAGE = 0.5;
+
+  /**
+   * The weight of the last lease in the average execution time.
+   */
+  private static final double LATENCY_WEIGHT = 0.3;
+
+  private final RoutingEventDispatcher eventDispatcher;
+  private final RoutingTaskDispatcher taskDispatcher;
+  private final PayloadCompressor payloadCompressor;
+  private final TypeRegistry typeRegistry;
+  private final long leaseMills;
+  private final boolean groupByTag;
+  private final ConcurrentMap<String, Queue> queues = new ConcurrentHashMap<String, Queue>();
+
+  private volatile double averageTaskMills = -1;
+
+  @Inject
+  public PullQueueWorker(RoutingEventDispatcher eventDispatcher, RoutingTaskDispatcher taskDispatcher, PayloadCompressor payloadCompressor, TypeRegistry typeRegistry) {
+    this(eventDispatcher, taskDispatcher, payloadCompressor, typeRegistry, DEFAULT_LEASE_MILLS, false);
+  }
+
+  /**
+   * @param leaseMills the duration of the leases
+   * @param groupByTag whether each lease contains only tasks with the same tag, which is their listener or task class
+   */
+  public PullQueueWorker(RoutingEventDispatcher eventDispatcher, RoutingTaskDispatcher taskDispatcher, PayloadCompressor payloadCompressor, TypeRegistry typeRegistry, long leaseMills, boolean groupByTag) {
+    this.eventDispatcher = eventDispatcher;
+    this.taskDispatcher = taskDispatcher;
+    this.payloadCompressor = payloadCompressor;
+    this.typeRegistry = typeRegistry;
+    this.leaseMills = leaseMills;
+    this.groupByTag = groupByTag;
+  }
+
+  /**
+   * Leases and executes tasks until the queue is empty or the given time is over.
+   *
+   * @param queueName     the name of the pull queue
+   * @param durationMills the time for execution of tasks
+   * @return the number of the executed tasks
+   */
+  public int work(String queueName, long durationMills) {
+    long deadline = System.currentTimeMillis() + durationMills;
+    int executed = 0;
+
+    while (System.currentTimeMillis() < deadline) {
+      int leaseExecuted = leaseAndExecute(queueName, getLeaseSize());
+      executed += leaseExecuted;
+
+      if (leaseExecuted == 0) {
+        break;
+      }
+    }
+    return executed;
+  }
+
+  /**
+   * Leases a single batch of tasks and executes them.
+   *
+   * @param queueName the name of the pull queue
+   * @return the number of the executed tasks
+   */
+  public int leaseAndExecute(String queueName) {
+    return leaseAndExecute(queueName, getLeaseSize());
+  }
+
+  /**
+   * @return the number of tasks which are leased together
+   */
+  public int getLeaseSize() {
+    double average = averageTaskMills;
+    if (average < 0) {
+      return INITIAL_LEASE_SIZE;
+    }
+
+    long size = (long) (leaseMills * LEASE_USAGE / Math.max(average, 1));
+    return (int) Math.max(1, Math.min(size, QueueConstants.maxLeaseCount()));
+  }
+
+  private int leaseAndExecute(String queueName, int leaseSize) {
+    Queue queue = getQueue(queueName);
+
+    List<TaskHandle> tasks;
+    if (groupByTag) {
+      // a null tag leases the tasks with the same tag as the first available task
+      tasks = queue.leaseTasksByTag(leaseMills, TimeUnit.MILLISECONDS, leaseSize, null);
+    } else {
+      tasks = queue.leaseTasks(leaseMills, TimeUnit.MILLISECONDS, leaseSize);
+    }
+
+    if (tasks.isEmpty()) {
+      return 0;
+    }
+
+    long start = System.currentTimeMillis();
+    List<TaskHandle> executed = Lists.newArrayList();
+    int attempted = 0;
+
+    for (TaskHandle task : tasks) {
+      // the rest of the tasks could be leased by another worker when the lease expires
+      if (System.currentTimeMillis() - start > leaseMills * 0.9) {
+        log.warning("Lease of " + queueName + " is about to expire, " + (tasks.size() - attempted) + " tasks are left.");
+        break;
+      }
+
+      attempted++;
+      if (execute(task)) {
+        executed.add(task);
+      }
+    }
+
+    recordLatency((double) (System.currentTimeMillis() - start) / attempted);
+
+    if (!executed.isEmpty()) {
+      queue.deleteTask(executed);
+    }
+    return executed.size();
+  }
+
+  /**
+   * Gets the pull queue with the given name, which is resolved only once.
+   */
+  private Queue getQueue(String queueName) {
+    Queue queue = queues.get(queueName);
+
+    if (queue == null) {
+      queues.putIfAbsent(queueName, QueueFactory.getQueue(queueName));
+      queue = queues.get(queueName);
+    }
+    return queue;
+  }
+
+  private boolean execute(TaskHandle task) {
+    try {
+
+      Map<String, String[]> params = getParams(task);
+
+      String asyncTaskClass = typeRegistry.decode(getParameter(params, TaskQueueAsyncTaskScheduler.TASK_QUEUE));
+      if (!Strings.isNullOrEmpty(asyncTaskClass)) {
+        taskDispatcher.dispatchAsyncTask(params, asyncTaskClass);
+        return true;
+      }
+
+      String eventClass = typeRegistry.decode(decode(getParameter(params, TaskQueueAsyncTaskScheduler.EVENT)));
+      String listenerClass = typeRegistry.decodeSimpleName(decode(getParameter(params, TaskQueueAsyncTaskScheduler.LISTENER)));
+      String handlerClass = typeRegistry.decodeSimpleName(decode(getParameter(params, TaskQueueAsyncTaskScheduler.HANDLER)));
+      String codec = decode(getParameter(params, TaskQueueAsyncTaskScheduler.CODEC));
+      String payloadReference = decode(getParameter(params, TaskQueueAsyncTaskScheduler.PAYLOAD_REFERENCE));
+
+      String fanOut = getParameter(params, TaskQueueAsyncTaskScheduler.FAN_OUT);
+      if (fanOut != null) {
+        dispatchFanOut(task, params, eventClass, payloadReference, codec, fanOut);
+        return true;
+      }
+
+      if (!Strings.isNullOrEmpty(payloadReference)) {
+        eventDispatcher.dispatchStoredEvent(eventClass, payloadReference, codec, listenerClass, handlerClass, task.getName());
+        return true;
+      }
+
+      String eventAsJson = decode(getParameter(params, TaskQueueAsyncTaskScheduler.EVENT_AS_JSON));
+      if (isBinaryPayload(params)) {
+        InputStream payload = new ByteArrayInputStream(payloadCompressor.decodeParam(eventClass, codec, eventAsJson));
+        eventDispatcher.dispatchEvent(eventClass, payload, listenerClass, handlerClass);
+        return true;
+      }
+      eventAsJson = payloadCompressor.decompressParam(eventClass, codec, eventAsJson);
+
+      if (!Strings.isNullOrEmpty(listenerClass)) {
+        eventDispatcher.dispatchEventListener(eventClass, eventAsJson, listenerClass);
+      } else if (!Strings.isNullOrEmpty(handlerClass)) {
+        eventDispatcher.dispatchEventHandler(eventClass, eventAsJson, handlerClass);
+      } else {
+        eventDispatcher.dispatchAsyncEvent(eventClass, eventAsJson);
+      }
+      return true;
+
+    } catch (Exception e) {
+      log.log(Level.SEVERE, "Task " + task.getName() + " failed, retry count: " + task.getRetryCount(), e);
+      return false;
+    }
+  }
+
+  private void dispatchFanOut(TaskHandle task, Map<String, String[]> params, String eventClass, String payloadReference, String codec, String fanOut) throws Exception {
+    InputStream payload = null;
+    if (Strings.isNullOrEmpty(payloadReference)) {
+      String eventAsJson = decode(getParameter(params, TaskQueueAsyncTaskScheduler.EVENT_AS_JSON));
+      if (isBinaryPayload(params)) {
+        payload = new ByteArrayInputStream(payloadCompressor.decodeParam(eventClass, codec, eventAsJson));
+      } else {
+        eventAsJson = payloadCompressor.decompressParam(eventClass, codec, eventAsJson);
+        payload = new ByteArrayInputStream(eventAsJson.getBytes(Charsets.UTF_8));
+      }
+    }
+
+    boolean handler = Boolean.parseBoolean(getParameter(params, TaskQueueAsyncTaskScheduler.FAN_OUT_HANDLER));
+    eventDispatcher.dispatchFanOut(eventClass, payload, payloadReference, codec, fanOut, handler, task.getName());
+  }
+
+  /**
+   * @return whether the event payload is not text and is sent base64url encoded
+   */
+  private boolean isBinaryPayload(Map<String, String[]> params) {
+    return Boolean.parseBoolean(getParameter(params, TaskQueueAsyncTaskScheduler.BINARY_PAYLOAD));
+  }
+
+  private void recordLatency(double taskMills) {
+    double average = averageTaskMills;
+    averageTaskMills = average < 0 ? taskMills : average * (1 - LATENCY_WEIGHT) + taskMills * LATENCY_WEIGHT;
+  }
+
+  private Map<String, String[]> getParams(TaskHandle task) throws UnsupportedEncodingException {
+    Map<String, List<String>> values = Maps.newHashMap();
+
+    for (Map.Entry<String, String> param : task.extractParams()) {
+      List<String> paramValues = values.get(param.getKey());
+      if (paramValues == null) {
+        paramValues = Lists.newArrayList();
+        values.put(param.getKey(), paramValues);
+      }
+      paramValues.add(param.getValue());
+    }
+
+    Map<String, String[]> params = Maps.newHashMap();
+    for (Map.Entry<String, List<String>> param : values.entrySet()) {
+      params.put(param.getKey(), param.getValue().toArray(new String[param.getValue().size()]));
+    }
+    return params;
+  }
+
+  private String getParameter(Map<String, String[]> params, String name) {
+    String[] values = params.get(name);
+    return values != null && values.length > 0 ? values[0] : null;
+  }
+
+  /**
+   * The parameters of the events are url encoded once more by the scheduler.
+   */
+  private String decode(String param) throws UnsupportedEncodingException {
+    return param != null ? URLDecoder.decode(param, "UTF-8") : null;
+  }
+}
@@ -2,14 +2,27 @@ package com.clouway.asynctaskscheduler.gae;
 
 import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.common.base.Strings;
+import com.google.inject.Singleton;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
 
 /**
  * @author Mihail Lesikov (mlesikov@gmail.com)
  */
+@Singleton
 public class PushQueueTaskApplier implements TaskApplier {
 
+  /**
+   * Queue handles keep no request state, so they are created only once for each queue.
+   */
+  private final ConcurrentMap<String, Queue> queues = new ConcurrentHashMap<String, Queue>();
+
   @Override
   public void apply(TaskOptions task, String queueName, Boolean transactionless) {
 
@@ -22,6 +35,29 @@ public class PushQueueTaskApplier implements TaskApplier {
     }
   }
 
+  @Override
+  public void applyAll(List<TaskOptions> tasks, String queueName, Boolean transactionless) {
+
+    Queue queue = getQueue(queueName);
+
+    if (transactionless) {
+      queue.add(null, tasks);
+    } else {
+      queue.add(tasks);
+    }
+  }
+
+  @Override
+  public Future<List<TaskHandle>> applyAllAsync(List<TaskOptions> tasks, String queueName, Boolean transactionless) {
+
+    Queue queue = getQueue(queueName);
+
+    if (transactionless) {
+      return queue.addAsync(null, tasks);
+    }
+    return queue.addAsync(tasks);
+  }
+
   /**
    * Gets the Task Queue from the given name or the Default Task Queue
    *
@@ -29,14 +65,20 @@ public class PushQueueTaskApplier implements TaskApplier {
    * @return
    */
   private Queue getQueue(String queueName) {
-    Queue queue;
+    String name = Strings.nullToEmpty(queueName);
+    Queue queue = queues.get(name);
 
-    if (!Strings.isNullOrEmpty(queueName)) {
+    if (queue == null) {
 
-      queue = QueueFactory.getQueue(queueName);
+      if (!name.isEmpty()) {
 
-    } else {
-      queue = QueueFactory.getDefaultQueue();
+        queue = QueueFactory.getQueue(name);
+
+      } else {
+        queue = QueueFactory.getDefaultQueue();
+      }
+
+      queues.putIfAbsent(name, queue);
     }
 
     return queue;
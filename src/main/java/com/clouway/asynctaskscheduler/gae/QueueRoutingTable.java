@@ -0,0 +1,131 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.AsyncEvent;
+import com.clouway.asynctaskscheduler.spi.AsyncEventListener;
+import com.clouway.asynctaskscheduler.spi.AsyncTask;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Singleton;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves the queues in which tasks and events are added. The {@link QueueName} annotations of the
+ * task, event, handler and listener classes are read only once for each class and the resolved queue
+ * names are cached, so adding of tasks does not need any reflection.
+ * <p/>
+ * An empty queue name stands for the default queue.
+ * <p/>
+ * The pull queues are configured by {@link BackgroundTasksModule#getPullQueues()}.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@Singleton
+public class QueueRoutingTable {
+
+  /**
+   * Key of the events which are not dispatched to a listener.
+   */
+  private static final Class<?> NO_LISTENER = Void.class;
+
+  private final ConcurrentMap<Class<?>, String> taskQueues = new ConcurrentHashMap<Class<?>, String>();
+  private final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, String>> eventQueues = new ConcurrentHashMap<Class<?>, ConcurrentMap<Class<?>, String>>();
+  private final Set<String> pullQueues;
+
+  public QueueRoutingTable() {
+    this(Collections.<String>emptySet());
+  }
+
+  public QueueRoutingTable(Set<String> pullQueues) {
+    this.pullQueues = ImmutableSet.copyOf(pullQueues);
+  }
+
+  /**
+   * @param queueName the queue name
+   * @return true if tasks are leased from the queue instead of pushed
+   */
+  public boolean isPullQueue(String queueName) {
+    return pullQueues.contains(queueName);
+  }
+
+  /**
+   * Gets the name of the queue for the given task.
+   *
+   * @param asyncTaskClass the task class
+   * @return the queue name
+   */
+  public String getTaskQueueName(Class<? extends AsyncTask> asyncTaskClass) {
+    String queueName = taskQueues.get(asyncTaskClass);
+
+    if (queueName == null) {
+      queueName = resolveQueueName(asyncTaskClass);
+      taskQueues.putIfAbsent(asyncTaskClass, queueName);
+    }
+
+    return queueName;
+  }
+
+  /**
+   * Gets the name of the queue for the given event and listener. The queue of a listener takes precedence
+   * over the queue of the handler, which takes precedence over the queue of the event.
+   *
+   * @param event         the event
+   * @param listenerClass the listener class or null if the event is not dispatched to a listener
+   * @return the queue name
+   */
+  public String getEventQueueName(AsyncEvent event, Class<? extends AsyncEventListener> listenerClass) {
+    ConcurrentMap<Class<?>, String> listenerQueues = eventQueues.get(event.getClass());
+
+    if (listenerQueues == null) {
+      eventQueues.putIfAbsent(event.getClass(), new ConcurrentHashMap<Class<?>, String>());
+      listenerQueues = eventQueues.get(event.getClass());
+    }
+
+    Class<?> listenerKey = listenerClass != null ? listenerClass : NO_LISTENER;
+    String queueName = listenerQueues.get(listenerKey);
+
+    if (queueName == null) {
+      queueName = resolveQueueName(event.getClass(), event.getAssociatedHandlerClass(), listenerClass);
+      listenerQueues.putIfAbsent(listenerKey, queueName);
+    }
+
+    return queueName;
+  }
+
+  /**
+   * Resolves the queue name from the {@link QueueName} annotations of the given classes. The last not null class
+   * is used if it's annotated, otherwise the first one.
+   *
+   * @param asyncJobClasses
+   * @return
+   */
+  private String resolveQueueName(Class... asyncJobClasses) {
+    QueueName queueName = null;
+
+    for (Class asyncJobClass : asyncJobClasses) {
+      if (asyncJobClass != null) {
+        QueueName classQueueName = (QueueName) asyncJobClass.getAnnotation(QueueName.class);
+        if (classQueueName != null && !Strings.isNullOrEmpty(classQueueName.name())) {
+          queueName = classQueueName;
+        } else {
+          // little acrobatics so we can preserve the old behavior
+          classQueueName = (QueueName) asyncJobClasses[0].getAnnotation(QueueName.class);
+          if (classQueueName != null && !Strings.isNullOrEmpty(classQueueName.name())) {
+            queueName = classQueueName;
+          } else {
+            queueName = null;
+          }
+        }
+      }
+    }
+
+    if (queueName != null) {
+      return queueName.name();
+    }
+
+    return "";
+  }
+}
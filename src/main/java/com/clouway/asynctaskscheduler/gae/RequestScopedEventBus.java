@@ -0,0 +1,150 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.AsyncEvent;
+import com.clouway.asynctaskscheduler.spi.AsyncEventBus;
+import com.clouway.asynctaskscheduler.spi.AsyncTaskOptions;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.common.util.concurrent.Futures;
+import com.google.inject.OutOfScopeException;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * An {@link AsyncEventBus} which buffers the fired events in the {@link RequestTaskBuffer} of the current request
+ * instead of adding them immediately.
+ * <p/>
+ * Events which are fired in an active datastore transaction are still added immediately, so they are
+ * added only if the transaction is committed. Events which are fired out of a request, as from background threads
+ * or the listeners which are dispatched inline, are added immediately too.
+ * <p/>
+ * The futures of the buffered events complete when the buffer is flushed. Waiting for any of them during the
+ * request flushes the buffer, so it does not block until the end of the request.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+class RequestScopedEventBus implements AsyncEventBus {
+  private final Logger log = Logger.getLogger(RequestScopedEventBus.class.getName());
+
+  private final AsyncEventBus eventBus;
+  private final Provider<RequestTaskBuffer> taskBuffer;
+
+  public RequestScopedEventBus(AsyncEventBus eventBus, Provider<RequestTaskBuffer> taskBuffer) {
+    this.eventBus = eventBus;
+    this.taskBuffer = taskBuffer;
+  }
+
+  @Override
+  public void fireEvent(AsyncEvent<?> event) {
+    if (currentBuffer() == null) {
+      eventBus.fireEvent(event);
+      return;
+    }
+    fireEventAsync(event);
+  }
+
+  @Override
+  public void fireEvent(AsyncEvent<?> event, long delayMills) {
+    if (currentBuffer() == null) {
+      eventBus.fireEvent(event, delayMills);
+      return;
+    }
+    fireEventAsync(event, delayMills);
+  }
+
+  @Override
+  public void fireTransactionLessEvent(AsyncEvent<?> event) {
+    if (currentBuffer() == null) {
+      eventBus.fireTransactionLessEvent(event);
+      return;
+    }
+    fireTransactionLessEventAsync(event);
+  }
+
+  @Override
+  public void fireTransactionLessEvent(AsyncEvent<?> event, long delayMills) {
+    if (currentBuffer() == null) {
+      eventBus.fireTransactionLessEvent(event, delayMills);
+      return;
+    }
+    fireTransactionLessEventAsync(event, delayMills);
+  }
+
+  @Override
+  public Future<Void> fireEventAsync(AsyncEvent<?> event) {
+    if (inTransaction()) {
+      eventBus.fireEvent(event);
+      return completed();
+    }
+
+    RequestTaskBuffer buffer = currentBuffer();
+    if (buffer == null) {
+      return eventBus.fireEventAsync(event);
+    }
+    return buffer(buffer, AsyncTaskOptions.event(event));
+  }
+
+  @Override
+  public Future<Void> fireEventAsync(AsyncEvent<?> event, long delayMills) {
+    if (inTransaction()) {
+      eventBus.fireEvent(event, delayMills);
+      return completed();
+    }
+
+    RequestTaskBuffer buffer = currentBuffer();
+    if (buffer == null) {
+      return eventBus.fireEventAsync(event, delayMills);
+    }
+    return buffer(buffer, AsyncTaskOptions.event(event).delay(delayMills));
+  }
+
+  @Override
+  public Future<Void> fireTransactionLessEventAsync(AsyncEvent<?> event) {
+    RequestTaskBuffer buffer = currentBuffer();
+    if (buffer == null) {
+      return eventBus.fireTransactionLessEventAsync(event);
+    }
+    return buffer(buffer, AsyncTaskOptions.event(event).transactionless());
+  }
+
+  @Override
+  public Future<Void> fireTransactionLessEventAsync(AsyncEvent<?> event, long delayMills) {
+    RequestTaskBuffer buffer = currentBuffer();
+    if (buffer == null) {
+      return eventBus.fireTransactionLessEventAsync(event, delayMills);
+    }
+    return buffer(buffer, AsyncTaskOptions.event(event).delay(delayMills).transactionless());
+  }
+
+  private Future<Void> buffer(RequestTaskBuffer buffer, AsyncTaskOptions taskOptions) {
+    log.info("buffered async event : " + taskOptions.getEvent().getClass().getSimpleName());
+    return buffer.add(taskOptions);
+  }
+
+  /**
+   * @return the buffer of the current request or null if it's not in a request
+   */
+  private RequestTaskBuffer currentBuffer() {
+    try {
+      return taskBuffer.get();
+    } catch (OutOfScopeException e) {
+      return null;
+    } catch (ProvisionException e) {
+      // the scope fails out of a request with OutOfScopeException, which is wrapped by the injector
+      if (e.getCause() instanceof OutOfScopeException) {
+        return null;
+      }
+      throw e;
+    }
+  }
+
+  private boolean inTransaction() {
+    return DatastoreServiceFactory.getDatastoreService().getCurrentTransaction(null) != null;
+  }
+
+  private Future<Void> completed() {
+    return Futures.immediateFuture(null);
+  }
+}
@@ -0,0 +1,141 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.AsyncTaskOptions;
+import com.clouway.asynctaskscheduler.spi.AsyncTaskScheduler;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.servlet.RequestScoped;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Buffers the tasks and events of the current request, so all of them are added with a single batched add
+ * per queue when the request completes. The buffer is flushed by the {@link TaskQueueFlushFilter}.
+ * <p/>
+ * Events are buffered by the {@link RequestScopedEventBus} and tasks could be buffered directly:
+ * <pre>
+ *   taskBuffer.add(task(RevenueSummarizer.class).param("revenueDate", "2011-10-10 12:30:00"));
+ * </pre>
+ * Waiting for the future of a buffered task flushes the buffer, so it does not block until the end of the request.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@RequestScoped
+public class RequestTaskBuffer {
+
+  private final Provider<AsyncTaskScheduler> taskScheduler;
+
+  private final List<AsyncTaskOptions> taskOptions = Lists.newArrayList();
+  private final List<BufferedFuture> futures = Lists.newArrayList();
+
+  @Inject
+  public RequestTaskBuffer(Provider<AsyncTaskScheduler> taskScheduler) {
+    this.taskScheduler = taskScheduler;
+  }
+
+  /**
+   * Buffers the given task options until the end of the request.
+   *
+   * @param asyncTaskOptions the task options
+   * @return the future which completes when the buffer is flushed, it flushes the buffer when it's waited for
+   */
+  public synchronized Future<Void> add(AsyncTaskOptions asyncTaskOptions) {
+    BufferedFuture future = new BufferedFuture();
+
+    taskOptions.add(asyncTaskOptions);
+    futures.add(future);
+
+    return future;
+  }
+
+  /**
+   * Adds all of the buffered tasks.
+   */
+  public void flush() {
+    List<AsyncTaskOptions> pendingOptions;
+    List<BufferedFuture> pendingFutures;
+
+    synchronized (this) {
+      pendingOptions = Lists.newArrayList(taskOptions);
+      pendingFutures = Lists.newArrayList(futures);
+      taskOptions.clear();
+      futures.clear();
+    }
+
+    if (pendingOptions.isEmpty()) {
+      return;
+    }
+
+    try {
+      AsyncTaskScheduler scheduler = taskScheduler.get();
+
+      for (AsyncTaskOptions asyncTaskOptions : pendingOptions) {
+        scheduler.add(asyncTaskOptions);
+      }
+
+      scheduler.now();
+
+    } catch (RuntimeException e) {
+      for (BufferedFuture future : pendingFutures) {
+        future.result.setException(e);
+      }
+      throw e;
+    }
+
+    for (BufferedFuture future : pendingFutures) {
+      future.result.set(null);
+    }
+  }
+
+  /**
+   * The future of a buffered task, which flushes the buffer when it's waited for before the end of the request.
+   */
+  private final class BufferedFuture implements Future<Void> {
+    private final SettableFuture<Void> result = SettableFuture.create();
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public boolean isDone() {
+      return result.isDone();
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+      flushIfPending();
+      return result.get();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      flushIfPending();
+      return result.get(timeout, unit);
+    }
+
+    private void flushIfPending() {
+      if (result.isDone()) {
+        return;
+      }
+
+      try {
+        flush();
+      } catch (RuntimeException e) {
+        // the failure is set to the future of each flushed task
+      }
+    }
+  }
+}
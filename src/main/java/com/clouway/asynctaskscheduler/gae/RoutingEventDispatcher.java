@@ -5,15 +5,25 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Transaction;
 import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.taskqueue.QueueConstants;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
@@ -22,20 +32,41 @@ import java.util.logging.Logger;
 public class RoutingEventDispatcher {
   private static final Logger log = Logger.getLogger(RoutingEventDispatcher.class.getName());
 
+  /**
+   * The maximum number of tasks which could be added in a transaction.
+   */
+  public static final int MAX_TRANSACTIONAL_TASKS = 5;
+
   private final EventTransport eventTransport;
   private final AsyncEventHandlerFactory handlerFactory;
   private final AsyncEventListenersFactory listenersFactory;
   private final Provider<AsyncTaskScheduler> taskScheduler;
+  private final PayloadStore payloadStore;
+  private final PayloadCompressor payloadCompressor;
+  private final TypeRegistry typeRegistry;
+  private final InlineDispatchExecutor inlineDispatchExecutor;
+  private final MetricsRecorder metricsRecorder;
+  private final Set<Class<?>> validEvents = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
 
   @Inject
-  public RoutingEventDispatcher(EventTransport eventTransport,
+  public RoutingEventDispatcher(EventTransports eventTransport,
                                 AsyncEventHandlerFactory handlerFactory,
                                 AsyncEventListenersFactory listenersFactory,
-                                Provider<AsyncTaskScheduler> taskScheduler) {
+                                Provider<AsyncTaskScheduler> taskScheduler,
+                                PayloadStore payloadStore,
+                                PayloadCompressor payloadCompressor,
+                                TypeRegistry typeRegistry,
+                                InlineDispatchExecutor inlineDispatchExecutor,
+                                MetricsRecorder metricsRecorder) {
     this.eventTransport = eventTransport;
     this.handlerFactory = handlerFactory;
     this.listenersFactory = listenersFactory;
     this.taskScheduler = taskScheduler;
+    this.payloadStore = payloadStore;
+    this.payloadCompressor = payloadCompressor;
+    this.typeRegistry = typeRegistry;
+    this.inlineDispatchExecutor = inlineDispatchExecutor;
+    this.metricsRecorder = metricsRecorder;
   }
 
   /**
@@ -47,12 +78,161 @@ public class RoutingEventDispatcher {
   public void dispatchAsyncEvent(String eventClassAsString, String eventAsJson) throws ClassNotFoundException {
     if (validParams(eventClassAsString, eventAsJson)) {
 
-      AsyncEvent<AsyncEventHandler> event = getAsyncEvent(eventAsJson, eventClassAsString);
+      byte[] eventPayloadBytes = eventAsJson.getBytes(Charsets.UTF_8);
+      AsyncEvent<AsyncEventHandler> event = getAsyncEvent(new ByteArrayInputStream(eventPayloadBytes), eventClassAsString);
 
       Class<? extends AsyncEventHandler> evenHandlerClass = event.getAssociatedHandlerClass();
 
       log.info("Dispatching Handler And Listeners in DataStore Transaction For Event: " + event.getClass());
-      dispatchHandlerAndListeners(event, evenHandlerClass);
+      dispatchHandlerAndListeners(event, evenHandlerClass, new EventPayload(eventPayloadBytes, null, null));
+    }
+  }
+
+  /**
+   * Dispatches an event which payload is kept in the {@link PayloadStore}. The handler and the listeners
+   * of the event get the same stored payload, which is released when they are done with it.
+   *
+   * @param eventClassAsString the event class
+   * @param payloadReference   the reference of the stored payload
+   * @param codec              the codec of the payload or null if it's not compressed
+   * @param listenerClassName  the listener which is dispatched or null
+   * @param handlerClassName   the handler which is dispatched or null
+   * @param taskName           the name of the task which releases the payload or null if it's unknown
+   * @throws ClassNotFoundException
+   */
+  public void dispatchStoredEvent(String eventClassAsString, String payloadReference, String codec, String listenerClassName, String handlerClassName, String taskName) throws ClassNotFoundException {
+    if (validParams(eventClassAsString, payloadReference)) {
+
+      InputStream payload = loadStoredPayload(eventClassAsString, payloadReference, codec, taskName);
+
+      if (payload == null) {
+        return;
+      }
+
+      dispatchEvent(eventClassAsString, payload, listenerClassName, handlerClassName, payloadReference, codec);
+
+      payloadStore.release(payloadReference, taskName);
+    }
+  }
+
+  /**
+   * Dispatches a fan-out shard of an event which has more listeners than the tasks which could be added in
+   * a transaction. The shard adds the tasks of its handler and listeners, or more shards if they are too many
+   * for a single add. The tasks are named after the shard task, so they are not added again when the shard
+   * is retried.
+   *
+   * @param eventClassAsString the event class
+   * @param payload            the serialized event or null if it's stored
+   * @param payloadReference   the reference of the stored payload or null
+   * @param codec              the codec of the stored payload or null if it's not compressed
+   * @param fanOut             the comma separated simple names of the listeners of the shard
+   * @param handler            whether the shard contains the handler of the event
+   * @param taskName           the name of the shard task or null if it's unknown
+   * @throws ClassNotFoundException
+   */
+  public void dispatchFanOut(String eventClassAsString, InputStream payload, String payloadReference, String codec, String fanOut, boolean handler, String taskName) throws ClassNotFoundException {
+    validParams(eventClassAsString);
+
+    if (!Strings.isNullOrEmpty(payloadReference)) {
+      payload = loadStoredPayload(eventClassAsString, payloadReference, codec, taskName);
+
+      if (payload == null) {
+        return;
+      }
+    } else {
+      payloadReference = null;
+      codec = null;
+    }
+
+    byte[] eventPayloadBytes = readPayload(payload);
+    AsyncEvent<AsyncEventHandler> event = getAsyncEvent(new ByteArrayInputStream(eventPayloadBytes), eventClassAsString);
+    EventPayload eventPayload = new EventPayload(eventPayloadBytes, payloadReference, codec);
+
+    Set<String> listenerNames = Sets.newHashSet(Splitter.on(',').omitEmptyStrings().split(fanOut));
+    List<Class<? extends AsyncEventListener>> listeners = Lists.newArrayList();
+    for (Class<? extends AsyncEventListener> listener : listenersFactory.getListenerClasses(event.getClass())) {
+      if (listenerNames.contains(listener.getSimpleName())) {
+        listeners.add(listener);
+      }
+    }
+
+    Class<? extends AsyncEventHandler> evenHandlerClass = handler ? event.getAssociatedHandlerClass() : null;
+    List<AsyncTaskOptions> tasks = getFanOutTasks(event, getHandlerAndListenerTasks(event, evenHandlerClass, listeners, eventPayload), QueueConstants.maxTasksPerAdd(), eventPayload);
+
+    log.info("Dispatching Fan-Out Shard Of " + tasks.size() + " Tasks For Event: " + event.getClass());
+
+    if (payloadReference != null) {
+      // retained before the tasks are added, so it could not be released by them before the shard is done,
+      // a retried shard does not retain it again, because its named tasks are not added again
+      payloadStore.retain(payloadReference, tasks.size(), taskName);
+    }
+
+    AsyncTaskScheduler asyncTaskScheduler = taskScheduler.get();
+    for (int i = 0; i < tasks.size(); i++) {
+      AsyncTaskOptions task = tasks.get(i);
+      if (taskName != null) {
+        task.named(taskName + "-" + i);
+      }
+      asyncTaskScheduler.add(task);
+    }
+    asyncTaskScheduler.now();
+
+    if (payloadReference != null) {
+      payloadStore.release(payloadReference, taskName);
+    }
+  }
+
+  /**
+   * Loads and decompresses a stored payload. A missing payload fails the task, unless the task already released it.
+   *
+   * @return the payload or null if it's already released by the task
+   */
+  private InputStream loadStoredPayload(String eventClassAsString, String payloadReference, String codec, String taskName) {
+    byte[] payload = payloadStore.load(payloadReference);
+
+    if (payload == null) {
+      if (taskName != null && payloadStore.isReleasedBy(payloadReference, taskName)) {
+        // the task was already executed and it released the payload
+        log.warning("Payload " + payloadReference + " of event " + eventClassAsString + " is already released by task " + taskName + ".");
+        return null;
+      }
+      throw new IllegalStateException("Payload " + payloadReference + " of event " + eventClassAsString + " is missing.");
+    }
+
+    if (!Strings.isNullOrEmpty(codec)) {
+      payload = payloadCompressor.decompress(eventClassAsString, codec, payload);
+    }
+    return new ByteArrayInputStream(payload);
+  }
+
+  /**
+   * Dispatches an event which is read from the given stream. The listener is dispatched if it's provided,
+   * otherwise the handler if it's provided, otherwise the handler and the listeners are dispatched in separate tasks.
+   *
+   * @param eventClassAsString the event class
+   * @param payload            the serialized event
+   * @param listenerClassName  the listener which is dispatched or null
+   * @param handlerClassName   the handler which is dispatched or null
+   * @throws ClassNotFoundException
+   */
+  public void dispatchEvent(String eventClassAsString, InputStream payload, String listenerClassName, String handlerClassName) throws ClassNotFoundException {
+    if (validParams(eventClassAsString)) {
+      dispatchEvent(eventClassAsString, payload, listenerClassName, handlerClassName, null, null);
+    }
+  }
+
+  private void dispatchEvent(String eventClassAsString, InputStream payload, String listenerClassName, String handlerClassName, String payloadReference, String codec) throws ClassNotFoundException {
+    byte[] eventPayloadBytes = readPayload(payload);
+    AsyncEvent<AsyncEventHandler> event = getAsyncEvent(new ByteArrayInputStream(eventPayloadBytes), eventClassAsString);
+    EventPayload eventPayload = new EventPayload(eventPayloadBytes, payloadReference, codec);
+
+    if (!Strings.isNullOrEmpty(listenerClassName)) {
+      dispatchEventListener(event, listenerClassName);
+    } else if (!Strings.isNullOrEmpty(handlerClassName)) {
+      dispatchEventHandler(event);
+    } else {
+      log.info("Dispatching Handler And Listeners in DataStore Transaction For Event: " + event.getClass());
+      dispatchHandlerAndListeners(event, event.getAssociatedHandlerClass(), eventPayload);
     }
   }
 
@@ -68,10 +248,24 @@ public class RoutingEventDispatcher {
 
       AsyncEvent<AsyncEventHandler> event = getAsyncEvent(eventAsJson, eventClassAsString);
 
-      AsyncEventListener<AsyncEvent> listener  = listenersFactory.createListener(event.getClass(), listenerClassName);
+      dispatchEventListener(event, listenerClassName);
+    }
+  }
+
+  private void dispatchEventListener(AsyncEvent<AsyncEventHandler> event, String listenerClassName) {
+    AsyncEventListener<AsyncEvent> listener  = listenersFactory.createListener(event.getClass(), listenerClassName);
+
+    log.info("Dispatching Listener: " + listener.getClass());
+
+    long startNanos = System.nanoTime();
+    boolean succeeded = false;
+    try {
 
-      log.info("Dispatching Listener: " + listener.getClass());
       listener.onEvent(event);
+      succeeded = true;
+
+    } finally {
+      metricsRecorder.recordDispatch(listener.getClass(), System.nanoTime() - startNanos, succeeded);
     }
   }
 
@@ -87,10 +281,24 @@ public class RoutingEventDispatcher {
 
       AsyncEvent<AsyncEventHandler> event = getAsyncEvent(eventAsJson, eventClassAsString);
 
-      AsyncEventHandler handler = handlerFactory.create(event.getAssociatedHandlerClass());
+      dispatchEventHandler(event);
+    }
+  }
+
+  private void dispatchEventHandler(AsyncEvent<AsyncEventHandler> event) {
+    AsyncEventHandler handler = handlerFactory.create(event.getAssociatedHandlerClass());
+
+    log.info("Dispatching Handler: " + event.getAssociatedHandlerClass());
+
+    long startNanos = System.nanoTime();
+    boolean succeeded = false;
+    try {
 
-      log.info("Dispatching Handler: " + event.getAssociatedHandlerClass());
       event.dispatch(handler);
+      succeeded = true;
+
+    } finally {
+      metricsRecorder.recordDispatch(event.getAssociatedHandlerClass(), System.nanoTime() - startNanos, succeeded);
     }
   }
 
@@ -102,26 +310,27 @@ public class RoutingEventDispatcher {
    * @throws ClassNotFoundException
    */
   private AsyncEvent<AsyncEventHandler> getAsyncEvent(String eventAsJson, String eventClassAsString) throws ClassNotFoundException {
-    Class<?> eventClass = Class.forName(eventClassAsString);
+    return getAsyncEvent(new ByteArrayInputStream(eventAsJson.getBytes(Charsets.UTF_8)), eventClassAsString);
+  }
+
+  /**
+   * Reads the async event from the given stream
+   * @param inputStream
+   * @param eventClassAsString
+   * @return
+   * @throws ClassNotFoundException
+   */
+  private AsyncEvent<AsyncEventHandler> getAsyncEvent(InputStream inputStream, String eventClassAsString) throws ClassNotFoundException {
+    Class<?> eventClass = typeRegistry.resolve(eventClassAsString);
 
     AsyncEvent<AsyncEventHandler> event = null;
 
     if (validEvent(eventClass)) {
-      ByteArrayInputStream inputStream = null;
-
-      try {
-        inputStream = new ByteArrayInputStream(eventAsJson.getBytes("UTF-8"));
-      } catch (UnsupportedEncodingException e) {
-        e.printStackTrace();
-      }
 
       event = (AsyncEvent) eventTransport.in(eventClass, inputStream);
 
       try {
-
-        if (inputStream != null) {
-          inputStream.close();
-        }
+        inputStream.close();
       } catch (IOException e) {
         e.printStackTrace();
       }
@@ -131,44 +340,131 @@ public class RoutingEventDispatcher {
   }
 
 
+  /**
+   * Reads the serialized event, so it could be passed as it is to the tasks of the handler and the listeners.
+   */
+  private byte[] readPayload(InputStream inputStream) {
+    try {
+      return ByteStreams.toByteArray(inputStream);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      try {
+        inputStream.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
   /**
    * Dispatches the given event handler and the listeners in separate task queue in datastore transaction if there are no listeners for the event
-   * else dispatches the handler in the same task queue
+   * else dispatches the handler in the same task queue. The handler and the listeners of events annotated with
+   * {@link DispatchInline} are executed in the same task queue, and only the failed of them are added in separate task queues.
    * @param event
    * @param evenHandlerClass
+   * @param eventPayload the serialized event which is passed to the handler and listeners
    */
-  private void dispatchHandlerAndListeners(AsyncEvent<AsyncEventHandler> event, Class<? extends AsyncEventHandler> evenHandlerClass) {
-
-    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
-
-    Transaction txn = null;
-    try {
+  private void dispatchHandlerAndListeners(AsyncEvent<AsyncEventHandler> event, Class<? extends AsyncEventHandler> evenHandlerClass, EventPayload eventPayload) {
 
+    List<Class<? extends AsyncEventListener>> listeners  = listenersFactory.getListenerClasses(event.getClass());
 
-      List<Class<? extends AsyncEventListener>> listeners  = listenersFactory.getListenerClasses(event.getClass());
+    if (listeners.isEmpty()) {
+      long startNanos = System.nanoTime();
+      boolean succeeded = false;
+      try {
 
-      if (listeners.isEmpty()) {
         AsyncEventHandler handler = handlerFactory.create(evenHandlerClass);
         event.dispatch(handler);
+        succeeded = true;
+
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      } finally {
+        metricsRecorder.recordDispatch(evenHandlerClass, System.nanoTime() - startNanos, succeeded);
+      }
+    } else if (event.getClass().isAnnotationPresent(DispatchInline.class)) {
+      dispatchInline(event, evenHandlerClass, listeners, eventPayload);
+    } else {
+      addHandlerAndListenerTasks(event, evenHandlerClass, listeners, eventPayload);
+    }
+  }
+
+  /**
+   * Executes the handler and the listeners in parallel and adds task queues only for the failed of them.
+   */
+  private void dispatchInline(final AsyncEvent<AsyncEventHandler> event, Class<? extends AsyncEventHandler> evenHandlerClass, List<Class<? extends AsyncEventListener>> listeners, EventPayload eventPayload) {
+    log.info("Dispatching Handler And Listeners Inline For Event: " + event.getClass());
+
+    List<InlineDispatch> dispatches = Lists.newArrayList();
+    dispatches.add(new InlineDispatch(null) {
+      @Override
+      public void run() {
+        dispatchEventHandler(event);
+      }
+    });
+    for (final Class<? extends AsyncEventListener> listener : listeners) {
+      dispatches.add(new InlineDispatch(listener) {
+        @Override
+        public void run() {
+          dispatchEventListener(event, listener.getSimpleName());
+        }
+      });
+    }
+
+    List<InlineDispatch> failed = inlineDispatchExecutor.executeAll(dispatches);
+    if (failed.isEmpty()) {
+      return;
+    }
+
+    Class<? extends AsyncEventHandler> failedHandler = null;
+    List<Class<? extends AsyncEventListener>> failedListeners = Lists.newArrayList();
+    for (InlineDispatch dispatch : failed) {
+      if (dispatch.listener == null) {
+        failedHandler = evenHandlerClass;
       } else {
-        TransactionOptions options = TransactionOptions.Builder.withXG(true);
-        txn = ds.beginTransaction(options);
+        failedListeners.add(dispatch.listener);
+      }
+    }
 
+    log.warning(failed.size() + " of " + dispatches.size() + " inline dispatches of " + event.getClass() + " failed and are added for retry.");
+    addHandlerAndListenerTasks(event, failedHandler, failedListeners, eventPayload);
+  }
 
-        AsyncTaskScheduler asyncTaskScheduler = taskScheduler.get();
+  /**
+   * Adds separate task queues for the handler and the listeners in datastore transaction. If they are more than
+   * the tasks which could be added in a transaction, fan-out shards are added instead, which add the rest of them.
+   * @param evenHandlerClass the handler or null if there is no task for the handler
+   */
+  private void addHandlerAndListenerTasks(AsyncEvent<AsyncEventHandler> event, Class<? extends AsyncEventHandler> evenHandlerClass, List<Class<? extends AsyncEventListener>> listeners, EventPayload eventPayload) {
 
-        asyncTaskScheduler.add(AsyncTaskOptions.eventWithHandler(event, evenHandlerClass));
+    List<AsyncTaskOptions> tasks = getHandlerAndListenerTasks(event, evenHandlerClass, listeners, eventPayload);
+    tasks = getFanOutTasks(event, tasks, MAX_TRANSACTIONAL_TASKS, eventPayload);
 
-        for (Class<? extends AsyncEventListener> listener : listeners) {
-          asyncTaskScheduler.add(AsyncTaskOptions.eventWithListener(event, listener));
-        }
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+
+    Transaction txn = null;
+    try {
+
+      TransactionOptions options = TransactionOptions.Builder.withXG(true);
+      txn = ds.beginTransaction(options);
 
-        asyncTaskScheduler.now();
-        log.info("Committing transaction... app-id: " + txn.getApp() + " txn-id: " + txn.getId() + "txn-active: " + txn.isActive());
-        txn.commit();
-        log.info("Transaction state - app-id: " + txn.getApp() + " txn-id: " + txn.getId() + "txn-active: " + txn.isActive());
+      AsyncTaskScheduler asyncTaskScheduler = taskScheduler.get();
+
+      for (AsyncTaskOptions task : tasks) {
+        asyncTaskScheduler.add(task);
+      }
+
+      if (eventPayload.reference != null) {
+        // retained in the transaction, so it's retained only if the tasks are added
+        payloadStore.retain(eventPayload.reference, tasks.size(), null);
       }
 
+      asyncTaskScheduler.now();
+      log.info("Committing transaction... app-id: " + txn.getApp() + " txn-id: " + txn.getId() + "txn-active: " + txn.isActive());
+      txn.commit();
+      log.info("Transaction state - app-id: " + txn.getApp() + " txn-id: " + txn.getId() + "txn-active: " + txn.isActive());
+
     } catch (Exception e) {
       if (txn != null && txn.isActive()) {
         log.info("Rolling back active transaction... app-id: " + txn.getApp() + " txn-id: " + txn.getId());
@@ -178,16 +474,72 @@ public class RoutingEventDispatcher {
     }
   }
 
+  private List<AsyncTaskOptions> getHandlerAndListenerTasks(AsyncEvent<AsyncEventHandler> event, Class<? extends AsyncEventHandler> evenHandlerClass, List<Class<? extends AsyncEventListener>> listeners, EventPayload eventPayload) {
+    List<AsyncTaskOptions> tasks = Lists.newArrayList();
+
+    if (evenHandlerClass != null) {
+      tasks.add(eventPayload.applyTo(AsyncTaskOptions.eventWithHandler(event, evenHandlerClass)));
+    }
+
+    for (Class<? extends AsyncEventListener> listener : listeners) {
+      tasks.add(eventPayload.applyTo(AsyncTaskOptions.eventWithListener(event, listener)));
+    }
+    return tasks;
+  }
+
+  /**
+   * Splits the given tasks in fan-out shards if they are more than the given maximum.
+   *
+   * @param tasks    the tasks of the handler and the listeners
+   * @param maxTasks the maximum number of tasks which could be added
+   * @return the tasks as they are or the fan-out shards which add them
+   */
+  private List<AsyncTaskOptions> getFanOutTasks(AsyncEvent<AsyncEventHandler> event, List<AsyncTaskOptions> tasks, int maxTasks, EventPayload eventPayload) {
+    if (tasks.size() <= maxTasks) {
+      return tasks;
+    }
+
+    int shardSize = (tasks.size() + maxTasks - 1) / maxTasks;
+    List<AsyncTaskOptions> shards = Lists.newArrayList();
+
+    for (List<AsyncTaskOptions> shardTasks : Lists.partition(tasks, shardSize)) {
+      List<String> listenerNames = Lists.newArrayList();
+      boolean handler = false;
+
+      for (AsyncTaskOptions task : shardTasks) {
+        if (task.getEventHandlerClass() != null) {
+          handler = true;
+        } else {
+          listenerNames.add(task.getEventListenerClass().getSimpleName());
+        }
+      }
+
+      AsyncTaskOptions shard = eventPayload.applyTo(AsyncTaskOptions.event(event)).param(TaskQueueAsyncTaskScheduler.FAN_OUT, Joiner.on(',').join(listenerNames));
+      if (handler) {
+        shard.param(TaskQueueAsyncTaskScheduler.FAN_OUT_HANDLER, "true");
+      }
+      shards.add(shard);
+    }
+
+    log.info("Dispatching " + tasks.size() + " Tasks In " + shards.size() + " Fan-Out Shards For Event: " + event.getClass());
+    return shards;
+  }
+
   /**
-   * Validates if event class is implementing AsyncEvent interface
+   * Validates if event class is implementing AsyncEvent interface. Each class is validated only once.
    * @param eventClass
    * @return
    */
   private boolean validEvent(Class<?> eventClass){
+    if (validEvents.contains(eventClass)) {
+      return true;
+    }
+
     if (!Arrays.asList(eventClass.getInterfaces()).contains(AsyncEvent.class)) {
       throw new IllegalArgumentException("The Provided Class Is Not AsyncEvent.");
     }
 
+    validEvents.add(eventClass);
     return true;
   }
 
@@ -207,5 +559,41 @@ public class RoutingEventDispatcher {
     return true;
   }
 
+  /**
+   * The dispatch of the handler, when there is no listener, or of a listener of an event which is dispatched inline.
+   */
+  private abstract static class InlineDispatch implements Runnable {
+    private final Class<? extends AsyncEventListener> listener;
+
+    private InlineDispatch(Class<? extends AsyncEventListener> listener) {
+      this.listener = listener;
+    }
+
+    @Override
+    public String toString() {
+      return listener != null ? listener.getName() : "handler";
+    }
+  }
+
+  /**
+   * The serialized event which is passed as it is to the tasks of its handler and listeners.
+   */
+  private static final class EventPayload {
+    private final byte[] payload;
+    private final String reference;
+    private final String codec;
+
+    private EventPayload(byte[] payload, String reference, String codec) {
+      this.payload = payload;
+      this.reference = reference;
+      this.codec = codec;
+    }
 
+    private AsyncTaskOptions applyTo(AsyncTaskOptions task) {
+      if (reference != null) {
+        return task.payloadReference(reference, codec);
+      }
+      return task.eventPayload(payload);
+    }
+  }
 }
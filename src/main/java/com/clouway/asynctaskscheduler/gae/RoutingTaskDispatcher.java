@@ -2,9 +2,11 @@ package com.clouway.asynctaskscheduler.gae;
 
 import com.clouway.asynctaskscheduler.spi.AsyncTask;
 import com.clouway.asynctaskscheduler.spi.AsyncTaskParams;
+import com.clouway.asynctaskscheduler.spi.MetricsRecorder;
+import com.clouway.asynctaskscheduler.spi.ParamFormats;
+import com.clouway.asynctaskscheduler.spi.TypedAsyncTask;
 import com.google.common.base.Strings;
 import com.google.inject.Inject;
-import com.google.inject.Injector;
 
 import java.util.Map;
 import java.util.logging.Logger;
@@ -15,11 +17,19 @@ import java.util.logging.Logger;
 public class RoutingTaskDispatcher {
 
   private static final Logger log = Logger.getLogger(RoutingTaskDispatcher.class.getName());
-  private final Injector injector;
+  private final InstanceProviders instanceProviders;
+  private final TypeRegistry typeRegistry;
+  private final ParamFormats paramFormats;
+  private final TaskPayloads taskPayloads;
+  private final MetricsRecorder metricsRecorder;
 
   @Inject
-  public RoutingTaskDispatcher(Injector injector) {
-    this.injector = injector;
+  public RoutingTaskDispatcher(InstanceProviders instanceProviders, TypeRegistry typeRegistry, ParamFormats paramFormats, TaskPayloads taskPayloads, MetricsRecorder metricsRecorder) {
+    this.instanceProviders = instanceProviders;
+    this.typeRegistry = typeRegistry;
+    this.paramFormats = paramFormats;
+    this.taskPayloads = taskPayloads;
+    this.metricsRecorder = metricsRecorder;
   }
 
   /**
@@ -33,16 +43,36 @@ public class RoutingTaskDispatcher {
       throw new IllegalArgumentException("Async task class as string cannot be null!");
     }
 
-    Class<?> asyncTaskClass = Class.forName(asyncTaskClassString);
+    Class<?> asyncTaskClass = typeRegistry.resolve(asyncTaskClassString);
 
-    Object object = injector.getInstance(asyncTaskClass);
+    Object object = instanceProviders.getInstance(asyncTaskClass);
 
-    if (object instanceof AsyncTask) {
+    long startNanos = System.nanoTime();
+    boolean succeeded = false;
+    try {
+
+      execute(object, params);
+      succeeded = true;
+
+    } finally {
+      metricsRecorder.recordDispatch(asyncTaskClass, System.nanoTime() - startNanos, succeeded);
+    }
+  }
+
+  private void execute(Object object, Map<String, String[]> params) throws ClassNotFoundException {
+    if (object instanceof TypedAsyncTask) {
+
+      TypedAsyncTask task = (TypedAsyncTask) object;
+
+      log.info("Executing Typed Async Task: " + task.getClass());
+      task.execute(taskPayloads.readPayload(params), new AsyncTaskParams(params, paramFormats));
+
+    } else if (object instanceof AsyncTask) {
 
       AsyncTask task = (AsyncTask) object;
 
       log.info("Executing Async Task: " + task.getClass());
-      task.execute(new AsyncTaskParams(params));
+      task.execute(new AsyncTaskParams(params, paramFormats));
 
     } else {
 
@@ -1,8 +1,12 @@
 package com.clouway.asynctaskscheduler.gae;
 
+import com.google.appengine.api.taskqueue.TaskHandle;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.inject.ImplementedBy;
 
+import java.util.List;
+import java.util.concurrent.Future;
+
 /**
  * @author Mihail Lesikov (mlesikov@gmail.com)
  */
@@ -10,4 +14,24 @@ import com.google.inject.ImplementedBy;
 public interface TaskApplier {
 
   void apply(TaskOptions task, String queueName, Boolean transactionless);
+
+  /**
+   * Adds all of the given tasks to the queue with a single call. Callers are responsible to keep
+   * the number of tasks within the Task Queue limit of {@link com.google.appengine.api.taskqueue.QueueConstants#maxTasksPerAdd()}.
+   *
+   * @param tasks           the tasks to be added
+   * @param queueName       the name of the queue or empty for the default queue
+   * @param transactionless whether tasks are added outside of the current transaction
+   */
+  void applyAll(List<TaskOptions> tasks, String queueName, Boolean transactionless);
+
+  /**
+   * Starts adding of the given tasks to the queue without waiting for the add to complete.
+   *
+   * @param tasks           the tasks to be added
+   * @param queueName       the name of the queue or empty for the default queue
+   * @param transactionless whether tasks are added outside of the current transaction
+   * @return the future of the add
+   */
+  Future<List<TaskHandle>> applyAllAsync(List<TaskOptions> tasks, String queueName, Boolean transactionless);
 }
@@ -0,0 +1,89 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.TypedAsyncTask;
+import com.google.common.base.Strings;
+import com.google.common.io.BaseEncoding;
+import com.google.inject.Inject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+
+/**
+ * Serializes the payloads of the {@link TypedAsyncTask}s into parameters of their tasks and reads them back
+ * before the tasks are executed. The payloads are serialized by the {@link EventTransports}, compressed as the
+ * event payloads and sent base64url encoded, so the payloads of the binary transports are sent as they are.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class TaskPayloads {
+
+  public static final String TASK_PAYLOAD = "taskPayload";
+  public static final String TASK_PAYLOAD_TYPE = "taskPayloadType";
+  public static final String TASK_PAYLOAD_CODEC = "taskPayloadCodec";
+
+  private final EventTransports eventTransport;
+  private final PayloadCompressor payloadCompressor;
+  private final TypeRegistry typeRegistry;
+
+  @Inject
+  public TaskPayloads(EventTransports eventTransport, PayloadCompressor payloadCompressor, TypeRegistry typeRegistry) {
+    this.eventTransport = eventTransport;
+    this.payloadCompressor = payloadCompressor;
+    this.typeRegistry = typeRegistry;
+  }
+
+  /**
+   * Adds the serialized payload to the parameters of the task.
+   *
+   * @param params  the parameters of the task
+   * @param payload the payload or null if the task has no payload
+   */
+  public void addPayload(Map<String, String> params, Object payload) {
+    if (payload == null) {
+      return;
+    }
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    eventTransport.out(payload.getClass(), payload, outputStream);
+    byte[] serialized = outputStream.toByteArray();
+
+    byte[] compressed = payloadCompressor.compress(payload.getClass().getName(), serialized);
+    if (compressed != null) {
+      params.put(TASK_PAYLOAD_CODEC, payloadCompressor.getCodec().getName());
+      serialized = compressed;
+    }
+
+    params.put(TASK_PAYLOAD_TYPE, typeRegistry.encode(payload.getClass()));
+    params.put(TASK_PAYLOAD, BaseEncoding.base64Url().omitPadding().encode(serialized));
+  }
+
+  /**
+   * Reads the payload from the parameters of the executed task.
+   *
+   * @param params the parameters of the task
+   * @return the payload or null if the task has no payload
+   * @throws ClassNotFoundException if the class of the payload is unknown
+   */
+  public Object readPayload(Map<String, String[]> params) throws ClassNotFoundException {
+    String payload = getParam(params, TASK_PAYLOAD);
+    if (Strings.isNullOrEmpty(payload)) {
+      return null;
+    }
+
+    Class<?> payloadClass = typeRegistry.resolve(getParam(params, TASK_PAYLOAD_TYPE));
+    byte[] serialized = BaseEncoding.base64Url().omitPadding().decode(payload);
+
+    String codec = getParam(params, TASK_PAYLOAD_CODEC);
+    if (!Strings.isNullOrEmpty(codec)) {
+      serialized = payloadCompressor.decompress(payloadClass.getName(), codec, serialized);
+    }
+
+    return eventTransport.in(payloadClass, new ByteArrayInputStream(serialized));
+  }
+
+  private String getParam(Map<String, String[]> params, String name) {
+    String[] values = params.get(name);
+    return values != null && values.length > 0 ? values[0] : null;
+  }
+}
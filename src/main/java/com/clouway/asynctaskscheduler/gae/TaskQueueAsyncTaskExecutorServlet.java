@@ -1,14 +1,20 @@
 package com.clouway.asynctaskscheduler.gae;
 
+import com.clouway.asynctaskscheduler.spi.MetricsRecorder;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
 import com.google.inject.Inject;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.util.Map;
@@ -20,13 +26,27 @@ import java.util.Map;
  */
 public class TaskQueueAsyncTaskExecutorServlet extends HttpServlet {
   public static final String URL = "/worker/taskQueue";
+
+  /**
+   * Headers of the executed task, which are set by App Engine.
+   */
+  public static final String QUEUE_NAME_HEADER = "X-AppEngine-QueueName";
+  public static final String RETRY_COUNT_HEADER = "X-AppEngine-TaskRetryCount";
+  public static final String EXECUTION_COUNT_HEADER = "X-AppEngine-TaskExecutionCount";
+
   private final RoutingEventDispatcher eventDispatcher;
   private final RoutingTaskDispatcher taskDispatcher;
+  private final PayloadCompressor payloadCompressor;
+  private final TypeRegistry typeRegistry;
+  private final MetricsRecorder metricsRecorder;
 
   @Inject
-  public TaskQueueAsyncTaskExecutorServlet(RoutingEventDispatcher eventDispatcher,RoutingTaskDispatcher taskDispatcher) {
+  public TaskQueueAsyncTaskExecutorServlet(RoutingEventDispatcher eventDispatcher, RoutingTaskDispatcher taskDispatcher, PayloadCompressor payloadCompressor, TypeRegistry typeRegistry, MetricsRecorder metricsRecorder) {
     this.eventDispatcher = eventDispatcher;
     this.taskDispatcher = taskDispatcher;
+    this.payloadCompressor = payloadCompressor;
+    this.typeRegistry = typeRegistry;
+    this.metricsRecorder = metricsRecorder;
   }
 
 
@@ -36,21 +56,64 @@ public class TaskQueueAsyncTaskExecutorServlet extends HttpServlet {
     doPost(httpServletRequest, httpServletResponse);
   }
 
+  @Override
+  protected void doPut(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws ServletException, IOException {
+    doPost(httpServletRequest, httpServletResponse);
+  }
+
   @Override
   protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+    long startMillis = System.currentTimeMillis();
 
     try {
 
-      String asyncTaskClass = getParameter(request, TaskQueueAsyncTaskScheduler.TASK_QUEUE);
+      String eventClassHeader = request.getHeader(TaskQueueAsyncTaskScheduler.EVENT_HEADER);
+      if (!Strings.isNullOrEmpty(eventClassHeader)) {
+        String eventClassAsString = typeRegistry.decode(eventClassHeader);
+
+        recordSchedulingLag(request, eventClassAsString, startMillis);
+        dispatchEventFromBody(eventClassAsString, request);
+        return;
+      }
+
+      String asyncTaskClass = typeRegistry.decode(getParameter(request, TaskQueueAsyncTaskScheduler.TASK_QUEUE));
 
       //event details
-      String eventClassAsString = getParameter(request, TaskQueueAsyncTaskScheduler.EVENT);
+      String eventClassAsString = typeRegistry.decode(getParameter(request, TaskQueueAsyncTaskScheduler.EVENT));
+      recordSchedulingLag(request, !Strings.isNullOrEmpty(eventClassAsString) ? eventClassAsString : asyncTaskClass, startMillis);
+
       String eventAsJson = getParameter(request, TaskQueueAsyncTaskScheduler.EVENT_AS_JSON);
+      String codec = getParameter(request, TaskQueueAsyncTaskScheduler.CODEC);
       //listener details
-      String listenerClassAsString = getParameter(request, TaskQueueAsyncTaskScheduler.LISTENER);
+      String listenerClassAsString = typeRegistry.decodeSimpleName(getParameter(request, TaskQueueAsyncTaskScheduler.LISTENER));
        //handler details
-      String handlerClassAsString = getParameter(request, TaskQueueAsyncTaskScheduler.HANDLER);
+      String handlerClassAsString = typeRegistry.decodeSimpleName(getParameter(request, TaskQueueAsyncTaskScheduler.HANDLER));
+
+      //stored event details
+      String payloadReference = getParameter(request, TaskQueueAsyncTaskScheduler.PAYLOAD_REFERENCE);
 
+      //fan-out shard details
+      String fanOut = getParameter(request, TaskQueueAsyncTaskScheduler.FAN_OUT);
+
+      if (isBinaryPayload(request) && !Strings.isNullOrEmpty(eventClassAsString) && !Strings.isNullOrEmpty(eventAsJson)) {
+        InputStream payload = new ByteArrayInputStream(payloadCompressor.decodeParam(eventClassAsString, codec, eventAsJson));
+
+        if (fanOut != null) {
+          dispatchFanOut(eventClassAsString, payload, null, null, fanOut, request);
+        } else {
+          eventDispatcher.dispatchEvent(eventClassAsString, payload, listenerClassAsString, handlerClassAsString);
+        }
+        return;
+      }
+      eventAsJson = payloadCompressor.decompressParam(eventClassAsString, codec, eventAsJson);
+
+      if (fanOut != null && !Strings.isNullOrEmpty(eventClassAsString)) {
+        InputStream payload = eventAsJson != null ? new ByteArrayInputStream(eventAsJson.getBytes(Charsets.UTF_8)) : null;
+        dispatchFanOut(eventClassAsString, payload, payloadReference, codec, fanOut, request);
+        return;
+      }
+
+      dispatchStoredEvent(eventClassAsString, payloadReference, codec, listenerClassAsString, handlerClassAsString, request);
       dispatchAsyncEvent(eventClassAsString, eventAsJson, listenerClassAsString, handlerClassAsString);
       dispatchEventHandler(handlerClassAsString, eventClassAsString, eventAsJson);
       dispatchEventListener(listenerClassAsString, eventClassAsString, eventAsJson);
@@ -63,6 +126,49 @@ public class TaskQueueAsyncTaskExecutorServlet extends HttpServlet {
 
   }
 
+  /**
+   * Records the lag from the time at which the task was added, or at which it was intended to be executed,
+   * until the given start of its execution. Tasks which were added without the time are not recorded.
+   */
+  private void recordSchedulingLag(HttpServletRequest request, String typeAsString, long startMillis) throws ClassNotFoundException {
+    long enqueuedAt = getLongHeader(request, TaskQueueAsyncTaskScheduler.ENQUEUED_AT_HEADER);
+    if (enqueuedAt <= 0 || Strings.isNullOrEmpty(typeAsString)) {
+      return;
+    }
+
+    long scheduledAt = Math.max(enqueuedAt, getLongHeader(request, TaskQueueAsyncTaskScheduler.ETA_HEADER));
+    String queueName = request.getHeader(QUEUE_NAME_HEADER);
+
+    metricsRecorder.recordSchedulingLag(queueName != null ? queueName : Queue.DEFAULT_QUEUE,
+            typeRegistry.resolve(typeAsString),
+            startMillis - scheduledAt,
+            (int) getLongHeader(request, RETRY_COUNT_HEADER),
+            (int) getLongHeader(request, EXECUTION_COUNT_HEADER));
+  }
+
+  /**
+   * @return the value of the header or 0 if it's missing or it's not a number
+   */
+  private long getLongHeader(HttpServletRequest request, String name) {
+    String value = request.getHeader(name);
+    if (Strings.isNullOrEmpty(value)) {
+      return 0;
+    }
+
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * @return whether the event payload is not text and is sent base64url encoded
+   */
+  private boolean isBinaryPayload(HttpServletRequest request) throws UnsupportedEncodingException {
+    return Boolean.parseBoolean(getParameter(request, TaskQueueAsyncTaskScheduler.BINARY_PAYLOAD));
+  }
+
   private void dispatchAsyncTask(String asyncTaskClass, HttpServletRequest request) throws ClassNotFoundException {
     if (!Strings.isNullOrEmpty(asyncTaskClass)) {
       Map<String, String[]> params = Maps.newHashMap(request.getParameterMap());
@@ -72,6 +178,48 @@ public class TaskQueueAsyncTaskExecutorServlet extends HttpServlet {
     }
   }
 
+  private void dispatchEventFromBody(String eventClassAsString, HttpServletRequest request) throws ClassNotFoundException, IOException {
+    String listenerClassAsString = typeRegistry.decodeSimpleName(request.getHeader(TaskQueueAsyncTaskScheduler.LISTENER_HEADER));
+    String handlerClassAsString = typeRegistry.decodeSimpleName(request.getHeader(TaskQueueAsyncTaskScheduler.HANDLER_HEADER));
+    String codec = request.getHeader(TaskQueueAsyncTaskScheduler.CODEC_HEADER);
+    String payloadReference = request.getHeader(TaskQueueAsyncTaskScheduler.PAYLOAD_REFERENCE_HEADER);
+    String fanOut = getParameter(request, TaskQueueAsyncTaskScheduler.FAN_OUT);
+
+    if (!Strings.isNullOrEmpty(payloadReference)) {
+      if (fanOut != null) {
+        dispatchFanOut(eventClassAsString, null, payloadReference, codec, fanOut, request);
+      } else {
+        eventDispatcher.dispatchStoredEvent(eventClassAsString, payloadReference, codec, listenerClassAsString, handlerClassAsString, request.getHeader(TaskQueueAsyncTaskScheduler.TASK_NAME_HEADER));
+      }
+      return;
+    }
+
+    InputStream payload = request.getInputStream();
+    if (!Strings.isNullOrEmpty(codec)) {
+      payload = new ByteArrayInputStream(payloadCompressor.decompress(eventClassAsString, codec, ByteStreams.toByteArray(payload)));
+    }
+
+    if (fanOut != null) {
+      dispatchFanOut(eventClassAsString, payload, null, null, fanOut, request);
+    } else {
+      eventDispatcher.dispatchEvent(eventClassAsString, payload, listenerClassAsString, handlerClassAsString);
+    }
+  }
+
+  private void dispatchFanOut(String eventClassAsString, InputStream payload, String payloadReference, String codec, String fanOut, HttpServletRequest request) throws ClassNotFoundException, UnsupportedEncodingException {
+    boolean handler = Boolean.parseBoolean(getParameter(request, TaskQueueAsyncTaskScheduler.FAN_OUT_HANDLER));
+    String taskName = request.getHeader(TaskQueueAsyncTaskScheduler.TASK_NAME_HEADER);
+
+    eventDispatcher.dispatchFanOut(eventClassAsString, payload, payloadReference, codec, fanOut, handler, taskName);
+  }
+
+  private void dispatchStoredEvent(String eventClassAsString, String payloadReference, String codec, String listenerClassAsString, String handlerClassAsString, HttpServletRequest request) throws ClassNotFoundException {
+    if (!Strings.isNullOrEmpty(eventClassAsString) && !Strings.isNullOrEmpty(payloadReference)) {
+      String taskName = request.getHeader(TaskQueueAsyncTaskScheduler.TASK_NAME_HEADER);
+      eventDispatcher.dispatchStoredEvent(eventClassAsString, payloadReference, codec, listenerClassAsString, handlerClassAsString, taskName);
+    }
+  }
+
   private void dispatchAsyncEvent(String eventClassAsString, String eventAsJson, String listenerClassAsString, String handlerClassAsString) throws ClassNotFoundException {
     if (!Strings.isNullOrEmpty(eventClassAsString) && !Strings.isNullOrEmpty(eventAsJson) && Strings.isNullOrEmpty(handlerClassAsString) && Strings.isNullOrEmpty(listenerClassAsString)) {
       eventDispatcher.dispatchAsyncEvent(eventClassAsString, eventAsJson);
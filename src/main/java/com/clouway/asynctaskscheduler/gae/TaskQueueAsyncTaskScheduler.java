@@ -5,11 +5,18 @@ import com.clouway.asynctaskscheduler.spi.AsyncTaskOptions;
 import com.clouway.asynctaskscheduler.spi.AsyncTaskScheduler;
 import com.clouway.asynctaskscheduler.spi.EventTransport;
 import com.clouway.asynctaskscheduler.spi.HeadersProvider;
+import com.clouway.asynctaskscheduler.spi.MetricsRecorder;
+import com.clouway.asynctaskscheduler.spi.PayloadStore;
+import com.clouway.asynctaskscheduler.spi.RetryPolicy;
+import com.google.appengine.api.taskqueue.QueueConstants;
 import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskHandle;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.taskqueue.TransientFailureException;
-import com.google.common.base.Strings;
+import com.google.common.base.Charsets;
+import com.google.common.base.Utf8;
 import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
 import com.google.inject.Inject;
 
 import java.io.ByteArrayOutputStream;
@@ -17,9 +24,18 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withMethod;
 import static com.google.appengine.api.taskqueue.TaskOptions.Builder.withUrl;
 
 /**
@@ -58,75 +74,240 @@ public class TaskQueueAsyncTaskScheduler implements AsyncTaskScheduler {
   public static final String EVENT_AS_JSON = "eventJson";
   public static final String LISTENER = "listener";
   public static final String HANDLER = "handler";
+  public static final String CODEC = "codec";
+  public static final String PAYLOAD_REFERENCE = "payloadRef";
+  public static final String FAN_OUT = "fanOut";
+  public static final String FAN_OUT_HANDLER = "fanOutHandler";
+
+  /**
+   * Marks the event payloads which are not UTF-8 text, as of the binary transports. They are sent base64url
+   * encoded and are dispatched as bytes, so they are not changed by the conversion to string.
+   */
+  public static final String BINARY_PAYLOAD = "binaryPayload";
+
+  /**
+   * Headers of the events which are sent as request body.
+   */
+  public static final String EVENT_HEADER = "X-AsyncEvent-Class";
+  public static final String LISTENER_HEADER = "X-AsyncEvent-Listener";
+  public static final String HANDLER_HEADER = "X-AsyncEvent-Handler";
+  public static final String CODEC_HEADER = "X-AsyncEvent-Codec";
+  public static final String PAYLOAD_REFERENCE_HEADER = "X-AsyncEvent-PayloadRef";
+  public static final String EVENT_CONTENT_TYPE = "application/octet-stream";
+
+  /**
+   * The header with the name of the executed task, which is set by App Engine.
+   */
+  public static final String TASK_NAME_HEADER = "X-AppEngine-TaskName";
+
+  /**
+   * Headers of the push tasks with the time in millis at which the task was added and at which it was intended
+   * to be executed, if it was delayed, so the lag of its execution could be measured.
+   */
+  public static final String ENQUEUED_AT_HEADER = "X-AsyncTask-EnqueuedAt";
+  public static final String ETA_HEADER = "X-AsyncTask-Eta";
+
+  /**
+   * The maximum number of batches which are added concurrently by {@link #nowAsync()}.
+   */
+  public static final int MAX_IN_FLIGHT_ADDS = 10;
+
+  /**
+   * Event payloads which are encoded in more bytes are kept in the {@link PayloadStore}, so there is enough
+   * space left for the rest of the parameters and the headers of the task.
+   */
+  public static final int MAX_INLINE_PAYLOAD_BYTES = QueueConstants.maxPushTaskSizeBytes() - 10 * 1024;
 
   private List<AsyncTaskOptions> taskOptions;
 
+  private final Map<Object, SerializedEvent> serializedEvents = new IdentityHashMap<Object, SerializedEvent>();
+
   private final EventTransport eventTransport;
   private final CommonParamBinder commonParamBinder;
   private final TaskApplier taskApplier;
   private final HeadersProvider headersProvider;
-
+  private final QueueRoutingTable queueRoutingTable;
+  private final RetryPolicy retryPolicy;
+  private final PayloadCompressor payloadCompressor;
+  private final PayloadStore payloadStore;
+  private final TypeRegistry typeRegistry;
+  private final TaskPayloads taskPayloads;
+  private final MetricsRecorder metricsRecorder;
+  private final boolean eventsAsRequestBody;
 
   @Inject
-  public TaskQueueAsyncTaskScheduler(EventTransport eventTransport,
+  public TaskQueueAsyncTaskScheduler(EventTransports eventTransport,
                                      CommonParamBinder commonParamBinder,
                                      TaskApplier taskApplier,
-                                     HeadersProvider headersProvider) {
+                                     HeadersProvider headersProvider,
+                                     QueueRoutingTable queueRoutingTable,
+                                     RetryPolicy retryPolicy,
+                                     PayloadCompressor payloadCompressor,
+                                     PayloadStore payloadStore,
+                                     TypeRegistry typeRegistry,
+                                     MetricsRecorder metricsRecorder) {
+    this(eventTransport, commonParamBinder, taskApplier, headersProvider, queueRoutingTable, retryPolicy, payloadCompressor, payloadStore, typeRegistry, metricsRecorder, false);
+  }
+
+  /**
+   * @param eventsAsRequestBody whether events are sent as request body instead of as parameters
+   */
+  public TaskQueueAsyncTaskScheduler(EventTransports eventTransport,
+                                     CommonParamBinder commonParamBinder,
+                                     TaskApplier taskApplier,
+                                     HeadersProvider headersProvider,
+                                     QueueRoutingTable queueRoutingTable,
+                                     RetryPolicy retryPolicy,
+                                     PayloadCompressor payloadCompressor,
+                                     PayloadStore payloadStore,
+                                     TypeRegistry typeRegistry,
+                                     MetricsRecorder metricsRecorder,
+                                     boolean eventsAsRequestBody) {
     this.eventTransport = eventTransport;
     this.commonParamBinder = commonParamBinder;
     this.taskApplier = taskApplier;
     this.headersProvider = headersProvider;
+    this.queueRoutingTable = queueRoutingTable;
+    this.retryPolicy = retryPolicy;
+    this.payloadCompressor = payloadCompressor;
+    this.payloadStore = payloadStore;
+    this.typeRegistry = typeRegistry;
+    this.taskPayloads = new TaskPayloads(eventTransport, payloadCompressor, typeRegistry);
+    this.metricsRecorder = metricsRecorder;
+    this.eventsAsRequestBody = eventsAsRequestBody;
     this.taskOptions = Lists.newArrayList();
   }
 
 
   /**
-   * builds the task queue form the task options
+   * builds the task queue form the task options. Tasks that are going to the same queue with the same
+   * transactionality are added together in batches of up to {@link QueueConstants#maxTasksPerAdd()} tasks.
    */
   public void now() {
 
-    Map<String, String> commonParams = new HashMap<String, String>();
-    commonParamBinder.bindCommonParams(commonParams);
+    long startMillis = System.currentTimeMillis();
 
-    for (AsyncTaskOptions taskOption : taskOptions) {
+    for (Map.Entry<TaskGroup, List<TaskOptions>> taskGroup : createTaskGroups().entrySet()) {
+      TaskGroup group = taskGroup.getKey();
 
-      /**
-       * We need to add and common parameters, before we schedule
-       * task for execution
-       */
-      for (String paramKey : commonParams.keySet()) {
-        taskOption.param(paramKey, commonParams.get(paramKey));
+      for (List<TaskOptions> batch : Lists.partition(taskGroup.getValue(), QueueConstants.maxTasksPerAdd())) {
+        addTasksToTheQueue(batch, group.queueName, group.transactionless, startMillis);
       }
+    }
+  }
 
-      if (taskOption.isEventTaskOption()) {
+  /**
+   * builds the task queue form the task options without waiting the tasks to be added. Batches for
+   * different queues are added concurrently, but no more than {@link #MAX_IN_FLIGHT_ADDS} at a time. The failures
+   * of the batches are retried and re-thrown by the returned future.
+   *
+   * @return the future which completes when all of the tasks are added
+   */
+  public Future<Void> nowAsync() {
 
-        addEventTaskQueueOption(taskOption);
+    long startMillis = System.currentTimeMillis();
 
-      } else {
+    List<PendingBatch> batches = Lists.newArrayList();
+    int awaited = 0;
 
-        addTaskQueue(taskOption);
+    for (Map.Entry<TaskGroup, List<TaskOptions>> taskGroup : createTaskGroups().entrySet()) {
+      TaskGroup group = taskGroup.getKey();
 
-      }
+      for (List<TaskOptions> batch : Lists.partition(taskGroup.getValue(), QueueConstants.maxTasksPerAdd())) {
 
+        if (batches.size() - awaited >= MAX_IN_FLIGHT_ADDS) {
+          batches.get(awaited++).await();
+        }
+
+        batches.add(new PendingBatch(batch, group, startMillis, System.nanoTime(), taskApplier.applyAllAsync(batch, group.queueName, group.transactionless)));
+      }
     }
+
+    return new PendingAdds(batches);
   }
 
   /**
-   * Adds Task queue options for an async even({@link com.clouway.asynctaskscheduler.spi.AsyncEvent})
+   * Creates the tasks of all task options grouped by their queue and transactionality.
    *
-   * @param taskOptions
+   * @return the tasks for each group
    */
-  private void addEventTaskQueueOption(AsyncTaskOptions taskOptions) {
+  private Map<TaskGroup, List<TaskOptions>> createTaskGroups() {
+
+    Map<String, String> commonParams = new HashMap<String, String>();
+    commonParamBinder.bindCommonParams(commonParams);
+
+    Map<TaskGroup, List<TaskOptions>> taskGroups = new LinkedHashMap<TaskGroup, List<TaskOptions>>();
+    Set<String> namedTasks = new HashSet<String>();
+    long enqueuedAt = System.currentTimeMillis();
+
+    try {
+      for (AsyncTaskOptions taskOption : taskOptions) {
+
+        /**
+         * We need to add and common parameters, before we schedule
+         * task for execution
+         */
+        for (String paramKey : commonParams.keySet()) {
+          taskOption.param(paramKey, commonParams.get(paramKey));
+        }
+
+        String queueName;
+
+        if (taskOption.isEventTaskOption()) {
+          queueName = queueRoutingTable.getEventQueueName(taskOption.getEvent(), taskOption.getEventListenerClass());
+        } else {
+          queueName = queueRoutingTable.getTaskQueueName(taskOption.getAsyncTask());
+        }
+
+        // a task with the same name could be added only once, so it's enough the first of them to be sent
+        if (taskOption.getTaskName() != null && !namedTasks.add(queueName + ":" + taskOption.getTaskName())) {
+          continue;
+        }
 
-    TaskOptions task = createEventTaskOptions(taskOptions);
+        TaskOptions task;
+        boolean pullQueue = queueRoutingTable.isPullQueue(queueName);
 
+        if (pullQueue) {
+          task = createPullTaskOptions(taskOption);
+        } else if (taskOption.isEventTaskOption() && eventsAsRequestBody) {
+          task = createEventBodyTaskOptions(taskOption);
+        } else if (taskOption.isEventTaskOption()) {
+          task = createEventTaskOptions(taskOption);
+        } else {
+          task = createTaskOptions(taskOption);
+        }
 
-    setExecutionDate(taskOptions, task);
+        long etaMillis = setExecutionDate(taskOption, task, enqueuedAt);
+        // TaskOptions#headers(Map) replaces the event headers and the content type of the payload
+        // and pull tasks may not have headers
+        if (!pullQueue) {
+          task.header(ENQUEUED_AT_HEADER, String.valueOf(enqueuedAt));
+          if (etaMillis > 0) {
+            task.header(ETA_HEADER, String.valueOf(etaMillis));
+          }
+          for (Map.Entry<String, String> header : headersProvider.get().entrySet()) {
+            task.header(header.getKey(), header.getValue());
+          }
+        }
 
-    String queueName = getQueueName(taskOptions.getEvent().getClass(), taskOptions.getEvent().getAssociatedHandlerClass(), taskOptions.getEventListenerClass());
+        metricsRecorder.recordEnqueue(queueName, taskOption.isEventTaskOption() ? taskOption.getEvent().getClass() : taskOption.getAsyncTask(), getPayloadBytes(taskOption));
 
-    addTaskToTheQueue(taskOptions, queueName, task);
+        TaskGroup group = new TaskGroup(queueName, taskOption.isTransactionless());
+        List<TaskOptions> tasks = taskGroups.get(group);
+        if (tasks == null) {
+          tasks = Lists.newArrayList();
+          taskGroups.put(group, tasks);
+        }
+        tasks.add(task);
+      }
 
+      retainStoredPayloads();
+    } finally {
+      // the serialized events are reused only during a single call of now()
+      serializedEvents.clear();
+    }
+
+    return taskGroups;
   }
 
   /**
@@ -139,87 +320,351 @@ public class TaskQueueAsyncTaskScheduler implements AsyncTaskScheduler {
     TaskOptions task;
     task = withUrl(TaskQueueAsyncTaskExecutorServlet.URL);
 
+    task = addParams(task, getEventParams(taskOptions));
+
+    if (taskOptions.getTaskName() != null) {
+      task.taskName(taskOptions.getTaskName());
+    }
+
+    return task;
+  }
+
+  /**
+   * Gets the parameters of an event task
+   *
+   * @param taskOptions
+   * @return
+   */
+  private Map<String, String> getEventParams(AsyncTaskOptions taskOptions) {
+    Map<String, String> params = new LinkedHashMap<String, String>();
+
     //main task queue parameter
-    task.param(EVENT, taskOptions.getEvent().getClass().getName());
+    params.put(EVENT, typeRegistry.encode(taskOptions.getEvent().getClass()));
 
-    String eventAsJson = getAsyncEventAsJson(taskOptions.getEvent());
+    if (taskOptions.getPayloadReference() != null) {
 
-    try {
+      params.put(PAYLOAD_REFERENCE, taskOptions.getPayloadReference());
+      if (taskOptions.getPayloadCodec() != null) {
+        params.put(CODEC, taskOptions.getPayloadCodec());
+      }
 
-      String encodedEventAsJson = URLEncoder.encode(eventAsJson,"UTF-8");
-      task.param(EVENT_AS_JSON, encodedEventAsJson);
+    } else {
+
+      addEventPayload(params, taskOptions);
 
-    } catch (UnsupportedEncodingException e) {
-      e.printStackTrace();
-      throw new RuntimeException(e);
     }
 
     if (taskOptions.getEventListenerClass() != null){
-      task.param(LISTENER, taskOptions.getEventListenerClass().getSimpleName());
+      params.put(LISTENER, typeRegistry.encodeSimpleName(taskOptions.getEventListenerClass()));
     }
 
     if (taskOptions.getEventHandlerClass() != null){
-      task.param(HANDLER, taskOptions.getEventHandlerClass().getSimpleName());
+      params.put(HANDLER, typeRegistry.encodeSimpleName(taskOptions.getEventHandlerClass()));
     }
 
     //adds all other parameters
-    task = addParams(task, taskOptions.getParams());
+    params.putAll(taskOptions.getParams());
+    return params;
+  }
+
+  /**
+   * Creates pull task options. The parameters are sent form encoded as payload, so they could be executed by
+   * the {@link PullQueueWorker} in the same way as the push tasks are executed. Tasks are tagged by their
+   * listener or task class, so the worker could lease them grouped.
+   *
+   * @param taskOptions
+   * @return
+   */
+  private TaskOptions createPullTaskOptions(AsyncTaskOptions taskOptions) {
+    Map<String, String> params;
+    String tag;
+
+    if (taskOptions.isEventTaskOption()) {
+      params = getEventParams(taskOptions);
+      tag = taskOptions.getEventListenerClass() != null ? taskOptions.getEventListenerClass().getName() : taskOptions.getEvent().getClass().getName();
+    } else {
+      params = getTaskParams(taskOptions);
+      tag = taskOptions.getAsyncTaskAsString();
+    }
+
+    TaskOptions task = withMethod(TaskOptions.Method.PULL).payload(formEncode(params).getBytes(Charsets.UTF_8)).tag(tag);
+
+    if (taskOptions.getTaskName() != null) {
+      task.taskName(taskOptions.getTaskName());
+    }
+
     return task;
   }
 
-  private String getAsyncEventAsJson(AsyncEvent event) {
+  /**
+   * Creates event task options which send the serialized event as request body. The event details are sent
+   * as headers and the other parameters in the query string. PUT is used because POST tasks may not have
+   * a query string.
+   *
+   * @param taskOptions
+   * @return
+   */
+  private TaskOptions createEventBodyTaskOptions(AsyncTaskOptions taskOptions) {
+    AsyncEvent event = taskOptions.getEvent();
 
-    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    TaskOptions task = withUrl(TaskQueueAsyncTaskExecutorServlet.URL + getQueryString(taskOptions.getParams())).method(TaskOptions.Method.PUT);
+    task.header(EVENT_HEADER, typeRegistry.encode(event.getClass()));
 
-    eventTransport.out(event.getClass(), event, outputStream);
+    if (taskOptions.getTaskName() != null) {
+      task.taskName(taskOptions.getTaskName());
+    }
+
+    if (taskOptions.getEventListenerClass() != null) {
+      task.header(LISTENER_HEADER, typeRegistry.encodeSimpleName(taskOptions.getEventListenerClass()));
+    }
+
+    if (taskOptions.getEventHandlerClass() != null) {
+      task.header(HANDLER_HEADER, typeRegistry.encodeSimpleName(taskOptions.getEventHandlerClass()));
+    }
+
+    if (taskOptions.getPayloadReference() != null) {
+      task.header(PAYLOAD_REFERENCE_HEADER, taskOptions.getPayloadReference());
+      if (taskOptions.getPayloadCodec() != null) {
+        task.header(CODEC_HEADER, taskOptions.getPayloadCodec());
+      }
+      return task;
+    }
 
-    String eventAsJson = "";
+    SerializedEvent serializedEvent = serializeEvent(taskOptions);
+    byte[] eventPayload = serializedEvent.payload;
+
+    if (serializedEvent.compressedPayload != null) {
+      task.header(CODEC_HEADER, payloadCompressor.getCodec().getName());
+      eventPayload = serializedEvent.compressedPayload;
+    }
+
+    if (eventPayload.length > MAX_INLINE_PAYLOAD_BYTES) {
+      task.header(PAYLOAD_REFERENCE_HEADER, storePayload(serializedEvent, eventPayload));
+    } else {
+      task.payload(eventPayload, EVENT_CONTENT_TYPE);
+    }
+    return task;
+  }
+
+  private String getQueryString(Map<String, String> params) {
+    if (params.isEmpty()) {
+      return "";
+    }
+    return "?" + formEncode(params);
+  }
 
+  private String formEncode(Map<String, String> params) {
+    StringBuilder form = new StringBuilder();
     try {
-      eventAsJson = outputStream.toString("UTF-8");
+
+      for (Map.Entry<String, String> param : params.entrySet()) {
+        if (form.length() > 0) {
+          form.append('&');
+        }
+        form.append(URLEncoder.encode(param.getKey(), "UTF-8")).append('=').append(URLEncoder.encode(param.getValue(), "UTF-8"));
+      }
+
     } catch (UnsupportedEncodingException e) {
-      e.printStackTrace();
+      throw new RuntimeException(e);
     }
+    return form.toString();
+  }
 
-    try {
-      outputStream.close();
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * Adds the payload of the event to the task. Payloads which are too big for the task are kept in
+   * the {@link PayloadStore} and only their reference is added.
+   */
+  private void addEventPayload(Map<String, String> params, AsyncTaskOptions taskOptions) {
+    SerializedEvent serializedEvent = serializeEvent(taskOptions);
+    byte[] compressedPayload = serializedEvent.compressedPayload;
+
+    if (compressedPayload != null) {
+      params.put(CODEC, payloadCompressor.getCodec().getName());
+    }
+
+    if (serializedEvent.encodedPayload == null) {
+      serializedEvent.binary = !Utf8.isWellFormed(serializedEvent.payload);
+
+      if (compressedPayload != null) {
+
+        // base64url contains only characters which are not changed by the url decoding of the parameter
+        serializedEvent.encodedPayload = BaseEncoding.base64Url().omitPadding().encode(compressedPayload);
+
+      } else if (serializedEvent.binary) {
+
+        serializedEvent.encodedPayload = BaseEncoding.base64Url().omitPadding().encode(serializedEvent.payload);
+
+      } else {
+
+        try {
+
+          serializedEvent.encodedPayload = URLEncoder.encode(new String(serializedEvent.payload, Charsets.UTF_8), "UTF-8");
+
+        } catch (UnsupportedEncodingException e) {
+          e.printStackTrace();
+          throw new RuntimeException(e);
+        }
+      }
+    }
+
+    if (getSentSize(serializedEvent.encodedPayload) > MAX_INLINE_PAYLOAD_BYTES) {
+      params.put(PAYLOAD_REFERENCE, storePayload(serializedEvent, compressedPayload != null ? compressedPayload : serializedEvent.payload));
+    } else {
+      params.put(EVENT_AS_JSON, serializedEvent.encodedPayload);
+      if (serializedEvent.binary) {
+        params.put(BINARY_PAYLOAD, "true");
+      }
     }
-    return eventAsJson;
   }
 
   /**
-   * Adds the task queue formed form the {@link com.clouway.asynctaskscheduler.spi.AsyncTaskOptions}
+   * Stores the payload of an event which is sent to many targets in the same call of {@link #now()} only once. Each
+   * task releases the stored payload, so it's retained for the other tasks by {@link #retainStoredPayloads()}.
    *
-   * @param taskOptions the AsyncTaskOptions
+   * @return the reference of the stored payload
    */
-  private void addTaskQueue(AsyncTaskOptions taskOptions) {
+  private String storePayload(SerializedEvent serializedEvent, byte[] payload) {
+    if (serializedEvent.payloadReference == null) {
+      serializedEvent.payloadReference = payloadStore.store(payload);
+    }
+    serializedEvent.payloadConsumers++;
+    return serializedEvent.payloadReference;
+  }
 
-    TaskOptions task = createTaskOptions(taskOptions);
+  /**
+   * Retains the stored payloads for all of the tasks which carry their reference, before any of them is added.
+   */
+  private void retainStoredPayloads() {
+    for (SerializedEvent serializedEvent : serializedEvents.values()) {
+      if (serializedEvent.payloadConsumers > 1) {
+        payloadStore.retain(serializedEvent.payloadReference, serializedEvent.payloadConsumers - 1, null);
+      }
+    }
+  }
 
-    setExecutionDate(taskOptions, task);
+  /**
+   * Gets the size of the encoded payload as it's sent in the task. The parameters of the task are form encoded once
+   * more, so each '%' and '+' of the url encoded payload is sent as three characters.
+   */
+  private int getSentSize(String encodedPayload) {
+    int size = encodedPayload.length();
+    for (int i = 0; i < encodedPayload.length(); i++) {
+      char c = encodedPayload.charAt(i);
+      if (c == '%' || c == '+') {
+        size += 2;
+      }
+    }
+    return size;
+  }
 
-    String  queueName = getQueueName(taskOptions.getAsyncTask());
+  /**
+   * Serializes and compresses the event of the task options. The payload which is already carried by the task
+   * options is used as it is, and an event which is sent to many targets in the same call of {@link #now()} is
+   * serialized only once.
+   */
+  private SerializedEvent serializeEvent(AsyncTaskOptions taskOptions) {
+    Object key = taskOptions.getEventPayload() != null ? taskOptions.getEventPayload() : taskOptions.getEvent();
+
+    SerializedEvent serializedEvent = serializedEvents.get(key);
+    if (serializedEvent == null) {
+      byte[] payload = taskOptions.getEventPayload() != null ? taskOptions.getEventPayload() : getAsyncEventPayload(taskOptions.getEvent());
+      byte[] compressedPayload = payloadCompressor.compress(taskOptions.getEvent().getClass().getName(), payload);
+
+      serializedEvent = new SerializedEvent(payload, compressedPayload);
+      serializedEvents.put(key, serializedEvent);
+    }
+    return serializedEvent;
+  }
 
-    addTaskToTheQueue(taskOptions, queueName, task);
+  /**
+   * @return the size of the event payload which is sent with the task or 0 if there is no payload
+   */
+  private int getPayloadBytes(AsyncTaskOptions taskOptions) {
+    if (!taskOptions.isEventTaskOption() || taskOptions.getPayloadReference() != null) {
+      return 0;
+    }
 
+    // the event is already serialized for its task
+    SerializedEvent serializedEvent = serializeEvent(taskOptions);
+    return serializedEvent.compressedPayload != null ? serializedEvent.compressedPayload.length : serializedEvent.payload.length;
   }
 
-  private void addTaskToTheQueue(AsyncTaskOptions taskOptions, String queue, TaskOptions task) {
+  private byte[] getAsyncEventPayload(AsyncEvent event) {
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    eventTransport.out(event.getClass(), event, outputStream);
+
     try {
+      outputStream.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return outputStream.toByteArray();
+  }
 
-      task.headers(headersProvider.get());
+  /**
+   * Adds a batch of tasks to the given queue. A named task that already exists does not prevent the rest
+   * of the batch from being added, so the exception is ignored which allows fork-join queues to be used.
+   *
+   * @param tasks           the batch of tasks
+   * @param queue           the queue name
+   * @param transactionless whether the tasks are added outside of the current transaction
+   * @param startMillis     the time when adding of the tasks was started
+   */
+  private void addTasksToTheQueue(List<TaskOptions> tasks, String queue, Boolean transactionless, long startMillis) {
+    long startNanos = System.nanoTime();
+    try {
 
-      taskApplier.apply(task, queue, taskOptions.isTransactionless());
+      taskApplier.applyAll(tasks, queue, transactionless);
 
     } catch (TaskAlreadyExistsException e) {
       // Fan-In magic goes here
-    } catch (TransientFailureException e){
-      //retry adding the task to the queue
+    } catch (TransientFailureException e) {
+
+      metricsRecorder.recordTransientFailure(queue);
+      retryAddingTasksToTheQueue(tasks, queue, transactionless, startMillis, e);
+
+    }
+    metricsRecorder.recordEnqueueLatency(queue, tasks.size(), System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Retries adding of a batch of tasks for as long as the {@link RetryPolicy} allows.
+   *
+   * @param failure the failure of the first attempt which is re-thrown when adding is given up
+   */
+  private void retryAddingTasksToTheQueue(List<TaskOptions> tasks, String queue, Boolean transactionless, long startMillis, TransientFailureException failure) {
+    int failedAttempts = 1;
 
-      taskApplier.apply(task, queue, taskOptions.isTransactionless());
+    while (true) {
+      long delay = retryPolicy.nextRetryDelay(failedAttempts, System.currentTimeMillis() - startMillis);
+
+      if (delay < 0) {
+        throw failure;
+      }
+
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw failure;
+      }
 
+      metricsRecorder.recordRetry(queue);
+      try {
+
+        taskApplier.applyAll(tasks, queue, transactionless);
+        return;
+
+      } catch (TaskAlreadyExistsException e) {
+        // named tasks of the batch were added by a previous attempt
+        return;
+      } catch (TransientFailureException e) {
+        metricsRecorder.recordTransientFailure(queue);
+        failure = e;
+        failedAttempts++;
+      }
     }
   }
 
@@ -228,17 +673,22 @@ public class TaskQueueAsyncTaskScheduler implements AsyncTaskScheduler {
    *
    * @param taskOptions
    * @param task
+   * @param enqueuedAt the time at which the task is added
+   * @return the time at which the task is intended to be executed or 0 if it's not delayed
    */
-  private void setExecutionDate(AsyncTaskOptions taskOptions, TaskOptions task) {
+  private long setExecutionDate(AsyncTaskOptions taskOptions, TaskOptions task, long enqueuedAt) {
     if (taskOptions.getDelayMills() > 0) {
 
       task.countdownMillis(taskOptions.getDelayMills());
+      return enqueuedAt + taskOptions.getDelayMills();
 
     } else if (taskOptions.getExecutionDateMills() > 0) {
 
       task.etaMillis(taskOptions.getExecutionDateMills());
+      return taskOptions.getExecutionDateMills();
 
     }
+    return 0;
   }
 
   /**
@@ -251,11 +701,7 @@ public class TaskQueueAsyncTaskScheduler implements AsyncTaskScheduler {
     TaskOptions task;
     task = withUrl(TaskQueueAsyncTaskExecutorServlet.URL);
 
-    //main task queue parameter
-    task.param(TASK_QUEUE, taskOptions.getAsyncTaskAsString());
-
-    //adds all other parameters
-    task = addParams(task, taskOptions.getParams());
+    task = addParams(task, getTaskParams(taskOptions));
 
     // task was named? so we have to add it as name and we have to emit
     // the TaskAlreadyExistsException when task is added.
@@ -266,6 +712,19 @@ public class TaskQueueAsyncTaskScheduler implements AsyncTaskScheduler {
     return task;
   }
 
+  private Map<String, String> getTaskParams(AsyncTaskOptions taskOptions) {
+    Map<String, String> params = new LinkedHashMap<String, String>();
+
+    //main task queue parameter
+    params.put(TASK_QUEUE, typeRegistry.encode(taskOptions.getAsyncTask()));
+
+    taskPayloads.addPayload(params, taskOptions.getTaskPayload());
+
+    //adds all other parameters
+    params.putAll(taskOptions.getParams());
+    return params;
+  }
+
   /**
    * Adds new {@link com.clouway.asynctaskscheduler.spi.AsyncTaskOptions} object
    *
@@ -307,35 +766,221 @@ public class TaskQueueAsyncTaskScheduler implements AsyncTaskScheduler {
   }
 
   /**
-   * Gets the Task Queue from the given name or the Default Task Queue
-   *
-   * @param asyncJobClasses
-   * @return
+   * The serialized event and its stored payload, which are reused by all of its tasks.
    */
-  private String  getQueueName(Class... asyncJobClasses) {
-    QueueName queueName = null;
-
-    for (Class asyncJobClass : asyncJobClasses) {
-      if (asyncJobClass != null) {
-        QueueName classQueueName = (QueueName) asyncJobClass.getAnnotation(QueueName.class);
-        if (classQueueName != null && !Strings.isNullOrEmpty(classQueueName.name())) {
-          queueName = classQueueName;
-        } else {
-          // little acrobatics so we can preserve the old behavior
-          classQueueName = (QueueName) asyncJobClasses[0].getAnnotation(QueueName.class);
-          if (classQueueName != null && !Strings.isNullOrEmpty(classQueueName.name())) {
-            queueName = classQueueName;
-          } else {
-            queueName = null;
-          }
+  private static final class SerializedEvent {
+    private final byte[] payload;
+    private final byte[] compressedPayload;
+    private String encodedPayload;
+    private boolean binary;
+    private String payloadReference;
+    private int payloadConsumers;
+
+    private SerializedEvent(byte[] payload, byte[] compressedPayload) {
+      this.payload = payload;
+      this.compressedPayload = compressedPayload;
+    }
+  }
+
+  /**
+   * The queue and transactionality of tasks which are added together.
+   */
+  private static final class TaskGroup {
+    private final String queueName;
+    private final Boolean transactionless;
+
+    private TaskGroup(String queueName, Boolean transactionless) {
+      this.queueName = queueName;
+      this.transactionless = transactionless;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof TaskGroup)) {
+        return false;
+      }
+      TaskGroup that = (TaskGroup) o;
+      return queueName.equals(that.queueName) && transactionless.equals(that.transactionless);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * queueName.hashCode() + transactionless.hashCode();
+    }
+  }
+
+  /**
+   * A batch of tasks which is being added asynchronously.
+   */
+  private final class PendingBatch {
+    private final List<TaskOptions> tasks;
+    private final TaskGroup group;
+    private final long startMillis;
+    private final long startNanos;
+    private final Future<List<TaskHandle>> future;
+    private volatile boolean completed = false;
+
+    private PendingBatch(List<TaskOptions> tasks, TaskGroup group, long startMillis, long startNanos, Future<List<TaskHandle>> future) {
+      this.tasks = tasks;
+      this.group = group;
+      this.startMillis = startMillis;
+      this.startNanos = startNanos;
+      this.future = future;
+    }
+
+    /**
+     * Waits for the add of the batch to finish, so the adds in flight are limited. Its failures are not handled,
+     * as they are handled when the batch is completed.
+     */
+    private void await() {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        // handled when the batch is completed
+      }
+    }
+
+    /**
+     * @return true if the batch is added or it failed in a way which is not retried when it's completed
+     */
+    private boolean isDone() {
+      if (completed) {
+        return true;
+      }
+      if (!future.isDone()) {
+        return false;
+      }
+
+      try {
+        future.get();
+        return true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      } catch (ExecutionException e) {
+        return !(e.getCause() instanceof TransientFailureException);
+      }
+    }
+
+    /**
+     * Waits for the batch to be added, handling the failures in the same way as {@link #now()}. A batch is
+     * completed only once.
+     */
+    private void complete() {
+      if (completed) {
+        return;
+      }
+      completed = true;
+
+      add();
+      metricsRecorder.recordEnqueueLatency(group.queueName, tasks.size(), System.nanoTime() - startNanos);
+    }
+
+    private void add() {
+      try {
+
+        future.get();
+
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof TaskAlreadyExistsException) {
+          // Fan-In magic goes here
+          return;
+        }
+        if (e.getCause() instanceof TransientFailureException) {
+          metricsRecorder.recordTransientFailure(group.queueName);
+          retryAddingTasksToTheQueue(tasks, group.queueName, group.transactionless, startMillis, (TransientFailureException) e.getCause());
+          return;
+        }
+        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+      } catch (TaskAlreadyExistsException e) {
+        // Fan-In magic goes here
+      } catch (TransientFailureException e) {
+        metricsRecorder.recordTransientFailure(group.queueName);
+        retryAddingTasksToTheQueue(tasks, group.queueName, group.transactionless, startMillis, e);
+      }
+    }
+  }
+
+  /**
+   * The future of all batches started by {@link #nowAsync()}.
+   */
+  private static final class PendingAdds implements Future<Void> {
+    private final List<PendingBatch> batches;
+    private boolean completed = false;
+    private RuntimeException failure;
+
+    private PendingAdds(List<PendingBatch> batches) {
+      this.batches = batches;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      // adds which were already sent cannot be cancelled
+      return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+      if (completed) {
+        return true;
+      }
+      for (PendingBatch batch : batches) {
+        if (!batch.isDone()) {
+          return false;
         }
       }
+      return true;
     }
 
-    if(queueName!= null){
-      return queueName.name();
+    @Override
+    public synchronized Void get() throws InterruptedException, ExecutionException {
+      if (!completed) {
+        // all of the batches are completed, so the failed ones are retried even if some of them fail
+        for (PendingBatch batch : batches) {
+          try {
+            batch.complete();
+          } catch (RuntimeException e) {
+            if (failure == null) {
+              failure = e;
+            }
+          }
+        }
+        completed = true;
+      }
+
+      if (failure != null) {
+        throw new ExecutionException(failure);
+      }
+      return null;
     }
 
-    return "";
+    @Override
+    public synchronized Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+      if (!completed) {
+        for (PendingBatch batch : batches) {
+          try {
+            batch.future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          } catch (ExecutionException e) {
+            // handled by get() below
+          }
+        }
+      }
+      return get();
+    }
   }
 }
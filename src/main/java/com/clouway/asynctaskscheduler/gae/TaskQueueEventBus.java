@@ -5,8 +5,11 @@ import com.clouway.asynctaskscheduler.spi.AsyncEventBus;
 import com.clouway.asynctaskscheduler.spi.AsyncTaskOptions;
 import com.clouway.asynctaskscheduler.spi.AsyncTaskScheduler;
 import com.google.inject.Inject;
+import com.google.inject.OutOfScopeException;
 import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
 
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -16,10 +19,12 @@ class TaskQueueEventBus implements AsyncEventBus {
   private final Logger log = Logger.getLogger(TaskQueueEventBus.class.getName());
 
   private final Provider<AsyncTaskScheduler> taskScheduler;
+  private final Provider<PendingTaskAdds> pendingTaskAdds;
 
   @Inject
-  public TaskQueueEventBus(Provider<AsyncTaskScheduler> taskScheduler) {
+  public TaskQueueEventBus(Provider<AsyncTaskScheduler> taskScheduler, Provider<PendingTaskAdds> pendingTaskAdds) {
     this.taskScheduler = taskScheduler;
+    this.pendingTaskAdds = pendingTaskAdds;
   }
 
   @Override
@@ -45,4 +50,45 @@ class TaskQueueEventBus implements AsyncEventBus {
     log.info("fired async event : " + event.getClass().getSimpleName());
     taskScheduler.get().add(AsyncTaskOptions.event(event).delay(delayMills).transactionless()).now();
   }
-}
\ No newline at end of file
+
+  @Override
+  public Future<Void> fireEventAsync(AsyncEvent<?> event) {
+    log.info("fired async event : " + event.getClass().getSimpleName());
+    return track(taskScheduler.get().add(AsyncTaskOptions.event(event)).nowAsync());
+  }
+
+  @Override
+  public Future<Void> fireEventAsync(AsyncEvent<?> event, long delayMills) {
+    log.info("fired async event : " + event.getClass().getSimpleName());
+    return track(taskScheduler.get().add(AsyncTaskOptions.event(event).delay(delayMills)).nowAsync());
+  }
+
+  @Override
+  public Future<Void> fireTransactionLessEventAsync(AsyncEvent<?> event) {
+    log.info("fired async event : " + event.getClass().getSimpleName());
+    return track(taskScheduler.get().add(AsyncTaskOptions.event(event).transactionless()).nowAsync());
+  }
+
+  @Override
+  public Future<Void> fireTransactionLessEventAsync(AsyncEvent<?> event, long delayMills) {
+    log.info("fired async event : " + event.getClass().getSimpleName());
+    return track(taskScheduler.get().add(AsyncTaskOptions.event(event).delay(delayMills).transactionless()).nowAsync());
+  }
+
+  /**
+   * Registers the future in the pending adds of the current request.
+   */
+  private Future<Void> track(Future<Void> future) {
+    try {
+      pendingTaskAdds.get().add(future);
+    } catch (OutOfScopeException e) {
+      // not in a request, so the caller is responsible to join the returned future
+    } catch (ProvisionException e) {
+      // the scope fails out of a request with OutOfScopeException, which is wrapped by the injector
+      if (!(e.getCause() instanceof OutOfScopeException)) {
+        throw e;
+      }
+    }
+    return future;
+  }
+}
@@ -0,0 +1,84 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.google.inject.Provider;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Flushes the {@link RequestTaskBuffer} and joins the {@link PendingTaskAdds} when the request completes.
+ * <p/>
+ * When fail fast is enabled failures of the flush are propagated to the container, otherwise they are only logged.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class TaskQueueFlushFilter implements Filter {
+  private static final Logger log = Logger.getLogger(TaskQueueFlushFilter.class.getName());
+
+  private final Provider<RequestTaskBuffer> taskBuffer;
+  private final Provider<PendingTaskAdds> pendingTaskAdds;
+  private final boolean failFast;
+
+  public TaskQueueFlushFilter(Provider<RequestTaskBuffer> taskBuffer, Provider<PendingTaskAdds> pendingTaskAdds, boolean failFast) {
+    this.taskBuffer = taskBuffer;
+    this.pendingTaskAdds = pendingTaskAdds;
+    this.failFast = failFast;
+  }
+
+  @Override
+  public void init(FilterConfig filterConfig) throws ServletException {
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+    boolean completed = false;
+    try {
+
+      chain.doFilter(request, response);
+      completed = true;
+
+    } finally {
+      flush(completed);
+    }
+  }
+
+  @Override
+  public void destroy() {
+  }
+
+  /**
+   * @param propagateFailures whether failures should be propagated, they are never propagated when the request
+   *                          already failed, so the original failure is not hidden
+   */
+  private void flush(boolean propagateFailures) {
+    RuntimeException failure = null;
+
+    try {
+      taskBuffer.get().flush();
+    } catch (RuntimeException e) {
+      failure = e;
+    }
+
+    try {
+      pendingTaskAdds.get().awaitAll();
+    } catch (RuntimeException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+
+    if (failure != null) {
+      if (failFast && propagateFailures) {
+        throw failure;
+      }
+      log.log(Level.SEVERE, "Tasks of the request could not be added.", failure);
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.UnsignedLongs;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the event, task, handler and listener classes which gives each of them a compact id, so tasks
+ * don't have to carry the full class names. The id is a hash of the class name, so it's the same on all instances
+ * of the application without any coordination.
+ * <p/>
+ * Ids of the registered classes are always decoded, but they are sent only when encoding is enabled. Class names
+ * are still accepted, so the tasks which are already in the queues are executed while the ids are rolled out.
+ * <p/>
+ * The classes are resolved only once and cached, so {@link Class#forName(String)} is not called for each task.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class TypeRegistry {
+  private static final Logger log = Logger.getLogger(TypeRegistry.class.getName());
+
+  /**
+   * Prefix of the ids. Class names may not contain it, so an id could not be mistaken for a class name.
+   */
+  public static final String ID_PREFIX = "-";
+
+  private final ImmutableMap<Class<?>, String> ids;
+  private final ImmutableMap<String, Class<?>> types;
+  private final boolean encodeIds;
+  private final ConcurrentMap<String, Class<?>> resolvedTypes = new ConcurrentHashMap<String, Class<?>>();
+
+  /**
+   * @param types     the registered classes
+   * @param encodeIds whether the ids are sent instead of the class names
+   */
+  public TypeRegistry(Set<Class<?>> types, boolean encodeIds) {
+    this.encodeIds = encodeIds;
+
+    Map<String, Class<?>> typesById = Maps.newHashMap();
+    Set<String> collisions = Sets.newHashSet();
+
+    for (Class<?> type : types) {
+      String id = getId(type);
+      Class<?> registered = typesById.get(id);
+
+      if (registered != null && !registered.equals(type)) {
+        collisions.add(id);
+      }
+      typesById.put(id, type);
+    }
+
+    // classes with the same id are sent with their names, which does not depend on the order of registration
+    for (String id : collisions) {
+      log.warning("Classes with id " + id + " are sent with their names.");
+      typesById.remove(id);
+    }
+
+    ImmutableMap.Builder<Class<?>, String> ids = ImmutableMap.builder();
+    for (Map.Entry<String, Class<?>> type : typesById.entrySet()) {
+      ids.put(type.getValue(), type.getKey());
+    }
+
+    this.ids = ids.build();
+    this.types = ImmutableMap.copyOf(typesById);
+  }
+
+  /**
+   * @param type the class
+   * @return the id of the class
+   */
+  public static String getId(Class<?> type) {
+    long hash = Hashing.murmur3_128().hashString(type.getName(), Charsets.UTF_8).asLong();
+    return ID_PREFIX + UnsignedLongs.toString(hash, Character.MAX_RADIX);
+  }
+
+  /**
+   * @param type the class
+   * @return the id of the class if it's registered and encoding is enabled, otherwise the class name
+   */
+  public String encode(Class<?> type) {
+    String id = ids.get(type);
+    return encodeIds && id != null ? id : type.getName();
+  }
+
+  /**
+   * Encodes the classes which are sent by their simple names, as the listeners and the handlers.
+   *
+   * @param type the class
+   * @return the id of the class if it's registered and encoding is enabled, otherwise the simple class name
+   */
+  public String encodeSimpleName(Class<?> type) {
+    String id = ids.get(type);
+    return encodeIds && id != null ? id : type.getSimpleName();
+  }
+
+  /**
+   * @param value the id or the name of a class
+   * @return the class name of the id or the value as it is if it's not a registered id
+   */
+  public String decode(String value) {
+    Class<?> type = getType(value);
+    return type != null ? type.getName() : value;
+  }
+
+  /**
+   * @param value the id or the simple name of a class
+   * @return the simple class name of the id or the value as it is if it's not a registered id
+   */
+  public String decodeSimpleName(String value) {
+    Class<?> type = getType(value);
+    return type != null ? type.getSimpleName() : value;
+  }
+
+  /**
+   * @param value the id or the name of a class
+   * @return the class
+   * @throws ClassNotFoundException if the value is neither a registered id nor a class name
+   */
+  public Class<?> resolve(String value) throws ClassNotFoundException {
+    Class<?> type = getType(value);
+    if (type != null) {
+      return type;
+    }
+
+    type = resolvedTypes.get(value);
+    if (type == null) {
+      type = Class.forName(value);
+      resolvedTypes.putIfAbsent(value, type);
+    }
+    return type;
+  }
+
+  private Class<?> getType(String value) {
+    if (value == null || !value.startsWith(ID_PREFIX)) {
+      return null;
+    }
+    return types.get(value);
+  }
+}
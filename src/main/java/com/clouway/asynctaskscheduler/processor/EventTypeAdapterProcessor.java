@@ -0,0 +1,554 @@
+package com.clouway.asynctaskscheduler.processor;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.annotations.SerializedName;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a Gson {@link com.google.gson.TypeAdapterFactory} for each class which is annotated with
+ * {@link com.clouway.asynctaskscheduler.gae.GenerateTypeAdapter}. The generated factories are registered as services
+ * in META-INF/services/com.google.gson.TypeAdapterFactory, so they are found by the
+ * {@link com.clouway.asynctaskscheduler.gae.GsonEventTransport}.
+ * <p/>
+ * The factory is generated in the package of the class, so the adapter could access its fields which are not private.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@SupportedAnnotationTypes(EventTypeAdapterProcessor.ANNOTATION)
+public class EventTypeAdapterProcessor extends AbstractProcessor {
+
+  static final String ANNOTATION = "com.clouway.asynctaskscheduler.gae.GenerateTypeAdapter";
+
+  /**
+   * Suffix of the names of the generated factories.
+   */
+  public static final String FACTORY_SUFFIX = "_GsonTypeAdapterFactory";
+
+  private static final String SERVICES = "META-INF/services/com.google.gson.TypeAdapterFactory";
+
+  private final Set<String> factories = Sets.newTreeSet();
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (roundEnv.processingOver()) {
+      writeServices();
+      return false;
+    }
+
+    TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION);
+    if (annotation == null) {
+      return false;
+    }
+
+    for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+      TypeElement type = (TypeElement) element;
+
+      if (isValidType(type)) {
+        List<JsonField> fields = getFields(type);
+        if (fields != null) {
+          writeFactory(type, fields);
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean isValidType(TypeElement type) {
+    if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+      return error(type, "Type adapters could be generated only for classes which are not abstract.");
+    }
+    if (type.getModifiers().contains(Modifier.PRIVATE) || !type.getTypeParameters().isEmpty()) {
+      return error(type, "Type adapters could not be generated for private or generic classes.");
+    }
+    if (type.getNestingKind() != NestingKind.TOP_LEVEL && (type.getNestingKind() != NestingKind.MEMBER || !type.getModifiers().contains(Modifier.STATIC))) {
+      return error(type, "Type adapters could be generated only for top level or static nested classes.");
+    }
+
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+        return true;
+      }
+    }
+    return error(type, "Type adapters could be generated only for classes with a default constructor which is not private.");
+  }
+
+  /**
+   * @return the fields of the class and its super classes or null if any of them could not be accessed
+   */
+  private List<JsonField> getFields(TypeElement type) {
+    List<JsonField> fields = Lists.newArrayList();
+    Map<String, VariableElement> names = Maps.newHashMap();
+    PackageElement typePackage = processingEnv.getElementUtils().getPackageOf(type);
+
+    for (TypeElement current = type; current != null && !current.getQualifiedName().contentEquals("java.lang.Object"); current = getSuperclass(current)) {
+      boolean samePackage = processingEnv.getElementUtils().getPackageOf(current).equals(typePackage);
+
+      for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+          continue;
+        }
+
+        if (modifiers.contains(Modifier.PRIVATE) || (!samePackage && !modifiers.contains(Modifier.PUBLIC))) {
+          error(field, "Field " + field.getSimpleName() + " could not be accessed by the type adapter of " + type.getQualifiedName() + ". It should not be private.");
+          return null;
+        }
+        if (modifiers.contains(Modifier.FINAL)) {
+          error(field, "Field " + field.getSimpleName() + " could not be set by the type adapter of " + type.getQualifiedName() + ". It should not be final.");
+          return null;
+        }
+        if (hasTypeVariable(field.asType())) {
+          error(field, "Field " + field.getSimpleName() + " of " + type.getQualifiedName() + " has a generic type.");
+          return null;
+        }
+
+        SerializedName serializedName = field.getAnnotation(SerializedName.class);
+        String name = serializedName != null ? serializedName.value() : field.getSimpleName().toString();
+
+        if (names.put(name, field) != null) {
+          error(field, type.getQualifiedName() + " declares more than one field named " + name + ".");
+          return null;
+        }
+        fields.add(new JsonField(field.getSimpleName().toString(), name, field.asType(), fields.size()));
+      }
+    }
+    return fields;
+  }
+
+  private TypeElement getSuperclass(TypeElement type) {
+    TypeMirror superclass = type.getSuperclass();
+    return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+  }
+
+  private boolean hasTypeVariable(TypeMirror type) {
+    switch (type.getKind()) {
+      case TYPEVAR:
+        return true;
+      case ARRAY:
+        return hasTypeVariable(((ArrayType) type).getComponentType());
+      case WILDCARD:
+        WildcardType wildcard = (WildcardType) type;
+        return (wildcard.getExtendsBound() != null && hasTypeVariable(wildcard.getExtendsBound()))
+                || (wildcard.getSuperBound() != null && hasTypeVariable(wildcard.getSuperBound()));
+      case DECLARED:
+        for (TypeMirror argument : ((DeclaredType) type).getTypeArguments()) {
+          if (hasTypeVariable(argument)) {
+            return true;
+          }
+        }
+        return false;
+      default:
+        return false;
+    }
+  }
+
+  private void writeFactory(TypeElement type, List<JsonField> fields) {
+    String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+    String typeName = type.getQualifiedName().toString();
+    String factoryName = getFactoryName(type);
+    String qualifiedFactoryName = packageName.isEmpty() ? factoryName : packageName + "." + factoryName;
+
+    SourceWriter source = new SourceWriter();
+
+    if (!packageName.isEmpty()) {
+      source.line("package " + packageName + ";").line("");
+    }
+    source.line("import com.google.gson.Gson;")
+          .line("import com.google.gson.TypeAdapter;")
+          .line("import com.google.gson.TypeAdapterFactory;")
+          .line("import com.google.gson.reflect.TypeToken;")
+          .line("import com.google.gson.stream.JsonReader;")
+          .line("import com.google.gson.stream.JsonToken;")
+          .line("import com.google.gson.stream.JsonWriter;")
+          .line("")
+          .line("import java.io.IOException;")
+          .line("")
+          .line("/**")
+          .line(" * Type adapter of {@link " + typeName + "}, which is generated by " + getClass().getName() + ".")
+          .line(" */")
+          .line("public final class " + factoryName + " implements TypeAdapterFactory {")
+          .line("")
+          .indent().line("@Override")
+          .line("@SuppressWarnings(\"unchecked\")")
+          .line("public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {")
+          .indent().line("if (type.getRawType() != " + typeName + ".class) {")
+          .indent().line("return null;")
+          .outdent().line("}")
+          .line("return (TypeAdapter<T>) new Adapter(gson);")
+          .outdent().line("}")
+          .line("");
+
+    writeAdapter(source, typeName, fields);
+
+    source.outdent().line("}");
+
+    try {
+
+      JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedFactoryName, type);
+      Writer writer = file.openWriter();
+      try {
+        writer.write(source.toString());
+      } finally {
+        writer.close();
+      }
+      factories.add(qualifiedFactoryName);
+
+    } catch (IOException e) {
+      error(type, "Type adapter could not be generated: " + e.getMessage());
+    }
+  }
+
+  private void writeAdapter(SourceWriter source, String typeName, List<JsonField> fields) {
+    source.line("private static final class Adapter extends TypeAdapter<" + typeName + "> {");
+    source.indent();
+
+    source.line("private final Gson gson;");
+    for (JsonField field : fields) {
+      if (field.getKind() == FieldKind.ADAPTER) {
+        source.line("private TypeAdapter<" + boxed(field.type) + "> " + field.adapterName() + ";");
+      }
+    }
+
+    source.line("")
+          .line("private Adapter(Gson gson) {")
+          .indent().line("this.gson = gson;")
+          .outdent().line("}").line("");
+
+    // the adapters of the fields are resolved on first use, so classes could refer to themselves or to each other
+    for (JsonField field : fields) {
+      if (field.getKind() == FieldKind.ADAPTER) {
+        source.line("private TypeAdapter<" + boxed(field.type) + "> " + field.adapterName() + "() {")
+              .indent().line("if (" + field.adapterName() + " == null) {")
+              .indent().line(field.adapterName() + " = " + getAdapter(typeName, field.type) + ";")
+              .outdent().line("}")
+              .line("return " + field.adapterName() + ";")
+              .outdent().line("}").line("");
+      }
+    }
+
+    source.line("@Override")
+          .line("public void write(JsonWriter out, " + typeName + " value) throws IOException {")
+          .indent().line("if (value == null) {")
+          .indent().line("out.nullValue();")
+          .line("return;")
+          .outdent().line("}")
+          .line("out.beginObject();");
+
+    for (JsonField field : fields) {
+      String name = "out.name(" + quote(field.jsonName) + ")";
+      String value = "value." + field.fieldName;
+
+      switch (field.getKind()) {
+        case BOOLEAN:
+        case INTEGER:
+        case DOUBLE:
+          source.line(name + ".value(" + value + ");");
+          break;
+        case FLOAT:
+          source.line(name + ".value(Float.valueOf(" + value + "));");
+          break;
+        case CHAR:
+          source.line(name + ".value(String.valueOf(" + value + "));");
+          break;
+        case STRING:
+          source.line("if (" + value + " != null) {")
+                .indent().line(name + ".value(" + value + ");")
+                .outdent().line("}");
+          break;
+        default:
+          source.line("if (" + value + " != null) {")
+                .indent().line(name + ";")
+                .line(field.adapterName() + "().write(out, " + value + ");")
+                .outdent().line("}");
+      }
+    }
+
+    source.line("out.endObject();")
+          .outdent().line("}").line("");
+
+    source.line("@Override")
+          .line("public " + typeName + " read(JsonReader in) throws IOException {")
+          .indent().line("if (in.peek() == JsonToken.NULL) {")
+          .indent().line("in.nextNull();")
+          .line("return null;")
+          .outdent().line("}")
+          .line("")
+          .line(typeName + " value = new " + typeName + "();")
+          .line("in.beginObject();")
+          .line("while (in.hasNext()) {")
+          .indent().line("String name = in.nextName();")
+          .line("");
+
+    for (int i = 0; i < fields.size(); i++) {
+      JsonField field = fields.get(i);
+      String target = "value." + field.fieldName;
+
+      source.line((i == 0 ? "if" : "} else if") + " (" + quote(field.jsonName) + ".equals(name)) {").indent();
+
+      if (field.getKind() == FieldKind.ADAPTER || field.getKind() == FieldKind.STRING) {
+        String read = field.getKind() == FieldKind.STRING ? "readString(in)" : field.adapterName() + "().read(in)";
+        source.line(target + " = " + read + ";");
+      } else {
+        // null values of the primitive fields are skipped as by the reflective adapters
+        source.line("if (in.peek() == JsonToken.NULL) {")
+              .indent().line("in.nextNull();")
+              .outdent().line("} else {")
+              .indent().line(target + " = " + readPrimitive(field) + ";")
+              .outdent().line("}");
+      }
+      source.outdent();
+    }
+
+    if (fields.isEmpty()) {
+      source.line("in.skipValue();");
+    } else {
+      source.line("} else {")
+            .indent().line("in.skipValue();")
+            .outdent().line("}");
+    }
+
+    source.outdent().line("}")
+          .line("in.endObject();")
+          .line("return value;")
+          .outdent().line("}").line("");
+
+    source.line("private static String readString(JsonReader in) throws IOException {")
+          .indent().line("JsonToken token = in.peek();")
+          .line("if (token == JsonToken.NULL) {")
+          .indent().line("in.nextNull();")
+          .line("return null;")
+          .outdent().line("}")
+          .line("if (token == JsonToken.BOOLEAN) {")
+          .indent().line("return Boolean.toString(in.nextBoolean());")
+          .outdent().line("}")
+          .line("return in.nextString();")
+          .outdent().line("}");
+
+    source.outdent().line("}");
+  }
+
+  private String readPrimitive(JsonField field) {
+    switch (field.type.getKind()) {
+      case BOOLEAN:
+        return "in.nextBoolean()";
+      case BYTE:
+        return "(byte) in.nextInt()";
+      case SHORT:
+        return "(short) in.nextInt()";
+      case INT:
+        return "in.nextInt()";
+      case LONG:
+        return "in.nextLong()";
+      case FLOAT:
+        return "(float) in.nextDouble()";
+      case DOUBLE:
+        return "in.nextDouble()";
+      default:
+        return "in.nextString().charAt(0)";
+    }
+  }
+
+  private String getAdapter(String typeName, TypeMirror type) {
+    if (type.getKind() == TypeKind.DECLARED) {
+      TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+
+      if (element.getQualifiedName().contentEquals(typeName)) {
+        return "this";
+      }
+
+      // the generated adapters of nested objects are used directly, as they are not known by the gson
+      if (element.getAnnotation(com.clouway.asynctaskscheduler.gae.GenerateTypeAdapter.class) != null && isValidNested(element)) {
+        String packageName = processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString();
+        String factory = (packageName.isEmpty() ? "" : packageName + ".") + getFactoryName(element);
+        return "new " + factory + "().create(gson, TypeToken.get(" + element.getQualifiedName() + ".class))";
+      }
+
+      if (!((DeclaredType) type).getTypeArguments().isEmpty()) {
+        return "gson.getAdapter(new TypeToken<" + type + ">() {})";
+      }
+    }
+    if (type.getKind() == TypeKind.ARRAY) {
+      return "gson.getAdapter(new TypeToken<" + type + ">() {})";
+    }
+    return "gson.getAdapter(" + processingEnv.getTypeUtils().erasure(type) + ".class)";
+  }
+
+  private boolean isValidNested(TypeElement element) {
+    return element.getKind() == ElementKind.CLASS && !element.getModifiers().contains(Modifier.ABSTRACT)
+            && element.getTypeParameters().isEmpty();
+  }
+
+  private String boxed(TypeMirror type) {
+    if (type.getKind().isPrimitive()) {
+      return processingEnv.getTypeUtils().boxedClass((javax.lang.model.type.PrimitiveType) type).getQualifiedName().toString();
+    }
+    return type.toString();
+  }
+
+  private String getFactoryName(TypeElement type) {
+    StringBuilder name = new StringBuilder(type.getSimpleName());
+    for (Element enclosing = type.getEnclosingElement(); enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+      name.insert(0, enclosing.getSimpleName() + "_");
+    }
+    return name.append(FACTORY_SUFFIX).toString();
+  }
+
+  private void writeServices() {
+    if (factories.isEmpty()) {
+      return;
+    }
+
+    Set<String> services = Sets.newTreeSet(factories);
+
+    // the factories which are generated by a previous compilation are kept
+    try {
+      FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICES);
+      BufferedReader reader = new BufferedReader(new InputStreamReader(existing.openInputStream(), "UTF-8"));
+      try {
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+          if (!line.trim().isEmpty()) {
+            services.add(line.trim());
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      // there are no services yet
+    }
+
+    try {
+
+      FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICES);
+      Writer writer = new OutputStreamWriter(file.openOutputStream(), "UTF-8");
+      try {
+        for (String service : services) {
+          writer.write(service + "\n");
+        }
+      } finally {
+        writer.close();
+      }
+
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Type adapter factories could not be registered: " + e.getMessage());
+    }
+  }
+
+  private boolean error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    return false;
+  }
+
+  private static String quote(String value) {
+    return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+
+  private enum FieldKind {
+    BOOLEAN, INTEGER, FLOAT, DOUBLE, CHAR, STRING, ADAPTER
+  }
+
+  private static final class JsonField {
+    private final String fieldName;
+    private final String jsonName;
+    private final TypeMirror type;
+    private final int index;
+
+    private JsonField(String fieldName, String jsonName, TypeMirror type, int index) {
+      this.fieldName = fieldName;
+      this.jsonName = jsonName;
+      this.type = type;
+      this.index = index;
+    }
+
+    private String adapterName() {
+      return fieldName + "Adapter" + index;
+    }
+
+    private FieldKind getKind() {
+      switch (type.getKind()) {
+        case BOOLEAN:
+          return FieldKind.BOOLEAN;
+        case BYTE:
+        case SHORT:
+        case INT:
+        case LONG:
+          return FieldKind.INTEGER;
+        case FLOAT:
+          return FieldKind.FLOAT;
+        case DOUBLE:
+          return FieldKind.DOUBLE;
+        case CHAR:
+          return FieldKind.CHAR;
+        default:
+          return type.toString().equals("java.lang.String") ? FieldKind.STRING : FieldKind.ADAPTER;
+      }
+    }
+  }
+
+  private static final class SourceWriter {
+    private final StringBuilder source = new StringBuilder();
+    private int indent;
+
+    private SourceWriter line(String line) {
+      if (!line.isEmpty()) {
+        for (int i = 0; i < indent; i++) {
+          source.append("  ");
+        }
+      }
+      source.append(line).append('\n');
+      return this;
+    }
+
+    private SourceWriter indent() {
+      indent++;
+      return this;
+    }
+
+    private SourceWriter outdent() {
+      indent--;
+      return this;
+    }
+
+    @Override
+    public String toString() {
+      return source.toString();
+    }
+  }
+}
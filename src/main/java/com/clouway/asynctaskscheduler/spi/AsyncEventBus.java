@@ -1,5 +1,7 @@
 package com.clouway.asynctaskscheduler.spi;
 
+import java.util.concurrent.Future;
+
 /**
  * @author Mihail Lesikov (mlesikov@gmail.com)
  */
@@ -51,4 +53,42 @@ public interface AsyncEventBus {
     */
   void fireTransactionLessEvent(AsyncEvent<?> event, long delayMills);
 
+  /**
+   * Fires the given async event without waiting for it to be added to the queue.
+   * <p/>
+   * When called during a request the returned future is also registered, so it's joined before the request
+   * completes.
+   *
+   * @param event the event
+   * @return the future which completes when the event is added
+   */
+  Future<Void> fireEventAsync(AsyncEvent<?> event);
+
+  /**
+   * Fires the given async event after specified delay in mills without waiting for it to be added to the queue.
+   *
+   * @param event the event
+   * @param delayMills the delay in mills
+   * @return the future which completes when the event is added
+   */
+  Future<Void> fireEventAsync(AsyncEvent<?> event, long delayMills);
+
+  /**
+   * Fires the given async event transactionless without waiting for it to be added to the queue.
+   *
+   * @param event the event
+   * @return the future which completes when the event is added
+   */
+  Future<Void> fireTransactionLessEventAsync(AsyncEvent<?> event);
+
+  /**
+   * Fires the given async event transactionless after specified delay in mills without waiting
+   * for it to be added to the queue.
+   *
+   * @param event the event
+   * @param delayMills the delay in mills
+   * @return the future which completes when the event is added
+   */
+  Future<Void> fireTransactionLessEventAsync(AsyncEvent<?> event, long delayMills);
+
 }
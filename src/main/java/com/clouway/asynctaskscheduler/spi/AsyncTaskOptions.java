@@ -1,8 +1,10 @@
 package com.clouway.asynctaskscheduler.spi;
 
 import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
 
-import java.text.SimpleDateFormat;
+import java.lang.reflect.Type;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Map;
 
@@ -21,6 +23,10 @@ public class AsyncTaskOptions {
   private Boolean transactionless = false;
   private Class<? extends AsyncEventListener> eventListenerClass;
   private Class<? extends AsyncEventHandler> eventHandlerClass;
+  private String payloadReference;
+  private String payloadCodec;
+  private byte[] eventPayload;
+  private Object taskPayload;
 
 
   private AsyncTaskOptions() {
@@ -35,7 +41,7 @@ public class AsyncTaskOptions {
 
   public AsyncTaskOptions paramDate(String name, Date value) {
     if (name != null && value != null) {
-      params.put(name, new SimpleDateFormat(AsyncTaskParams.DEFAULT_DATE_AND_TIME_PATTERN).format(value));
+      params.put(name, DatePattern.DATE_AND_TIME.format(value));
     }
     return this;
   }
@@ -43,19 +49,20 @@ public class AsyncTaskOptions {
 
   public <T> AsyncTaskOptions param(String name, T value, Class<? extends ParamFormat<T>> paramFormatClass) {
     if (name != null && value != null && paramFormatClass != null) {
-      try {
-
-        ParamFormat<T> paramFormat = paramFormatClass.newInstance();
-
-        String valueAsString = paramFormat.format(value);
-
-        params.put(name, valueAsString);
+      params.put(name, ParamFormats.defaultFormats().get(paramFormatClass).format(value));
+    }
+    return this;
+  }
 
-      } catch (InstantiationException e) {
-        throw new IllegalArgumentException(e);
-      } catch (IllegalAccessException e) {
-        throw new IllegalArgumentException(e);
-      }
+  /**
+   * Adds the fields of the given object as parameters, which could be bound back by {@link AsyncTaskParams#bind(Class)}.
+   *
+   * @param params the object which fields are added
+   * @return the task options
+   */
+  public AsyncTaskOptions params(Object params) {
+    if (params != null) {
+      ParamBinder.forClass(params.getClass()).flatten(params, this.params);
     }
     return this;
   }
@@ -68,6 +75,36 @@ public class AsyncTaskOptions {
 
   }
 
+  /**
+   * Creates the options of a typed task, which is executed with the given payload. The payload is read back by its
+   * class, so generic payloads, as collections and maps, should be wrapped in a class.
+   *
+   * @param asyncTaskClass the task class
+   * @param payload        the payload of the task
+   * @return the task options
+   * @throws IllegalArgumentException if the payload could not be read back by its class
+   */
+  public static <P> AsyncTaskOptions task(Class<? extends TypedAsyncTask<P>> asyncTaskClass, P payload) {
+    if (payload != null) {
+      checkPayloadType(asyncTaskClass, payload);
+    }
+
+    AsyncTaskOptions taskOptions = task(asyncTaskClass);
+    taskOptions.taskPayload = payload;
+    return taskOptions;
+  }
+
+  private static void checkPayloadType(Class<?> asyncTaskClass, Object payload) {
+    Type payloadType = TypeToken.of(asyncTaskClass).resolveType(TypedAsyncTask.class.getTypeParameters()[0]).getType();
+    Class<?> payloadClass = payload.getClass();
+
+    if (!(payloadType instanceof Class) || payloadClass.isArray()
+            || Collection.class.isAssignableFrom(payloadClass) || Map.class.isAssignableFrom(payloadClass)) {
+      throw new IllegalArgumentException("Payload of " + asyncTaskClass.getName() + " of type " + payloadType
+              + " could not be read back by its class " + payloadClass.getName() + ". It should be wrapped in a class.");
+    }
+  }
+
   public static AsyncTaskOptions event(AsyncEvent event) {
     AsyncTaskOptions taskOptions = new AsyncTaskOptions();
     taskOptions.event = event;
@@ -113,6 +150,31 @@ public class AsyncTaskOptions {
     return this;
   }
 
+  /**
+   * Sends the event with a reference to its already stored payload instead of serializing it again.
+   *
+   * @param payloadReference the reference of the payload in the {@link PayloadStore}
+   * @param payloadCodec     the codec of the stored payload or null if it's not compressed
+   * @return the task options
+   */
+  public AsyncTaskOptions payloadReference(String payloadReference, String payloadCodec) {
+    this.payloadReference = payloadReference;
+    this.payloadCodec = payloadCodec;
+    return this;
+  }
+
+  /**
+   * Sends the event with its already serialized payload instead of serializing it again. The payload must be
+   * the event serialized by the configured {@link EventTransport}.
+   *
+   * @param eventPayload the serialized event
+   * @return the task options
+   */
+  public AsyncTaskOptions eventPayload(byte[] eventPayload) {
+    this.eventPayload = eventPayload;
+    return this;
+  }
+
   public Class<? extends AsyncTask> getAsyncTask() {
     return asyncTask;
   }
@@ -159,4 +221,20 @@ public class AsyncTaskOptions {
   public Class<? extends AsyncEventHandler> getEventHandlerClass() {
     return eventHandlerClass;
   }
+
+  public String getPayloadReference() {
+    return payloadReference;
+  }
+
+  public String getPayloadCodec() {
+    return payloadCodec;
+  }
+
+  public byte[] getEventPayload() {
+    return eventPayload;
+  }
+
+  public Object getTaskPayload() {
+    return taskPayload;
+  }
 }
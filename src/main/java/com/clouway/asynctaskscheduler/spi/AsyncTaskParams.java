@@ -3,7 +3,6 @@ package com.clouway.asynctaskscheduler.spi;
 import com.google.common.collect.Maps;
 
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
 
@@ -53,12 +52,12 @@ public class AsyncTaskParams {
     }
 
     public Builder addDate(String key, Date date) {
-      putParam(key, new SimpleDateFormat(DEFAULT_DATE_PATTERN).format(date));
+      putParam(key, DatePattern.DATE.format(date));
       return this;
     }
 
     public Builder addDateAndTime(String key, Date date) {
-      putParam(key, new SimpleDateFormat(DEFAULT_DATE_AND_TIME_PATTERN).format(date));
+      putParam(key, DatePattern.DATE_AND_TIME.format(date));
       return this;
     }
 
@@ -73,12 +72,23 @@ public class AsyncTaskParams {
 
 
   private Map<String, String[]> params;
+  private final ParamFormats paramFormats;
+  private final Map<Class<?>, Object> boundParams = Maps.newHashMap();
 
   public AsyncTaskParams(Map<String, String[]> params) {
+    this(params, ParamFormats.defaultFormats());
+  }
+
+  /**
+   * @param params       the parameters
+   * @param paramFormats the formats which are used by {@link #format(String, Class)}
+   */
+  public AsyncTaskParams(Map<String, String[]> params, ParamFormats paramFormats) {
     if (params == null) {
       throw new IllegalArgumentException("params map cannot be null");
     }
     this.params = params;
+    this.paramFormats = paramFormats;
   }
 
   /**
@@ -152,7 +162,7 @@ public class AsyncTaskParams {
     if (isEmpty(findParam(key))) {
       return null;
     }
-    return new SimpleDateFormat(DEFAULT_DATE_PATTERN).parse(findParam(key));
+    return DatePattern.DATE.parse(findParam(key));
 
   }
 
@@ -167,7 +177,25 @@ public class AsyncTaskParams {
     if (isEmpty(findParam(key))) {
       return null;
     }
-    return new SimpleDateFormat(DEFAULT_DATE_AND_TIME_PATTERN).parse(findParam(key));
+    return DatePattern.DATE_AND_TIME.parse(findParam(key));
+  }
+
+  /**
+   * Binds the parameters to the fields with the same names of a new object of the given class, as they were added
+   * by {@link AsyncTaskOptions#params(Object)}. The parameters are bound once, so the same object is returned
+   * for the class by the following calls.
+   *
+   * @param type the class of the object, which should have a default constructor
+   * @return the object
+   * @throws IllegalArgumentException if a parameter could not be converted to the type of its field
+   */
+  public <T> T bind(Class<T> type) {
+    Object bound = boundParams.get(type);
+    if (bound == null) {
+      bound = ParamBinder.forClass(type).bind(params);
+      boundParams.put(type, bound);
+    }
+    return type.cast(bound);
   }
 
   /**
@@ -183,18 +211,7 @@ public class AsyncTaskParams {
       return null;
     }
 
-    try {
-      ParamFormat<T> paramFormat = formatClass.newInstance();
-
-      T t = paramFormat.parse(findParam(key));
-
-      return t;
-
-    } catch (InstantiationException e) {
-      throw new IllegalArgumentException(e);
-    } catch (IllegalAccessException e) {
-      throw new IllegalArgumentException(e);
-    }
+    return paramFormats.get(formatClass).parse(findParam(key));
   }
 
 
@@ -1,5 +1,7 @@
 package com.clouway.asynctaskscheduler.spi;
 
+import java.util.concurrent.Future;
+
 /**
  * Represents a service that adds adds jobs that will be run asynchronously
  *
@@ -30,4 +32,11 @@ public interface AsyncTaskScheduler {
    */
   public void now();
 
+  /**
+   * builds the asynchronous tasks form the given {@link AsyncTaskOptions} objects without waiting for them to be added
+   *
+   * @return the future which completes when all of the tasks are added
+   */
+  public Future<Void> nowAsync();
+
 }
@@ -0,0 +1,62 @@
+package com.clouway.asynctaskscheduler.spi;
+
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+
+/**
+ * Formats and parses the date parameters in the default time zone, as {@link java.text.SimpleDateFormat} does,
+ * with a formatter which is immutable, so it's created once and shared by all threads.
+ * <p/>
+ * As {@link java.text.SimpleDateFormat}, the numbers are parsed leniently and the text after the date is ignored.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+final class DatePattern {
+
+  static final DatePattern DATE = new DatePattern(AsyncTaskParams.DEFAULT_DATE_PATTERN);
+  static final DatePattern DATE_AND_TIME = new DatePattern(AsyncTaskParams.DEFAULT_DATE_AND_TIME_PATTERN);
+
+  private final DateTimeFormatter formatter;
+  private final DateTimeFormatter parser;
+
+  private DatePattern(String pattern) {
+    this.formatter = DateTimeFormatter.ofPattern(pattern);
+    this.parser = new DateTimeFormatterBuilder()
+            .parseLenient()
+            .appendPattern(pattern)
+            .toFormatter()
+            .withResolverStyle(ResolverStyle.LENIENT);
+  }
+
+  String format(Date date) {
+    return formatter.format(date.toInstant().atZone(ZoneId.systemDefault()));
+  }
+
+  Date parse(String value) throws ParseException {
+    try {
+
+      TemporalAccessor parsed = parser.parse(value, new ParsePosition(0));
+
+      LocalTime time = parsed.isSupported(ChronoField.HOUR_OF_DAY) ? LocalTime.from(parsed) : LocalTime.MIDNIGHT;
+      return Date.from(LocalDate.from(parsed).atTime(time).atZone(ZoneId.systemDefault()).toInstant());
+
+    } catch (DateTimeException e) {
+      int errorOffset = e instanceof DateTimeParseException ? ((DateTimeParseException) e).getErrorIndex() : 0;
+
+      ParseException parseException = new ParseException("Unparseable date: \"" + value + "\"", errorOffset);
+      parseException.initCause(e);
+      throw parseException;
+    }
+  }
+}
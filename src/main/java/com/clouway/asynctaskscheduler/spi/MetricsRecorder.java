@@ -0,0 +1,81 @@
+package com.clouway.asynctaskscheduler.spi;
+
+/**
+ * MetricsRecorder records the tasks which are added in the queues and the dispatches of the tasks, the handlers
+ * and the listeners. It's called for each task, so the implementations should be lock-free and should not
+ * allocate. By default the {@link com.clouway.asynctaskscheduler.spi.MetricsRecorder} is bound to the
+ * {@link com.clouway.asynctaskscheduler.gae.NoopMetricsRecorder}.
+ *
+ * In order to record the metrics you should configure a recorder
+ * when installing the {@link com.clouway.asynctaskscheduler.gae.BackgroundTasksModule}.
+ *
+ * <pre>
+ *
+ *    install(new BackgroundTasksModule() {
+ *
+ *      &#64;Override
+ *      protected Class<? extends MetricsRecorder> getMetricsRecorder() {
+ *        return InMemoryMetricsRecorder.class;
+ *      }
+ *    })
+ *
+ * </pre>
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public interface MetricsRecorder {
+
+  /**
+   * Records a task which is being added in a queue.
+   *
+   * @param queueName    the name of the queue
+   * @param type         the event or the task class
+   * @param payloadBytes the size of the event payload which is sent with the task or 0 if there is no payload
+   */
+  void recordEnqueue(String queueName, Class<?> type, int payloadBytes);
+
+  /**
+   * Records a batch of tasks which was added in a queue.
+   *
+   * @param queueName    the name of the queue
+   * @param tasks        the number of the tasks in the batch
+   * @param latencyNanos the time spent for adding the tasks, including the retries
+   */
+  void recordEnqueueLatency(String queueName, int tasks, long latencyNanos);
+
+  /**
+   * Records a transient failure of the Task Queue while adding a batch of tasks.
+   *
+   * @param queueName the name of the queue
+   */
+  void recordTransientFailure(String queueName);
+
+  /**
+   * Records a retry of adding a batch of tasks after a transient failure.
+   *
+   * @param queueName the name of the queue
+   */
+  void recordRetry(String queueName);
+
+  /**
+   * Records the dispatch of a task, an event handler or an event listener.
+   *
+   * @param target       the task, the handler or the listener class
+   * @param latencyNanos the time spent for the dispatch
+   * @param succeeded    whether the dispatch completed without failure
+   */
+  void recordDispatch(Class<?> target, long latencyNanos, boolean succeeded);
+
+  /**
+   * Records the lag of a push task, which is the time since the task was added, or since the time at which it
+   * was intended to be executed if it was delayed, until its execution was started. The lag of the retried tasks
+   * includes the backoff of the Task Queue between the attempts.
+   *
+   * @param queueName      the name of the queue
+   * @param type           the event or the task class
+   * @param lagMillis      the lag in milliseconds
+   * @param retryCount     the number of the previous attempts to execute the task
+   * @param executionCount the number of the previous attempts which reached the task and failed
+   */
+  void recordSchedulingLag(String queueName, Class<?> type, long lagMillis, int retryCount, int executionCount);
+}
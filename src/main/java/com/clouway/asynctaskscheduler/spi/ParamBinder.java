@@ -0,0 +1,415 @@
+package com.clouway.asynctaskscheduler.spi;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Binds the parameters of a task to the fields of an object and flattens the fields of an object into parameters.
+ * The parameters are named after the fields. The binder of each class is built once, so the fields and their
+ * converters are resolved only once.
+ * <p/>
+ * Supported are the fields of strings, numbers, booleans, characters, enums and dates, and lists and sets of them,
+ * which are sent as comma separated values. The dates are sent as milliseconds since the epoch, so they are bound
+ * without loss, and they could be given as {@link AsyncTaskOptions#paramDate(String, java.util.Date)}
+ * sends them too.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+final class ParamBinder<T> {
+
+  private static final Pattern EPOCH_MILLIS = Pattern.compile("-?\\d+");
+
+  private static final ConcurrentMap<Class<?>, ParamBinder<?>> binders = new ConcurrentHashMap<Class<?>, ParamBinder<?>>();
+
+  /**
+   * @param type the class of the objects
+   * @return the binder of the class
+   * @throws IllegalArgumentException if the class has fields which could not be bound
+   */
+  @SuppressWarnings("unchecked")
+  static <T> ParamBinder<T> forClass(Class<T> type) {
+    ParamBinder<?> binder = binders.get(type);
+    if (binder == null) {
+      binders.putIfAbsent(type, new ParamBinder<T>(type));
+      binder = binders.get(type);
+    }
+    return (ParamBinder<T>) binder;
+  }
+
+  private final Constructor<T> constructor;
+  private final List<FieldBinding> fields;
+
+  private ParamBinder(Class<T> type) {
+    try {
+      constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException(type.getName() + " has no default constructor.", e);
+    }
+
+    List<FieldBinding> fields = Lists.newArrayList();
+    for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+      for (Field field : current.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers()) || field.isSynthetic()) {
+          continue;
+        }
+        field.setAccessible(true);
+        fields.add(new FieldBinding(field, getConverter(field)));
+      }
+    }
+    this.fields = ImmutableList.copyOf(fields);
+  }
+
+  /**
+   * Creates an object with the fields set to the values of the parameters. The fields which have no parameter
+   * keep their default values.
+   *
+   * @param params the parameters
+   * @return the object
+   */
+  T bind(Map<String, String[]> params) {
+    T object = newInstance();
+
+    for (FieldBinding field : fields) {
+      String[] values = params.get(field.name);
+      if (values == null || values.length == 0 || values[0] == null || "".equals(values[0])) {
+        continue;
+      }
+
+      try {
+        field.field.set(object, field.converter.parse(values));
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Parameter " + field.name + " could not be bound to " + field.field, e);
+      }
+    }
+    return object;
+  }
+
+  /**
+   * Flattens the fields of the object into parameters. The fields which are null are not added.
+   *
+   * @param object the object
+   * @param params the parameters to which the fields are added
+   */
+  void flatten(Object object, Map<String, String> params) {
+    for (FieldBinding field : fields) {
+      try {
+
+        Object value = field.field.get(object);
+        if (value != null) {
+          params.put(field.name, field.converter.format(value));
+        }
+
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private T newInstance() {
+    try {
+      return constructor.newInstance();
+    } catch (InstantiationException e) {
+      throw new IllegalStateException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static Converter getConverter(Field field) {
+    Class<?> type = field.getType();
+
+    if (type == List.class || type == Collection.class || type == Set.class) {
+      Type genericType = field.getGenericType();
+      if (!(genericType instanceof ParameterizedType) || !(((ParameterizedType) genericType).getActualTypeArguments()[0] instanceof Class)) {
+        throw new IllegalArgumentException("The element type of " + field + " is not specified.");
+      }
+
+      Class<?> elementType = (Class<?>) ((ParameterizedType) genericType).getActualTypeArguments()[0];
+      return new CollectionConverter(getValueConverter(field, elementType), type == Set.class);
+    }
+    return getValueConverter(field, type);
+  }
+
+  private static ValueConverter getValueConverter(Field field, Class<?> type) {
+    if (type == String.class) {
+      return STRING;
+    }
+    if (type == Integer.class || type == int.class) {
+      return INTEGER;
+    }
+    if (type == Long.class || type == long.class) {
+      return LONG;
+    }
+    if (type == Double.class || type == double.class) {
+      return DOUBLE;
+    }
+    if (type == Float.class || type == float.class) {
+      return FLOAT;
+    }
+    if (type == Short.class || type == short.class) {
+      return SHORT;
+    }
+    if (type == Byte.class || type == byte.class) {
+      return BYTE;
+    }
+    if (type == Boolean.class || type == boolean.class) {
+      return BOOLEAN;
+    }
+    if (type == Character.class || type == char.class) {
+      return CHARACTER;
+    }
+    if (type == BigDecimal.class) {
+      return BIG_DECIMAL;
+    }
+    if (type == Date.class) {
+      return DATE;
+    }
+    if (type.isEnum()) {
+      return new EnumConverter(type);
+    }
+    throw new IllegalArgumentException("The type of " + field + " could not be bound to a parameter.");
+  }
+
+  private static final class FieldBinding {
+    private final Field field;
+    private final String name;
+    private final Converter converter;
+
+    private FieldBinding(Field field, Converter converter) {
+      this.field = field;
+      this.name = field.getName();
+      this.converter = converter;
+    }
+  }
+
+  private interface Converter {
+
+    Object parse(String[] values);
+
+    String format(Object value);
+  }
+
+  /**
+   * Converts a single value, the rest of the values of the parameter are ignored.
+   */
+  private abstract static class ValueConverter implements Converter {
+
+    abstract Object parse(String value);
+
+    @Override
+    public Object parse(String[] values) {
+      return parse(values[0]);
+    }
+
+    @Override
+    public String format(Object value) {
+      return value.toString();
+    }
+  }
+
+  /**
+   * Converts the elements of a collection. The elements are sent as a single comma separated value, in which
+   * the commas and the backslashes of the elements are escaped with backslash. Parameters with many values, as
+   * they could be sent in the query string, are read as the elements of the collection.
+   */
+  private static final class CollectionConverter implements Converter {
+    private final ValueConverter elementConverter;
+    private final boolean set;
+
+    private CollectionConverter(ValueConverter elementConverter, boolean set) {
+      this.elementConverter = elementConverter;
+      this.set = set;
+    }
+
+    @Override
+    public Object parse(String[] values) {
+      Collection<Object> elements = set ? Sets.newLinkedHashSet() : Lists.newArrayList();
+
+      if (values.length > 1) {
+        for (String value : values) {
+          elements.add(elementConverter.parse(value));
+        }
+        return elements;
+      }
+
+      for (String element : split(values[0])) {
+        elements.add(elementConverter.parse(element));
+      }
+      return elements;
+    }
+
+    @Override
+    public String format(Object value) {
+      StringBuilder elements = new StringBuilder();
+
+      for (Object element : (Collection<?>) value) {
+        if (elements.length() > 0) {
+          elements.append(',');
+        }
+        String formatted = elementConverter.format(element);
+        for (int i = 0; i < formatted.length(); i++) {
+          char c = formatted.charAt(i);
+          if (c == ',' || c == '\\') {
+            elements.append('\\');
+          }
+          elements.append(c);
+        }
+      }
+      return elements.toString();
+    }
+
+    private List<String> split(String value) {
+      List<String> elements = Lists.newArrayList();
+      StringBuilder element = new StringBuilder();
+
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c == '\\' && i + 1 < value.length()) {
+          element.append(value.charAt(++i));
+        } else if (c == ',') {
+          elements.add(element.toString());
+          element.setLength(0);
+        } else {
+          element.append(c);
+        }
+      }
+      elements.add(element.toString());
+      return elements;
+    }
+  }
+
+  private static final class EnumConverter extends ValueConverter {
+    private final Class<? extends Enum> type;
+
+    private EnumConverter(Class<?> type) {
+      this.type = type.asSubclass(Enum.class);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    Object parse(String value) {
+      return Enum.valueOf(type, value);
+    }
+
+    @Override
+    public String format(Object value) {
+      return ((Enum) value).name();
+    }
+  }
+
+  private static final ValueConverter STRING = new ValueConverter() {
+    @Override
+    Object parse(String value) {
+      return value;
+    }
+  };
+
+  private static final ValueConverter INTEGER = new ValueConverter() {
+    @Override
+    Object parse(String value) {
+      return Integer.valueOf(value);
+    }
+  };
+
+  private static final ValueConverter LONG = new ValueConverter() {
+    @Override
+    Object parse(String value) {
+      return Long.valueOf(value);
+    }
+  };
+
+  private static final ValueConverter DOUBLE = new ValueConverter() {
+    @Override
+    Object parse(String value) {
+      return Double.valueOf(value);
+    }
+  };
+
+  private static final ValueConverter FLOAT = new ValueConverter() {
+    @Override
+    Object parse(String value) {
+      return Float.valueOf(value);
+    }
+  };
+
+  private static final ValueConverter SHORT = new ValueConverter() {
+    @Override
+    Object parse(String value) {
+      return Short.valueOf(value);
+    }
+  };
+
+  private static final ValueConverter BYTE = new ValueConverter() {
+    @Override
+    Object parse(String value) {
+      return Byte.valueOf(value);
+    }
+  };
+
+  private static final ValueConverter BOOLEAN = new ValueConverter() {
+    @Override
+    Object parse(String value) {
+      return Boolean.valueOf(value);
+    }
+  };
+
+  private static final ValueConverter CHARACTER = new ValueConverter() {
+    @Override
+    Object parse(String value) {
+      if (value.length() != 1) {
+        throw new IllegalArgumentException("A single character is expected: " + value);
+      }
+      return value.charAt(0);
+    }
+  };
+
+  private static final ValueConverter BIG_DECIMAL = new ValueConverter() {
+    @Override
+    Object parse(String value) {
+      return new BigDecimal(value);
+    }
+  };
+
+  private static final ValueConverter DATE = new ValueConverter() {
+    @Override
+    Object parse(String value) {
+      if (EPOCH_MILLIS.matcher(value).matches()) {
+        return new Date(Long.parseLong(value));
+      }
+
+      try {
+        return DatePattern.DATE_AND_TIME.parse(value);
+      } catch (ParseException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+
+    @Override
+    public String format(Object value) {
+      return String.valueOf(((Date) value).getTime());
+    }
+  };
+}
@@ -27,6 +27,9 @@ package com.clouway.asynctaskscheduler.spi;
  * }
  * }
  * <p/>
+ * A single instance of a format is used by all threads, unless it's bound without a singleton scope, so the
+ * formats should be thread-safe. They should not keep a {@link java.text.SimpleDateFormat} in a field, for example.
+ * <p/>
  * @author Mihail Lesikov (mlesikov@gmail.com)
  */
 public interface ParamFormat<T> {
@@ -0,0 +1,84 @@
+package com.clouway.asynctaskscheduler.spi;
+
+import com.google.inject.Binding;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import com.google.inject.Scopes;
+import com.google.inject.Singleton;
+import com.google.inject.util.Providers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps a single instance of each {@link ParamFormat}, so the formats are not created for each parameter. The
+ * instances are shared by all threads, so the formats should be thread-safe.
+ * <p/>
+ * The injected registry creates the formats by the injector, so they could have dependencies, and it's used for
+ * the {@link AsyncTaskParams} of the executed tasks. It keeps only the formats which are bound as singletons, while
+ * the others are created by their provider on each use. The default registry, which is used when no registry is
+ * given, creates them by their default constructor.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@Singleton
+public class ParamFormats {
+
+  private static final ParamFormats DEFAULT_FORMATS = new ParamFormats(null);
+
+  /**
+   * @return the registry which creates the formats by their default constructor
+   */
+  public static ParamFormats defaultFormats() {
+    return DEFAULT_FORMATS;
+  }
+
+  private final Injector injector;
+  private final ConcurrentMap<Class<?>, Provider<?>> providers = new ConcurrentHashMap<Class<?>, Provider<?>>();
+
+  @Inject
+  public ParamFormats(Injector injector) {
+    this.injector = injector;
+  }
+
+  /**
+   * Gets the instance of the given format, which is created on its first use, or on each use when it's bound
+   * without a singleton scope.
+   *
+   * @param formatClass the format class
+   * @return the format
+   */
+  @SuppressWarnings("unchecked")
+  public <T> ParamFormat<T> get(Class<? extends ParamFormat<T>> formatClass) {
+    Provider<?> provider = providers.get(formatClass);
+
+    if (provider == null) {
+      providers.putIfAbsent(formatClass, createProvider(formatClass));
+      provider = providers.get(formatClass);
+    }
+    return (ParamFormat<T>) provider.get();
+  }
+
+  private <F extends ParamFormat<?>> Provider<F> createProvider(Class<F> formatClass) {
+    if (injector == null) {
+      return Providers.of(newFormat(formatClass));
+    }
+
+    Binding<F> binding = injector.getBinding(formatClass);
+    if (Scopes.isSingleton(binding)) {
+      return Providers.of(binding.getProvider().get());
+    }
+    return binding.getProvider();
+  }
+
+  private <F extends ParamFormat<?>> F newFormat(Class<F> formatClass) {
+    try {
+      return formatClass.newInstance();
+    } catch (InstantiationException e) {
+      throw new IllegalArgumentException(e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+}
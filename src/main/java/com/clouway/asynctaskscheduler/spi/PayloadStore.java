@@ -0,0 +1,76 @@
+package com.clouway.asynctaskscheduler.spi;
+
+/**
+ * PayloadStore keeps the payloads of events which are too big to be sent in a task. The task carries only
+ * a reference to the stored payload, which is loaded when the event is dispatched.
+ * <p/>
+ * Each stored payload counts the tasks which still need it. The payload is deleted when the last of them
+ * releases it. Each task releases it only once, so a task which is executed more than once does not delete
+ * the payload while other tasks still need it. By default the {@link com.clouway.asynctaskscheduler.spi.PayloadStore} is bound
+ * to the {@link com.clouway.asynctaskscheduler.gae.DatastorePayloadStore}.
+ *
+ * In order to use your own custom PayloadStore you should configure it
+ * when installing the {@link com.clouway.asynctaskscheduler.gae.BackgroundTasksModule}.
+ *
+ * <pre>
+ *
+ *    install(new BackgroundTasksModule() {
+ *
+ *      &#64;Override
+ *      protected Class<? extends PayloadStore> getPayloadStore() {
+ *        return MyPayloadStore.class;
+ *      }
+ *    })
+ *
+ * </pre>
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public interface PayloadStore {
+
+  /**
+   * Stores a payload which is needed by a single task.
+   *
+   * @param payload the payload
+   * @return the reference of the stored payload
+   */
+  String store(byte[] payload);
+
+  /**
+   * Loads a stored payload.
+   *
+   * @param reference the reference of the payload
+   * @return the payload or null if it was already released by all tasks
+   */
+  byte[] load(String reference);
+
+  /**
+   * Marks the payload as needed by more tasks. It's done in the current transaction if there is one, so the
+   * payload is retained only if the tasks are added. A task which adds named tasks retains the payload only
+   * once, so it's not retained again when the task is retried and its tasks already exist.
+   *
+   * @param reference the reference of the payload
+   * @param consumers the number of the additional tasks
+   * @param retainer  the name of the task which adds the named tasks or null if it's retained in a transaction
+   */
+  void retain(String reference, int consumers, String retainer);
+
+  /**
+   * Releases the payload after a task is done with it. The payload is deleted when it's released by all tasks.
+   * The releases of a task after the first one are ignored.
+   *
+   * @param reference the reference of the payload
+   * @param consumer  the name of the task which releases the payload or null if it's unknown
+   */
+  void release(String reference, String consumer);
+
+  /**
+   * Checks whether the payload was already released by the given task, so its missing payload means that
+   * the task is executed once more after it was done.
+   *
+   * @param reference the reference of the payload
+   * @param consumer  the name of the task
+   * @return true if the task already released the payload
+   */
+  boolean isReleasedBy(String reference, String consumer);
+}
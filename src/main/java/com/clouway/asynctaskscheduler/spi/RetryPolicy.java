@@ -0,0 +1,35 @@
+package com.clouway.asynctaskscheduler.spi;
+
+/**
+ * RetryPolicy decides whether and when adding of tasks is retried after a transient failure of the Task Queue.
+ * By default the {@link com.clouway.asynctaskscheduler.spi.RetryPolicy} is bound
+ * to the {@link com.clouway.asynctaskscheduler.gae.ExponentialBackoffRetryPolicy}.
+ *
+ * In order to use your own custom RetryPolicy you should configure it
+ * when installing the {@link com.clouway.asynctaskscheduler.gae.BackgroundTasksModule}.
+ *
+ * <pre>
+ *
+ *    install(new BackgroundTasksModule() {
+ *
+ *      &#64;Override
+ *      protected Class<? extends RetryPolicy> getRetryPolicy() {
+ *        return MyRetryPolicy.class;
+ *      }
+ *    })
+ *
+ * </pre>
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public interface RetryPolicy {
+
+  /**
+   * Gets the delay before the next attempt.
+   *
+   * @param failedAttempts the number of attempts which failed so far
+   * @param elapsedMillis  the time spent since the tasks were started to be added
+   * @return the delay in mills or a negative value if adding should not be retried anymore
+   */
+  long nextRetryDelay(int failedAttempts, long elapsedMillis);
+}
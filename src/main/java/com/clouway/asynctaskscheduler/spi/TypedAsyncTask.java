@@ -0,0 +1,35 @@
+package com.clouway.asynctaskscheduler.spi;
+
+/**
+ * {@link AsyncTask} which is executed with a payload object instead of string parameters. The payload is serialized
+ * once by the configured {@link EventTransport} when the task is added and it's passed to the task as it's read.
+ * <p/>
+ * example usage :
+ * <pre>
+ *   taskScheduler.add(task(ImportOrdersTask.class, new ImportOrders(customerId, orderIds))).now();
+ * </pre>
+ * where ImportOrdersTask extends TypedAsyncTask&lt;ImportOrders&gt;.
+ * <p/>
+ * The payload is read back by its class, so the payloads of generic types, as lists and maps, are rejected when
+ * the task is added and they should be wrapped in a class.
+ *
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public abstract class TypedAsyncTask<P> implements AsyncTask {
+
+  /**
+   * Executes the task.
+   *
+   * @param payload the payload which was added with the task or null if there is no payload
+   * @param params  the rest of the parameters of the task, as the common parameters
+   */
+  public abstract void execute(P payload, AsyncTaskParams params);
+
+  /**
+   * Executes the task without payload, as when it's executed as {@link AsyncTask}.
+   */
+  @Override
+  public final void execute(AsyncTaskParams params) {
+    execute(null, params);
+  }
+}
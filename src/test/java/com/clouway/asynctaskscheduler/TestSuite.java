@@ -2,6 +2,7 @@ package com.clouway.asynctaskscheduler;
 
 import com.clouway.asynctaskscheduler.gae.*;
 import com.clouway.asynctaskscheduler.spi.AsyncTaskParamsTest;
+import com.clouway.asynctaskscheduler.spi.ParamFormatsTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
@@ -18,7 +19,24 @@ import org.junit.runners.Suite;
         TaskQueueAsyncTaskSchedulerErrorHandlingTest.class,
         TaskQueueAsyncTaskSchedulerTest.class,
         TaskQueueEventBusTest.class,
-        AsyncEventListenersFactoryProviderTest.class
+        AsyncEventListenersFactoryProviderTest.class,
+        QueueRoutingTableTest.class,
+        ExponentialBackoffRetryPolicyTest.class,
+        RequestScopedEventBusTest.class,
+        PayloadCompressorTest.class,
+        DatastorePayloadStoreTest.class,
+        PullQueueWorkerTest.class,
+        ListenerIndexTest.class,
+        TypeRegistryTest.class,
+        InlineDispatchExecutorTest.class,
+        InstanceProvidersTest.class,
+        LocalTaskExecutorTest.class,
+        LocalAsyncTaskSchedulerTest.class,
+        BinaryEventSerializationTest.class,
+        GeneratedTypeAdapterTest.class,
+        EventTransportsTest.class,
+        ParamFormatsTest.class,
+        InMemoryMetricsRecorderTest.class
 })
 public class TestSuite {
 }
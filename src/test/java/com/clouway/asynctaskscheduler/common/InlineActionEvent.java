@@ -0,0 +1,34 @@
+package com.clouway.asynctaskscheduler.common;
+
+import com.clouway.asynctaskscheduler.gae.DispatchInline;
+import com.clouway.asynctaskscheduler.spi.AsyncEvent;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@DispatchInline
+public class InlineActionEvent implements AsyncEvent<InlineActionEventHandler> {
+  private String message;
+
+  public InlineActionEvent() {
+    // no-args constructor
+  }
+
+  public InlineActionEvent(String message) {
+    this.message = message;
+  }
+
+  @Override
+  public Class<InlineActionEventHandler> getAssociatedHandlerClass() {
+    return InlineActionEventHandler.class;
+  }
+
+  @Override
+  public void dispatch(InlineActionEventHandler handler) {
+    handler.onAction(this);
+  }
+
+  public String getMessage() {
+    return message;
+  }
+}
@@ -0,0 +1,14 @@
+package com.clouway.asynctaskscheduler.common;
+
+import com.clouway.asynctaskscheduler.spi.AsyncEventHandler;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class InlineActionEventHandler implements AsyncEventHandler {
+  public String message;
+
+  public void onAction(InlineActionEvent event) {
+    message = event.getMessage();
+  }
+}
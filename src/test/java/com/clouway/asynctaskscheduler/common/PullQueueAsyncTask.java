@@ -0,0 +1,24 @@
+package com.clouway.asynctaskscheduler.common;
+
+import com.clouway.asynctaskscheduler.gae.QueueName;
+import com.clouway.asynctaskscheduler.spi.AsyncTask;
+import com.clouway.asynctaskscheduler.spi.AsyncTaskParams;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+@QueueName(name = "pullQueue")
+public class PullQueueAsyncTask implements AsyncTask {
+  public static final List<String> executed = Lists.newArrayList();
+
+  @Override
+  public void execute(AsyncTaskParams params) {
+    if ("true".equals(params.getString("fail"))) {
+      throw new IllegalStateException("task failed");
+    }
+    executed.add(params.getString("name"));
+  }
+}
@@ -0,0 +1,238 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.common.ActionEvent;
+import com.clouway.asynctaskscheduler.common.ActionEventHandler;
+import com.clouway.asynctaskscheduler.spi.AsyncEvent;
+import com.clouway.asynctaskscheduler.spi.EventTransport;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class BinaryEventSerializationTest extends AsyncEventSerializationContractTest {
+
+  private final BinaryEventTransport eventTransport = new BinaryEventTransport();
+
+  @Override
+  public EventTransport getEventTransport() {
+    return eventTransport;
+  }
+
+  @Override
+  public AsyncEvent getAsyncEvent() {
+    return newOrderEvent();
+  }
+
+  @Test
+  public void allSupportedFieldTypesAreSerialized() throws Exception {
+    OrderEvent event = newOrderEvent();
+
+    OrderEvent result = serializeAndDeserialize(event, OrderEvent.class);
+
+    assertThat(result.id, is(-42L));
+    assertThat(result.quantity, is(3));
+    assertThat(result.shortValue, is((short) -7));
+    assertThat(result.byteValue, is((byte) 8));
+    assertThat(result.flag, is(true));
+    assertThat(result.letter, is('ж'));
+    assertThat(result.price, is(12.5d));
+    assertThat(result.ratio, is(0.25f));
+    assertThat(result.discount, is(1.5d));
+    assertThat(result.count, is(Integer.MAX_VALUE));
+    assertThat(result.description, is("Поръчка №1"));
+    assertThat(result.created, is(new Date(1400000000000L)));
+    assertThat(result.status, is(Status.SHIPPED));
+    assertThat(result.tags, is((List<String>) Lists.newArrayList("first", null, "second")));
+    assertThat(result.codes, is((Set<Long>) Sets.newHashSet(1L, 2L)));
+    assertThat(result.attributes, is((Map<String, Integer>) ImmutableMap.of("a", 1, "b", 2)));
+    assertThat(result.customer.name, is("John"));
+    assertThat(result.customer.addresses.get(0).city, is("Sofia"));
+    assertThat(result.customer.referrer.name, is("Jane"));
+    assertThat(result.customer.referrer.referrer, is(nullValue()));
+    assertThat(result.skipped, is(nullValue()));
+  }
+
+  @Test
+  public void nullFieldsAreNotWritten() throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    eventTransport.out(ActionEvent.class, new ActionEvent(), outputStream);
+
+    assertThat(outputStream.size(), is(0));
+    assertThat(serializeAndDeserialize(new ActionEvent(), ActionEvent.class).getMessage(), is(nullValue()));
+  }
+
+  @Test
+  public void unknownFieldsAreSkipped() throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    eventTransport.out(OrderEvent.class, newOrderEvent(), outputStream);
+
+    SmallOrderEvent result = eventTransport.in(SmallOrderEvent.class, new ByteArrayInputStream(outputStream.toByteArray()));
+
+    assertThat(result.description, is("Поръчка №1"));
+    assertThat(result.quantity, is(3));
+  }
+
+  @Test
+  public void payloadIsSmallerThanJson() throws Exception {
+    OrderEvent event = newOrderEvent();
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    eventTransport.out(OrderEvent.class, event, outputStream);
+
+    assertTrue(outputStream.size() < new Gson().toJson(event).getBytes("UTF-8").length);
+  }
+
+  @Test
+  public void floatsAreWrittenInFourBytes() throws Exception {
+    FloatEvent event = new FloatEvent();
+    event.value = 1.5f;
+    DoubleEvent doubleEvent = new DoubleEvent();
+    doubleEvent.value = 1.5d;
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    eventTransport.out(FloatEvent.class, event, outputStream);
+    ByteArrayOutputStream doubleOutputStream = new ByteArrayOutputStream();
+    eventTransport.out(DoubleEvent.class, doubleEvent, doubleOutputStream);
+
+    assertThat(outputStream.size(), is(doubleOutputStream.size() - 4));
+    assertThat(serializeAndDeserialize(event, FloatEvent.class).value, is(1.5f));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void writeFailuresAreNotSwallowed() throws Exception {
+    eventTransport.out(OrderEvent.class, newOrderEvent(), new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("closed");
+      }
+    });
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unsupportedFieldTypes() throws Exception {
+    eventTransport.out(UnsupportedEvent.class, new UnsupportedEvent(), new ByteArrayOutputStream());
+  }
+
+  private <T> T serializeAndDeserialize(T event, Class<T> eventClass) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    eventTransport.out(eventClass, event, outputStream);
+    return eventTransport.in(eventClass, new ByteArrayInputStream(outputStream.toByteArray()));
+  }
+
+  private OrderEvent newOrderEvent() {
+    OrderEvent event = new OrderEvent();
+    event.id = -42L;
+    event.quantity = 3;
+    event.shortValue = -7;
+    event.byteValue = 8;
+    event.flag = true;
+    event.letter = 'ж';
+    event.price = 12.5d;
+    event.ratio = 0.25f;
+    event.discount = 1.5d;
+    event.count = Integer.MAX_VALUE;
+    event.description = "Поръчка №1";
+    event.created = new Date(1400000000000L);
+    event.status = Status.SHIPPED;
+    event.tags = Lists.newArrayList("first", null, "second");
+    event.codes = Sets.newHashSet(1L, 2L);
+    event.attributes = Maps.newLinkedHashMap(ImmutableMap.of("a", 1, "b", 2));
+    event.skipped = "transient";
+
+    Customer referrer = new Customer();
+    referrer.name = "Jane";
+
+    Address address = new Address();
+    address.city = "Sofia";
+
+    event.customer = new Customer();
+    event.customer.name = "John";
+    event.customer.addresses = Lists.newArrayList(address);
+    event.customer.referrer = referrer;
+    return event;
+  }
+
+  enum Status {
+    NEW, SHIPPED
+  }
+
+  static class Address {
+    String city;
+  }
+
+  static class Customer {
+    String name;
+    List<Address> addresses;
+    Customer referrer;
+  }
+
+  static class BaseOrderEvent {
+    long id;
+  }
+
+  static class OrderEvent extends BaseOrderEvent implements AsyncEvent<ActionEventHandler> {
+    int quantity;
+    short shortValue;
+    byte byteValue;
+    boolean flag;
+    char letter;
+    double price;
+    float ratio;
+    Double discount;
+    Integer count;
+    String description;
+    Date created;
+    Status status;
+    List<String> tags;
+    Set<Long> codes;
+    Map<String, Integer> attributes;
+    Customer customer;
+    transient String skipped;
+
+    @Override
+    public Class<ActionEventHandler> getAssociatedHandlerClass() {
+      return ActionEventHandler.class;
+    }
+
+    @Override
+    public void dispatch(ActionEventHandler handler) {
+    }
+  }
+
+  static class SmallOrderEvent {
+    int quantity;
+    String description;
+  }
+
+  static class FloatEvent {
+    float value;
+  }
+
+  static class DoubleEvent {
+    double value;
+  }
+
+  static class UnsupportedEvent {
+    Object value;
+  }
+}
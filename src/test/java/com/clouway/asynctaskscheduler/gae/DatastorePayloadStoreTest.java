@@ -0,0 +1,176 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class DatastorePayloadStoreTest {
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig().setApplyAllHighRepJobPolicy());
+  private final DatastorePayloadStore payloadStore = new DatastorePayloadStore();
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void storedPayloadIsLoaded() {
+    String reference = payloadStore.store(new byte[]{1, 2, 3});
+
+    assertThat(payloadStore.load(reference), is(equalTo(new byte[]{1, 2, 3})));
+  }
+
+  @Test
+  public void payloadIsDeletedWhenReleased() {
+    String reference = payloadStore.store(new byte[]{1, 2, 3});
+
+    payloadStore.release(reference, "task-1");
+
+    assertThat(payloadStore.load(reference), is(nullValue()));
+  }
+
+  @Test
+  public void retainedPayloadIsDeletedWhenReleasedByAllConsumers() {
+    String reference = payloadStore.store(new byte[]{1, 2, 3});
+
+    payloadStore.retain(reference, 2, null);
+    payloadStore.release(reference, "task-1");
+    payloadStore.release(reference, "task-2");
+
+    assertThat(payloadStore.load(reference), is(notNullValue()));
+
+    payloadStore.release(reference, "task-3");
+
+    assertThat(payloadStore.load(reference), is(nullValue()));
+  }
+
+  @Test
+  public void payloadIsNotRetainedWhenTransactionIsRolledBack() {
+    String reference = payloadStore.store(new byte[]{1, 2, 3});
+
+    Transaction transaction = DatastoreServiceFactory.getDatastoreService().beginTransaction();
+    payloadStore.retain(reference, 2, null);
+    transaction.rollback();
+
+    payloadStore.release(reference, "task-1");
+
+    assertThat(payloadStore.load(reference), is(nullValue()));
+  }
+
+  @Test
+  public void releasingOfMissingPayloadIsIgnored() {
+    payloadStore.release("missing", "task-1");
+
+    assertThat(payloadStore.load("missing"), is(nullValue()));
+    assertThat(payloadStore.isReleasedBy("missing", "task-1"), is(false));
+  }
+
+  @Test
+  public void payloadIsReleasedOnlyOnceByTheSameTask() {
+    String reference = payloadStore.store(new byte[]{1, 2, 3});
+
+    payloadStore.retain(reference, 1, null);
+    payloadStore.release(reference, "task-1");
+    payloadStore.release(reference, "task-1");
+
+    assertThat(payloadStore.load(reference), is(equalTo(new byte[]{1, 2, 3})));
+    assertThat(payloadStore.isReleasedBy(reference, "task-1"), is(true));
+    assertThat(payloadStore.isReleasedBy(reference, "task-2"), is(false));
+  }
+
+  @Test
+  public void tasksWhichReleasedDeletedPayloadAreKnown() {
+    String reference = payloadStore.store(new byte[]{1, 2, 3});
+
+    payloadStore.release(reference, "task-1");
+
+    assertThat(payloadStore.isReleasedBy(reference, "task-1"), is(true));
+    assertThat(payloadStore.isReleasedBy(reference, "task-2"), is(false));
+  }
+
+  @Test
+  public void payloadIsRetainedOnlyOnceByTheSameTask() {
+    String reference = payloadStore.store(new byte[]{1, 2, 3});
+
+    payloadStore.retain(reference, 1, "shard-1");
+    payloadStore.retain(reference, 1, "shard-1");
+    payloadStore.release(reference, "shard-1");
+    payloadStore.release(reference, "shard-1-0");
+
+    assertThat(payloadStore.load(reference), is(nullValue()));
+  }
+
+  @Test
+  public void payloadOfUnknownTasksIsReleasedEachTime() {
+    String reference = payloadStore.store(new byte[]{1, 2, 3});
+
+    payloadStore.retain(reference, 1, null);
+    payloadStore.release(reference, null);
+    payloadStore.release(reference, null);
+
+    assertThat(payloadStore.load(reference), is(nullValue()));
+  }
+
+  @Test
+  public void releasedPayloadIsDeletedWithItsCounters() {
+    String reference = payloadStore.store(new byte[]{1, 2, 3});
+
+    payloadStore.retain(reference, 2, "shard-1");
+    payloadStore.release(reference, "shard-1");
+    payloadStore.release(reference, "shard-1-0");
+    payloadStore.release(reference, "shard-1-1");
+
+    assertThat(count(DatastorePayloadStore.KIND), is(0));
+    assertThat(count(DatastorePayloadStore.COUNTER_KIND), is(0));
+    assertThat(payloadStore.isReleasedBy(reference, "shard-1-1"), is(true));
+  }
+
+  @Test
+  public void entitiesCreatedBeforeTheDateAreDeleted() {
+    String orphan = payloadStore.store(new byte[]{1, 2, 3});
+    String released = payloadStore.store(new byte[]{1, 2, 3});
+    payloadStore.release(released, "task-1");
+
+    payloadStore.deleteCreatedBefore(new Date(System.currentTimeMillis() + 1000));
+
+    assertThat(payloadStore.load(orphan), is(nullValue()));
+    assertThat(payloadStore.isReleasedBy(released, "task-1"), is(false));
+    assertThat(count(DatastorePayloadStore.KIND) + count(DatastorePayloadStore.COUNTER_KIND) + count(DatastorePayloadStore.MARKER_KIND), is(0));
+  }
+
+  @Test
+  public void entitiesCreatedAfterTheDateAreKept() {
+    String reference = payloadStore.store(new byte[]{1, 2, 3});
+
+    payloadStore.deleteCreatedBefore(new Date(System.currentTimeMillis() - 60 * 1000));
+
+    assertThat(payloadStore.load(reference), is(equalTo(new byte[]{1, 2, 3})));
+  }
+
+  private int count(String kind) {
+    return DatastoreServiceFactory.getDatastoreService().prepare(new Query(kind)).countEntities(FetchOptions.Builder.withDefaults());
+  }
+}
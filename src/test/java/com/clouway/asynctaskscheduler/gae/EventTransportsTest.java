@@ -0,0 +1,105 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.common.ActionEvent;
+import com.clouway.asynctaskscheduler.spi.EventTransport;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.google.inject.Guice;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class EventTransportsTest {
+
+  private final GsonEventTransport gsonTransport = new GsonEventTransport(new Gson());
+  private final BinaryEventTransport binaryTransport = new BinaryEventTransport();
+  private final Map<String, EventTransport> transports = ImmutableMap.<String, EventTransport>of("gson", gsonTransport, "binary", binaryTransport);
+
+  @Test
+  public void framedPayloadStartsWithTheIdOfTheTransport() throws Exception {
+    EventTransports eventTransports = new EventTransports(gsonTransport, "gson", transports, gsonTransport);
+
+    byte[] payload = write(eventTransports, new ActionEvent("message"));
+
+    assertThat(Arrays.copyOf(payload, 7), is(equalTo(new byte[]{0, 1, 4, 'g', 's', 'o', 'n'})));
+    assertThat(new String(payload, 7, payload.length - 7, "UTF-8"), is(equalTo("{\"message\":\"message\"}")));
+  }
+
+  @Test
+  public void payloadIsNotFramedWithoutTransportId() throws Exception {
+    EventTransports eventTransports = new EventTransports(gsonTransport, null, transports, gsonTransport);
+
+    byte[] payload = write(eventTransports, new ActionEvent("message"));
+
+    assertThat(new String(payload, "UTF-8"), is(equalTo("{\"message\":\"message\"}")));
+  }
+
+  @Test
+  public void framedPayloadIsReadByTheTransportWhichWroteIt() throws Exception {
+    byte[] payload = write(new EventTransports(binaryTransport, "binary", transports, gsonTransport), new ActionEvent("binary message"));
+
+    ActionEvent event = new EventTransports(gsonTransport, "gson", transports, gsonTransport).in(ActionEvent.class, new ByteArrayInputStream(payload));
+
+    assertThat(event.getMessage(), is(equalTo("binary message")));
+  }
+
+  @Test
+  public void payloadWithoutHeaderIsReadByTheUnframedTransport() throws Exception {
+    byte[] payload = write(new EventTransports(gsonTransport, null, transports, gsonTransport), new ActionEvent("old message"));
+
+    ActionEvent event = new EventTransports(binaryTransport, "binary", transports, gsonTransport).in(ActionEvent.class, new ByteArrayInputStream(payload));
+
+    assertThat(event.getMessage(), is(equalTo("old message")));
+  }
+
+  @Test
+  public void payloadOfUnknownTransportIsRejected() throws Exception {
+    byte[] payload = write(new EventTransports(binaryTransport, "binary", transports, gsonTransport), new ActionEvent("message"));
+
+    EventTransports eventTransports = new EventTransports(gsonTransport, "gson", ImmutableMap.<String, EventTransport>of("gson", gsonTransport), gsonTransport);
+
+    try {
+      eventTransports.in(ActionEvent.class, new ByteArrayInputStream(payload));
+      fail("the payload of an unknown transport was read");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void configuredTransportIsFramedByTheModule() throws Exception {
+    EventTransports eventTransports = Guice.createInjector(new BackgroundTasksModule() {
+      @Override
+      protected Class<? extends EventTransport> getEventTransport() {
+        return BinaryEventTransport.class;
+      }
+
+      @Override
+      protected boolean frameEventPayloads() {
+        return true;
+      }
+    }).getInstance(EventTransports.class);
+
+    byte[] payload = write(eventTransports, new ActionEvent("message"));
+
+    assertThat(Arrays.copyOf(payload, 9), is(equalTo(new byte[]{0, 1, 6, 'b', 'i', 'n', 'a', 'r', 'y'})));
+    assertThat(eventTransports.in(ActionEvent.class, new ByteArrayInputStream(payload)).getMessage(), is(equalTo("message")));
+  }
+
+  private byte[] write(EventTransports eventTransports, ActionEvent event) {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    eventTransports.out(ActionEvent.class, event, outputStream);
+    return outputStream.toByteArray();
+  }
+}
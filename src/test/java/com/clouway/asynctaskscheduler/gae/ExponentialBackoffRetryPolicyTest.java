@@ -0,0 +1,54 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class ExponentialBackoffRetryPolicyTest {
+
+  private final ExponentialBackoffRetryPolicy retryPolicy = new ExponentialBackoffRetryPolicy(5, 100, 300, 10000);
+
+  @Test
+  public void delayGrowsExponentially() {
+    assertDelayBetween(retryPolicy.nextRetryDelay(1, 0), 50, 100);
+    assertDelayBetween(retryPolicy.nextRetryDelay(2, 0), 100, 200);
+  }
+
+  @Test
+  public void delayIsLimited() {
+    assertDelayBetween(retryPolicy.nextRetryDelay(4, 0), 150, 300);
+  }
+
+  @Test
+  public void giveUpWhenAllAttemptsFailed() {
+    assertThat(retryPolicy.nextRetryDelay(5, 0), is(lessThan(0L)));
+  }
+
+  @Test
+  public void giveUpWhenTimeBudgetIsExhausted() {
+    assertThat(retryPolicy.nextRetryDelay(1, 9999), is(lessThan(0L)));
+  }
+
+  @Test
+  public void countRetriesAndGiveUps() {
+    retryPolicy.nextRetryDelay(1, 0);
+    retryPolicy.nextRetryDelay(2, 0);
+    retryPolicy.nextRetryDelay(5, 0);
+
+    assertThat(retryPolicy.getRetries(), is(equalTo(2L)));
+    assertThat(retryPolicy.getGiveUps(), is(equalTo(1L)));
+  }
+
+  private void assertDelayBetween(long delay, long min, long max) {
+    assertThat(delay, is(greaterThanOrEqualTo(min)));
+    assertThat(delay, is(lessThanOrEqualTo(max)));
+  }
+}
@@ -0,0 +1,180 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.common.ActionEventHandler;
+import com.clouway.asynctaskscheduler.spi.AsyncEvent;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class GeneratedTypeAdapterTest {
+
+  @GenerateTypeAdapter
+  static class Customer {
+    String name;
+    int age;
+
+    Customer() {
+    }
+
+    Customer(String name, int age) {
+      this.name = name;
+      this.age = age;
+    }
+  }
+
+  @GenerateTypeAdapter
+  static class Node {
+    String name;
+    Node next;
+    Link link;
+
+    Node() {
+    }
+
+    Node(String name, Node next) {
+      this.name = name;
+      this.next = next;
+    }
+  }
+
+  @GenerateTypeAdapter
+  static class Link {
+    Node target;
+  }
+
+  @GenerateTypeAdapter
+  static class CustomerRegisteredEvent implements AsyncEvent<ActionEventHandler> {
+    long id;
+    boolean active;
+    Double balance;
+    @SerializedName("customer_name")
+    String name;
+    Customer customer;
+    List<String> tags;
+    Map<String, Integer> counters;
+    Date registeredOn;
+    transient String ignored;
+
+    CustomerRegisteredEvent() {
+    }
+
+    @Override
+    public Class<ActionEventHandler> getAssociatedHandlerClass() {
+      return null;
+    }
+
+    @Override
+    public void dispatch(ActionEventHandler handler) {
+    }
+  }
+
+  private final Gson gson = new Gson();
+  private final GsonEventTransport eventTransport = new GsonEventTransport(gson);
+
+  @Test
+  public void factoriesAreGeneratedForAnnotatedClasses() throws Exception {
+    TypeAdapterFactory factory = (TypeAdapterFactory) Class.forName(GeneratedTypeAdapterTest.class.getName() + "_CustomerRegisteredEvent_GsonTypeAdapterFactory").newInstance();
+
+    assertThat(factory.create(gson, TypeToken.get(CustomerRegisteredEvent.class)), is(notNullValue()));
+    assertThat(factory.create(gson, TypeToken.get(Customer.class)), is(nullValue()));
+  }
+
+  @Test
+  public void generatedAdapterWritesTheSameJsonAsGson() throws Exception {
+    CustomerRegisteredEvent event = newEvent();
+
+    assertThat(serialize(event), is(equalTo(gson.toJson(event))));
+  }
+
+  @Test
+  public void nullFieldsAreNotWritten() throws Exception {
+    CustomerRegisteredEvent event = new CustomerRegisteredEvent();
+
+    assertThat(serialize(event), is(equalTo("{\"id\":0,\"active\":false}")));
+  }
+
+  @Test
+  public void eventIsReadByTheGeneratedAdapter() throws Exception {
+    CustomerRegisteredEvent event = newEvent();
+
+    CustomerRegisteredEvent result = eventTransport.in(CustomerRegisteredEvent.class, new ByteArrayInputStream(serialize(event).getBytes("UTF-8")));
+
+    assertThat(result.id, is(equalTo(event.id)));
+    assertThat(result.active, is(true));
+    assertThat(result.balance, is(equalTo(event.balance)));
+    assertThat(result.name, is(equalTo(event.name)));
+    assertThat(result.customer.name, is(equalTo("John")));
+    assertThat(result.customer.age, is(equalTo(30)));
+    assertThat(result.tags, is(equalTo(event.tags)));
+    assertThat(result.counters, is(equalTo(event.counters)));
+    assertThat(result.registeredOn, is(equalTo(event.registeredOn)));
+    assertThat(result.ignored, is(nullValue()));
+  }
+
+  @Test
+  public void unknownFieldsAreSkipped() throws Exception {
+    String json = "{\"id\":5,\"unknown\":{\"a\":[1,2]},\"customer_name\":\"John\"}";
+
+    CustomerRegisteredEvent result = eventTransport.in(CustomerRegisteredEvent.class, new ByteArrayInputStream(json.getBytes("UTF-8")));
+
+    assertThat(result.id, is(equalTo(5L)));
+    assertThat(result.name, is(equalTo("John")));
+  }
+
+  @Test
+  public void classesWhichReferToThemselvesAreSerialized() throws Exception {
+    Node node = new Node("first", new Node("second", null));
+    node.link = new Link();
+    node.link.target = new Node("target", null);
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    eventTransport.out(Node.class, node, outputStream);
+    assertThat(outputStream.toString("UTF-8"), is(equalTo(gson.toJson(node))));
+
+    Node result = eventTransport.in(Node.class, new ByteArrayInputStream(outputStream.toByteArray()));
+    assertThat(result.name, is(equalTo("first")));
+    assertThat(result.next.name, is(equalTo("second")));
+    assertThat(result.next.next, is(nullValue()));
+    assertThat(result.link.target.name, is(equalTo("target")));
+  }
+
+  private CustomerRegisteredEvent newEvent() {
+    CustomerRegisteredEvent event = new CustomerRegisteredEvent();
+    event.id = 10L;
+    event.active = true;
+    event.balance = 12.5;
+    event.name = "John <Doe>";
+    event.customer = new Customer("John", 30);
+    event.tags = Lists.newArrayList("vip", "new");
+    event.counters = Maps.newLinkedHashMap();
+    event.counters.put("orders", 3);
+    event.registeredOn = new Date(1000L);
+    event.ignored = "ignored";
+    return event;
+  }
+
+  private String serialize(CustomerRegisteredEvent event) throws Exception {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    eventTransport.out(CustomerRegisteredEvent.class, event, outputStream);
+    return outputStream.toString("UTF-8");
+  }
+}
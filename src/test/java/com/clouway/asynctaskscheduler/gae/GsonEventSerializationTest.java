@@ -7,6 +7,14 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
 
 /**
  * @author Ivan Lazov <ivan.lazov@clouway.com>
@@ -41,4 +49,17 @@ public class GsonEventSerializationTest extends AsyncEventSerializationContractT
   public AsyncEvent getAsyncEvent() {
     return new ActionEvent("Some Action Event");
   }
+
+  @Test
+  public void eventsAreSerializedAsUtf8() throws Exception {
+    ActionEvent event = new ActionEvent("Събитие €");
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    eventTransport.out(ActionEvent.class, event, outputStream);
+
+    assertThat(outputStream.toString("UTF-8"), is(equalTo("{\"message\":\"Събитие €\"}")));
+
+    ActionEvent result = eventTransport.in(ActionEvent.class, new ByteArrayInputStream(outputStream.toByteArray()));
+    assertThat(result.getMessage(), is(equalTo("Събитие €")));
+  }
 }
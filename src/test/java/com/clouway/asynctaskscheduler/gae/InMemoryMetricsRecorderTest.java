@@ -0,0 +1,154 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.common.DefaultTaskQueueAsyncTask;
+import com.clouway.asynctaskscheduler.spi.MetricsRecorder;
+import com.google.common.collect.Maps;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class InMemoryMetricsRecorderTest {
+
+  private final InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+
+  @Test
+  public void histogramPercentilesAreRoundedUpToPowerOfTwo() {
+    LogHistogram histogram = new LogHistogram();
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+
+    HistogramSnapshot snapshot = histogram.snapshot();
+
+    assertThat(snapshot.getCount(), is(equalTo(100L)));
+    assertThat(snapshot.getMean(), is(equalTo(50L)));
+    assertThat(snapshot.getP50(), is(equalTo(63L)));
+    assertThat(snapshot.getP90(), is(equalTo(100L)));
+    assertThat(snapshot.getMax(), is(equalTo(100L)));
+  }
+
+  @Test
+  public void emptyHistogram() {
+    HistogramSnapshot snapshot = new LogHistogram().snapshot();
+
+    assertThat(snapshot.getCount(), is(equalTo(0L)));
+    assertThat(snapshot.getP99(), is(equalTo(0L)));
+  }
+
+  @Test
+  public void histogramPollsContainOnlyTheValuesOfTheInterval() {
+    LogHistogram histogram = new LogHistogram();
+    histogram.record(100);
+    histogram.record(300);
+
+    HistogramSnapshot first = histogram.poll();
+    histogram.record(20);
+    HistogramSnapshot second = histogram.poll();
+
+    assertThat(first.getCount(), is(equalTo(2L)));
+    assertThat(first.getMean(), is(equalTo(200L)));
+    assertThat(first.getMax(), is(equalTo(300L)));
+    assertThat(second.getCount(), is(equalTo(1L)));
+    assertThat(second.getMean(), is(equalTo(20L)));
+    assertThat(second.getMax(), is(equalTo(20L)));
+    assertThat(histogram.poll().getCount(), is(equalTo(0L)));
+    assertThat(histogram.snapshot().getCount(), is(equalTo(3L)));
+  }
+
+  @Test
+  public void countEnqueuedTasksByQueueAndType() {
+    recorder.recordEnqueue("default", String.class, 10);
+    recorder.recordEnqueue("default", Integer.class, 0);
+    recorder.recordEnqueue("mail", String.class, 30);
+
+    assertThat(recorder.getEnqueuedTasksByQueue().get("default"), is(equalTo(2L)));
+    assertThat(recorder.getEnqueuedTasksByQueue().get("mail"), is(equalTo(1L)));
+    assertThat(recorder.getEnqueuedTasksByType().get(String.class.getName()), is(equalTo(2L)));
+    assertThat(recorder.getPayloadBytes().get(String.class.getName()).getMax(), is(equalTo(30L)));
+    assertThat(recorder.getPayloadBytes().containsKey(Integer.class.getName()), is(false));
+  }
+
+  @Test
+  public void countFailuresAndRetries() {
+    recorder.recordTransientFailure("default");
+    recorder.recordRetry("default");
+    recorder.recordRetry("default");
+    recorder.recordDispatch(String.class, 100, false);
+    recorder.recordDispatch(String.class, 200, true);
+
+    assertThat(recorder.getTransientFailures().get("default"), is(equalTo(1L)));
+    assertThat(recorder.getRetries().get("default"), is(equalTo(2L)));
+    assertThat(recorder.getFailedDispatches().get(String.class.getName()), is(equalTo(1L)));
+    assertThat(recorder.getDispatchLatencies().get(String.class.getName()).getCount(), is(equalTo(2L)));
+  }
+
+  @Test
+  public void schedulingLagsOfReexecutedTasksAreOnlyCounted() {
+    recorder.recordSchedulingLag("default", String.class, 250, 0, 0);
+    recorder.recordSchedulingLag("default", String.class, 40, 3, 0);
+    recorder.recordSchedulingLag("default", String.class, 60000, 1, 1);
+
+    assertThat(recorder.getSchedulingLagsByQueue().get("default").getCount(), is(equalTo(2L)));
+    assertThat(recorder.getSchedulingLagsByType().get(String.class.getName()).getMax(), is(equalTo(250L)));
+    assertThat(recorder.getReexecutions().get("default"), is(equalTo(1L)));
+  }
+
+  @Test
+  public void schedulingLagsArePolledByInterval() {
+    recorder.recordSchedulingLag("default", String.class, 250, 0, 0);
+    assertThat(recorder.pollSchedulingLagsByQueue().get("default").getCount(), is(equalTo(1L)));
+
+    recorder.recordSchedulingLag("default", String.class, 40, 0, 0);
+
+    assertThat(recorder.pollSchedulingLagsByQueue().get("default").getMax(), is(equalTo(40L)));
+    assertThat(recorder.getSchedulingLagsByQueue().get("default").getCount(), is(equalTo(2L)));
+  }
+
+  @Test
+  public void resetMetrics() {
+    recorder.recordRetry("default");
+
+    recorder.reset();
+
+    assertThat(recorder.getRetries().isEmpty(), is(true));
+  }
+
+  @Test
+  public void noopRecorderIsBoundByDefault() {
+    Injector injector = Guice.createInjector(new BackgroundTasksModule());
+
+    assertThat(injector.getInstance(MetricsRecorder.class), is(instanceOf(NoopMetricsRecorder.class)));
+  }
+
+  @Test
+  public void dispatchedTasksAreRecordedAndExposedOverJmx() throws Exception {
+    Injector injector = Guice.createInjector(new BackgroundTasksModule() {
+      @Override
+      protected Class<? extends MetricsRecorder> getMetricsRecorder() {
+        return InMemoryMetricsRecorder.class;
+      }
+    });
+
+    injector.getInstance(RoutingTaskDispatcher.class).dispatchAsyncTask(Maps.<String, String[]>newHashMap(), DefaultTaskQueueAsyncTask.class.getName());
+
+    InMemoryMetricsRecorder metrics = (InMemoryMetricsRecorder) injector.getInstance(MetricsRecorder.class);
+    assertThat(metrics.getDispatchLatencies().get(DefaultTaskQueueAsyncTask.class.getName()).getCount(), is(equalTo(1L)));
+
+    TabularData latencies = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(InMemoryMetricsRecorder.OBJECT_NAME), "DispatchLatencies");
+    CompositeData latency = latencies.get(new Object[]{DefaultTaskQueueAsyncTask.class.getName()});
+    assertThat(((CompositeData) latency.get("value")).get("count"), is((Object) 1L));
+  }
+}
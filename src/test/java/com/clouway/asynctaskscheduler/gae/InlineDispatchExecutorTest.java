@@ -0,0 +1,112 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class InlineDispatchExecutorTest {
+
+  @Test
+  public void runnablesAreExecutedInParallel() throws Exception {
+    final CountDownLatch started = new CountDownLatch(3);
+    List<Runnable> runnables = Lists.newArrayList();
+
+    for (int i = 0; i < 3; i++) {
+      runnables.add(new Runnable() {
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            // completes only if all of the runnables are started at the same time
+            if (!started.await(5, TimeUnit.SECONDS)) {
+              throw new IllegalStateException("runnables are not executed in parallel");
+            }
+          } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      });
+    }
+
+    assertTrue(new InlineDispatchExecutor(3).executeAll(runnables).isEmpty());
+  }
+
+  @Test
+  public void onlyFailedRunnablesAreReturned() throws Exception {
+    Runnable succeeding = new Runnable() {
+      @Override
+      public void run() {
+      }
+    };
+    Runnable failing = new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("failed");
+      }
+    };
+
+    List<Runnable> failed = new InlineDispatchExecutor(2).executeAll(Lists.newArrayList(succeeding, failing, succeeding));
+
+    assertThat(failed, is(equalTo((List<Runnable>) Lists.newArrayList(failing))));
+  }
+
+  @Test
+  public void runnablesAreExecutedOneByOneWithSingleThread() throws Exception {
+    final List<Integer> executed = Lists.newArrayList();
+    List<Runnable> runnables = Lists.newArrayList();
+
+    for (int i = 0; i < 3; i++) {
+      final int index = i;
+      runnables.add(new Runnable() {
+        @Override
+        public void run() {
+          executed.add(index);
+        }
+      });
+    }
+
+    new InlineDispatchExecutor(1).executeAll(runnables);
+
+    assertThat(executed, is(equalTo((List<Integer>) Lists.newArrayList(0, 1, 2))));
+  }
+
+  @Test
+  public void nestedDispatchesComplete() throws Exception {
+    final InlineDispatchExecutor executor = new InlineDispatchExecutor(2);
+    final AtomicInteger executed = new AtomicInteger();
+    List<Runnable> runnables = Lists.newArrayList();
+
+    for (int i = 0; i < 4; i++) {
+      runnables.add(new Runnable() {
+        @Override
+        public void run() {
+          List<Runnable> nested = Lists.newArrayList();
+          for (int j = 0; j < 4; j++) {
+            nested.add(new Runnable() {
+              @Override
+              public void run() {
+                executed.incrementAndGet();
+              }
+            });
+          }
+          executor.executeAll(nested);
+        }
+      });
+    }
+
+    assertTrue(executor.executeAll(runnables).isEmpty());
+    assertThat(executed.get(), is(16));
+  }
+}
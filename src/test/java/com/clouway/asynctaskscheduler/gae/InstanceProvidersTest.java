@@ -0,0 +1,60 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.common.DefaultTaskQueueAsyncTask;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Singleton;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class InstanceProvidersTest {
+
+  private InstanceProviders instanceProviders;
+
+  @Before
+  public void setUp() throws Exception {
+    Injector injector = Guice.createInjector(new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(BoundAsSingleton.class).in(Singleton.class);
+      }
+    });
+    instanceProviders = injector.getInstance(InstanceProviders.class);
+  }
+
+  @Test
+  public void providerIsResolvedOnlyOnce() throws Exception {
+    assertThat(instanceProviders.get(DefaultTaskQueueAsyncTask.class), is(sameInstance(instanceProviders.get(DefaultTaskQueueAsyncTask.class))));
+  }
+
+  @Test
+  public void newInstancesAreCreatedForUnscopedClasses() throws Exception {
+    assertThat(instanceProviders.getInstance(DefaultTaskQueueAsyncTask.class), is(not(sameInstance(instanceProviders.getInstance(DefaultTaskQueueAsyncTask.class)))));
+  }
+
+  @Test
+  public void instancesOfSingletonClassesAreReused() throws Exception {
+    assertThat(instanceProviders.getInstance(AnnotatedAsSingleton.class), is(sameInstance(instanceProviders.getInstance(AnnotatedAsSingleton.class))));
+  }
+
+  @Test
+  public void instancesOfClassesBoundAsSingletonsAreReused() throws Exception {
+    assertThat(instanceProviders.getInstance(BoundAsSingleton.class), is(sameInstance(instanceProviders.getInstance(BoundAsSingleton.class))));
+  }
+
+  @Singleton
+  static class AnnotatedAsSingleton {
+  }
+
+  static class BoundAsSingleton {
+  }
+}
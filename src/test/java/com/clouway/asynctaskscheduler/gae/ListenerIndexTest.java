@@ -0,0 +1,76 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.common.ActionEvent;
+import com.clouway.asynctaskscheduler.common.DefaultActionEvent;
+import com.clouway.asynctaskscheduler.common.IndexingListener;
+import com.clouway.asynctaskscheduler.common.MultyInterfaceListener;
+import com.clouway.asynctaskscheduler.common.TestEventListener;
+import com.clouway.asynctaskscheduler.spi.AsyncEventBusBinder.ListenerClazz;
+import com.clouway.asynctaskscheduler.spi.AsyncEventListener;
+import com.google.common.collect.Sets;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class ListenerIndexTest {
+
+  @Test
+  public void listenersAreIndexedInOrderOfRegistration() throws Exception {
+    ListenerIndex index = new ListenerIndex(listeners(IndexingListener.class, TestEventListener.class, IndexingListener.class, MultyInterfaceListener.class));
+
+    assertThat(index.getListenerClasses(ActionEvent.class), is(equalTo(Arrays.<Class<? extends AsyncEventListener>>asList(IndexingListener.class, TestEventListener.class, MultyInterfaceListener.class))));
+  }
+
+  @Test
+  public void findListenerByName() throws Exception {
+    ListenerIndex index = new ListenerIndex(listeners(IndexingListener.class, TestEventListener.class));
+
+    assertThat(index.getListenerClass(ActionEvent.class, "TestEventListener"), is(equalTo((Object) TestEventListener.class)));
+    assertThat(index.getListenerClass(ActionEvent.class, "UnknownListener"), is(nullValue()));
+  }
+
+  @Test
+  public void eventWithoutListeners() throws Exception {
+    ListenerIndex index = new ListenerIndex(listeners(IndexingListener.class));
+
+    assertTrue(index.getListenerClasses(DefaultActionEvent.class).isEmpty());
+    assertThat(index.getListenerClass(DefaultActionEvent.class, "IndexingListener"), is(nullValue()));
+  }
+
+  @Test
+  public void indexIsBuiltWithoutRegisteredListeners() throws Exception {
+    Injector injector = Guice.createInjector(new BackgroundTasksModule(), new AbstractModule() {
+      @Override
+      protected void configure() {
+      }
+    });
+
+    assertTrue(injector.getInstance(ListenerIndex.class).getListenerClasses(ActionEvent.class).isEmpty());
+  }
+
+  private Set<ListenerClazz> listeners(Class<? extends AsyncEventListener>... listenerClasses) {
+    Set<ListenerClazz> listeners = Sets.newLinkedHashSet();
+    for (final Class<? extends AsyncEventListener> listenerClass : listenerClasses) {
+      listeners.add(new ListenerClazz() {
+        @Override
+        public Class<? extends AsyncEventListener> getValue() {
+          return listenerClass;
+        }
+      });
+    }
+    return listeners;
+  }
+}
@@ -0,0 +1,187 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.spi.AsyncEvent;
+import com.clouway.asynctaskscheduler.spi.AsyncEventBus;
+import com.clouway.asynctaskscheduler.spi.AsyncEventBusBinder;
+import com.clouway.asynctaskscheduler.spi.AsyncEventHandler;
+import com.clouway.asynctaskscheduler.spi.AsyncEventListener;
+import com.clouway.asynctaskscheduler.spi.AsyncTask;
+import com.clouway.asynctaskscheduler.spi.AsyncTaskParams;
+import com.clouway.asynctaskscheduler.spi.AsyncTaskScheduler;
+import com.clouway.asynctaskscheduler.spi.TypedAsyncTask;
+import com.google.common.collect.Lists;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.clouway.asynctaskscheduler.spi.AsyncTaskOptions.task;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class LocalAsyncTaskSchedulerTest {
+
+  private static final List<String> executions = new CopyOnWriteArrayList<String>();
+
+  private Injector injector;
+  private LocalTaskExecutor taskExecutor;
+
+  @Before
+  public void setUp() throws Exception {
+    executions.clear();
+
+    injector = Guice.createInjector(new BackgroundTasksModule() {
+      @Override
+      protected boolean executeTasksInProcess() {
+        return true;
+      }
+    }, new AbstractModule() {
+      @Override
+      protected void configure() {
+        new AsyncEventBusBinder(binder()).registerListener(RecordingListener.class);
+      }
+    });
+    taskExecutor = injector.getInstance(LocalTaskExecutor.class);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    taskExecutor.shutdown();
+  }
+
+  @Test
+  public void tasksAreExecutedInProcess() throws Exception {
+    AsyncTaskScheduler taskScheduler = injector.getInstance(AsyncTaskScheduler.class);
+    assertThat(taskScheduler, is(instanceOf(LocalAsyncTaskScheduler.class)));
+
+    taskScheduler.add(task(RecordingTask.class).param("name", "first")).now();
+
+    assertTrue(taskExecutor.awaitIdle(5, TimeUnit.SECONDS));
+    assertThat(executions, is((List<String>) Lists.newArrayList("task first")));
+  }
+
+  @Test
+  public void handlerAndListenersOfFiredEventsAreExecuted() throws Exception {
+    injector.getInstance(AsyncEventBus.class).fireEvent(new RecordingEvent("fired"));
+
+    assertTrue(taskExecutor.awaitIdle(5, TimeUnit.SECONDS));
+
+    List<String> executed = Lists.newArrayList(executions);
+    Collections.sort(executed);
+    assertThat(executed, is((List<String>) Lists.newArrayList("handler fired", "listener fired")));
+  }
+
+  @Test
+  public void delayedTasksAreExecutedAfterTheirDelay() throws Exception {
+    long startMillis = System.currentTimeMillis();
+
+    injector.getInstance(AsyncTaskScheduler.class).add(task(RecordingTask.class).param("name", "delayed").delay(200)).now();
+
+    assertTrue(taskExecutor.awaitIdle(5, TimeUnit.SECONDS));
+    assertThat(executions, is((List<String>) Lists.newArrayList("task delayed")));
+    assertTrue(System.currentTimeMillis() - startMillis >= 200);
+  }
+
+  @Test
+  public void namedTasksAreExecutedOnlyOnce() throws Exception {
+    injector.getInstance(AsyncTaskScheduler.class)
+            .add(task(RecordingTask.class).param("name", "named").named("task-1"))
+            .add(task(RecordingTask.class).param("name", "named").named("task-1"))
+            .now();
+
+    assertTrue(taskExecutor.awaitIdle(5, TimeUnit.SECONDS));
+    assertThat(executions, is((List<String>) Lists.newArrayList("task named")));
+  }
+
+  @Test
+  public void typedTasksAreExecutedWithTheirPayload() throws Exception {
+    injector.getInstance(AsyncTaskScheduler.class).add(task(RecordingTypedTask.class, new TaskPayload("typed", 3)).param("suffix", "!")).now();
+
+    assertTrue(taskExecutor.awaitIdle(5, TimeUnit.SECONDS));
+    assertThat(executions, is((List<String>) Lists.newArrayList("typed task typed 3!")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void genericPayloadsAreRejected() throws Exception {
+    task(ListTypedTask.class, Lists.newArrayList(new TaskPayload("typed", 3)));
+  }
+
+  static class RecordingTask implements AsyncTask {
+    @Override
+    public void execute(AsyncTaskParams params) {
+      executions.add("task " + params.getString("name"));
+    }
+  }
+
+  static class TaskPayload {
+    private String name;
+    private int count;
+
+    TaskPayload() {
+    }
+
+    TaskPayload(String name, int count) {
+      this.name = name;
+      this.count = count;
+    }
+  }
+
+  static class RecordingTypedTask extends TypedAsyncTask<TaskPayload> {
+    @Override
+    public void execute(TaskPayload payload, AsyncTaskParams params) {
+      executions.add("typed task " + payload.name + " " + payload.count + params.getString("suffix"));
+    }
+  }
+
+  static class ListTypedTask extends TypedAsyncTask<List<TaskPayload>> {
+    @Override
+    public void execute(List<TaskPayload> payload, AsyncTaskParams params) {
+    }
+  }
+
+  static class RecordingEvent implements AsyncEvent<RecordingHandler> {
+    private String name;
+
+    RecordingEvent() {
+    }
+
+    RecordingEvent(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Class<RecordingHandler> getAssociatedHandlerClass() {
+      return RecordingHandler.class;
+    }
+
+    @Override
+    public void dispatch(RecordingHandler handler) {
+      handler.onEvent(this);
+    }
+  }
+
+  static class RecordingHandler implements AsyncEventHandler {
+    void onEvent(RecordingEvent event) {
+      executions.add("handler " + event.name);
+    }
+  }
+
+  static class RecordingListener implements AsyncEventListener<RecordingEvent> {
+    @Override
+    public void onEvent(RecordingEvent event) {
+      executions.add("listener " + event.name);
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class LocalTaskExecutorTest {
+
+  private LocalTaskExecutor taskExecutor;
+
+  @After
+  public void tearDown() throws Exception {
+    taskExecutor.shutdown();
+  }
+
+  @Test
+  public void tasksOfLimitedQueueAreNotExecutedConcurrently() throws Exception {
+    taskExecutor = new LocalTaskExecutor(Executors.newFixedThreadPool(4), ImmutableMap.of("limited", 1));
+
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+
+    for (int i = 0; i < 8; i++) {
+      taskExecutor.execute("limited", 0, new Runnable() {
+        @Override
+        public void run() {
+          int current = running.incrementAndGet();
+          maxRunning.set(Math.max(maxRunning.get(), current));
+          sleep(5);
+          running.decrementAndGet();
+        }
+      });
+    }
+
+    assertTrue(taskExecutor.awaitIdle(5, TimeUnit.SECONDS));
+    assertThat(maxRunning.get(), is(1));
+  }
+
+  @Test
+  public void tasksOfUnlimitedQueueAreExecutedConcurrently() throws Exception {
+    taskExecutor = new LocalTaskExecutor(Executors.newFixedThreadPool(2), Collections.<String, Integer>emptyMap());
+
+    final CountDownLatch started = new CountDownLatch(2);
+
+    for (int i = 0; i < 2; i++) {
+      taskExecutor.execute("", 0, new Runnable() {
+        @Override
+        public void run() {
+          started.countDown();
+          await(started);
+        }
+      });
+    }
+
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertTrue(taskExecutor.awaitIdle(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void delayedTasksAreExecutedInOrderOfTheirDelays() throws Exception {
+    taskExecutor = new LocalTaskExecutor(Executors.newFixedThreadPool(2), ImmutableMap.of("", 1));
+
+    final List<Integer> executed = new CopyOnWriteArrayList<Integer>();
+    for (final int delay : new int[]{300, 100, 0, 200}) {
+      taskExecutor.execute("", delay, new Runnable() {
+        @Override
+        public void run() {
+          executed.add(delay);
+        }
+      });
+    }
+
+    assertTrue(taskExecutor.awaitIdle(5, TimeUnit.SECONDS));
+    assertThat(executed.toString(), is("[0, 100, 200, 300]"));
+  }
+
+  @Test
+  public void failedTasksDoNotStopTheQueue() throws Exception {
+    taskExecutor = new LocalTaskExecutor(Executors.newFixedThreadPool(1), ImmutableMap.of("", 1));
+
+    final AtomicInteger executed = new AtomicInteger();
+    taskExecutor.execute("", 0, new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("failed task");
+      }
+    });
+    taskExecutor.execute("", 0, new Runnable() {
+      @Override
+      public void run() {
+        executed.incrementAndGet();
+      }
+    });
+
+    assertTrue(taskExecutor.awaitIdle(5, TimeUnit.SECONDS));
+    assertThat(executed.get(), is(1));
+  }
+
+  @Test
+  public void taskNamesAreRegisteredOnlyOnceInAQueue() throws Exception {
+    taskExecutor = new LocalTaskExecutor(Executors.newFixedThreadPool(1), Collections.<String, Integer>emptyMap());
+
+    assertTrue(taskExecutor.registerTaskName("queue", "task-1"));
+    assertFalse(taskExecutor.registerTaskName("queue", "task-1"));
+    assertTrue(taskExecutor.registerTaskName("other-queue", "task-1"));
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
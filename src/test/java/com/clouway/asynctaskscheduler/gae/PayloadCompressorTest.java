@@ -0,0 +1,94 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.common.ActionEvent;
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class PayloadCompressorTest {
+
+  private static final String EVENT = ActionEvent.class.getName();
+  private static final String PAYLOAD = "{\"message\":\"" + Strings.repeat("contract signed ", 64) + "\"}";
+
+  @Test
+  public void payloadIsDeflated() throws Exception {
+    PayloadCompressor compressor = new PayloadCompressor(PayloadCompression.deflate(100));
+
+    byte[] compressed = compressor.compress(EVENT, PAYLOAD.getBytes("UTF-8"));
+
+    assertTrue(compressed.length < PAYLOAD.length());
+    assertThat(new String(compressor.decompress(EVENT, "deflate", compressed), "UTF-8"), is(equalTo(PAYLOAD)));
+  }
+
+  @Test
+  public void payloadIsGzipped() throws Exception {
+    PayloadCompressor compressor = new PayloadCompressor(PayloadCompression.gzip(100));
+
+    byte[] compressed = compressor.compress(EVENT, PAYLOAD.getBytes("UTF-8"));
+
+    assertTrue(compressed.length < PAYLOAD.length());
+    assertThat(new String(compressor.decompress(EVENT, "gzip", compressed), "UTF-8"), is(equalTo(PAYLOAD)));
+  }
+
+  @Test
+  public void payloadIsDeflatedWithTheDictionaryOfTheEvent() throws Exception {
+    PayloadCompression compression = PayloadCompression.deflate(10).dictionary(ActionEvent.class, "{\"message\":\"contract signed".getBytes("UTF-8"));
+    PayloadCompressor compressor = new PayloadCompressor(compression);
+    String payload = "{\"message\":\"contract signed contract signed\"}";
+
+    byte[] compressed = compressor.compress(EVENT, payload.getBytes("UTF-8"));
+
+    assertThat(compressed, is(notNullValue()));
+    assertThat(new String(compressor.decompress(EVENT, "deflate", compressed), "UTF-8"), is(equalTo(payload)));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void dictionaryOfTheEventIsNotConfigured() throws Exception {
+    PayloadCompression compression = PayloadCompression.deflate(10).dictionary(ActionEvent.class, "{\"message\":\"contract signed".getBytes("UTF-8"));
+    byte[] compressed = new PayloadCompressor(compression).compress(EVENT, PAYLOAD.getBytes("UTF-8"));
+
+    new PayloadCompressor(PayloadCompression.disabled()).decompress(EVENT, "deflate", compressed);
+  }
+
+  @Test
+  public void payloadBelowTheThresholdIsNotCompressed() throws Exception {
+    PayloadCompressor compressor = new PayloadCompressor(PayloadCompression.deflate(PAYLOAD.length() + 1));
+
+    assertThat(compressor.compress(EVENT, PAYLOAD.getBytes("UTF-8")), is(nullValue()));
+    assertThat(compressor.getStats().containsKey(EVENT), is(false));
+  }
+
+  @Test
+  public void payloadWhichDoesNotBecomeSmallerIsNotCompressed() throws Exception {
+    PayloadCompressor compressor = new PayloadCompressor(PayloadCompression.deflate(0));
+
+    assertThat(compressor.compress(EVENT, "{}".getBytes("UTF-8")), is(nullValue()));
+    assertThat(compressor.getStats().get(EVENT).getPayloads(), is(1L));
+    assertThat(compressor.getStats().get(EVENT).getCompressedPayloads(), is(0L));
+    assertThat(compressor.getStats().get(EVENT).getCompressionRatio(), is(1.0));
+  }
+
+  @Test
+  public void compressionStatsArePerEventClass() throws Exception {
+    PayloadCompressor compressor = new PayloadCompressor(PayloadCompression.deflate(100));
+
+    byte[] compressed = compressor.compress(EVENT, PAYLOAD.getBytes("UTF-8"));
+    compressor.decompress(EVENT, "deflate", compressed);
+
+    CompressionStats stats = compressor.getStats().get(EVENT);
+    assertThat(stats.getCompressedPayloads(), is(1L));
+    assertThat(stats.getOriginalBytes(), is((long) PAYLOAD.length()));
+    assertThat(stats.getCompressedBytes(), is((long) compressed.length));
+    assertThat(stats.getDecompressions(), is(1L));
+    assertTrue(stats.getCompressionRatio() < 1);
+  }
+}
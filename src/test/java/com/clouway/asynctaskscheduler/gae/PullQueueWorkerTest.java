@@ -0,0 +1,107 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.common.PullQueueAsyncTask;
+import com.clouway.asynctaskscheduler.spi.AsyncTaskScheduler;
+import com.google.appengine.api.taskqueue.QueueConstants;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static com.clouway.asynctaskscheduler.spi.AsyncTaskOptions.task;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class PullQueueWorkerTest {
+
+  private LocalServiceTestHelper helper;
+  private AsyncTaskScheduler taskScheduler;
+  private PullQueueWorker worker;
+
+  @Before
+  public void setUp() {
+    LocalTaskQueueTestConfig localTaskQueueTestConfig = new LocalTaskQueueTestConfig();
+    localTaskQueueTestConfig.setQueueXmlPath("src/test/java/queue.xml");
+    helper = new LocalServiceTestHelper(localTaskQueueTestConfig);
+    helper.setUp();
+
+    Injector injector = Guice.createInjector(new BackgroundTasksModule() {
+      @Override
+      protected Set<String> getPullQueues() {
+        return ImmutableSet.of("pullQueue");
+      }
+    });
+    taskScheduler = injector.getInstance(AsyncTaskScheduler.class);
+    worker = injector.getInstance(PullQueueWorker.class);
+    PullQueueAsyncTask.executed.clear();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void pullTasksAreTaggedWithTheirClass() throws Exception {
+    taskScheduler.add(task(PullQueueAsyncTask.class).param("name", "first")).now();
+
+    QueueStateInfo.TaskStateInfo task = getQueueStateInfo("pullQueue").getTaskInfo().get(0);
+    assertThat(new String(task.getTagAsBytes(), "UTF-8"), is(equalTo(PullQueueAsyncTask.class.getName())));
+  }
+
+  @Test
+  public void leasedTasksAreExecutedAndDeleted() {
+    taskScheduler.add(task(PullQueueAsyncTask.class).param("name", "first"))
+            .add(task(PullQueueAsyncTask.class).param("name", "second & third"))
+            .now();
+
+    int executed = worker.work("pullQueue", 10000);
+
+    assertThat(executed, is(2));
+    assertThat(PullQueueAsyncTask.executed, containsInAnyOrder("first", "second & third"));
+    assertThat(getQueueStateInfo("pullQueue").getCountTasks(), is(0));
+  }
+
+  @Test
+  public void failedTasksAreNotDeleted() {
+    taskScheduler.add(task(PullQueueAsyncTask.class).param("name", "first"))
+            .add(task(PullQueueAsyncTask.class).param("name", "second").param("fail", "true"))
+            .now();
+
+    int executed = worker.leaseAndExecute("pullQueue");
+
+    assertThat(executed, is(1));
+    assertThat(PullQueueAsyncTask.executed, containsInAnyOrder("first"));
+    assertThat(getQueueStateInfo("pullQueue").getCountTasks(), is(1));
+  }
+
+  @Test
+  public void leaseSizeAdaptsToTheExecutionTimeOfTasks() {
+    taskScheduler.add(task(PullQueueAsyncTask.class).param("name", "first")).now();
+
+    assertThat(worker.getLeaseSize(), is(PullQueueWorker.INITIAL_LEASE_SIZE));
+
+    worker.leaseAndExecute("pullQueue");
+
+    // the task is executed for less than a millisecond, so as many tasks as possible are leased
+    assertThat(worker.getLeaseSize(), is((int) QueueConstants.maxLeaseCount()));
+  }
+
+  private QueueStateInfo getQueueStateInfo(String queueName) {
+    LocalTaskQueue ltq = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    return ltq.getQueueStateInfo().get(queueName);
+  }
+}
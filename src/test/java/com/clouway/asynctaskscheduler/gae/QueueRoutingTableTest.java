@@ -0,0 +1,61 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.common.ActionEvent;
+import com.clouway.asynctaskscheduler.common.CustomTaskQueueAsyncEvent;
+import com.clouway.asynctaskscheduler.common.CustomTaskQueueAsyncTask;
+import com.clouway.asynctaskscheduler.common.DefaultActionEvent;
+import com.clouway.asynctaskscheduler.common.DefaultActionEventListener;
+import com.clouway.asynctaskscheduler.common.DefaultTaskQueueAsyncTask;
+import com.clouway.asynctaskscheduler.common.TestEventListener;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class QueueRoutingTableTest {
+
+  private final QueueRoutingTable routingTable = new QueueRoutingTable();
+
+  @Test
+  public void tasksWithoutQueueNameAreAddedToTheDefaultQueue() {
+    assertThat(routingTable.getTaskQueueName(DefaultTaskQueueAsyncTask.class), is(equalTo("")));
+  }
+
+  @Test
+  public void taskQueueNameIsTakenFromTheTaskClass() {
+    assertThat(routingTable.getTaskQueueName(CustomTaskQueueAsyncTask.class), is(equalTo("customTaskQueue")));
+  }
+
+  @Test
+  public void eventQueueNameIsTakenFromTheEventClass() {
+    assertThat(routingTable.getEventQueueName(new DefaultActionEvent("message"), null), is(equalTo("customTaskQueue")));
+  }
+
+  @Test
+  public void handlerQueueNameTakesPrecedenceOverTheEventQueueName() {
+    assertThat(routingTable.getEventQueueName(new CustomTaskQueueAsyncEvent("message"), null), is(equalTo("customActionEventTaskQueue")));
+  }
+
+  @Test
+  public void listenerQueueNameTakesPrecedenceOverTheEventQueueName() {
+    assertThat(routingTable.getEventQueueName(new DefaultActionEvent("message"), DefaultActionEventListener.class), is(equalTo("customListenerTaskQueue")));
+  }
+
+  @Test
+  public void eventQueueNameIsUsedForListenersWithoutQueueName() {
+    assertThat(routingTable.getEventQueueName(new DefaultActionEvent("message"), TestEventListener.class), is(equalTo("customTaskQueue")));
+  }
+
+  @Test
+  public void queueNamesAreResolvedSeparatelyForEachListener() {
+    ActionEvent event = new ActionEvent("message");
+
+    assertThat(routingTable.getEventQueueName(event, DefaultActionEventListener.class), is(equalTo("customListenerTaskQueue")));
+    assertThat(routingTable.getEventQueueName(event, TestEventListener.class), is(equalTo("")));
+    assertThat(routingTable.getEventQueueName(event, null), is(equalTo("")));
+  }
+}
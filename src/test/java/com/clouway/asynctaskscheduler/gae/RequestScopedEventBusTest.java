@@ -0,0 +1,145 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.common.ActionEvent;
+import com.clouway.asynctaskscheduler.common.DefaultActionEvent;
+import com.clouway.asynctaskscheduler.spi.AsyncEventBus;
+import com.clouway.asynctaskscheduler.util.FakeRequestScopeModule;
+import com.clouway.asynctaskscheduler.util.SimpleScope;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class RequestScopedEventBusTest {
+
+  @Inject
+  private AsyncEventBus eventBus;
+
+  @Inject
+  private TaskQueueFlushFilter flushFilter;
+
+  private Injector injector;
+
+  private LocalServiceTestHelper helper;
+
+  private SimpleScope fakeRequestScope = new SimpleScope();
+
+  @Before
+  public void setUp() throws Exception {
+    LocalTaskQueueTestConfig localTaskQueueTestConfig = new LocalTaskQueueTestConfig();
+    localTaskQueueTestConfig.setQueueXmlPath("src/test/java/queue.xml");
+    helper = new LocalServiceTestHelper(localTaskQueueTestConfig);
+
+    helper.setUp();
+    injector = Guice.createInjector(Modules.override(new BackgroundTasksModule() {
+      @Override
+      protected boolean flushEventsAtEndOfRequest() {
+        return true;
+      }
+    }).with(new FakeRequestScopeModule(fakeRequestScope)));
+    injector.injectMembers(this);
+    fakeRequestScope.enter();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+    fakeRequestScope.exit();
+  }
+
+  @Test
+  public void eventsFiredOutOfRequestAreAddedImmediately() throws Exception {
+    fakeRequestScope.exit();
+    try {
+
+      eventBus.fireEvent(new ActionEvent("first"));
+      eventBus.fireTransactionLessEventAsync(new ActionEvent("second")).get();
+
+    } finally {
+      fakeRequestScope.enter();
+    }
+
+    assertAddedTasks(QueueFactory.getDefaultQueue().getQueueName(), 2);
+  }
+
+  @Test
+  public void eventsAreAddedWhenTheRequestCompletes() throws Exception {
+
+    flushFilter.doFilter(mock(ServletRequest.class), mock(ServletResponse.class), new FilterChain() {
+      @Override
+      public void doFilter(ServletRequest request, ServletResponse response) {
+        eventBus.fireEvent(new ActionEvent("first"));
+        eventBus.fireTransactionLessEvent(new ActionEvent("second"));
+        eventBus.fireEvent(new DefaultActionEvent("third"));
+
+        assertAddedTasks(QueueFactory.getDefaultQueue().getQueueName(), 0);
+      }
+    });
+
+    assertAddedTasks(QueueFactory.getDefaultQueue().getQueueName(), 2);
+    assertAddedTasks(DefaultActionEvent.CUSTOM_TASK_QUEUE_NAME, 1);
+  }
+
+  @Test
+  public void futureOfBufferedEventCompletesWhenBufferIsFlushed() throws Exception {
+    Future<Void> future = eventBus.fireEventAsync(new ActionEvent("test"));
+
+    assertFalse(future.isDone());
+
+    injector.getInstance(RequestTaskBuffer.class).flush();
+
+    assertTrue(future.isDone());
+    assertAddedTasks(QueueFactory.getDefaultQueue().getQueueName(), 1);
+  }
+
+  @Test
+  public void waitingForBufferedEventFlushesTheBuffer() throws Exception {
+    eventBus.fireEvent(new ActionEvent("first"));
+    Future<Void> future = eventBus.fireEventAsync(new ActionEvent("second"));
+
+    future.get();
+
+    assertTrue(future.isDone());
+    assertAddedTasks(QueueFactory.getDefaultQueue().getQueueName(), 2);
+  }
+
+  @Test
+  public void eventsFiredInTransactionAreNotBuffered() {
+    Transaction transaction = DatastoreServiceFactory.getDatastoreService().beginTransaction();
+
+    eventBus.fireEvent(new ActionEvent("test"));
+
+    transaction.commit();
+
+    assertAddedTasks(QueueFactory.getDefaultQueue().getQueueName(), 1);
+  }
+
+  private void assertAddedTasks(String queueName, int expectedTaskCount) {
+    LocalTaskQueue ltq = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    QueueStateInfo qsi = ltq.getQueueStateInfo().get(queueName);
+    assertEquals(expectedTaskCount, qsi.getTaskInfo().size());
+  }
+}
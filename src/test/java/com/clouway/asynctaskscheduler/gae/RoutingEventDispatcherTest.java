@@ -3,6 +3,9 @@ package com.clouway.asynctaskscheduler.gae;
 import com.clouway.asynctaskscheduler.common.ActionEvent;
 import com.clouway.asynctaskscheduler.common.ActionEventHandler;
 import com.clouway.asynctaskscheduler.common.IndexingListener;
+import com.clouway.asynctaskscheduler.common.InlineActionEvent;
+import com.clouway.asynctaskscheduler.common.InlineActionEventHandler;
+import com.clouway.asynctaskscheduler.common.MultyInterfaceListener;
 import com.clouway.asynctaskscheduler.common.TaskQueueParamParser;
 import com.clouway.asynctaskscheduler.common.TestEventListener;
 import com.clouway.asynctaskscheduler.spi.AsyncEvent;
@@ -10,6 +13,7 @@ import com.clouway.asynctaskscheduler.spi.AsyncEventHandler;
 import com.clouway.asynctaskscheduler.spi.AsyncEventHandlerFactory;
 import com.clouway.asynctaskscheduler.spi.AsyncEventListener;
 import com.clouway.asynctaskscheduler.spi.AsyncEventListenersFactory;
+import com.clouway.asynctaskscheduler.spi.PayloadStore;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
 import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
@@ -17,6 +21,7 @@ import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestC
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
@@ -25,12 +30,19 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
@@ -45,7 +57,11 @@ public class RoutingEventDispatcherTest {
   @Inject
   private Gson gson;
 
+  @Inject
+  private PayloadStore payloadStore;
+
   private ActionEventHandler handler = new ActionEventHandler();
+  private InlineActionEventHandler inlineHandler = new InlineActionEventHandler();
   private AsyncEventHandlerFactory handlerFactory = new AsyncEventHandlerFactory() {
     @Override
     public AsyncEventHandler create(Class<? extends AsyncEventHandler> evenHandlerClass) {
@@ -180,10 +196,79 @@ public class RoutingEventDispatcherTest {
     //two task queues fired because the event has 2 listeners
     assertThat(qsi.getCountTasks(), is(3));
     //each fired task queue contains the event class and the id of the listener to be executed
-    //this test may fail from time to time due to tasks in the queue not executed in the given order, soo only the ids are wrong, happens very rarely
-    assertParams(qsi.getTaskInfo().get(0).getBody(), TaskQueueAsyncTaskScheduler.EVENT, event.getClass().getCanonicalName());//get canonical name because the event class can be only retrieved with the full packaging
-    assertParams(qsi.getTaskInfo().get(1).getBody(), TaskQueueAsyncTaskScheduler.LISTENER, indexingListener.getClass().getSimpleName());
-    assertParams(qsi.getTaskInfo().get(2).getBody(), TaskQueueAsyncTaskScheduler.LISTENER, testEventListener.getClass().getSimpleName());
+    //the tasks are added together, so they are in the queue in any order
+    Set<String> listeners = Sets.newHashSet();
+    for (QueueStateInfo.TaskStateInfo task : qsi.getTaskInfo()) {
+      Map<String, String> params = TaskQueueParamParser.parse(task.getBody());
+      assertEquals(event.getClass().getCanonicalName(), params.get(TaskQueueAsyncTaskScheduler.EVENT));//get canonical name because the event class can be only retrieved with the full packaging
+      listeners.add(params.get(TaskQueueAsyncTaskScheduler.LISTENER));
+    }
+    assertEquals(Sets.newHashSet(null, indexingListener.getClass().getSimpleName(), testEventListener.getClass().getSimpleName()), listeners);
+  }
+
+  @Test
+  public void storedPayloadIsPassedToTheHandlerAndListeners() throws Exception {
+    String payloadReference = payloadStore.store(eventAsJson.getBytes("UTF-8"));
+
+    dispatcher.dispatchStoredEvent(eventClassAsString, payloadReference, null, null, null, "task-1");
+
+    QueueStateInfo qsi = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
+    assertThat(qsi.getCountTasks(), is(3));
+    for (QueueStateInfo.TaskStateInfo task : qsi.getTaskInfo()) {
+      Map<String, String> params = TaskQueueParamParser.parse(task.getBody());
+      assertEquals(payloadReference, params.get(TaskQueueAsyncTaskScheduler.PAYLOAD_REFERENCE));
+      assertFalse(params.containsKey(TaskQueueAsyncTaskScheduler.EVENT_AS_JSON));
+    }
+  }
+
+  @Test
+  public void storedPayloadIsReleasedByTheLastListener() throws Exception {
+    String payloadReference = payloadStore.store(eventAsJson.getBytes("UTF-8"));
+    payloadStore.retain(payloadReference, 1, null);
+
+    dispatcher.dispatchStoredEvent(eventClassAsString, payloadReference, null, testEventListener.getClass().getSimpleName(), null, "task-1");
+
+    assertEquals(event.getMessage(), ((ActionEvent) testEventListener.event).getMessage());
+    assertNotNull(payloadStore.load(payloadReference));
+
+    dispatcher.dispatchStoredEvent(eventClassAsString, payloadReference, null, null, event.getAssociatedHandlerClass().getSimpleName(), "task-2");
+
+    assertEquals(event.getMessage(), handler.message);
+    assertNull(payloadStore.load(payloadReference));
+  }
+
+  @Test
+  public void storedPayloadIsNotReleasedForOtherListenersByRepeatedTask() throws Exception {
+    String payloadReference = payloadStore.store(eventAsJson.getBytes("UTF-8"));
+    payloadStore.retain(payloadReference, 1, null);
+
+    dispatcher.dispatchStoredEvent(eventClassAsString, payloadReference, null, testEventListener.getClass().getSimpleName(), null, "task-1");
+    dispatcher.dispatchStoredEvent(eventClassAsString, payloadReference, null, testEventListener.getClass().getSimpleName(), null, "task-1");
+
+    dispatcher.dispatchStoredEvent(eventClassAsString, payloadReference, null, null, event.getAssociatedHandlerClass().getSimpleName(), "task-2");
+
+    assertEquals(event.getMessage(), handler.message);
+    assertNull(payloadStore.load(payloadReference));
+  }
+
+  @Test
+  public void repeatedTaskOfReleasedPayloadIsDone() throws Exception {
+    String payloadReference = payloadStore.store(eventAsJson.getBytes("UTF-8"));
+
+    dispatcher.dispatchStoredEvent(eventClassAsString, payloadReference, null, null, event.getAssociatedHandlerClass().getSimpleName(), "task-1");
+    handler.message = null;
+
+    dispatcher.dispatchStoredEvent(eventClassAsString, payloadReference, null, null, event.getAssociatedHandlerClass().getSimpleName(), "task-1");
+
+    assertNull(handler.message);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void missingStoredPayloadFailsTheTask() throws Exception {
+    String payloadReference = payloadStore.store(eventAsJson.getBytes("UTF-8"));
+    payloadStore.release(payloadReference, "task-1");
+
+    dispatcher.dispatchStoredEvent(eventClassAsString, payloadReference, null, null, event.getAssociatedHandlerClass().getSimpleName(), "task-2");
   }
 
   @Test
@@ -202,6 +287,210 @@ public class RoutingEventDispatcherTest {
     assertEquals(event.getMessage(), handler.message);
   }
 
+  @Test
+  public void inlineEventIsDispatchedInTheSameTaskQueue() throws Exception {
+    List<String> dispatched = injectInlineDispatcher(null);
+    InlineActionEvent inlineEvent = new InlineActionEvent("inline message");
+
+    dispatcher.dispatchAsyncEvent(InlineActionEvent.class.getName(), gson.toJson(inlineEvent));
+
+    assertEquals(inlineEvent.getMessage(), inlineHandler.message);
+    assertThat(dispatched.size(), is(2));
+    assertThat(getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName()).getCountTasks(), is(0));
+  }
+
+  @Test
+  public void onlyFailedListenersOfInlineEventAreAddedInTaskQueues() throws Exception {
+    List<String> dispatched = injectInlineDispatcher(TestEventListener.class.getSimpleName());
+    InlineActionEvent inlineEvent = new InlineActionEvent("inline message");
+
+    dispatcher.dispatchAsyncEvent(InlineActionEvent.class.getName(), gson.toJson(inlineEvent));
+
+    assertEquals(inlineEvent.getMessage(), inlineHandler.message);
+    assertThat(dispatched, is((List<String>) Lists.newArrayList(IndexingListener.class.getSimpleName())));
+
+    QueueStateInfo qsi = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
+    assertThat(qsi.getCountTasks(), is(1));
+    assertParams(qsi.getTaskInfo().get(0).getBody(), TaskQueueAsyncTaskScheduler.LISTENER, TestEventListener.class.getSimpleName());
+  }
+
+  @Test
+  public void listenersAboveTheTransactionalLimitAreAddedByFanOutShards() throws Exception {
+    injectFanOutDispatcher();
+
+    dispatcher.dispatchAsyncEvent(eventClassAsString, eventAsJson);
+
+    QueueStateInfo qsi = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
+    assertThat(qsi.getCountTasks(), is(4));
+
+    List<String> listeners = Lists.newArrayList();
+    int handlers = 0;
+    for (QueueStateInfo.TaskStateInfo task : qsi.getTaskInfo()) {
+      Map<String, String> params = TaskQueueParamParser.parse(task.getBody());
+      listeners.addAll(Lists.newArrayList(params.get(TaskQueueAsyncTaskScheduler.FAN_OUT).split(",")));
+      if (params.containsKey(TaskQueueAsyncTaskScheduler.FAN_OUT_HANDLER)) {
+        handlers++;
+      }
+    }
+
+    assertThat(listeners.size(), is(6));
+    assertThat(handlers, is(1));
+  }
+
+  @Test
+  public void fanOutShardsCarryTheOriginalPayload() throws Exception {
+    injectFanOutDispatcher();
+    // the field is unknown to the event, so it would be lost if the event was serialized again
+    String originalJson = "{\"message\":\"test message\",\"addedField\":\"value\"}";
+
+    dispatcher.dispatchAsyncEvent(eventClassAsString, originalJson);
+
+    QueueStateInfo qsi = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
+    for (QueueStateInfo.TaskStateInfo task : qsi.getTaskInfo()) {
+      assertThat(TaskQueueParamParser.parse(task.getBody()).get(TaskQueueAsyncTaskScheduler.EVENT_AS_JSON), is(URLEncoder.encode(originalJson, "UTF-8")));
+    }
+  }
+
+  @Test
+  public void fanOutShardAddsNamedTasksOnlyOnce() throws Exception {
+    injectFanOutDispatcher();
+
+    dispatcher.dispatchFanOut(eventClassAsString, new ByteArrayInputStream(eventAsJson.getBytes("UTF-8")), null, null, "IndexingListener,FirstListener", true, "shard-1");
+    // the shard is retried
+    dispatcher.dispatchFanOut(eventClassAsString, new ByteArrayInputStream(eventAsJson.getBytes("UTF-8")), null, null, "IndexingListener,FirstListener", true, "shard-1");
+
+    QueueStateInfo qsi = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
+    assertThat(qsi.getCountTasks(), is(3));
+
+    List<String> names = Lists.newArrayList();
+    for (QueueStateInfo.TaskStateInfo task : qsi.getTaskInfo()) {
+      names.add(task.getTaskName());
+    }
+    Collections.sort(names);
+    assertThat(names, is((List<String>) Lists.newArrayList("shard-1-0", "shard-1-1", "shard-1-2")));
+  }
+
+  @Test
+  public void retriedFanOutShardRetainsStoredPayloadOnlyOnce() throws Exception {
+    injectFanOutDispatcher();
+    String payloadReference = payloadStore.store(eventAsJson.getBytes("UTF-8"));
+
+    dispatcher.dispatchFanOut(eventClassAsString, null, payloadReference, null, "IndexingListener,FirstListener", true, "shard-1");
+    // the shard is retried
+    dispatcher.dispatchFanOut(eventClassAsString, null, payloadReference, null, "IndexingListener,FirstListener", true, "shard-1");
+
+    payloadStore.release(payloadReference, "shard-1-0");
+    payloadStore.release(payloadReference, "shard-1-1");
+    assertNotNull(payloadStore.load(payloadReference));
+
+    payloadStore.release(payloadReference, "shard-1-2");
+    assertNull(payloadStore.load(payloadReference));
+  }
+
+  /**
+   * Injects a dispatcher with more listeners than the tasks which could be added in a transaction.
+   */
+  private void injectFanOutDispatcher() {
+    listenersFactory = new AsyncEventListenersFactory() {
+      @Override
+      public AsyncEventListener createListener(Class<? extends AsyncEvent> eventClass, String eventListenerClassName) {
+        return testEventListener;
+      }
+
+      @Override
+      public List<Class<? extends AsyncEventListener>> getListenerClasses(Class<? extends AsyncEvent> eventClass) {
+        List<Class<? extends AsyncEventListener>> listeners = new ArrayList<Class<? extends AsyncEventListener>>();
+        listeners.add(IndexingListener.class);
+        listeners.add(TestEventListener.class);
+        listeners.add(MultyInterfaceListener.class);
+        listeners.add(FirstListener.class);
+        listeners.add(SecondListener.class);
+        listeners.add(ThirdListener.class);
+        return listeners;
+      }
+    };
+
+    Injector injector = Guice.createInjector(new BackgroundTasksModule() {
+      @Override
+      public AsyncEventHandlerFactory getAsyncEventHandlerFactory(Injector injector) {
+        return handlerFactory;
+      }
+
+      @Override
+      public AsyncEventListenersFactory getAsyncEventListenersFactory(Injector injector) {
+        return listenersFactory;
+      }
+    });
+    injector.injectMembers(this);
+  }
+
+  public static class FirstListener extends IndexingListener {
+  }
+
+  public static class SecondListener extends IndexingListener {
+  }
+
+  public static class ThirdListener extends IndexingListener {
+  }
+
+  /**
+   * Injects a dispatcher which listeners record their names and the given listener fails.
+   */
+  private List<String> injectInlineDispatcher(final String failingListener) {
+    final List<String> dispatched = Collections.synchronizedList(new ArrayList<String>());
+
+    handlerFactory = new AsyncEventHandlerFactory() {
+      @Override
+      public AsyncEventHandler create(Class<? extends AsyncEventHandler> evenHandlerClass) {
+        return inlineHandler;
+      }
+    };
+
+    listenersFactory = new AsyncEventListenersFactory() {
+      @Override
+      public AsyncEventListener createListener(Class<? extends AsyncEvent> eventClass, final String eventListenerClassName) {
+        return new AsyncEventListener<InlineActionEvent>() {
+          @Override
+          public void onEvent(InlineActionEvent event) {
+            if (eventListenerClassName.equals(failingListener)) {
+              throw new IllegalStateException("listener failed");
+            }
+            dispatched.add(eventListenerClassName);
+          }
+        };
+      }
+
+      @Override
+      public List<Class<? extends AsyncEventListener>> getListenerClasses(Class<? extends AsyncEvent> eventClass) {
+        List<Class<? extends AsyncEventListener>> listeners = new ArrayList<Class<? extends AsyncEventListener>>();
+        listeners.add(IndexingListener.class);
+        listeners.add(TestEventListener.class);
+        return listeners;
+      }
+    };
+
+    Injector injector = Guice.createInjector(new BackgroundTasksModule() {
+      @Override
+      public AsyncEventHandlerFactory getAsyncEventHandlerFactory(Injector injector) {
+        return handlerFactory;
+      }
+
+      @Override
+      public AsyncEventListenersFactory getAsyncEventListenersFactory(Injector injector) {
+        return listenersFactory;
+      }
+
+      @Override
+      protected int getInlineDispatchThreads() {
+        // the parallel execution is covered by InlineDispatchExecutorTest
+        return 1;
+      }
+    });
+    injector.injectMembers(this);
+
+    return dispatched;
+  }
+
   private QueueStateInfo getQueueStateInfo(String queueName) {
     LocalTaskQueue ltq = LocalTaskQueueTestConfig.getLocalTaskQueue();
     return ltq.getQueueStateInfo().get(queueName);
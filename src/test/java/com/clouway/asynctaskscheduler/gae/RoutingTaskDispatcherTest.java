@@ -1,6 +1,10 @@
 package com.clouway.asynctaskscheduler.gae;
 
 import com.clouway.asynctaskscheduler.common.DefaultTaskQueueAsyncTask;
+import com.clouway.asynctaskscheduler.spi.AsyncTaskParams;
+import com.clouway.asynctaskscheduler.spi.EventTransport;
+import com.clouway.asynctaskscheduler.spi.TypedAsyncTask;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
@@ -8,6 +12,7 @@ import com.google.inject.Injector;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.Map;
 
 import static junit.framework.Assert.*;
@@ -56,4 +61,61 @@ public class RoutingTaskDispatcherTest {
     taskClassAsString = this.getClass().getName();
     dispatcher.dispatchAsyncTask(params, taskClassAsString);
   }
+
+  @Test
+  public void typedTaskIsDispatchedWithItsPayload() throws Exception {
+    Injector injector = Guice.createInjector(new BackgroundTasksModule() {
+      @Override
+      protected Class<? extends EventTransport> getEventTransport() {
+        return BinaryEventTransport.class;
+      }
+
+      @Override
+      protected PayloadCompression getPayloadCompression() {
+        return PayloadCompression.deflate(0);
+      }
+    });
+
+    Map<String, String> taskParams = Maps.newHashMap();
+    injector.getInstance(TaskPayloads.class).addPayload(taskParams, new OrderPayload("order-1", Lists.newArrayList(1L, 2L, 3L)));
+    for (Map.Entry<String, String> param : taskParams.entrySet()) {
+      params.put(param.getKey(), new String[]{param.getValue()});
+    }
+
+    injector.getInstance(RoutingTaskDispatcher.class).dispatchAsyncTask(params, OrderTask.class.getName());
+
+    assertEquals("order-1", OrderTask.payload.orderId);
+    assertEquals(Lists.newArrayList(1L, 2L, 3L), OrderTask.payload.items);
+  }
+
+  @Test
+  public void typedTaskIsExecutedWithoutPayloadAsAsyncTask() throws Exception {
+    OrderTask.payload = new OrderPayload("order-1", Lists.<Long>newArrayList());
+
+    new OrderTask().execute(new AsyncTaskParams(params));
+
+    assertNull(OrderTask.payload);
+  }
+
+  static class OrderPayload {
+    private String orderId;
+    private List<Long> items;
+
+    OrderPayload() {
+    }
+
+    OrderPayload(String orderId, List<Long> items) {
+      this.orderId = orderId;
+      this.items = items;
+    }
+  }
+
+  static class OrderTask extends TypedAsyncTask<OrderPayload> {
+    static OrderPayload payload;
+
+    @Override
+    public void execute(OrderPayload payload, AsyncTaskParams params) {
+      OrderTask.payload = payload;
+    }
+  }
 }
@@ -1,18 +1,39 @@
 package com.clouway.asynctaskscheduler.gae;
 
+import com.clouway.asynctaskscheduler.common.ActionEvent;
+import com.clouway.asynctaskscheduler.common.DefaultTaskQueueAsyncTask;
+import com.clouway.asynctaskscheduler.common.IndexingListener;
+import com.clouway.asynctaskscheduler.spi.MetricsRecorder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URLEncoder;
 import java.util.HashMap;
 
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
@@ -25,12 +46,16 @@ public class TaskQueueAsyncTaskExecutorServletTest {
   @Mock private RoutingTaskDispatcher routingTaskDispatcher;
   @Mock private HttpServletRequest request;
   @Mock private HttpServletResponse response;
+  @Mock private MetricsRecorder metricsRecorder;
 
   private TaskQueueAsyncTaskExecutorServlet servlet;
+  private PayloadCompressor payloadCompressor;
 
   @Before
   public void setUp() throws Exception {
-    servlet = new TaskQueueAsyncTaskExecutorServlet(eventDisplatcher, routingTaskDispatcher);
+    payloadCompressor = new PayloadCompressor(PayloadCompression.deflate(0));
+    TypeRegistry typeRegistry = new TypeRegistry(ImmutableSet.<Class<?>>of(ActionEvent.class, IndexingListener.class, DefaultTaskQueueAsyncTask.class), true);
+    servlet = new TaskQueueAsyncTaskExecutorServlet(eventDisplatcher, routingTaskDispatcher, payloadCompressor, typeRegistry, metricsRecorder);
   }
 
   @Test
@@ -48,6 +73,77 @@ public class TaskQueueAsyncTaskExecutorServletTest {
 
   }
 
+  @Test
+  public void dispatchingCompressedAsyncEvent() throws Exception {
+    String eventValue = "{\"name\":\"event as json\",\"value\":\"event as json\"}";
+    byte[] compressed = payloadCompressor.compress("event.class", eventValue.getBytes("UTF-8"));
+
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.EVENT)).thenReturn("event.class");
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.EVENT_AS_JSON)).thenReturn(BaseEncoding.base64Url().omitPadding().encode(compressed));
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.CODEC)).thenReturn("deflate");
+
+    servlet.doGet(request, response);
+
+    verify(eventDisplatcher).dispatchAsyncEvent("event.class", eventValue);
+    verifyZeroInteractions(routingTaskDispatcher);
+  }
+
+  @Test
+  public void dispatchingStoredEvent() throws Exception {
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.EVENT)).thenReturn("event.class");
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.PAYLOAD_REFERENCE)).thenReturn("payload-reference");
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.LISTENER)).thenReturn("com.clouway.DummyClass");
+    when(request.getHeader(TaskQueueAsyncTaskScheduler.TASK_NAME_HEADER)).thenReturn("task-1");
+
+    servlet.doGet(request, response);
+
+    verify(eventDisplatcher).dispatchStoredEvent("event.class", "payload-reference", null, "com.clouway.DummyClass", null, "task-1");
+    verifyNoMoreInteractions(eventDisplatcher);
+    verifyZeroInteractions(routingTaskDispatcher);
+  }
+
+  @Test
+  public void dispatchingEventFromRequestBody() throws Exception {
+    final ByteArrayInputStream body = new ByteArrayInputStream("event as json".getBytes("UTF-8"));
+
+    when(request.getHeader(TaskQueueAsyncTaskScheduler.EVENT_HEADER)).thenReturn("event.class");
+    when(request.getHeader(TaskQueueAsyncTaskScheduler.LISTENER_HEADER)).thenReturn("com.clouway.DummyClass");
+    when(request.getInputStream()).thenReturn(new ServletInputStream() {
+      @Override
+      public int read() throws IOException {
+        return body.read();
+      }
+    });
+
+    servlet.doPost(request, response);
+
+    ArgumentCaptor<InputStream> payload = ArgumentCaptor.forClass(InputStream.class);
+    verify(eventDisplatcher).dispatchEvent(eq("event.class"), payload.capture(), eq("com.clouway.DummyClass"), (String) isNull());
+    assertThat(new String(ByteStreams.toByteArray(payload.getValue()), "UTF-8"), is(equalTo("event as json")));
+    verifyZeroInteractions(routingTaskDispatcher);
+  }
+
+  @Test
+  public void dispatchingCompressedEventFromRequestBody() throws Exception {
+    String eventValue = "{\"name\":\"event as json\",\"value\":\"event as json\"}";
+    final ByteArrayInputStream body = new ByteArrayInputStream(payloadCompressor.compress("event.class", eventValue.getBytes("UTF-8")));
+
+    when(request.getHeader(TaskQueueAsyncTaskScheduler.EVENT_HEADER)).thenReturn("event.class");
+    when(request.getHeader(TaskQueueAsyncTaskScheduler.CODEC_HEADER)).thenReturn("deflate");
+    when(request.getInputStream()).thenReturn(new ServletInputStream() {
+      @Override
+      public int read() throws IOException {
+        return body.read();
+      }
+    });
+
+    servlet.doPost(request, response);
+
+    ArgumentCaptor<InputStream> payload = ArgumentCaptor.forClass(InputStream.class);
+    verify(eventDisplatcher).dispatchEvent(eq("event.class"), payload.capture(), (String) isNull(), (String) isNull());
+    assertThat(new String(ByteStreams.toByteArray(payload.getValue()), "UTF-8"), is(equalTo(eventValue)));
+  }
+
   @Test
   public void dispatchingEventListener() throws Exception {
     String eventValue = "event as json";
@@ -95,6 +191,79 @@ public class TaskQueueAsyncTaskExecutorServletTest {
     verifyZeroInteractions(eventDisplatcher);
   }
 
+  @Test
+  public void dispatchingEventListenerByTypeIds() throws Exception {
+    String eventValue = "event as json";
+
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.EVENT)).thenReturn(TypeRegistry.getId(ActionEvent.class));
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.EVENT_AS_JSON)).thenReturn(URLEncoder.encode(eventValue, "UTF-8"));
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.LISTENER)).thenReturn(TypeRegistry.getId(IndexingListener.class));
+
+    servlet.doGet(request, response);
+
+    verify(eventDisplatcher).dispatchEventListener(ActionEvent.class.getName(), eventValue, IndexingListener.class.getSimpleName());
+  }
+
+  @Test
+  public void dispatchingAsyncTaskByTypeId() throws Exception {
+
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.TASK_QUEUE)).thenReturn(TypeRegistry.getId(DefaultTaskQueueAsyncTask.class));
+    HashMap<String, String[]> params = Maps.newHashMap();
+    when(request.getParameterMap()).thenReturn(params);
+
+    servlet.doGet(request, response);
+
+    verify(routingTaskDispatcher).dispatchAsyncTask(params, DefaultTaskQueueAsyncTask.class.getName());
+  }
+
+  @Test
+  public void recordSchedulingLagSinceTheEtaOfDelayedTask() throws Exception {
+    long now = System.currentTimeMillis();
+
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.TASK_QUEUE)).thenReturn(TypeRegistry.getId(DefaultTaskQueueAsyncTask.class));
+    when(request.getParameterMap()).thenReturn(Maps.<String, String[]>newHashMap());
+    when(request.getHeader(TaskQueueAsyncTaskScheduler.ENQUEUED_AT_HEADER)).thenReturn(String.valueOf(now - 60000));
+    when(request.getHeader(TaskQueueAsyncTaskScheduler.ETA_HEADER)).thenReturn(String.valueOf(now - 3000));
+    when(request.getHeader(TaskQueueAsyncTaskExecutorServlet.QUEUE_NAME_HEADER)).thenReturn("mail");
+    when(request.getHeader(TaskQueueAsyncTaskExecutorServlet.RETRY_COUNT_HEADER)).thenReturn("2");
+    when(request.getHeader(TaskQueueAsyncTaskExecutorServlet.EXECUTION_COUNT_HEADER)).thenReturn("1");
+
+    servlet.doPost(request, response);
+
+    ArgumentCaptor<Long> lag = ArgumentCaptor.forClass(Long.class);
+    verify(metricsRecorder).recordSchedulingLag(eq("mail"), eq(DefaultTaskQueueAsyncTask.class), lag.capture(), eq(2), eq(1));
+    assertThat(lag.getValue(), is(greaterThanOrEqualTo(3000L)));
+    assertThat(lag.getValue(), is(lessThan(60000L)));
+  }
+
+  @Test
+  public void recordSchedulingLagOfEventFromRequestBody() throws Exception {
+    final ByteArrayInputStream body = new ByteArrayInputStream("event as json".getBytes("UTF-8"));
+
+    when(request.getHeader(TaskQueueAsyncTaskScheduler.EVENT_HEADER)).thenReturn(TypeRegistry.getId(ActionEvent.class));
+    when(request.getHeader(TaskQueueAsyncTaskScheduler.ENQUEUED_AT_HEADER)).thenReturn(String.valueOf(System.currentTimeMillis()));
+    when(request.getInputStream()).thenReturn(new ServletInputStream() {
+      @Override
+      public int read() throws IOException {
+        return body.read();
+      }
+    });
+
+    servlet.doPost(request, response);
+
+    verify(metricsRecorder).recordSchedulingLag(eq("default"), eq(ActionEvent.class), anyLong(), eq(0), eq(0));
+  }
+
+  @Test
+  public void tasksWithoutEnqueueTimeAreNotRecorded() throws Exception {
+    when(request.getParameter(TaskQueueAsyncTaskScheduler.TASK_QUEUE)).thenReturn("task.class");
+    when(request.getParameterMap()).thenReturn(Maps.<String, String[]>newHashMap());
+
+    servlet.doGet(request, response);
+
+    verifyZeroInteractions(metricsRecorder);
+  }
+
   @Test
   public void noAsyncActionPassed() throws Exception {
 
@@ -2,16 +2,20 @@ package com.clouway.asynctaskscheduler.gae;
 
 import com.clouway.asynctaskscheduler.common.ActionEvent;
 import com.clouway.asynctaskscheduler.common.ArgumentCaptor;
+import com.clouway.asynctaskscheduler.common.CustomTaskQueueAsyncTask;
+import com.clouway.asynctaskscheduler.common.DefaultTaskQueueAsyncTask;
 import com.clouway.asynctaskscheduler.spi.AsyncTaskOptions;
 import com.clouway.asynctaskscheduler.spi.HeadersProvider;
 import com.clouway.asynctaskscheduler.util.FakeCommonParamBinder;
 import com.clouway.asynctaskscheduler.util.FakeRequestScopeModule;
 import com.clouway.asynctaskscheduler.util.SimpleScope;
+import com.google.appengine.api.taskqueue.QueueConstants;
 import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.taskqueue.TransientFailureException;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.common.util.concurrent.Futures;
 import com.google.gson.Gson;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
@@ -29,9 +33,16 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TaskQueueAsyncTaskSchedulerErrorHandlingTest {
 
@@ -61,7 +72,7 @@ public class TaskQueueAsyncTaskSchedulerErrorHandlingTest {
   @Mock
   private HeadersProvider headersProvider;
 
-  private final ArgumentCaptor<TaskOptions> task = new ArgumentCaptor<TaskOptions>();
+  private final ArgumentCaptor<List<TaskOptions>> tasks = new ArgumentCaptor<List<TaskOptions>>();
   private final ArgumentCaptor<String> queueName = new ArgumentCaptor<String>();
   private final ArgumentCaptor<Boolean> transactionless = new ArgumentCaptor<Boolean>();
 
@@ -107,7 +118,7 @@ public class TaskQueueAsyncTaskSchedulerErrorHandlingTest {
       oneOf(headersProvider).get();
       will(returnValue(new HashMap<String, String>()));
 
-      oneOf(taskApplier).apply(with(task), with(queueName), with(transactionless));
+      oneOf(taskApplier).applyAll(with(tasks), with(queueName), with(transactionless));
       will(throwException(new TaskAlreadyExistsException("")));
     }});
 
@@ -123,11 +134,11 @@ public class TaskQueueAsyncTaskSchedulerErrorHandlingTest {
       oneOf(headersProvider).get();
       will(returnValue(new HashMap<String, String>()));
 
-      oneOf(taskApplier).apply(with(task), with(queueName), with(transactionless));
+      oneOf(taskApplier).applyAll(with(tasks), with(queueName), with(transactionless));
       will(throwException(new TransientFailureException("")));
 
       //second call
-      oneOf(taskApplier).apply(with(task), with(queueName), with(transactionless));
+      oneOf(taskApplier).applyAll(with(tasks), with(queueName), with(transactionless));
     }});
 
     taskScheduler.add(AsyncTaskOptions.event(new ActionEvent("test message"))).now();
@@ -136,6 +147,20 @@ public class TaskQueueAsyncTaskSchedulerErrorHandlingTest {
     assertThat(transactionless.getValue(), CoreMatchers.is(CoreMatchers.equalTo(false)));
   }
 
+  @Test(expected = TransientFailureException.class)
+  public void giveUpWhenRetryPolicyDoesNotAllowMoreAttempts() throws Exception {
+
+    context.checking(new Expectations() {{
+      oneOf(headersProvider).get();
+      will(returnValue(new HashMap<String, String>()));
+
+      exactly(ExponentialBackoffRetryPolicy.DEFAULT_MAX_ATTEMPTS).of(taskApplier).applyAll(with(tasks), with(queueName), with(transactionless));
+      will(throwException(new TransientFailureException("")));
+    }});
+
+    taskScheduler.add(AsyncTaskOptions.event(new ActionEvent("test message"))).now();
+  }
+
   @Test
   public void addProvidedHeadersToTaskOptions() throws Exception {
 
@@ -151,9 +176,156 @@ public class TaskQueueAsyncTaskSchedulerErrorHandlingTest {
       oneOf(headersProvider).get();
       will(returnValue(expectedHeaders));
 
-      oneOf(taskApplier).apply(with(expectedTaskOptions), with(queueName), with(transactionless));
+      oneOf(taskApplier).applyAll(with(tasks), with(queueName), with(transactionless));
     }});
 
     taskScheduler.add(AsyncTaskOptions.event(new ActionEvent("test message"))).now();
+
+    // the enqueue time differs for each task
+    TaskOptions task = tasks.getValue().get(0).removeHeader(TaskQueueAsyncTaskScheduler.ENQUEUED_AT_HEADER);
+    assertThat(task, CoreMatchers.is(CoreMatchers.equalTo(expectedTaskOptions)));
+  }
+
+  @Test
+  public void remainingBatchesAreAddedWhenTaskAlreadyExists() throws Exception {
+    final int taskCount = QueueConstants.maxTasksPerAdd() + 1;
+
+    context.checking(new Expectations() {{
+      exactly(taskCount).of(headersProvider).get();
+      will(returnValue(new HashMap<String, String>()));
+
+      oneOf(taskApplier).applyAll(with(tasks), with(queueName), with(transactionless));
+      will(throwException(new TaskAlreadyExistsException("")));
+
+      oneOf(taskApplier).applyAll(with(tasks), with(queueName), with(transactionless));
+    }});
+
+    for (int i = 0; i < taskCount; i++) {
+      taskScheduler.add(AsyncTaskOptions.task(DefaultTaskQueueAsyncTask.class).named("task-" + i));
+    }
+    taskScheduler.now();
+
+    assertThat(tasks.getValue().size(), CoreMatchers.is(CoreMatchers.equalTo(1)));
+  }
+
+  @Test
+  public void tasksAreGroupedByQueueAndTransactionality() throws Exception {
+    final ArgumentCaptor<List<TaskOptions>> transactionalTasks = new ArgumentCaptor<List<TaskOptions>>();
+    final ArgumentCaptor<List<TaskOptions>> transactionlessTasks = new ArgumentCaptor<List<TaskOptions>>();
+
+    context.checking(new Expectations() {{
+      exactly(4).of(headersProvider).get();
+      will(returnValue(new HashMap<String, String>()));
+
+      oneOf(taskApplier).applyAll(with(transactionalTasks), with(equal("")), with(equal(false)));
+      oneOf(taskApplier).applyAll(with(transactionlessTasks), with(equal("")), with(equal(true)));
+      oneOf(taskApplier).applyAll(with(tasks), with(equal(CustomTaskQueueAsyncTask.CUSTOM_TASK_QUEUE_NAME)), with(equal(false)));
+    }});
+
+    taskScheduler.add(AsyncTaskOptions.task(DefaultTaskQueueAsyncTask.class))
+            .add(AsyncTaskOptions.task(DefaultTaskQueueAsyncTask.class).transactionless())
+            .add(AsyncTaskOptions.task(CustomTaskQueueAsyncTask.class))
+            .add(AsyncTaskOptions.event(new ActionEvent("test message")))
+            .now();
+
+    assertThat(transactionalTasks.getValue().size(), CoreMatchers.is(CoreMatchers.equalTo(2)));
+    assertThat(transactionlessTasks.getValue().size(), CoreMatchers.is(CoreMatchers.equalTo(1)));
+    assertThat(tasks.getValue().size(), CoreMatchers.is(CoreMatchers.equalTo(1)));
+  }
+
+  @Test
+  public void retryOnTransientFailureOfAsyncAdd() throws Exception {
+
+    context.checking(new Expectations() {{
+      oneOf(headersProvider).get();
+      will(returnValue(new HashMap<String, String>()));
+
+      oneOf(taskApplier).applyAllAsync(with(tasks), with(queueName), with(transactionless));
+      will(returnValue(Futures.immediateFailedFuture(new TransientFailureException(""))));
+
+      //second call
+      oneOf(taskApplier).applyAll(with(tasks), with(queueName), with(transactionless));
+    }});
+
+    taskScheduler.add(AsyncTaskOptions.event(new ActionEvent("test message"))).nowAsync().get();
+  }
+
+  @Test
+  public void batchesCompletedToLimitTheAddsInFlightAreRetriedOnlyOnce() throws Exception {
+    final int batchSize = QueueConstants.maxTasksPerAdd();
+    final int taskCount = (TaskQueueAsyncTaskScheduler.MAX_IN_FLIGHT_ADDS + 1) * batchSize;
+
+    context.checking(new Expectations() {{
+      exactly(taskCount).of(headersProvider).get();
+      will(returnValue(new HashMap<String, String>()));
+
+      oneOf(taskApplier).applyAllAsync(with(tasks), with(queueName), with(transactionless));
+      will(returnValue(Futures.immediateFailedFuture(new TransientFailureException(""))));
+
+      exactly(TaskQueueAsyncTaskScheduler.MAX_IN_FLIGHT_ADDS).of(taskApplier).applyAllAsync(with(tasks), with(queueName), with(transactionless));
+      will(returnValue(Futures.immediateFuture(Collections.emptyList())));
+
+      //the retry of the first batch
+      oneOf(taskApplier).applyAll(with(tasks), with(queueName), with(transactionless));
+    }});
+
+    for (int i = 0; i < taskCount; i++) {
+      taskScheduler.add(AsyncTaskOptions.task(DefaultTaskQueueAsyncTask.class));
+    }
+    taskScheduler.nowAsync().get();
+
+    assertThat(tasks.getValue().size(), CoreMatchers.is(CoreMatchers.equalTo(batchSize)));
+  }
+
+  @Test
+  public void allBatchesAreRetriedWhenAnotherBatchFails() throws Exception {
+    final int batchSize = QueueConstants.maxTasksPerAdd();
+    final int taskCount = (TaskQueueAsyncTaskScheduler.MAX_IN_FLIGHT_ADDS + 1) * batchSize;
+
+    context.checking(new Expectations() {{
+      exactly(taskCount).of(headersProvider).get();
+      will(returnValue(new HashMap<String, String>()));
+
+      oneOf(taskApplier).applyAllAsync(with(tasks), with(queueName), with(transactionless));
+      will(returnValue(Futures.immediateFailedFuture(new IllegalStateException("queue is unknown"))));
+
+      exactly(TaskQueueAsyncTaskScheduler.MAX_IN_FLIGHT_ADDS - 1).of(taskApplier).applyAllAsync(with(tasks), with(queueName), with(transactionless));
+      will(returnValue(Futures.immediateFuture(Collections.emptyList())));
+
+      oneOf(taskApplier).applyAllAsync(with(tasks), with(queueName), with(transactionless));
+      will(returnValue(Futures.immediateFailedFuture(new TransientFailureException(""))));
+
+      //the retry of the last batch
+      oneOf(taskApplier).applyAll(with(tasks), with(queueName), with(transactionless));
+    }});
+
+    for (int i = 0; i < taskCount; i++) {
+      taskScheduler.add(AsyncTaskOptions.task(DefaultTaskQueueAsyncTask.class));
+    }
+    Future<Void> future = taskScheduler.nowAsync();
+
+    assertFalse(future.isDone());
+
+    try {
+      future.get();
+      fail("the failure of the first batch should be re-thrown");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause().getMessage(), CoreMatchers.is(CoreMatchers.equalTo("queue is unknown")));
+    }
+    assertTrue(future.isDone());
+  }
+
+  @Test(expected = ExecutionException.class)
+  public void asyncAddFailure() throws Exception {
+
+    context.checking(new Expectations() {{
+      oneOf(headersProvider).get();
+      will(returnValue(new HashMap<String, String>()));
+
+      oneOf(taskApplier).applyAllAsync(with(tasks), with(queueName), with(transactionless));
+      will(returnValue(Futures.immediateFailedFuture(new IllegalStateException("queue is unknown"))));
+    }});
+
+    taskScheduler.add(AsyncTaskOptions.event(new ActionEvent("test message"))).nowAsync().get();
   }
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ package com.clouway.asynctaskscheduler.gae;
 import com.clouway.asynctaskscheduler.common.*;
 import com.clouway.asynctaskscheduler.spi.AsyncTask;
 import com.clouway.asynctaskscheduler.spi.AsyncTaskOptions;
+import com.clouway.asynctaskscheduler.spi.EventTransport;
 import com.clouway.asynctaskscheduler.util.FakeCommonParamBinder;
 import com.clouway.asynctaskscheduler.util.FakeRequestScopeModule;
 import com.clouway.asynctaskscheduler.util.SampleTestDateFormat;
@@ -10,6 +11,7 @@ import com.clouway.asynctaskscheduler.util.SimpleScope;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueConstants;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
 import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
@@ -27,9 +29,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import static com.clouway.asynctaskscheduler.spi.AsyncTaskOptions.task;
 import static com.clouway.asynctaskscheduler.util.DateUtil.newDateAndTime;
@@ -255,6 +259,44 @@ public class TaskQueueAsyncTaskSchedulerTest {
     assertParams(qsi.getTaskInfo().get(0).getBody(), TaskQueueAsyncTaskScheduler.EVENT_AS_JSON, encode(gson.toJson(event)));
   }
 
+  @Test
+  public void alreadySerializedEventPayloadIsSentAsItIs() throws Exception {
+    ActionEvent event = new ActionEvent("test message");
+    String serializedEvent = "{\"message\":\"serialized message\"}";
+
+    taskScheduler.add(AsyncTaskOptions.eventWithListener(event, TestEventListener.class).eventPayload(serializedEvent.getBytes("UTF-8")))
+            .now();
+
+    QueueStateInfo qsi = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
+    assertParams(qsi.getTaskInfo().get(0).getBody(), TaskQueueAsyncTaskScheduler.EVENT_AS_JSON, encode(serializedEvent));
+  }
+
+  @Test
+  public void eventIsSerializedOnceForAllOfItsTasks() throws Exception {
+    Injector injector = Guice.createInjector(Modules.override(new BackgroundTasksModule() {
+      @Override
+      protected Class<? extends EventTransport> getEventTransport() {
+        return CountingEventTransport.class;
+      }
+    }).with(new FakeRequestScopeModule(fakeRequestScope), new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(CommonParamBinder.class).toInstance(fakeBinder);
+      }
+    }));
+    TaskQueueAsyncTaskScheduler taskScheduler = injector.getInstance(TaskQueueAsyncTaskScheduler.class);
+    CountingEventTransport eventTransport = (CountingEventTransport) injector.getInstance(EventTransport.class);
+
+    ActionEvent event = new ActionEvent("test message");
+    taskScheduler.add(AsyncTaskOptions.eventWithHandler(event, ActionEventHandler.class))
+            .add(AsyncTaskOptions.eventWithListener(event, TestEventListener.class))
+            .add(AsyncTaskOptions.event(new ActionEvent("other message")))
+            .now();
+
+    assertAddedTasks(3);
+    assertEquals(2, eventTransport.serializations);
+  }
+
   private String encode(String value) throws UnsupportedEncodingException {
     return URLEncoder.encode(value, "UTF-8");
   }
@@ -338,6 +380,30 @@ public class TaskQueueAsyncTaskSchedulerTest {
 
   }
 
+  @Test
+  public void addsMoreTasksThanTheBatchLimitToTheSameQueue() throws Exception {
+    int taskCount = QueueConstants.maxTasksPerAdd() * 2 + 1;
+
+    for (int i = 0; i < taskCount; i++) {
+      taskScheduler.add(task(DefaultTaskQueueAsyncTask.class).transactionless());
+    }
+    taskScheduler.now();
+
+    assertAddedTasks(taskCount);
+  }
+
+  @Test
+  public void addTasksAsynchronouslyInToDifferentTaskQueues() throws Exception {
+    Future<Void> future = taskScheduler.add(task(DefaultTaskQueueAsyncTask.class).transactionless())
+            .add(task(CustomTaskQueueAsyncTask.class).transactionless())
+            .nowAsync();
+
+    future.get();
+
+    assertAddedTasks(1);
+    assertEquals(1, getQueueStateInfo(CustomTaskQueueAsyncTask.CUSTOM_TASK_QUEUE_NAME).getTaskInfo().size());
+  }
+
   private void assertNotContainsParams(String body, String key) throws UnsupportedEncodingException {
     Map<String, String> params = TaskQueueParamParser.parse(body);
     assertFalse(params.containsKey(key));
@@ -358,4 +424,19 @@ public class TaskQueueAsyncTaskSchedulerTest {
     Map<String, String> params = TaskQueueParamParser.parse(taskQueueBody);
     assertEquals(params.get(TaskQueueAsyncTaskScheduler.TASK_QUEUE), asyncTaskClass.getName());
   }
+
+  static class CountingEventTransport extends GsonEventTransport {
+    private int serializations;
+
+    @Inject
+    CountingEventTransport(Gson gson) {
+      super(gson);
+    }
+
+    @Override
+    public <T> void out(Class<? extends T> eventClass, T event, OutputStream outputStream) {
+      serializations++;
+      super.out(eventClass, event, outputStream);
+    }
+  }
 }
@@ -1,11 +1,16 @@
 package com.clouway.asynctaskscheduler.gae;
 
 import com.clouway.asynctaskscheduler.common.ActionEvent;
+import com.clouway.asynctaskscheduler.common.ActionEventHandler;
 import com.clouway.asynctaskscheduler.common.CustomTaskQueueAsyncEvent;
 import com.clouway.asynctaskscheduler.common.DefaultActionEvent;
 import com.clouway.asynctaskscheduler.common.TaskQueueParamParser;
 import com.clouway.asynctaskscheduler.spi.AsyncEvent;
 import com.clouway.asynctaskscheduler.spi.AsyncEventBus;
+import com.clouway.asynctaskscheduler.spi.AsyncTaskOptions;
+import com.clouway.asynctaskscheduler.spi.AsyncTaskScheduler;
+import com.clouway.asynctaskscheduler.spi.EventTransport;
+import com.clouway.asynctaskscheduler.spi.PayloadStore;
 import com.clouway.asynctaskscheduler.util.FakeRequestScopeModule;
 import com.clouway.asynctaskscheduler.util.SimpleScope;
 import com.google.appengine.api.datastore.DatastoreService;
@@ -16,14 +21,23 @@ import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
 import com.google.appengine.api.taskqueue.dev.QueueStateInfo;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.common.base.Strings;
+import com.google.common.io.BaseEncoding;
 import com.google.gson.Gson;
+import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import com.google.inject.Singleton;
 import com.google.inject.util.Modules;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
@@ -35,7 +49,11 @@ import static junit.framework.Assert.assertEquals;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 /**
  * @author Mihail Lesikov (mlesikov@gmail.com)
@@ -97,6 +115,17 @@ public class TaskQueueEventBusTest {
     assertTrue(defaultQueueStateInfo.getTaskInfo().get(0).getEtaMillis() - start.getTime() >= 1000);
   }
 
+  @Test
+  public void delayedTasksAreStampedWithTheirEnqueueTimeAndEta() throws Exception {
+    long start = System.currentTimeMillis();
+    eventBus.fireEvent(new ActionEvent("test"), 1000l);
+
+    QueueStateInfo.TaskStateInfo task = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName()).getTaskInfo().get(0);
+    long enqueuedAt = Long.parseLong(getHeader(task, TaskQueueAsyncTaskScheduler.ENQUEUED_AT_HEADER));
+    assertTrue(enqueuedAt >= start);
+    assertEquals(enqueuedAt + 1000, Long.parseLong(getHeader(task, TaskQueueAsyncTaskScheduler.ETA_HEADER)));
+  }
+
   @Test
   public void shouldAddTaskInToDifferentTaskQueue() throws Exception {
 
@@ -201,6 +230,17 @@ public class TaskQueueEventBusTest {
     assertAddedTasks(2);
   }
 
+  @Test
+  public void asyncEventsAreAddedWhenPendingAddsOfTheRequestAreAwaited() {
+
+    eventBus.fireTransactionLessEventAsync(new ActionEvent("first"));
+    eventBus.fireTransactionLessEventAsync(new ActionEvent("second"));
+
+    injector.getInstance(PendingTaskAdds.class).awaitAll();
+
+    assertAddedTasks(2);
+  }
+
   private void assertAddedTasks(int expectedTaskCount) {
     QueueStateInfo qsi = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
     assertEquals(expectedTaskCount, qsi.getTaskInfo().size());
@@ -238,6 +278,157 @@ public class TaskQueueEventBusTest {
 
   }
 
+  @Test
+  public void eventPayloadsAboveTheThresholdAreCompressed() throws Exception {
+    Injector injector = Guice.createInjector(Modules.override(new BackgroundTasksModule() {
+      @Override
+      protected PayloadCompression getPayloadCompression() {
+        return PayloadCompression.deflate(100);
+      }
+    }).with(new FakeRequestScopeModule(fakeRequestScope)));
+    ActionEvent event = new ActionEvent(Strings.repeat("test ", 50));
+
+    injector.getInstance(AsyncEventBus.class).fireEvent(event);
+
+    QueueStateInfo defaultQueueStateInfo = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
+    Map<String, String> params = TaskQueueParamParser.parse(defaultQueueStateInfo.getTaskInfo().get(0).getBody());
+    assertEquals("deflate", params.get(TaskQueueAsyncTaskScheduler.CODEC));
+
+    byte[] compressed = BaseEncoding.base64Url().omitPadding().decode(params.get(TaskQueueAsyncTaskScheduler.EVENT_AS_JSON));
+    byte[] payload = injector.getInstance(PayloadCompressor.class).decompress(event.getClass().getName(), "deflate", compressed);
+    assertEquals(gson.toJson(event), new String(payload, "UTF-8"));
+  }
+
+  @Test
+  public void eventPayloadsWhichDoNotFitInTheTaskAreStored() throws Exception {
+    Injector injector = Guice.createInjector(Modules.override(new BackgroundTasksModule() {
+      @Override
+      protected Class<? extends PayloadStore> getPayloadStore() {
+        return InMemoryPayloadStore.class;
+      }
+    }).with(new FakeRequestScopeModule(fakeRequestScope)));
+    ActionEvent event = new ActionEvent(Strings.repeat("x", TaskQueueAsyncTaskScheduler.MAX_INLINE_PAYLOAD_BYTES));
+
+    injector.getInstance(AsyncEventBus.class).fireEvent(event);
+
+    QueueStateInfo defaultQueueStateInfo = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
+    Map<String, String> params = TaskQueueParamParser.parse(defaultQueueStateInfo.getTaskInfo().get(0).getBody());
+    assertFalse(params.containsKey(TaskQueueAsyncTaskScheduler.EVENT_AS_JSON));
+
+    byte[] payload = injector.getInstance(PayloadStore.class).load(params.get(TaskQueueAsyncTaskScheduler.PAYLOAD_REFERENCE));
+    assertEquals(gson.toJson(event), new String(payload, "UTF-8"));
+  }
+
+  @Test
+  public void eventPayloadsOfManyTasksAreStoredOnce() throws Exception {
+    Injector injector = Guice.createInjector(Modules.override(new BackgroundTasksModule() {
+      @Override
+      protected Class<? extends PayloadStore> getPayloadStore() {
+        return InMemoryPayloadStore.class;
+      }
+    }).with(new FakeRequestScopeModule(fakeRequestScope)));
+    ActionEvent event = new ActionEvent(Strings.repeat("x", TaskQueueAsyncTaskScheduler.MAX_INLINE_PAYLOAD_BYTES));
+
+    injector.getInstance(TaskQueueAsyncTaskScheduler.class).add(AsyncTaskOptions.event(event), AsyncTaskOptions.event(event)).now();
+
+    QueueStateInfo defaultQueueStateInfo = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
+    String reference = TaskQueueParamParser.parse(defaultQueueStateInfo.getTaskInfo().get(0).getBody()).get(TaskQueueAsyncTaskScheduler.PAYLOAD_REFERENCE);
+    assertEquals(reference, TaskQueueParamParser.parse(defaultQueueStateInfo.getTaskInfo().get(1).getBody()).get(TaskQueueAsyncTaskScheduler.PAYLOAD_REFERENCE));
+
+    InMemoryPayloadStore payloadStore = (InMemoryPayloadStore) injector.getInstance(PayloadStore.class);
+    assertEquals(1, payloadStore.size());
+
+    payloadStore.release(reference, "task-1");
+    assertEquals(gson.toJson(event), new String(payloadStore.load(reference), "UTF-8"));
+
+    payloadStore.release(reference, "task-2");
+    assertEquals(0, payloadStore.size());
+  }
+
+  @Test
+  public void eventPayloadsAreStoredByTheSizeWhichIsSent() throws Exception {
+    Injector injector = Guice.createInjector(Modules.override(new BackgroundTasksModule() {
+      @Override
+      protected Class<? extends PayloadStore> getPayloadStore() {
+        return InMemoryPayloadStore.class;
+      }
+    }).with(new FakeRequestScopeModule(fakeRequestScope)));
+    // each of the characters is url encoded in 6 characters, which are sent in 10 characters
+    ActionEvent event = new ActionEvent(Strings.repeat("\u00e9", TaskQueueAsyncTaskScheduler.MAX_INLINE_PAYLOAD_BYTES / 7));
+    assertTrue(encode(gson.toJson(event)).length() < TaskQueueAsyncTaskScheduler.MAX_INLINE_PAYLOAD_BYTES);
+
+    injector.getInstance(AsyncEventBus.class).fireEvent(event);
+
+    QueueStateInfo defaultQueueStateInfo = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
+    Map<String, String> params = TaskQueueParamParser.parse(defaultQueueStateInfo.getTaskInfo().get(0).getBody());
+    assertFalse(params.containsKey(TaskQueueAsyncTaskScheduler.EVENT_AS_JSON));
+
+    byte[] payload = injector.getInstance(PayloadStore.class).load(params.get(TaskQueueAsyncTaskScheduler.PAYLOAD_REFERENCE));
+    assertEquals(gson.toJson(event), new String(payload, "UTF-8"));
+  }
+
+  @Test
+  public void eventsAreSentAsRequestBody() throws Exception {
+    Injector injector = Guice.createInjector(Modules.override(new BackgroundTasksModule() {
+      @Override
+      protected boolean sendEventsAsRequestBody() {
+        return true;
+      }
+    }).with(new FakeRequestScopeModule(fakeRequestScope)));
+    ActionEvent event = new ActionEvent("test % test? & *");
+
+    injector.getInstance(AsyncTaskScheduler.class).add(AsyncTaskOptions.event(event).param("namespace", "test & namespace")).now();
+
+    QueueStateInfo.TaskStateInfo task = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName()).getTaskInfo().get(0);
+    assertEquals(gson.toJson(event), new String(task.getBodyAsBytes(), "UTF-8"));
+    assertEquals(event.getClass().getName(), getHeader(task, TaskQueueAsyncTaskScheduler.EVENT_HEADER));
+    assertEquals("PUT", task.getMethod());
+    assertTrue(task.getUrl().startsWith(TaskQueueAsyncTaskExecutorServlet.URL + "?namespace="));
+  }
+
+  @Test
+  public void binaryEventPayloadsAreDispatchedWithoutLoss() throws Exception {
+    Injector injector = Guice.createInjector(Modules.override(new BackgroundTasksModule() {
+      @Override
+      protected Class<? extends EventTransport> getEventTransport() {
+        return BinaryEventTransport.class;
+      }
+    }).with(new FakeRequestScopeModule(fakeRequestScope), new AbstractModule() {
+      @Override
+      protected void configure() {
+        bind(ActionEventHandler.class).in(Singleton.class);
+      }
+    }));
+    ActionEvent event = new ActionEvent("h\u00e9llo w\u00f6rld");
+
+    injector.getInstance(AsyncTaskScheduler.class).add(AsyncTaskOptions.event(event)).now();
+
+    QueueStateInfo defaultQueueStateInfo = getQueueStateInfo(QueueFactory.getDefaultQueue().getQueueName());
+    final Map<String, String> params = TaskQueueParamParser.parse(defaultQueueStateInfo.getTaskInfo().get(0).getBody());
+    assertEquals("true", params.get(TaskQueueAsyncTaskScheduler.BINARY_PAYLOAD));
+
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getParameter(anyString())).thenAnswer(new Answer<String>() {
+      @Override
+      public String answer(InvocationOnMock invocation) {
+        return params.get((String) invocation.getArguments()[0]);
+      }
+    });
+
+    injector.getInstance(TaskQueueAsyncTaskExecutorServlet.class).doPost(request, mock(HttpServletResponse.class));
+
+    assertEquals("h\u00e9llo w\u00f6rld", injector.getInstance(ActionEventHandler.class).message);
+  }
+
+  private String getHeader(QueueStateInfo.TaskStateInfo task, String name) {
+    for (QueueStateInfo.HeaderWrapper header : task.getHeaders()) {
+      if (header.getKey().equalsIgnoreCase(name)) {
+        return header.getValue();
+      }
+    }
+    return null;
+  }
+
   private void assertEvent(String taskQueueBody, AsyncEvent event) throws UnsupportedEncodingException {
     Map<String, String> params = TaskQueueParamParser.parse(taskQueueBody);
     assertEquals(params.get(TaskQueueAsyncTaskScheduler.EVENT), event.getClass().getName());
@@ -0,0 +1,106 @@
+package com.clouway.asynctaskscheduler.gae;
+
+import com.clouway.asynctaskscheduler.common.ActionEvent;
+import com.clouway.asynctaskscheduler.common.ActionEventHandler;
+import com.clouway.asynctaskscheduler.common.DefaultTaskQueueAsyncTask;
+import com.clouway.asynctaskscheduler.common.IndexingListener;
+import com.clouway.asynctaskscheduler.spi.AsyncEventBusBinder;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class TypeRegistryTest {
+
+  private final Set<Class<?>> types = ImmutableSet.<Class<?>>of(ActionEvent.class, IndexingListener.class);
+
+  @Test
+  public void registeredTypesAreEncodedWithTheirIds() throws Exception {
+    TypeRegistry registry = new TypeRegistry(types, true);
+
+    assertThat(registry.encode(ActionEvent.class), is(equalTo(TypeRegistry.getId(ActionEvent.class))));
+    assertThat(registry.encodeSimpleName(IndexingListener.class), is(equalTo(TypeRegistry.getId(IndexingListener.class))));
+    assertThat(registry.encode(DefaultTaskQueueAsyncTask.class), is(equalTo(DefaultTaskQueueAsyncTask.class.getName())));
+  }
+
+  @Test
+  public void typesAreEncodedWithTheirNamesWhenIdsAreNotEnabled() throws Exception {
+    TypeRegistry registry = new TypeRegistry(types, false);
+
+    assertThat(registry.encode(ActionEvent.class), is(equalTo(ActionEvent.class.getName())));
+    assertThat(registry.encodeSimpleName(IndexingListener.class), is(equalTo(IndexingListener.class.getSimpleName())));
+  }
+
+  @Test
+  public void idsAreDecodedEvenWhenTheyAreNotEnabled() throws Exception {
+    TypeRegistry registry = new TypeRegistry(types, false);
+
+    assertThat(registry.decode(TypeRegistry.getId(ActionEvent.class)), is(equalTo(ActionEvent.class.getName())));
+    assertThat(registry.decodeSimpleName(TypeRegistry.getId(IndexingListener.class)), is(equalTo(IndexingListener.class.getSimpleName())));
+  }
+
+  @Test
+  public void classNamesAreDecodedAsTheyAre() throws Exception {
+    TypeRegistry registry = new TypeRegistry(types, true);
+
+    assertThat(registry.decode(ActionEvent.class.getName()), is(equalTo(ActionEvent.class.getName())));
+    assertThat(registry.decodeSimpleName("IndexingListener"), is(equalTo("IndexingListener")));
+    assertThat(registry.decode("-unknown"), is(equalTo("-unknown")));
+  }
+
+  @Test
+  public void resolveByIdAndByName() throws Exception {
+    TypeRegistry registry = new TypeRegistry(types, true);
+
+    assertThat(registry.resolve(TypeRegistry.getId(ActionEvent.class)), is(equalTo((Object) ActionEvent.class)));
+    assertThat(registry.resolve(DefaultTaskQueueAsyncTask.class.getName()), is(equalTo((Object) DefaultTaskQueueAsyncTask.class)));
+  }
+
+  @Test(expected = ClassNotFoundException.class)
+  public void resolveUnknownClass() throws Exception {
+    new TypeRegistry(types, true).resolve("com.clouway.UnknownClass");
+  }
+
+  @Test
+  public void idsAreShorterThanClassNames() throws Exception {
+    String id = TypeRegistry.getId(ActionEvent.class);
+
+    assertThat(id.startsWith(TypeRegistry.ID_PREFIX), is(true));
+    assertThat(id.length() <= 14, is(true));
+    assertThat(id, is(not(equalTo(TypeRegistry.getId(IndexingListener.class)))));
+  }
+
+  @Test
+  public void listenersEventsAndHandlersAreRegisteredFromTheBindings() throws Exception {
+    Injector injector = Guice.createInjector(new BackgroundTasksModule() {
+      @Override
+      protected boolean encodeTypeIds() {
+        return true;
+      }
+    }, new AbstractModule() {
+      @Override
+      protected void configure() {
+        new AsyncEventBusBinder(binder()).registerListener(IndexingListener.class);
+        bind(DefaultTaskQueueAsyncTask.class);
+      }
+    });
+
+    TypeRegistry registry = injector.getInstance(TypeRegistry.class);
+
+    assertThat(registry.encode(ActionEvent.class), is(equalTo(TypeRegistry.getId(ActionEvent.class))));
+    assertThat(registry.encode(ActionEventHandler.class), is(equalTo(TypeRegistry.getId(ActionEventHandler.class))));
+    assertThat(registry.encode(IndexingListener.class), is(equalTo(TypeRegistry.getId(IndexingListener.class))));
+    assertThat(registry.encode(DefaultTaskQueueAsyncTask.class), is(equalTo(TypeRegistry.getId(DefaultTaskQueueAsyncTask.class))));
+  }
+}
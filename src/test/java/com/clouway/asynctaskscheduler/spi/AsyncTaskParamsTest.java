@@ -1,15 +1,25 @@
 package com.clouway.asynctaskscheduler.spi;
 
 import com.clouway.asynctaskscheduler.util.SampleTestDateFormat;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Guice;
 import org.junit.Test;
 
 import java.text.ParseException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static com.clouway.asynctaskscheduler.spi.AsyncTaskParams.aNewParams;
 import static com.clouway.asynctaskscheduler.util.DateUtil.newDateAndTime;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -104,4 +114,149 @@ public class AsyncTaskParamsTest {
     }
   }
 
+  @Test
+  public void datesAreFormattedAsTheyAreParsed() throws ParseException {
+    AsyncTaskParams params = aNewParams()
+            .addDate("date", newDateAndTime(2012, 1, 12, 10, 20, 0, 0))
+            .addDateAndTime("dateAndTime", newDateAndTime(2012, 1, 12, 10, 20, 0, 0))
+            .build();
+
+    assertThat(params.getString("date"), is(equalTo("12-01-2012")));
+    assertThat(params.getString("dateAndTime"), is(equalTo("12-01-2012 10:20")));
+    assertThat(params.getDate("date"), is(equalTo(newDateAndTime(2012, 1, 12, 0, 0, 0, 0))));
+    assertThat(params.getDateAndTime("dateAndTime"), is(equalTo(newDateAndTime(2012, 1, 12, 10, 20, 0, 0))));
+  }
+
+  @Test
+  public void datesAreParsedLeniently() throws ParseException {
+    assertThat(aNewParams().addString("date", "1-2-2012").build().getDate("date"), is(equalTo(newDateAndTime(2012, 2, 1, 0, 0, 0, 0))));
+    assertThat(aNewParams().addString("date", "1-2-2012 9:05").build().getDateAndTime("date"), is(equalTo(newDateAndTime(2012, 2, 1, 9, 5, 0, 0))));
+  }
+
+  @Test
+  public void formatIsTakenFromTheGivenFormats() {
+    ParamFormats paramFormats = Guice.createInjector().getInstance(ParamFormats.class);
+
+    AsyncTaskParams params = new AsyncTaskParams(ImmutableMap.of("date", new String[]{"10/11/2011"}), paramFormats);
+
+    assertThat(params.format("date", SampleTestDateFormat.class), is(equalTo(newDateAndTime(2011, 11, 10, 0, 0, 0, 0))));
+  }
+
+  enum Priority {
+    LOW, HIGH
+  }
+
+  static class ImportParams {
+    private String customer;
+    private int batchSize;
+    private Long limit;
+    private double ratio;
+    private boolean dryRun;
+    private Priority priority;
+    private Date since;
+    private List<String> tags;
+    private Set<Long> ids;
+    private transient String ignored;
+
+    ImportParams() {
+    }
+  }
+
+  static class NestedParams {
+    private ImportParams nested;
+  }
+
+  @Test
+  public void paramsAreBoundToTheFieldsOfTheObject() {
+    ImportParams params = new ImportParams();
+    params.customer = "John";
+    params.batchSize = 50;
+    params.limit = 1000L;
+    params.ratio = 0.5;
+    params.dryRun = true;
+    params.priority = Priority.HIGH;
+    params.since = newDateAndTime(2012, 1, 12, 10, 20, 35, 123);
+    params.tags = Lists.newArrayList("a,b", "c\\d", "e");
+    params.ids = Sets.newLinkedHashSet(Lists.newArrayList(3L, 1L, 2L));
+    params.ignored = "ignored";
+
+    ImportParams bound = toParams(AsyncTaskOptions.task(AsyncTask.class).params(params)).bind(ImportParams.class);
+
+    assertThat(bound.customer, is(equalTo("John")));
+    assertThat(bound.batchSize, is(equalTo(50)));
+    assertThat(bound.limit, is(equalTo(1000L)));
+    assertThat(bound.ratio, is(equalTo(0.5)));
+    assertThat(bound.dryRun, is(true));
+    assertThat(bound.priority, is(equalTo(Priority.HIGH)));
+    assertThat(bound.since, is(equalTo(params.since)));
+    assertThat(bound.tags, is(equalTo(params.tags)));
+    assertThat(bound.ids, is(equalTo(params.ids)));
+    assertThat(bound.ignored, is(nullValue()));
+  }
+
+  @Test
+  public void paramsAreAddedAsTheyAreAddedOneByOne() {
+    ImportParams params = new ImportParams();
+    params.customer = "John";
+    params.since = newDateAndTime(2012, 1, 12, 10, 20, 0, 0);
+    params.tags = Lists.newArrayList("a", "b");
+
+    Map<String, String> added = AsyncTaskOptions.task(AsyncTask.class).params(params).getParams();
+
+    assertThat(added.get("customer"), is(equalTo("John")));
+    assertThat(added.get("since"), is(equalTo(String.valueOf(params.since.getTime()))));
+    assertThat(added.get("tags"), is(equalTo("a,b")));
+    assertThat(added.get("batchSize"), is(equalTo("0")));
+    assertThat(added.containsKey("limit"), is(false));
+  }
+
+  @Test
+  public void missingParamsKeepTheDefaultValues() {
+    ImportParams bound = aNewParams().addString("customer", "John").build().bind(ImportParams.class);
+
+    assertThat(bound.customer, is(equalTo("John")));
+    assertThat(bound.batchSize, is(equalTo(0)));
+    assertThat(bound.limit, is(nullValue()));
+    assertThat(bound.tags, is(nullValue()));
+  }
+
+  @Test
+  public void datesAreBoundAsTheyAreAddedOneByOne() {
+    ImportParams bound = aNewParams().addString("since", "12-01-2012 10:20").build().bind(ImportParams.class);
+
+    assertThat(bound.since, is(equalTo(newDateAndTime(2012, 1, 12, 10, 20, 0, 0))));
+  }
+
+  @Test
+  public void paramWithManyValuesIsBoundAsCollection() {
+    Map<String, String[]> params = Maps.newHashMap();
+    params.put("ids", new String[]{"1", "2"});
+
+    assertThat(new AsyncTaskParams(params).bind(ImportParams.class).ids, is(equalTo((Set<Long>) Sets.newHashSet(1L, 2L))));
+  }
+
+  @Test
+  public void paramsAreBoundOnlyOnce() {
+    AsyncTaskParams params = aNewParams().addString("customer", "John").build();
+
+    assertThat(params.bind(ImportParams.class), is(sameInstance(params.bind(ImportParams.class))));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidParamIsNotBound() {
+    aNewParams().addString("batchSize", "many").build().bind(ImportParams.class);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void objectsWithUnsupportedFieldsAreNotBound() {
+    aNewParams().build().bind(NestedParams.class);
+  }
+
+  private AsyncTaskParams toParams(AsyncTaskOptions taskOptions) {
+    Map<String, String[]> params = Maps.newHashMap();
+    for (Map.Entry<String, String> param : taskOptions.getParams().entrySet()) {
+      params.put(param.getKey(), new String[]{param.getValue()});
+    }
+    return new AsyncTaskParams(params);
+  }
 }
@@ -0,0 +1,76 @@
+package com.clouway.asynctaskscheduler.spi;
+
+import com.clouway.asynctaskscheduler.util.SampleTestDateFormat;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Mihail Lesikov (mlesikov@gmail.com)
+ */
+public class ParamFormatsTest {
+
+  static class PrefixFormat implements ParamFormat<String> {
+    private final String prefix;
+
+    @Inject
+    PrefixFormat(@Named("prefix") String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public String parse(String value) {
+      return value.substring(prefix.length());
+    }
+
+    @Override
+    public String format(String value) {
+      return prefix + value;
+    }
+  }
+
+  @Test
+  public void formatIsCreatedOnlyOnce() {
+    ParamFormats paramFormats = ParamFormats.defaultFormats();
+
+    assertThat(paramFormats.get(SampleTestDateFormat.class), is(sameInstance(paramFormats.get(SampleTestDateFormat.class))));
+  }
+
+  @Test
+  public void formatsAreCreatedByTheInjector() {
+    ParamFormats paramFormats = Guice.createInjector(new AbstractModule() {
+      @Override
+      protected void configure() {
+        bindConstant().annotatedWith(Names.named("prefix")).to("id-");
+      }
+    }).getInstance(ParamFormats.class);
+
+    ParamFormat<String> format = paramFormats.get(PrefixFormat.class);
+
+    assertThat(format.format("10"), is(equalTo("id-10")));
+    assertThat(format, is(not(sameInstance(paramFormats.get(PrefixFormat.class)))));
+  }
+
+  @Test
+  public void singletonFormatsAreCreatedOnlyOnce() {
+    ParamFormats paramFormats = Guice.createInjector(new AbstractModule() {
+      @Override
+      protected void configure() {
+        bindConstant().annotatedWith(Names.named("prefix")).to("id-");
+        bind(PrefixFormat.class).in(Singleton.class);
+      }
+    }).getInstance(ParamFormats.class);
+
+    assertThat(paramFormats.get(PrefixFormat.class), is(sameInstance(paramFormats.get(PrefixFormat.class))));
+  }
+}